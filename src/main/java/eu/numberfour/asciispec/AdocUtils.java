@@ -659,7 +659,7 @@ public final class AdocUtils {
 		Objects.requireNonNull(pathStr);
 		final Path path = Paths.get(pathStr);
 		if (path.isAbsolute()) {
-			return path.toFile().exists() ? Collections.singletonList(path) : Collections.emptyList();
+			return JobContext.exists(path) ? Collections.singletonList(path) : Collections.emptyList();
 		}
 		final List<Path> matches = new LinkedList<>();
 		final Path docdir = getDocumentBasePath(document);
@@ -668,7 +668,7 @@ public final class AdocUtils {
 											// parents up to root
 		while (dir != null && (returnAllMatches || matches.isEmpty())) {
 			final Path candidate = dir.resolve(path);
-			if (candidate.toFile().exists()) {
+			if (JobContext.exists(candidate)) {
 				matches.add(candidate);
 			}
 			dir = dir.getParent();
@@ -0,0 +1,511 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content addressed cache of conversion results that outlives the process,
+ * e.g. to share math renders between the worker processes of one build or
+ * between the builds of several CI agents. In contrast to the
+ * {@link ProjectSession}, values are not validated by stamps: the key of a
+ * value is a hash of everything the value depends on, i.e. the contents of the
+ * input files and not their paths or modification times. Hence a value never
+ * becomes stale and entries can be shared by all processes and builds that
+ * use the same cache.
+ * <p>
+ * The values are kept by a {@link Backend}: a {@link DirectoryBackend} stores
+ * them as files on the local disk, an {@link HttpBackend} on a server that
+ * supports GET and PUT, e.g. a WebDAV enabled web server shared by the build
+ * agents. Errors of the backend are reported as warnings and the value is
+ * computed instead.
+ * <p>
+ * A shared cache is not necessarily trusted, so values are stored in plain
+ * data formats (see {@link Codec}) rather than with Java serialization.
+ * <p>
+ * The cache is disabled unless a backend is set with
+ * {@link #setBackend(Backend)} or {@link #setLocation(String)}.
+ */
+public final class BuildCache {
+
+	/**
+	 * Stores the values of the build cache. Values are written once and never
+	 * change, so a backend need not handle concurrent writes of the same key
+	 * other than by keeping one of the values.
+	 */
+	public interface Backend {
+
+		/**
+		 * Returns the value of the given kind stored under the given key, or
+		 * <code>null</code> if there is none.
+		 */
+		byte[] read(String kind, String key) throws IOException;
+
+		/**
+		 * Stores the value of the given kind under the given key.
+		 */
+		void write(String kind, String key, byte[] value) throws IOException;
+
+		/**
+		 * Returns the location of this backend as accepted by
+		 * {@link BuildCache#setLocation(String)}.
+		 */
+		String getLocation();
+	}
+
+	/**
+	 * A backend that stores the values as files named after their keys below a
+	 * directory per kind of value. A value is written to a temporary file
+	 * first and moved into place, so concurrent readers and writers, e.g.
+	 * several worker processes, never see partial values.
+	 */
+	public static final class DirectoryBackend implements Backend {
+		private final Path directory;
+
+		/**
+		 * Creates a backend for the given directory. The directory is created
+		 * when the first value is stored.
+		 */
+		public DirectoryBackend(Path directory) {
+			this.directory = directory.toAbsolutePath();
+		}
+
+		@Override
+		public byte[] read(String kind, String key) throws IOException {
+			try {
+				return Files.readAllBytes(getFile(kind, key));
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public void write(String kind, String key, byte[] value) throws IOException {
+			Path file = getFile(kind, key);
+			Files.createDirectories(file.getParent());
+			Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+			Files.write(temp, value);
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		private Path getFile(String kind, String key) {
+			return directory.resolve(kind).resolve(key.substring(0, 2)).resolve(key);
+		}
+
+		@Override
+		public String getLocation() {
+			return directory.toString();
+		}
+	}
+
+	/**
+	 * Writes the values of a type to the build cache and reads them back.
+	 * Reading a value can only create the objects the codec creates itself,
+	 * so a tampered entry cannot instantiate arbitrary classes. Codecs check
+	 * each count they read with {@link BuildCache#readCount(DataInputStream)}
+	 * before they allocate anything for it, so a tampered entry cannot
+	 * exhaust the memory either.
+	 */
+	public interface Codec<T> {
+
+		/**
+		 * Writes the given value.
+		 */
+		void write(DataOutputStream out, T value) throws IOException;
+
+		/**
+		 * Reads a value written by {@link #write(DataOutputStream, Object)}.
+		 *
+		 * @throws IOException
+		 *             if the data is invalid
+		 */
+		T read(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * A backend that stores the values on an HTTP server at
+	 * <code>&lt;base URL&gt;/&lt;kind&gt;/&lt;key&gt;</code>. A value is read
+	 * with GET, where 404 means that it is not cached, and stored with PUT.
+	 * Since a build must not wait for an unreachable server for every value,
+	 * reading is disabled after a GET could not connect or timed out, and
+	 * writing after a PUT could not connect or timed out. Other status codes
+	 * fail the single request only, so e.g. a server that refuses PUT can
+	 * still be read from.
+	 */
+	public static final class HttpBackend implements Backend {
+		private static final int CONNECT_TIMEOUT = 2000;
+		private static final int READ_TIMEOUT = 10000;
+
+		private final String baseUrl;
+		private volatile boolean readFailed = false;
+		private volatile boolean writeFailed = false;
+
+		/**
+		 * Creates a backend for the given base URL.
+		 */
+		public HttpBackend(String baseUrl) {
+			this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+		}
+
+		@Override
+		public byte[] read(String kind, String key) throws IOException {
+			if (readFailed)
+				return null;
+			HttpURLConnection connection = open(kind, key, "GET");
+			try {
+				int code;
+				ByteArrayOutputStream result = new ByteArrayOutputStream();
+				try {
+					code = connection.getResponseCode();
+					if (code == HttpURLConnection.HTTP_OK) {
+						try (InputStream is = connection.getInputStream()) {
+							byte[] buffer = new byte[8192];
+							int read;
+							while ((read = is.read(buffer)) >= 0)
+								result.write(buffer, 0, read);
+						}
+					}
+				} catch (IOException e) {
+					// the server could not be reached or did not answer in time
+					readFailed = true;
+					throw e;
+				}
+				if (code == HttpURLConnection.HTTP_NOT_FOUND)
+					return null;
+				if (code != HttpURLConnection.HTTP_OK)
+					throw new IOException("GET " + connection.getURL() + " returned " + code);
+				return result.toByteArray();
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		@Override
+		public void write(String kind, String key, byte[] value) throws IOException {
+			if (writeFailed)
+				return;
+			HttpURLConnection connection = open(kind, key, "PUT");
+			try {
+				int code;
+				try {
+					connection.setDoOutput(true);
+					connection.setFixedLengthStreamingMode(value.length);
+					connection.setRequestProperty("Content-Type", "application/octet-stream");
+					try (OutputStream os = connection.getOutputStream()) {
+						os.write(value);
+					}
+					code = connection.getResponseCode();
+				} catch (IOException e) {
+					// the server could not be reached or did not answer in time
+					writeFailed = true;
+					throw e;
+				}
+				if (code / 100 != 2)
+					throw new IOException("PUT " + connection.getURL() + " returned " + code);
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		private HttpURLConnection open(String kind, String key, String method) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/" + kind + "/" + key)
+					.openConnection();
+			connection.setRequestMethod(method);
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setUseCaches(false);
+			return connection;
+		}
+
+		@Override
+		public String getLocation() {
+			return baseUrl;
+		}
+	}
+
+	/**
+	 * Part of every key. Must be changed whenever the format of cached values
+	 * changes.
+	 */
+	private static final String VERSION = "2";
+
+	private static volatile Backend backend;
+	private static final AtomicLong HITS = new AtomicLong();
+	private static final AtomicLong MISSES = new AtomicLong();
+
+	private BuildCache() {
+	}
+
+	/**
+	 * Sets the backend, or disables the cache if <code>null</code>.
+	 */
+	public static void setBackend(Backend backend) {
+		BuildCache.backend = backend;
+	}
+
+	/**
+	 * Returns the backend, or <code>null</code> if the cache is disabled.
+	 */
+	public static Backend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Sets the backend for the given location: an {@link HttpBackend} for an
+	 * http or https URL, a {@link DirectoryBackend} for anything else.
+	 * Disables the cache if <code>null</code>.
+	 */
+	public static void setLocation(String location) {
+		if (location == null)
+			setBackend(null);
+		else if (location.startsWith("http://") || location.startsWith("https://"))
+			setBackend(new HttpBackend(location));
+		else
+			setBackend(new DirectoryBackend(Paths.get(location)));
+	}
+
+	/**
+	 * Returns the location of the backend, or <code>null</code> if the cache
+	 * is disabled.
+	 */
+	public static String getLocation() {
+		Backend current = backend;
+		return current == null ? null : current.getLocation();
+	}
+
+	/**
+	 * Returns <code>true</code> iff the cache is enabled.
+	 */
+	public static boolean isEnabled() {
+		return backend != null;
+	}
+
+	/**
+	 * Returns the number of values found in the cache.
+	 */
+	public static long getHits() {
+		return HITS.get();
+	}
+
+	/**
+	 * Returns the number of values that were not found in the cache.
+	 */
+	public static long getMisses() {
+		return MISSES.get();
+	}
+
+	/**
+	 * Returns the value of the given kind stored under the given key. If the
+	 * cache is disabled or does not contain the value, the value is loaded
+	 * and stored.
+	 *
+	 * @param kind
+	 *            the kind of value, e.g. <code>math</code>; used as directory
+	 *            name
+	 * @param key
+	 *            the key as returned by {@link #key(Object...)}
+	 */
+	public static String get(String kind, String key, ProjectSession.Loader<String> loader)
+			throws IOException, ParseException {
+		Backend current = backend;
+		if (current == null)
+			return loader.load();
+
+		byte[] bytes = read(current, kind, key);
+		if (bytes != null)
+			return new String(bytes, StandardCharsets.UTF_8);
+
+		String value = loader.load();
+		write(current, kind, key, value.getBytes(StandardCharsets.UTF_8));
+		return value;
+	}
+
+	/**
+	 * Returns the result of parsing the given file with the given loader. The
+	 * result is stored with the given codec under the hash of the file, so it
+	 * is only parsed by the first build that sees this content. Invalid
+	 * entries are reported as warnings and the file is parsed instead. If the
+	 * cache is disabled, the file is simply parsed.
+	 *
+	 * @param kind
+	 *            the kind of value, e.g. <code>source-index</code>; must be
+	 *            changed when the format of the codec changes
+	 * @param file
+	 *            the parsed file
+	 */
+	public static <T> T getParsed(String kind, Path file, Codec<T> codec, ProjectSession.Loader<T> loader)
+			throws IOException, ParseException {
+		Backend current = backend;
+		// the loader parses the file on the disk, not an overlay
+		if (current == null || JobContext.getOverlay(file) != null)
+			return loader.load();
+
+		String key = key(hash(file));
+		byte[] bytes = read(current, kind, key);
+		if (bytes != null) {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				T value = codec.read(in);
+				if (in.read() >= 0)
+					throw new IOException("unexpected data after the value");
+				return value;
+			} catch (IOException | RuntimeException e) {
+				JobContext.diagnostics()
+						.println("asciispec  : WARN: Ignoring invalid build cache entry " + key + ": " + e);
+			}
+		}
+
+		T value = loader.load();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(encoded)) {
+			codec.write(out, value);
+		} catch (IOException e) {
+			JobContext.diagnostics().println("asciispec  : WARN: Cannot write build cache: " + e.getMessage());
+			return value;
+		}
+		write(current, kind, key, encoded.toByteArray());
+		return value;
+	}
+
+	/**
+	 * Reads a count written with {@link DataOutputStream#writeInt(int)} for a
+	 * {@link Codec}. Every element takes at least one byte, so a count that
+	 * exceeds the remaining bytes of the entry is rejected before anything is
+	 * allocated for it.
+	 *
+	 * @throws IOException
+	 *             if the count is negative or too large
+	 */
+	public static int readCount(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		// the entry is read from memory, so all remaining bytes are available
+		if (count < 0 || count > in.available())
+			throw new IOException("invalid count " + count);
+		return count;
+	}
+
+	/**
+	 * Writes a string, which may be <code>null</code>, for a {@link Codec}.
+	 * In contrast to {@link DataOutputStream#writeUTF(String)}, the length of
+	 * the string is not limited.
+	 */
+	public static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 */
+	public static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > in.available())
+			throw new IOException("invalid string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] read(Backend backend, String kind, String key) {
+		try {
+			byte[] value = backend.read(kind, key);
+			if (value != null) {
+				HITS.incrementAndGet();
+				return value;
+			}
+		} catch (IOException e) {
+			JobContext.diagnostics().println("asciispec  : WARN: Cannot read build cache: " + e.getMessage());
+		}
+		MISSES.incrementAndGet();
+		return null;
+	}
+
+	private static void write(Backend backend, String kind, String key, byte[] value) {
+		try {
+			backend.write(kind, key, value);
+		} catch (IOException e) {
+			JobContext.diagnostics().println("asciispec  : WARN: Cannot write build cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns a key for a value that depends on the given parts. Each part is
+	 * converted with {@link String#valueOf(Object)}; use {@link #hash(Path)}
+	 * for the contents of files.
+	 */
+	public static String key(Object... parts) {
+		MessageDigest digest = newDigest();
+		update(digest, VERSION);
+		for (Object part : parts)
+			update(digest, String.valueOf(part));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns a hash of the contents of the given file, or of its overlay if
+	 * the file is overlaid by the current job.
+	 */
+	public static String hash(Path file) throws IOException {
+		String overlay = JobContext.getOverlay(file);
+		byte[] content = overlay != null ? overlay.getBytes(StandardCharsets.UTF_8) : Files.readAllBytes(file);
+		return toHex(newDigest().digest(content));
+	}
+
+	private static void update(MessageDigest digest, String part) {
+		// the length separates the parts, so that "ab","c" differs from "a","bc"
+		byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+		digest.update((bytes.length + ":").getBytes(StandardCharsets.UTF_8));
+		digest.update(bytes);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return result.toString();
+	}
+}
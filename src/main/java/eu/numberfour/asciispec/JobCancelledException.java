@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+/**
+ * Is thrown by {@link JobContext#checkCancelled()} to abort a job that was
+ * cancelled or has timed out.
+ */
+public class JobCancelledException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor
+	 *
+	 * @param reason
+	 *            the reason of the cancellation
+	 */
+	public JobCancelledException(String reason) {
+		super(reason);
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.numberfour.asciispec.issue.Issue;
+import eu.numberfour.asciispec.issue.Issue.Severity;
+
+/**
+ * The context of a single job, e.g. one request sent to the server. A job has
+ * its own output channel, its own diagnostics channel and counts the issues
+ * reported while it runs.
+ * <p>
+ * A context is bound to the thread executing the job. Threads started by that
+ * thread inherit the binding. Code that runs outside of a job, e.g. when
+ * AsciiSpec is invoked directly, writes to {@link System#out} and
+ * {@link System#err}.
+ * <p>
+ * A job may be cancelled by other threads, e.g. when a newer job for the same
+ * document arrives. Cancellation is cooperative: long running code calls
+ * {@link #checkCancelled()} at suitable points, which aborts the job by
+ * throwing a {@link JobCancelledException}.
+ * <p>
+ * A job may carry overlays, i.e. the contents of files that were modified in
+ * an editor but not saved yet. Code that reads documents and includes asks
+ * {@link #getOverlay(Path)} before reading a file from disk.
+ * <p>
+ * Code that reads project files records them with {@link #recordInput(Path)},
+ * so that a job knows the inputs of the documents it has converted, e.g. to
+ * convert them again when one of their includes changes. Likewise, the files
+ * written for a document are recorded with {@link #recordOutput(Path)}.
+ * <p>
+ * Each job belongs to a run, e.g. all documents converted by one invocation
+ * of AsciiSpec. Project files are assumed not to change during a run, so
+ * results that are expensive to validate, like searching the project for a
+ * file, are computed once per run (see {@link #getRun()}).
+ */
+public class JobContext {
+
+	private static final InheritableThreadLocal<JobContext> CURRENT = new InheritableThreadLocal<>();
+	private static final AtomicLong IDS = new AtomicLong();
+
+	/**
+	 * Returns the context bound to the current thread or <code>null</code> if
+	 * the current thread does not execute a job.
+	 */
+	public static JobContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Binds the given context to the current thread.
+	 */
+	public static void bind(JobContext context) {
+		CURRENT.set(Objects.requireNonNull(context));
+	}
+
+	/**
+	 * Flushes the channels of the context bound to the current thread and
+	 * removes the binding.
+	 */
+	public static void unbind() {
+		JobContext context = CURRENT.get();
+		if (context != null) {
+			context.out.flush();
+			context.getDiagnostics().flush();
+		}
+		CURRENT.remove();
+	}
+
+	/**
+	 * Returns the output channel of the current job, or {@link System#out} if
+	 * there is none.
+	 */
+	public static PrintStream out() {
+		JobContext context = CURRENT.get();
+		return context == null ? System.out : context.out;
+	}
+
+	/**
+	 * Returns the diagnostics channel of the current job, or
+	 * {@link System#err} if there is none.
+	 */
+	public static PrintStream diagnostics() {
+		JobContext context = CURRENT.get();
+		return context == null ? System.err : context.getDiagnostics();
+	}
+
+	/**
+	 * Aborts the current job if it was cancelled or has exceeded its timeout.
+	 * Does nothing if the current thread does not execute a job.
+	 *
+	 * @throws JobCancelledException
+	 *             if the current job was cancelled
+	 */
+	public static void checkCancelled() throws JobCancelledException {
+		JobContext context = CURRENT.get();
+		if (context != null && context.isCancelled()) {
+			throw new JobCancelledException(context.getCancellation());
+		}
+	}
+
+	/**
+	 * Returns the overlay of the current job for the given file, or
+	 * <code>null</code> if the file is not overlaid.
+	 */
+	public static String getOverlay(Path file) {
+		JobContext context = CURRENT.get();
+		if (context == null || context.overlays.isEmpty())
+			return null;
+		return context.overlays.get(file.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Returns <code>true</code> iff the given file is overlaid in the current
+	 * job or exists on disk.
+	 */
+	public static boolean exists(Path file) {
+		return getOverlay(file) != null || Files.exists(file);
+	}
+
+	/**
+	 * Returns the run of the current job, or <code>null</code> if the current
+	 * thread does not execute a job. Without a job, e.g. when AsciiSpec is
+	 * embedded, nothing tells when project files may have changed, so values
+	 * stamped with the run are not cached then (see
+	 * {@link ProjectSession#get(String, Object, Object, ProjectSession.Loader)}).
+	 */
+	public static Object currentRun() {
+		JobContext context = CURRENT.get();
+		return context == null ? null : context.run;
+	}
+
+	/**
+	 * Records a file read while converting the current document of the
+	 * current job. Does nothing if the current thread does not execute a job.
+	 */
+	public static void recordInput(Path file) {
+		JobContext context = CURRENT.get();
+		if (context != null) {
+			context.inputs.add(file.toAbsolutePath().normalize());
+		}
+	}
+
+	/**
+	 * Records a file written for the current document of the current job.
+	 * Does nothing if the current thread does not execute a job.
+	 */
+	public static void recordOutput(Path file) {
+		JobContext context = CURRENT.get();
+		if (context != null) {
+			context.outputs.add(file.toAbsolutePath().normalize());
+		}
+	}
+
+	private final long id = IDS.incrementAndGet();
+	private final PrintStream out;
+	private final PrintStream diagnostics;
+	private volatile PrintStream redirectedDiagnostics;
+	private volatile String cancellation;
+	private volatile long deadline;
+	private volatile long timeoutMillis;
+	private final AtomicInteger errors = new AtomicInteger();
+	private final AtomicInteger warnings = new AtomicInteger();
+	private Map<Path, String> overlays = Collections.emptyMap();
+	private final Set<Path> inputs = ConcurrentHashMap.newKeySet();
+	private final Set<Path> outputs = ConcurrentHashMap.newKeySet();
+	private Object run = new Object();
+	private volatile boolean jsonIssues = false;
+
+	/**
+	 * Creates a new context. Note that neither of the given streams must be
+	 * {@link System#out} or {@link System#err} when these are routed to the
+	 * current job.
+	 *
+	 * @param out
+	 *            the channel for regular output
+	 * @param diagnostics
+	 *            the channel for issues and other diagnostic messages
+	 */
+	public JobContext(PrintStream out, PrintStream diagnostics) {
+		this.out = Objects.requireNonNull(out);
+		this.diagnostics = Objects.requireNonNull(diagnostics);
+	}
+
+	/**
+	 * Returns the process wide unique id of this job.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the channel for regular output.
+	 */
+	public PrintStream getOut() {
+		return out;
+	}
+
+	/**
+	 * Returns the channel for issues and other diagnostic messages.
+	 */
+	public PrintStream getDiagnostics() {
+		PrintStream redirected = redirectedDiagnostics;
+		return redirected != null ? redirected : diagnostics;
+	}
+
+	/**
+	 * Makes {@link #getDiagnostics()} return the given stream instead of the
+	 * diagnostics channel this context was created with, e.g. to turn the
+	 * messages of Asciidoctor itself into issues.
+	 *
+	 * @param redirected
+	 *            the stream, or <code>null</code> to restore the original
+	 *            channel
+	 */
+	public void redirectDiagnostics(PrintStream redirected) {
+		this.redirectedDiagnostics = redirected;
+	}
+
+	/**
+	 * Counts the given issue.
+	 */
+	public void count(Issue issue) {
+		count(issue.getSeverity());
+	}
+
+	/**
+	 * Counts an issue of the given severity that was not reported as an
+	 * {@link Issue}, e.g. a message of Asciidoctor itself.
+	 */
+	public void count(Severity severity) {
+		switch (severity) {
+		case ERROR:
+			errors.incrementAndGet();
+			break;
+		case WARN:
+			warnings.incrementAndGet();
+			break;
+		}
+	}
+
+	/**
+	 * Returns the number of errors reported by this job.
+	 */
+	public int getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * Returns the number of warnings reported by this job.
+	 */
+	public int getWarningCount() {
+		return warnings.get();
+	}
+
+	/**
+	 * Sets whether the issues of this job are reported as JSON on the output
+	 * channel (see {@link Issue#toJson()}) instead of as text on the
+	 * diagnostics channel, e.g. for tools validating documents.
+	 */
+	public void setJsonIssues(boolean jsonIssues) {
+		this.jsonIssues = jsonIssues;
+	}
+
+	/**
+	 * Returns <code>true</code> iff the issues of this job are reported as
+	 * JSON.
+	 */
+	public boolean isJsonIssues() {
+		return jsonIssues;
+	}
+
+	/**
+	 * Sets the overlays of this job. Must be called before the job is started.
+	 *
+	 * @param overlays
+	 *            the contents of the overlaid files by their absolute paths
+	 */
+	public void setOverlays(Map<Path, String> overlays) {
+		Map<Path, String> normalized = new HashMap<>();
+		overlays.forEach((path, content) -> normalized.put(path.toAbsolutePath().normalize(), content));
+		this.overlays = Collections.unmodifiableMap(normalized);
+	}
+
+	/**
+	 * Returns the overlays of this job by their absolute paths.
+	 */
+	public Map<Path, String> getOverlays() {
+		return overlays;
+	}
+
+	/**
+	 * Returns the run this job belongs to. A job is a run of its own unless
+	 * {@link #setRun(Object)} is called.
+	 */
+	public Object getRun() {
+		return run;
+	}
+
+	/**
+	 * Makes this job part of the given run. Must be called before the job is
+	 * started.
+	 *
+	 * @param run
+	 *            the run, e.g. the run of another job converting documents of
+	 *            the same invocation
+	 */
+	public void setRun(Object run) {
+		this.run = Objects.requireNonNull(run);
+	}
+
+	/**
+	 * Returns the files recorded by {@link #recordInput(Path)} since the last
+	 * call of this method, sorted by path, and starts a new record.
+	 */
+	public Set<Path> takeInputs() {
+		Set<Path> result = new TreeSet<>();
+		for (Path input : inputs) {
+			result.add(input);
+			inputs.remove(input);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the files recorded by {@link #recordOutput(Path)} since the last
+	 * call of this method, sorted by path, and starts a new record.
+	 */
+	public Set<Path> takeOutputs() {
+		Set<Path> result = new TreeSet<>();
+		for (Path output : outputs) {
+			result.add(output);
+			outputs.remove(output);
+		}
+		return result;
+	}
+
+	/**
+	 * Cancels this job. The job is aborted the next time it checks for
+	 * cancellation. Only the first reason is kept.
+	 *
+	 * @param reason
+	 *            a message that tells the user why the job was cancelled
+	 */
+	public synchronized void cancel(String reason) {
+		if (cancellation == null) {
+			cancellation = Objects.requireNonNull(reason);
+		}
+	}
+
+	/**
+	 * Limits the time this job may run, starting now. Once the timeout is
+	 * exceeded, the job counts as cancelled.
+	 *
+	 * @param millis
+	 *            the timeout in milliseconds; zero or less for no timeout
+	 */
+	public void startTimeout(long millis) {
+		timeoutMillis = millis;
+		deadline = millis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+	}
+
+	/**
+	 * Returns <code>true</code> iff this job was cancelled or has exceeded
+	 * its timeout.
+	 */
+	public boolean isCancelled() {
+		if (cancellation == null && deadline != 0 && System.nanoTime() - deadline > 0) {
+			cancel("timed out after " + timeoutMillis + " ms");
+		}
+		return cancellation != null;
+	}
+
+	/**
+	 * Returns the reason why this job was cancelled or <code>null</code> if
+	 * it was not cancelled.
+	 */
+	public String getCancellation() {
+		return isCancelled() ? cancellation : null;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums up the time spent in each processor, over all documents converted by
+ * the process. Processors record their time like this:
+ *
+ * <pre>
+ * long start = System.nanoTime();
+ * try {
+ * 	...
+ * } finally {
+ * 	ProcessorMetrics.record(this, start);
+ * }
+ * </pre>
+ *
+ * Nested calls are recorded for each processor, so the times of the host
+ * preprocessor include the times of its client preprocessors.
+ */
+public final class ProcessorMetrics {
+
+	private static final ConcurrentMap<String, Totals> TOTALS = new ConcurrentHashMap<>();
+
+	/**
+	 * The totals of each processor class, so that a call does not compute the
+	 * simple class name, which is called once per line and processor.
+	 */
+	private static final ClassValue<Totals> CLASS_TOTALS = new ClassValue<Totals>() {
+		@Override
+		protected Totals computeValue(Class<?> type) {
+			return TOTALS.computeIfAbsent(type.getSimpleName(), n -> new Totals());
+		}
+	};
+
+	private ProcessorMetrics() {
+	}
+
+	/**
+	 * Records a call of the given processor which started at the given time.
+	 *
+	 * @param processor
+	 *            the processor; its simple class name is used as key
+	 * @param startNanos
+	 *            the start of the call as returned by {@link System#nanoTime()}
+	 */
+	public static void record(Object processor, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		Totals totals = CLASS_TOTALS.get(processor.getClass());
+		totals.calls.increment();
+		totals.nanos.add(nanos);
+	}
+
+	/**
+	 * Returns the total time in milliseconds of each processor, sorted by
+	 * processor name.
+	 */
+	public static Map<String, Long> getTotalMillis() {
+		Map<String, Long> result = new TreeMap<>();
+		TOTALS.forEach((name, totals) -> result.put(name, TimeUnit.NANOSECONDS.toMillis(totals.nanos.sum())));
+		return result;
+	}
+
+	/**
+	 * Returns the number of calls of each processor, sorted by processor name.
+	 */
+	public static Map<String, Long> getCalls() {
+		Map<String, Long> result = new TreeMap<>();
+		TOTALS.forEach((name, totals) -> result.put(name, totals.calls.sum()));
+		return result;
+	}
+
+	private static final class Totals {
+		final LongAdder calls = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+	}
+}
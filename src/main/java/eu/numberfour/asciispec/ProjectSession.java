@@ -0,0 +1,583 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.asciidoctor.ast.ContentNode;
+
+/**
+ * Holds the data loaded for the documents of one project, e.g. the source
+ * index, the bibliography or the math definitions. A project is identified by
+ * the base directory of its documents.
+ * <p>
+ * Sessions outlive single documents, so when the server converts the
+ * documents of a project again, the data is not loaded again. Each cached
+ * value is stored with a stamp, e.g. the modification time and size of the
+ * file it was loaded from (see {@link #stamp(Path)}). A value is reloaded as
+ * soon as its stamp changes. Hence cached values must never be modified by
+ * their users.
+ * <p>
+ * Sessions of different projects are independent of each other. Several jobs
+ * of the same project may use the session at the same time. A value missed by
+ * several jobs at once is loaded only once; the other jobs wait for it.
+ * <p>
+ * Values that cannot be stamped cheaply, e.g. the result of a search through
+ * the project, may be stamped with the current run (see
+ * {@link JobContext#currentRun()}), so they are loaded once per run. Outside
+ * of a job, such values are loaded every time.
+ * <p>
+ * The cached values of all sessions share a memory budget. The size of a value
+ * is estimated when it is stored and multiplied by the weight of its cache
+ * (see {@link #setWeight(String, double)}), which accounts for the overhead of
+ * the parsed data compared to the estimate. When the budget is exceeded, the
+ * least recently used values are evicted, no matter which session they belong
+ * to. Sessions that have not been used for the idle timeout are dropped with
+ * all their values by {@link #dropIdleSessions()}.
+ */
+public final class ProjectSession {
+
+	/** Cache of parsed source index files. */
+	public static final String SOURCE_INDEX = "source-index";
+	/** Cache of parsed BibTeX files. */
+	public static final String BIBLIOGRAPHY = "bibliography";
+	/** Cache of math snapshots and rendered math expressions. */
+	public static final String MATH = "math";
+	/** Cache of task status files. */
+	public static final String TASK_INFO = "task-info";
+	/** Cache of the BibTeX files found in the project. */
+	public static final String BIBLIOGRAPHY_SEARCH = "bibliography-search";
+
+	/** Estimated size of values for which no better estimate is known. */
+	public static final long DEFAULT_SIZE = 4 * 1024;
+
+	private static final ConcurrentMap<Path, ProjectSession> SESSIONS = new ConcurrentHashMap<>();
+
+	private static final Object LOCK = new Object();
+	private static final LinkedHashMap<CacheKey, Entry> ENTRIES = new LinkedHashMap<>(64, 0.75f, true);
+	private static final Map<CacheKey, Loading> LOADING = new HashMap<>();
+	private static final Map<String, CacheCounters> COUNTERS = new TreeMap<>();
+	private static final Map<String, Double> WEIGHTS = new ConcurrentHashMap<>();
+	static {
+		WEIGHTS.put(SOURCE_INDEX, 8.0);
+		WEIGHTS.put(BIBLIOGRAPHY, 6.0);
+	}
+	private static long budget = Runtime.getRuntime().maxMemory() / 4;
+	private static long usedBytes;
+	private static long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(30);
+	private static long droppedSessions;
+
+	/**
+	 * Loads a value that is not cached yet or whose stamp has changed.
+	 */
+	@FunctionalInterface
+	public interface Loader<T> {
+		/**
+		 * Returns the loaded value. Values are only cached if no exception
+		 * is thrown.
+		 */
+		T load() throws IOException, ParseException;
+	}
+
+	/**
+	 * Returns the session of the project the document of the given node
+	 * belongs to.
+	 */
+	public static ProjectSession get(ContentNode node) {
+		return get(AdocUtils.getDocumentBasePath(node.getDocument()));
+	}
+
+	/**
+	 * Returns the session of the project with the given base directory. A new
+	 * session is created if there is none yet.
+	 *
+	 * @param baseDir
+	 *            the base directory; <code>null</code> for documents that do
+	 *            not have one, e.g. in test scenarios
+	 */
+	public static ProjectSession get(Path baseDir) {
+		Path key = baseDir == null ? Paths.get("") : baseDir.toAbsolutePath().normalize();
+		ProjectSession session = SESSIONS.computeIfAbsent(key, ProjectSession::new);
+		session.lastAccess = System.currentTimeMillis();
+		return session;
+	}
+
+	/**
+	 * Returns all sessions.
+	 */
+	public static Collection<ProjectSession> getSessions() {
+		return new ArrayList<>(SESSIONS.values());
+	}
+
+	/**
+	 * Returns a stamp that changes whenever the given file is modified, or
+	 * <code>null</code> if the file does not exist. The stamp of a file
+	 * overlaid by the current job (see {@link JobContext#getOverlay(Path)})
+	 * is a hash of the overlay instead.
+	 */
+	public static Object stamp(Path file) {
+		String overlay = JobContext.getOverlay(file);
+		if (overlay != null)
+			return "overlay:" + BuildCache.key(overlay);
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the memory budget of all sessions and evicts values if necessary.
+	 *
+	 * @param bytes
+	 *            the budget in bytes; zero disables caching
+	 */
+	public static void setBudget(long bytes) {
+		synchronized (LOCK) {
+			budget = Math.max(0, bytes);
+			evictOverBudget();
+		}
+	}
+
+	/**
+	 * Sets the weight of the given cache. The estimated size of each value is
+	 * multiplied by the weight before it is charged to the budget. The weight
+	 * of caches without explicit weight is 1.
+	 */
+	public static void setWeight(String cache, double weight) {
+		WEIGHTS.put(Objects.requireNonNull(cache), weight);
+	}
+
+	/**
+	 * Sets the time after which an unused session is dropped by
+	 * {@link #dropIdleSessions()}.
+	 *
+	 * @param millis
+	 *            the idle timeout in milliseconds; zero or less to keep
+	 *            sessions forever
+	 */
+	public static void setIdleTimeout(long millis) {
+		idleTimeoutMillis = millis;
+	}
+
+	/**
+	 * Drops all sessions that have not been used for the idle timeout.
+	 *
+	 * @return the number of dropped sessions
+	 */
+	public static int dropIdleSessions() {
+		long timeout = idleTimeoutMillis;
+		if (timeout <= 0)
+			return 0;
+
+		int dropped = 0;
+		long now = System.currentTimeMillis();
+		for (ProjectSession session : SESSIONS.values()) {
+			if (now - session.lastAccess > timeout && SESSIONS.remove(session.baseDir, session)) {
+				session.clear();
+				dropped++;
+			}
+		}
+		synchronized (LOCK) {
+			droppedSessions += dropped;
+		}
+		return dropped;
+	}
+
+	/**
+	 * Returns the current usage and the counters of all caches.
+	 */
+	public static Statistics getStatistics() {
+		synchronized (LOCK) {
+			Map<String, CacheCounters> caches = new TreeMap<>();
+			for (Map.Entry<String, CacheCounters> entry : COUNTERS.entrySet()) {
+				caches.put(entry.getKey(), new CacheCounters(entry.getValue()));
+			}
+			return new Statistics(SESSIONS.size(), ENTRIES.size(), usedBytes, budget, droppedSessions, caches);
+		}
+	}
+
+	private final Path baseDir;
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	private ProjectSession(Path baseDir) {
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Returns the base directory of the project.
+	 */
+	public Path getBaseDir() {
+		return baseDir;
+	}
+
+	/**
+	 * Returns the cached value for the given key. The value is loaded if it is
+	 * not cached yet or if it was cached with a different stamp. Jobs that
+	 * miss the same value with the same stamp at the same time wait for the
+	 * first of them to load it. The size of the value is estimated by
+	 * {@link #estimateSize(Object)}.
+	 *
+	 * @param cache
+	 *            the name of the cache, e.g. {@link #SOURCE_INDEX}
+	 * @param key
+	 *            the key of the value within the cache, e.g. the path of the
+	 *            file it is loaded from
+	 * @param stamp
+	 *            the current stamp of the value's source; values are not
+	 *            cached if the stamp is <code>null</code>
+	 * @param loader
+	 *            loads the value
+	 */
+	public <T> T get(String cache, Object key, Object stamp, Loader<T> loader) throws IOException, ParseException {
+		return get(cache, key, stamp, loader, ProjectSession::estimateSize);
+	}
+
+	/**
+	 * Like {@link #get(String, Object, Object, Loader)}, but estimates the
+	 * size of the loaded value in bytes by the given function.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String cache, Object key, Object stamp, Loader<T> loader, ToLongFunction<? super T> sizeEstimate)
+			throws IOException, ParseException {
+
+		lastAccess = System.currentTimeMillis();
+		CacheKey cacheKey = new CacheKey(baseDir, cache, key);
+		Loading loading = null;
+		while (true) {
+			synchronized (LOCK) {
+				Entry entry = ENTRIES.get(cacheKey);
+				CacheCounters counters = getCounters(cache);
+				if (entry != null && stamp != null && stamp.equals(entry.stamp)) {
+					counters.hits++;
+					return (T) entry.value;
+				}
+				Loading current = LOADING.get(cacheKey);
+				if (stamp == null || current == null || !stamp.equals(current.stamp)) {
+					counters.misses++;
+					if (stamp != null) {
+						loading = new Loading(stamp);
+						LOADING.put(cacheKey, loading);
+					}
+					break;
+				}
+				counters.hits++;
+				loading = current;
+			}
+			try {
+				return (T) loading.await();
+			} catch (JobCancelledException e) {
+				// the job that loaded the value was cancelled, try again
+			}
+		}
+
+		T value;
+		try {
+			value = loader.load();
+			if (loading != null)
+				loading.complete(value, null);
+		} catch (IOException | ParseException | RuntimeException | Error e) {
+			if (loading != null)
+				loading.complete(null, e);
+			throw e;
+		} finally {
+			if (loading != null) {
+				synchronized (LOCK) {
+					LOADING.remove(cacheKey, loading);
+				}
+			}
+		}
+		if (stamp != null) {
+			double weight = WEIGHTS.getOrDefault(cache, 1.0);
+			long size = Math.max(1, Math.round(sizeEstimate.applyAsLong(value) * weight));
+			synchronized (LOCK) {
+				remove(cacheKey);
+				if (size <= budget) {
+					ENTRIES.put(cacheKey, new Entry(stamp, value, size));
+					usedBytes += size;
+					getCounters(cache).bytes += size;
+					getCounters(cache).entries++;
+					evictOverBudget();
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Removes all cached values of this session.
+	 */
+	public void clear() {
+		synchronized (LOCK) {
+			for (CacheKey key : new ArrayList<>(ENTRIES.keySet())) {
+				if (key.baseDir.equals(baseDir))
+					remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns a rough estimate of the heap size of the given value in bytes.
+	 * Only strings are estimated precisely, other values are estimated with
+	 * {@link #DEFAULT_SIZE}.
+	 */
+	public static long estimateSize(Object value) {
+		if (value instanceof CharSequence)
+			return 40 + 2L * ((CharSequence) value).length();
+		return DEFAULT_SIZE;
+	}
+
+	private static CacheCounters getCounters(String cache) {
+		return COUNTERS.computeIfAbsent(cache, c -> new CacheCounters());
+	}
+
+	private static void remove(CacheKey key) {
+		Entry entry = ENTRIES.remove(key);
+		if (entry != null) {
+			usedBytes -= entry.size;
+			getCounters(key.cache).bytes -= entry.size;
+			getCounters(key.cache).entries--;
+		}
+	}
+
+	private static void evictOverBudget() {
+		Iterator<Map.Entry<CacheKey, Entry>> iterator = ENTRIES.entrySet().iterator();
+		while (usedBytes > budget && iterator.hasNext()) {
+			Map.Entry<CacheKey, Entry> eldest = iterator.next();
+			iterator.remove();
+			CacheCounters counters = getCounters(eldest.getKey().cache);
+			usedBytes -= eldest.getValue().size;
+			counters.bytes -= eldest.getValue().size;
+			counters.entries--;
+			counters.evictions++;
+		}
+	}
+
+	/**
+	 * The counters of a single cache, summed over all sessions.
+	 */
+	public static final class CacheCounters {
+		long hits;
+		long misses;
+		long evictions;
+		long entries;
+		long bytes;
+
+		CacheCounters() {
+		}
+
+		CacheCounters(CacheCounters other) {
+			hits = other.hits;
+			misses = other.misses;
+			evictions = other.evictions;
+			entries = other.entries;
+			bytes = other.bytes;
+		}
+
+		/** Returns the number of requests answered from the cache. */
+		public long getHits() {
+			return hits;
+		}
+
+		/** Returns the number of requests that had to load the value. */
+		public long getMisses() {
+			return misses;
+		}
+
+		/** Returns the number of values evicted to meet the budget. */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		/** Returns the number of cached values. */
+		public long getEntries() {
+			return entries;
+		}
+
+		/** Returns the weighted size of the cached values in bytes. */
+		public long getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return entries + " entries, " + (bytes / 1024) + " KB, " + hits + " hits, " + misses + " misses, "
+					+ evictions + " evictions";
+		}
+	}
+
+	/**
+	 * A snapshot of the usage of all sessions.
+	 */
+	public static final class Statistics {
+		private final int sessions;
+		private final int entries;
+		private final long usedBytes;
+		private final long budget;
+		private final long droppedSessions;
+		private final Map<String, CacheCounters> caches;
+
+		Statistics(int sessions, int entries, long usedBytes, long budget, long droppedSessions,
+				Map<String, CacheCounters> caches) {
+			this.sessions = sessions;
+			this.entries = entries;
+			this.usedBytes = usedBytes;
+			this.budget = budget;
+			this.droppedSessions = droppedSessions;
+			this.caches = Collections.unmodifiableMap(caches);
+		}
+
+		/** Returns the number of open sessions. */
+		public int getSessions() {
+			return sessions;
+		}
+
+		/** Returns the number of cached values. */
+		public int getEntries() {
+			return entries;
+		}
+
+		/** Returns the weighted size of all cached values in bytes. */
+		public long getUsedBytes() {
+			return usedBytes;
+		}
+
+		/** Returns the memory budget in bytes. */
+		public long getBudget() {
+			return budget;
+		}
+
+		/** Returns the number of sessions dropped since they were idle. */
+		public long getDroppedSessions() {
+			return droppedSessions;
+		}
+
+		/** Returns the counters of each cache by its name. */
+		public Map<String, CacheCounters> getCaches() {
+			return caches;
+		}
+
+		/** Returns the total number of evicted values of all caches. */
+		public long getEvictions() {
+			return caches.values().stream().mapToLong(CacheCounters::getEvictions).sum();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(sessions).append(" session(s), ").append(entries).append(" entries, ")
+					.append(usedBytes / 1024).append(" of ").append(budget / 1024).append(" KB used, ")
+					.append(getEvictions()).append(" evictions, ").append(droppedSessions)
+					.append(" idle session(s) dropped");
+			for (Map.Entry<String, CacheCounters> cache : caches.entrySet()) {
+				builder.append("\n  ").append(cache.getKey()).append(": ").append(cache.getValue());
+			}
+			return builder.toString();
+		}
+	}
+
+	private static final class CacheKey {
+		final Path baseDir;
+		final String cache;
+		final Object key;
+
+		CacheKey(Path baseDir, String cache, Object key) {
+			this.baseDir = baseDir;
+			this.cache = Objects.requireNonNull(cache);
+			this.key = Objects.requireNonNull(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(baseDir, cache, key);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey))
+				return false;
+			CacheKey other = (CacheKey) obj;
+			return baseDir.equals(other.baseDir) && cache.equals(other.cache) && key.equals(other.key);
+		}
+	}
+
+	/**
+	 * A value that is being loaded by one job while others wait for it.
+	 */
+	private static final class Loading {
+		final Object stamp;
+		private boolean done;
+		private Object value;
+		private Throwable failure;
+
+		Loading(Object stamp) {
+			this.stamp = stamp;
+		}
+
+		synchronized void complete(Object value, Throwable failure) {
+			this.value = value;
+			this.failure = failure;
+			this.done = true;
+			notifyAll();
+		}
+
+		synchronized Object await() throws IOException, ParseException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for a value loaded by another job");
+				}
+			}
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure instanceof ParseException)
+				throw (ParseException) failure;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			return value;
+		}
+	}
+
+	private static final class Entry {
+		final Object stamp;
+		final Object value;
+		final long size;
+
+		Entry(Object stamp, Object value, long size) {
+			this.stamp = stamp;
+			this.value = value;
+			this.size = size;
+		}
+	}
+}
@@ -258,19 +258,39 @@ public class SourceProcessor {
 	 */
 	public List<String> processWithoutUpdate(String line, Function<String, List<String>> transform) {
 		LinkedList<String> result = new LinkedList<>();
-		if (shouldProcess(line, false)) {
-			processLine(line, transform, result);
-		} else {
+		processWithoutUpdate(line, transform, result);
+		return result;
+	}
+
+	/**
+	 * Like {@link #processWithoutUpdate(String, Function)}, but appends the
+	 * processed lines to the given list. Lines without inline passes and
+	 * comments are passed to the transform function as a whole, without
+	 * creating intermediate lists.
+	 *
+	 * @param line
+	 *            a line to process
+	 * @param transform
+	 *            the transform function
+	 * @param result
+	 *            the list the processed lines are appended to
+	 */
+	public void processWithoutUpdate(String line, Function<String, List<String>> transform, List<String> result) {
+		if (!shouldProcess(line, false)) {
 			result.add(line);
+		} else if (!line.startsWith("//") && line.indexOf("+++") < 0 && line.indexOf("pass:") < 0) {
+			// cannot match INLINE_IGNORE_PATTERN
+			result.addAll(transform.apply(line));
+		} else {
+			processLine(line, transform, result);
 		}
-		return result;
 	}
 
 	private void initialize() {
 		currentBlock = new DefaultBlockType();
 	}
 
-	static private void processLine(String line, Function<String, List<String>> transform, LinkedList<String> result) {
+	static private void processLine(String line, Function<String, List<String>> transform, List<String> result) {
 		Objects.requireNonNull(transform);
 
 		if (line.isEmpty()) {
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaks down the startup time of AsciiSpec into phases, e.g. JVM boot, the
+ * initialization of JRuby, loading Ruby extensions, registering the AsciiSpec
+ * processors and converting the first document. Phases are recorded like
+ * this:
+ *
+ * <pre>
+ * long start = StartupProfile.begin("JRuby init");
+ * ...
+ * StartupProfile.end("JRuby init", start);
+ * </pre>
+ *
+ * Phases that begin while another phase is running, e.g. the registration of
+ * the extensions while JRuby is initialized, are reported indented below that
+ * phase. The nesting is tracked per thread, so phases recorded by other
+ * threads meanwhile are not indented below it. Phases recorded several times
+ * under the same name are summed up. Recording does nothing until the profile
+ * is enabled.
+ */
+public final class StartupProfile {
+
+	private static volatile boolean enabled;
+	private static long jvmStartMillis;
+	private static long mainStartMillis;
+	private static final Map<String, Phase> PHASES = new LinkedHashMap<>();
+	private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+	private StartupProfile() {
+	}
+
+	/**
+	 * Enables the profile. Must be called first thing in <code>main</code>, so
+	 * that the time until then counts as JVM boot.
+	 */
+	public static void enable() {
+		mainStartMillis = System.currentTimeMillis();
+		jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+		enabled = true;
+	}
+
+	/**
+	 * Disables the profile and discards the recorded phases.
+	 */
+	static void reset() {
+		enabled = false;
+		synchronized (PHASES) {
+			PHASES.clear();
+		}
+		DEPTH.remove();
+	}
+
+	/**
+	 * Returns <code>true</code> iff the profile is enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Begins the given phase.
+	 *
+	 * @return the start of the phase as returned by {@link System#nanoTime()}
+	 */
+	public static long begin(String phase) {
+		if (enabled) {
+			int[] depth = DEPTH.get();
+			synchronized (PHASES) {
+				PHASES.computeIfAbsent(phase, name -> new Phase(depth[0]));
+			}
+			depth[0]++;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Ends the given phase.
+	 *
+	 * @param startNanos
+	 *            the value returned by {@link #begin(String)}
+	 */
+	public static void end(String phase, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		if (enabled) {
+			synchronized (PHASES) {
+				Phase entry = PHASES.get(phase);
+				if (entry == null)
+					return;
+				entry.nanos += nanos;
+				entry.count++;
+			}
+			int[] depth = DEPTH.get();
+			depth[0] = Math.max(0, depth[0] - 1);
+		}
+	}
+
+	/**
+	 * Prints the recorded phases in the order they began.
+	 */
+	public static void report(PrintStream out) {
+		if (!enabled)
+			return;
+		out.println("Startup profile:");
+		print(out, 0, "JVM boot", mainStartMillis - jvmStartMillis);
+		synchronized (PHASES) {
+			for (Map.Entry<String, Phase> entry : PHASES.entrySet()) {
+				Phase phase = entry.getValue();
+				String name = entry.getKey() + (phase.count > 1 ? " (" + phase.count + "x)" : "");
+				print(out, phase.depth, name, TimeUnit.NANOSECONDS.toMillis(phase.nanos));
+			}
+		}
+		print(out, 0, "total", System.currentTimeMillis() - jvmStartMillis);
+	}
+
+	private static void print(PrintStream out, int depth, String name, long millis) {
+		StringBuilder indented = new StringBuilder();
+		for (int i = 0; i <= depth; i++)
+			indented.append("  ");
+		indented.append(name);
+		out.println(String.format(Locale.ROOT, "%-50s %8d ms", indented, millis));
+	}
+
+	private static final class Phase {
+		final int depth;
+		long nanos;
+		int count;
+
+		Phase(int depth) {
+			this.depth = depth;
+		}
+	}
+}
@@ -10,13 +10,68 @@
  */
 package eu.numberfour.asciispec.citation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
+import eu.numberfour.asciispec.BuildCache;
+
 /**
  * A database of BibTeX entries.
  */
 public class BibliographyDatabase {
+
+	/**
+	 * Stores a database in the {@link BuildCache} as the list of its entries.
+	 */
+	public static final BuildCache.Codec<BibliographyDatabase> CODEC = new BuildCache.Codec<BibliographyDatabase>() {
+		@Override
+		public void write(DataOutputStream out, BibliographyDatabase database) throws IOException {
+			out.writeInt(database.entries.size());
+			for (BibliographyEntry entry : database.entries) {
+				BuildCache.writeString(out, entry.getType());
+				BuildCache.writeString(out, entry.getCiteKey());
+				Map<String, String> tags = entry.getTags();
+				out.writeInt(tags.size());
+				for (Map.Entry<String, String> tag : tags.entrySet()) {
+					BuildCache.writeString(out, tag.getKey());
+					BuildCache.writeString(out, tag.getValue());
+				}
+			}
+		}
+
+		@Override
+		public BibliographyDatabase read(DataInputStream in) throws IOException {
+			int count = BuildCache.readCount(in);
+			List<BibliographyEntry> entries = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String type = BuildCache.readString(in);
+				String citeKey = BuildCache.readString(in);
+				int tagCount = BuildCache.readCount(in);
+				Map<String, String> tags = new HashMap<>();
+				for (int j = 0; j < tagCount; j++) {
+					String name = BuildCache.readString(in);
+					if (name == null)
+						throw new IOException("missing tag name");
+					tags.put(name, BuildCache.readString(in));
+				}
+				if (type == null)
+					throw new IOException("missing entry type");
+				try {
+					entries.add(new BibliographyEntry(type, citeKey, tags));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+			}
+			return new BibliographyDatabase(entries);
+		}
+	};
+
 	private final List<BibliographyEntry> entries;
 
 	/**
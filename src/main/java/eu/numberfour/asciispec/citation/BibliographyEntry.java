@@ -26,6 +26,7 @@ import java.util.Objects;
  * </p>
  */
 public class BibliographyEntry {
+
 	private final String type;
 	private final String citeKey;
 	private final Map<String, String> tags;
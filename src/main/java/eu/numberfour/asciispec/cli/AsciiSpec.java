@@ -1,7 +1,21 @@
 package eu.numberfour.asciispec.cli;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.asciidoctor.cli.AsciidoctorInvoker;
 
+import com.beust.jcommander.ParameterException;
+
+import eu.numberfour.asciispec.BuildCache;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.StartupProfile;
 import eu.numberfour.asciispec.hacks.HackJRuby;
 
 /**
@@ -9,11 +23,153 @@ import eu.numberfour.asciispec.hacks.HackJRuby;
  * <p>
  * This wrapper is necessary to execute Java code before AsciidoctorJ is
  * started. Note that AsciidoctorJ does not provide a callback for this.
+ * <p>
+ * With <code>--watch</code>, the JVM keeps running after the documents are
+ * converted and converts them again when their inputs change, see
+ * {@link AsciiSpecWatcher}.
+ * <p>
+ * With <code>--manifest file</code>, the inputs of the converted documents
+ * are recorded in the given file, and documents whose inputs have not changed
+ * since the previous run are skipped, see {@link BuildManifest}. This option
+ * cannot be combined with <code>--watch</code>, which records the inputs
+ * itself.
+ * <p>
+ * With <code>--jobs n</code>, the documents are converted by n threads, see
+ * {@link ParallelInvoker}.
+ * <p>
+ * With <code>--startup-profile</code>, the time spent in the startup phases
+ * is printed to stderr when the documents are converted, see
+ * {@link StartupProfile}: with <code>--watch</code> after the documents were
+ * converted for the first time, with <code>--processes</code> by each worker
+ * process when it exits and by the coordinating process at the end. Without
+ * these options, the documents are converted by {@link AsciiSpecInvoker}
+ * instead of AsciidoctorJ's own command line, since only the former records
+ * the phases of JRuby and of the first document; it accepts the same
+ * arguments.
+ * <p>
+ * With <code>--lint</code>, the documents are validated without converting
+ * them. With <code>--backends b1,b2,...</code>, each document is converted
+ * to several backends but preprocessed only once. See
+ * {@link AsciiSpecInvoker} for both.
+ * <p>
+ * With <code>--processes n</code>, the documents are converted by n worker
+ * processes, see {@link ProcessCoordinator}. With
+ * <code>--build-cache dir|url</code>, expensive results such as math renders
+ * and parsed source indexes are stored in the given directory or on the given
+ * HTTP server and shared by all processes using it, see {@link BuildCache}.
  */
 public class AsciiSpec {
 
-	public static void main(String[] args) {
+	/** Command line option that sets the build manifest. */
+	public static final String OPTION_MANIFEST = "--manifest";
+
+	/** Command line option that prints the startup profile. */
+	public static final String OPTION_STARTUP_PROFILE = "--startup-profile";
+
+	/** Command line option that sets the build cache directory. */
+	public static final String OPTION_BUILD_CACHE = "--build-cache";
+
+	public static void main(String[] args) throws IOException {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		if (arguments.remove(OPTION_STARTUP_PROFILE)) {
+			StartupProfile.enable();
+		}
+		long start = StartupProfile.begin("JRuby hacks");
 		HackJRuby.disableSecureRandoms();
+		StartupProfile.end("JRuby hacks", start);
+
+		int cacheIndex = arguments.indexOf(OPTION_BUILD_CACHE);
+		if (cacheIndex >= 0 && cacheIndex + 1 < arguments.size()) {
+			arguments.remove(cacheIndex);
+			BuildCache.setLocation(arguments.remove(cacheIndex));
+		}
+
+		if (arguments.remove(AsciiSpecWatcher.OPTION_WATCH)) {
+			if (arguments.contains(OPTION_MANIFEST)) {
+				// the watcher needs the inputs of all documents, including the up to date ones
+				System.err.println("asciidoctor: FAILED: " + OPTION_MANIFEST + " cannot be combined with "
+						+ AsciiSpecWatcher.OPTION_WATCH);
+				System.exit(1);
+				return;
+			}
+			int status;
+			try {
+				status = new AsciiSpecWatcher(new File(System.getProperty("user.dir")), arguments).run();
+			} catch (ParameterException e) {
+				System.err.println("asciidoctor: FAILED: " + e.getMessage());
+				status = 1;
+			}
+			System.exit(status);
+		}
+
+		if (arguments.remove(ProcessCoordinator.OPTION_WORKER)) {
+			System.exit(ProcessCoordinator.work(arguments));
+		}
+
+		BuildManifest manifest = null;
+		int manifestIndex = arguments.indexOf(OPTION_MANIFEST);
+		if (manifestIndex >= 0 && manifestIndex + 1 < arguments.size()) {
+			arguments.remove(manifestIndex);
+			manifest = BuildManifest.load(Paths.get(arguments.remove(manifestIndex)));
+		}
+
+		int processesIndex = arguments.indexOf(ProcessCoordinator.OPTION_PROCESSES);
+		if (processesIndex >= 0 && processesIndex + 1 < arguments.size()) {
+			arguments.remove(processesIndex);
+			String processes = arguments.remove(processesIndex);
+			ProcessCoordinator coordinator;
+			try {
+				coordinator = new ProcessCoordinator(Integer.parseInt(processes));
+			} catch (NumberFormatException e) {
+				System.err.println("asciidoctor: FAILED: Invalid value for " + ProcessCoordinator.OPTION_PROCESSES
+						+ ": " + processes);
+				System.exit(1);
+				return;
+			}
+			coordinator.setManifest(manifest);
+			coordinator.setCacheLocation(BuildCache.getLocation());
+			int status = coordinator.invoke(null, arguments);
+			StartupProfile.report(System.err);
+			System.exit(status);
+		}
+
+		int jobsIndex = arguments.indexOf(ParallelInvoker.OPTION_JOBS);
+		if (jobsIndex >= 0 && jobsIndex + 1 < arguments.size()) {
+			arguments.remove(jobsIndex);
+			String jobs = arguments.remove(jobsIndex);
+			ParallelInvoker invoker;
+			try {
+				invoker = new ParallelInvoker(Integer.parseInt(jobs));
+			} catch (NumberFormatException e) {
+				System.err.println(
+						"asciidoctor: FAILED: Invalid value for " + ParallelInvoker.OPTION_JOBS + ": " + jobs);
+				System.exit(1);
+				return;
+			}
+			invoker.setManifest(manifest);
+			int status = invoker.invoke(null, arguments);
+			StartupProfile.report(System.err);
+			System.exit(status);
+		}
+
+		// these options are only supported by AsciiSpecInvoker, which also
+		// records the startup phases AsciidoctorInvoker does not know about
+		if (manifest != null || StartupProfile.isEnabled() || BuildCache.isEnabled()
+				|| AsciiSpecInvoker.hasInvokerOptions(arguments)) {
+			AsciiSpecInvoker invoker = new AsciiSpecInvoker();
+			invoker.setManifest(manifest);
+			// Asciidoctor itself writes to the standard streams, which are routed
+			// to the job, e.g. to report its messages as issues with --lint
+			PrintStream out = System.out;
+			PrintStream err = System.err;
+			System.setOut(ThreadRoutingPrintStream.forOut(out, StandardCharsets.UTF_8.name()));
+			System.setErr(ThreadRoutingPrintStream.forDiagnostics(err, StandardCharsets.UTF_8.name()));
+			JobContext.bind(new JobContext(out, err));
+			int status = invoker.invoke(null, arguments.toArray(new String[arguments.size()]));
+			StartupProfile.report(System.err);
+			invoker.shutdown();
+			System.exit(status);
+		}
 		AsciidoctorInvoker.main(args);
 	}
 
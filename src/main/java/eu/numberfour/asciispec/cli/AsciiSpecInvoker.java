@@ -0,0 +1,777 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.Options;
+import org.asciidoctor.OptionsBuilder;
+import org.asciidoctor.SafeMode;
+import org.asciidoctor.cli.AsciidoctorCliOptions;
+import org.asciidoctor.cli.AsciidoctorInvoker;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.StartupProfile;
+import eu.numberfour.asciispec.issue.Issue;
+import eu.numberfour.asciispec.processors.HostPreprocessor;
+import eu.numberfour.asciispec.processors.PreprocessedSource;
+
+/**
+ * Converts documents given by Asciidoctor command line arguments, just like
+ * {@link AsciidoctorInvoker}. In contrast to {@link AsciidoctorInvoker}, the
+ * Asciidoctor instance is kept alive between invocations. Hence the JRuby
+ * runtime, the Ruby libraries required with <code>-r</code> and the
+ * registered AsciiSpec extensions are only loaded once, and the JIT compiled
+ * code is reused by later invocations.
+ * <p>
+ * An Asciidoctor instance must not be used by several threads at once, so an
+ * invoker must not be shared between threads either.
+ * <p>
+ * Input files overlaid by the current job (see
+ * {@link JobContext#getOverlay(Path)}) are converted from memory.
+ * <p>
+ * If a {@link BuildManifest} is set, input files whose inputs have not changed
+ * since they were last converted with the same options are skipped.
+ * <p>
+ * With <code>--lint</code>, the documents are only loaded, not converted:
+ * Asciidoctor runs the preprocessors, i.e. the {@link HostPreprocessor} chain,
+ * the include processors and the block processors, but neither converts the
+ * document nor writes output files. The issues are printed as JSON lines to
+ * the output channel (see {@link Issue#toJson()}), and the exit status is 1 if
+ * an error was reported. The warnings and errors Asciidoctor itself prints,
+ * e.g. about missing include files, are reported the same way (see
+ * {@link LintDiagnostics}) and always fail the run. Hence macros can be
+ * validated much faster than by rendering the documents.
+ * <p>
+ * With <code>--backends b1,b2,...</code>, each document is converted to all
+ * given backends, but preprocessed only once: the lines produced by the
+ * {@link HostPreprocessor} for the first backend are reused for the others
+ * (see {@link PreprocessedSource}).
+ * <p>
+ * With <code>--section id</code> or <code>--section-include file</code>, only
+ * the section with the given id or the given included file is converted, e.g.
+ * for a fast preview (see {@link PartialDocument}). The output file is named
+ * after the document and the section.
+ */
+public class AsciiSpecInvoker {
+
+	/** Exit status of an invocation that was cancelled or has timed out. */
+	public static final int EXIT_CANCELLED = 3;
+
+	/** Command line option that validates the documents without converting them. */
+	public static final String OPTION_LINT = "--lint";
+
+	/** Command line option that converts the documents to several backends. */
+	public static final String OPTION_BACKENDS = "--backends";
+
+	/** Command line option that converts only the section with the given id. */
+	public static final String OPTION_SECTION = "--section";
+
+	/** Command line option that converts only the section in the given included file. */
+	public static final String OPTION_SECTION_INCLUDE = "--section-include";
+
+	/** Options handled by the invoker itself which take a value. */
+	private static final List<String> VALUE_OPTIONS = Arrays.asList(OPTION_BACKENDS, OPTION_SECTION,
+			OPTION_SECTION_INCLUDE);
+
+	/**
+	 * The document rendered by {@link #warmUp(Collection, int)}. It touches
+	 * the most common Asciidoctor features and AsciiSpec preprocessors.
+	 */
+	static final String WARMUP_DOCUMENT = String.join("\n", //
+			"= Warm-up", //
+			"", //
+			"== Section", //
+			"", //
+			"Some *bold*, _italic_ and `monospaced` text with math:[a^2 + b^2 = c^2] and $x_1$.", //
+			"", //
+			"* first item", //
+			"* second item with a link:http://example.org[link]", //
+			"", //
+			"[source,java]", //
+			"----", //
+			"class A {}", //
+			"----", //
+			"", //
+			"|===", //
+			"| a | b", //
+			"| 1 | 2", //
+			"|===", //
+			"");
+
+	private Asciidoctor asciidoctor;
+	private String asciidoctorKey;
+	private final Set<String> requiredLibraries = new HashSet<>();
+	private BuildManifest manifest;
+	private boolean convertedDocument = false;
+
+	/**
+	 * Sets the manifest used to skip up-to-date documents, or
+	 * <code>null</code> to convert all documents. The manifest is saved after
+	 * each invocation. The inputs of the documents are recorded by the current
+	 * job, so a job must be bound while the invoker runs.
+	 */
+	void setManifest(BuildManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Converts the documents given by the Asciidoctor command line arguments.
+	 * Relative paths of input files and of the options for the base,
+	 * destination, template and load directories, the output file and required
+	 * Ruby files are resolved against the given working directory.
+	 *
+	 * @param workingDir
+	 *            the working directory of the invocation, e.g. the directory
+	 *            the client was called from
+	 * @param args
+	 *            the Asciidoctor command line arguments
+	 * @return the exit status, i.e. 0 on success
+	 */
+	public int invoke(File workingDir, String... args) {
+		PrintStream out = JobContext.out();
+		PrintStream diagnostics = JobContext.diagnostics();
+
+		boolean lint = Arrays.asList(args).contains(OPTION_LINT);
+		List<String> cliArgs = removeInvokerOptions(Arrays.asList(args));
+
+		AsciidoctorCliOptions cliOptions = new AsciidoctorCliOptions();
+		JCommander jCommander;
+		List<String> backends;
+		String sectionId;
+		String sectionInclude;
+		try {
+			String backendList = getOptionValue(args, OPTION_BACKENDS);
+			backends = backendList == null ? null : Arrays.asList(backendList.split(","));
+			sectionId = getOptionValue(args, OPTION_SECTION);
+			sectionInclude = getOptionValue(args, OPTION_SECTION_INCLUDE);
+			jCommander = new JCommander(cliOptions, cliArgs.toArray(new String[cliArgs.size()]));
+		} catch (ParameterException e) {
+			diagnostics.println("asciidoctor: FAILED: " + e.getMessage());
+			return 1;
+		}
+		jCommander.setProgramName("asciidoctor");
+
+		if (cliOptions.isHelp()) {
+			jCommander.usage();
+			return 0;
+		}
+
+		Asciidoctor asciidoctor = getAsciidoctor(cliOptions, workingDir);
+		if (cliOptions.isVersion()) {
+			out.println("Asciidoctor " + asciidoctor.asciidoctorVersion() + " [http://asciidoctor.org]");
+			return 0;
+		}
+
+		if (cliOptions.isRequire()) {
+			requireLibraries(resolveLibraries(workingDir, cliOptions.getRequire()));
+		}
+
+		Options options;
+		try {
+			options = cliOptions.parse();
+		} catch (IOException e) {
+			diagnostics.println("asciidoctor: FAILED: " + e.getMessage());
+			return 1;
+		}
+		boolean toStdout = cliOptions.isOutFileOption() && "-".equals(cliOptions.getOutFile());
+		resolveOptions(options.map(), workingDir, toStdout);
+		if (backends != null && backends.size() > 1 && cliOptions.isOutFileOption() && !toStdout) {
+			diagnostics.println(
+					"asciidoctor: FAILED: " + OPTION_BACKENDS + " cannot write several backends to one output file");
+			return 1;
+		}
+
+		List<String> parameters = cliOptions.getParameters();
+		if (parameters == null || parameters.isEmpty()) {
+			diagnostics.println("asciidoctor: FAILED: input file missing");
+			return 1;
+		}
+
+		List<File> inputFiles = new ArrayList<>();
+		for (String parameter : parameters) {
+			List<File> matches = findInputFiles(workingDir, parameter);
+			if (matches.isEmpty()) {
+				diagnostics.println("asciidoctor: FAILED: input file(s) '" + parameter + "' missing or cannot be read");
+				return 1;
+			}
+			inputFiles.addAll(matches);
+		}
+
+		// the manifest records completely converted documents
+		boolean partial = sectionId != null || sectionInclude != null;
+		BuildManifest manifest = lint || partial ? null : this.manifest;
+		String manifestOptions = manifest == null ? null
+				: String.join("\n", getOptionArguments(Arrays.asList(args), parameters));
+		JobContext job = JobContext.current();
+		int lintErrors = 0;
+		LintDiagnostics lintDiagnostics = null;
+		if (lint && job != null) {
+			job.setJsonIssues(true);
+			lintErrors = job.getErrorCount();
+			lintDiagnostics = new LintDiagnostics(job, job.getDiagnostics());
+			job.redirectDiagnostics(new PrintStream(lintDiagnostics, true));
+		}
+		try {
+			int skipped = 0;
+			for (File inputFile : inputFiles) {
+				if (manifest != null && manifest.isUpToDate(inputFile, manifestOptions)) {
+					skipped++;
+					continue;
+				}
+				int errors = 0;
+				if (manifest != null && job != null) {
+					job.takeInputs();
+					job.takeOutputs();
+					errors = job.getErrorCount();
+				}
+				long start = convertedDocument ? System.nanoTime() : StartupProfile.begin("first document");
+				String output;
+				String outputSuffix = "";
+				try {
+					JobContext.checkCancelled();
+					String content = JobContext.getOverlay(inputFile.toPath());
+					if (partial) {
+						File baseDir = options.map().get(Options.BASEDIR) instanceof String
+								? new File((String) options.map().get(Options.BASEDIR))
+								: inputFile.getAbsoluteFile().getParentFile();
+						File includeFile = sectionInclude == null ? null : resolve(workingDir, sectionInclude);
+						try {
+							content = new PartialDocument(inputFile, baseDir, getAttributes(options.map()), sectionId,
+									includeFile).getContent();
+						} catch (IOException e) {
+							diagnostics.println("asciidoctor: FAILED: " + e.getMessage());
+							return 1;
+						}
+						String section = sectionId != null ? sectionId
+								: includeFile.getName().replaceFirst("\\.[^.]*$", "");
+						outputSuffix = "-" + section.replaceAll("[^\\w.-]", "_");
+					}
+					if (lint) {
+						output = null;
+						if (content != null) {
+							asciidoctor.load(content,
+									getOverlayOptions(inputFile, options.map(), cliOptions.getBackend(), outputSuffix));
+						} else {
+							asciidoctor.loadFile(inputFile, options.map());
+						}
+					} else if (backends != null) {
+						output = convertBackends(asciidoctor, inputFile, content, outputSuffix, options.map(),
+								backends);
+					} else if (content != null) {
+						output = asciidoctor.convert(content,
+								getOverlayOptions(inputFile, options.map(), cliOptions.getBackend(), outputSuffix));
+					} else {
+						output = asciidoctor.convertFile(inputFile, options);
+					}
+				} catch (RuntimeException e) {
+					// the cancellation may arrive wrapped by JRuby or AsciidoctorJ
+					if (job == null || !job.isCancelled())
+						throw e;
+					diagnostics.println("asciidoctor: CANCELLED: " + job.getCancellation());
+					return EXIT_CANCELLED;
+				}
+				if (!convertedDocument) {
+					StartupProfile.end("first document", start);
+					convertedDocument = true;
+				}
+				if (!lint) {
+					List<String> outputBackends = backends != null ? backends
+							: Collections.singletonList(cliOptions.getBackend());
+					for (String backend : outputBackends) {
+						File outputFile = getOutputFile(inputFile, options.map(), backend, outputSuffix);
+						if (outputFile != null)
+							JobContext.recordOutput(outputFile.toPath());
+					}
+				}
+				if (toStdout && output != null) {
+					out.println(output);
+				}
+				if (cliOptions.isTimings()) {
+					long millis = (System.nanoTime() - start) / 1000000;
+					out.println("  Time to convert " + inputFile + ": " + millis + " ms");
+				}
+				if (manifest != null && job != null) {
+					Set<Path> inputs = job.takeInputs();
+					inputs.add(inputFile.toPath());
+					if (job.getErrorCount() == errors) {
+						manifest.update(inputFile, manifestOptions, inputs, job.takeOutputs());
+					} else {
+						manifest.remove(inputFile);
+					}
+				}
+			}
+
+			if (manifest != null) {
+				if (skipped > 0) {
+					out.println("asciispec: " + skipped + " of " + inputFiles.size() + " document(s) up to date");
+				}
+				try {
+					manifest.save();
+				} catch (IOException e) {
+					diagnostics.println("asciidoctor: WARNING: Cannot write build manifest: " + e.getMessage());
+				}
+			}
+		} finally {
+			if (lintDiagnostics != null) {
+				job.redirectDiagnostics(null);
+				lintDiagnostics.close();
+				job.setJsonIssues(false);
+			}
+		}
+		// Asciidoctor only reports problems of the document, even as warnings
+		if (lintDiagnostics != null && (job.getErrorCount() > lintErrors || lintDiagnostics.getIssueCount() > 0))
+			return 1;
+		return 0;
+	}
+
+	/**
+	 * Returns the given command line arguments without the input files, i.e.
+	 * the options shared by all documents. The input files are positional
+	 * parameters, so they are removed from the end.
+	 *
+	 * @param parameters
+	 *            the input files as parsed from the arguments
+	 */
+	static List<String> getOptionArguments(List<String> args, List<String> parameters) {
+		List<String> options = new ArrayList<>();
+		List<String> remaining = new ArrayList<>(parameters);
+		for (int i = args.size() - 1; i >= 0; i--) {
+			if (!remaining.remove(args.get(i)))
+				options.add(0, args.get(i));
+		}
+		return options;
+	}
+
+	/**
+	 * Returns the given command line arguments without the options handled by
+	 * the invoker itself, i.e. the arguments understood by
+	 * {@link AsciidoctorCliOptions}.
+	 */
+	static List<String> removeInvokerOptions(List<String> args) {
+		List<String> result = new ArrayList<>(args);
+		result.remove(OPTION_LINT);
+		for (String option : VALUE_OPTIONS) {
+			int index = result.indexOf(option);
+			if (index >= 0) {
+				result.remove(index);
+				if (index < result.size())
+					result.remove(index);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns <code>true</code> iff the given command line arguments contain
+	 * options handled by the invoker itself, see
+	 * {@link #removeInvokerOptions(List)}.
+	 */
+	static boolean hasInvokerOptions(List<String> args) {
+		return args.contains(OPTION_LINT) || VALUE_OPTIONS.stream().anyMatch(args::contains);
+	}
+
+	/**
+	 * Returns the value of the given option, or <code>null</code> if the
+	 * option is not given.
+	 *
+	 * @throws ParameterException
+	 *             if the value is missing
+	 */
+	private static String getOptionValue(String[] args, String option) {
+		int index = Arrays.asList(args).indexOf(option);
+		if (index < 0)
+			return null;
+		if (index + 1 >= args.length)
+			throw new ParameterException("Expected a value after parameter " + option);
+		return args[index + 1];
+	}
+
+	/**
+	 * Returns the document attributes of the given options.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getAttributes(Map<String, Object> options) {
+		Object attributes = options.get(Options.ATTRIBUTES);
+		return attributes instanceof Map ? (Map<String, Object>) attributes : new HashMap<>();
+	}
+
+	/**
+	 * Converts the given input file to each of the given backends and returns
+	 * the outputs, separated by newlines. The document is preprocessed for the
+	 * first backend only; the other backends are converted from the captured
+	 * lines, unless the lines depend on the backend.
+	 *
+	 * @param content
+	 *            the contents to convert instead of the input file, or
+	 *            <code>null</code>
+	 * @param outputSuffix
+	 *            the suffix of the output file name for the contents
+	 */
+	@SuppressWarnings("unchecked")
+	private String convertBackends(Asciidoctor asciidoctor, File inputFile, String content, String outputSuffix,
+			Map<String, Object> options, List<String> backends) {
+		List<String> outputs = new ArrayList<>();
+		PreprocessedSource source = null;
+		for (int i = 0; i < backends.size(); i++) {
+			JobContext.checkCancelled();
+			String backend = backends.get(i);
+			Map<String, Object> backendOptions = new HashMap<>(options);
+			backendOptions.put(Options.BACKEND, backend);
+			boolean capture = i == 0 && backends.size() > 1;
+
+			String output;
+			if (source != null) {
+				Map<String, Object> replayOptions = getOverlayOptions(inputFile, backendOptions, backend, outputSuffix);
+				((Map<String, Object>) replayOptions.get(Options.ATTRIBUTES))
+						.put(HostPreprocessor.PREPROCESSED_ATTRIBUTE, "");
+				HostPreprocessor.startReplay(source);
+				try {
+					output = asciidoctor.convert(source.getContent(), replayOptions);
+				} finally {
+					HostPreprocessor.stopReplay();
+				}
+			} else {
+				if (capture)
+					HostPreprocessor.startCapture();
+				try {
+					if (content != null) {
+						output = asciidoctor.convert(content,
+								getOverlayOptions(inputFile, backendOptions, backend, outputSuffix));
+					} else {
+						output = asciidoctor.convertFile(inputFile, backendOptions);
+					}
+				} finally {
+					if (capture)
+						source = HostPreprocessor.stopCapture();
+				}
+				if (source != null && !source.isBackendIndependent())
+					source = null;
+			}
+			if (output != null)
+				outputs.add(output);
+		}
+		return outputs.isEmpty() ? null : String.join("\n", outputs);
+	}
+
+	/**
+	 * Returns the options to convert the contents of an overlaid input file.
+	 * Asciidoctor derives the document attributes and the output file from
+	 * the input file only when it reads the file itself, so they are set here.
+	 *
+	 * @param outputSuffix
+	 *            appended to the document name to name the output file, e.g.
+	 *            for a partial document
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getOverlayOptions(File inputFile, Map<String, Object> options, String backend,
+			String outputSuffix) {
+		Map<String, Object> result = new HashMap<>(options);
+		File dir = inputFile.getAbsoluteFile().getParentFile();
+		String name = inputFile.getName();
+		String docname = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+
+		Map<String, Object> attributes = new HashMap<>();
+		Object given = result.get(Options.ATTRIBUTES);
+		if (given instanceof Map) {
+			attributes.putAll((Map<String, Object>) given);
+		}
+		attributes.put("docfile", inputFile.getAbsolutePath());
+		attributes.put("docdir", dir.getPath());
+		attributes.put("docname", docname);
+		result.put(Options.ATTRIBUTES, attributes);
+		result.putIfAbsent(Options.BASEDIR, dir.getPath());
+
+		File outputFile = getOutputFile(inputFile, result, backend, outputSuffix);
+		if (outputFile != null)
+			result.put(Options.TO_FILE, outputFile.getPath());
+		return result;
+	}
+
+	/**
+	 * Returns the file the given input file is written to with the given
+	 * options, or <code>null</code> if the output is not written to a file.
+	 * Unless the output file is given, it is named after the input file and
+	 * written to the destination directory or next to the input file.
+	 *
+	 * @param outputSuffix
+	 *            appended to the document name to name the output file, e.g.
+	 *            for a partial document
+	 */
+	static File getOutputFile(File inputFile, Map<String, Object> options, String backend, String outputSuffix) {
+		Object toFile = options.get(Options.TO_FILE);
+		if (Boolean.FALSE.equals(toFile))
+			return null;
+		if (toFile instanceof String)
+			return new File((String) toFile);
+
+		String name = inputFile.getName();
+		String docname = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+		String backendName = String.valueOf(backend);
+		String suffix = backendName.startsWith("docbook") ? ".xml"
+				: backendName.startsWith("html") ? ".html" : "." + backendName;
+		Object toDir = options.get(Options.TO_DIR);
+		File outDir = toDir instanceof String ? new File((String) toDir) : inputFile.getAbsoluteFile().getParentFile();
+		return new File(outDir, docname + outputSuffix + suffix);
+	}
+
+	/**
+	 * Returns a key that identifies the documents converted by the given
+	 * arguments. Two invocations with the same key convert the same input
+	 * files with the same backend to the same destination, so the later one
+	 * makes the earlier one obsolete. The options handled by the invoker
+	 * itself are part of the key, so e.g. previews of different sections do
+	 * not supersede each other.
+	 *
+	 * @return the key or <code>null</code> if the arguments are invalid
+	 */
+	static String getSupersessionKey(File workingDir, List<String> args) {
+		String[] allArgs = args.toArray(new String[args.size()]);
+		List<String> cliArgs = removeInvokerOptions(args);
+		AsciidoctorCliOptions cliOptions = new AsciidoctorCliOptions();
+		String backends;
+		String sectionId;
+		String sectionInclude;
+		try {
+			new JCommander(cliOptions, cliArgs.toArray(new String[cliArgs.size()]));
+			backends = getOptionValue(allArgs, OPTION_BACKENDS);
+			sectionId = getOptionValue(allArgs, OPTION_SECTION);
+			sectionInclude = getOptionValue(allArgs, OPTION_SECTION_INCLUDE);
+		} catch (ParameterException e) {
+			return null;
+		}
+		List<String> parameters = cliOptions.getParameters();
+		if (parameters == null || parameters.isEmpty() || cliOptions.isHelp() || cliOptions.isVersion()) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(String.valueOf(cliOptions.getBackend()));
+		for (String parameter : parameters) {
+			key.append('|').append(resolve(workingDir, parameter).toPath().normalize());
+		}
+		if (cliOptions.isDestinationDirOption()) {
+			key.append("|to-dir=").append(resolve(workingDir, cliOptions.getDestinationDir()).toPath().normalize());
+		}
+		if (cliOptions.isOutFileOption()) {
+			key.append("|to-file=").append(cliOptions.getOutFile());
+		}
+		if (args.contains(OPTION_LINT)) {
+			key.append("|lint");
+		}
+		if (backends != null) {
+			key.append("|backends=").append(backends);
+		}
+		if (sectionId != null) {
+			key.append("|section=").append(sectionId);
+		}
+		if (sectionInclude != null) {
+			key.append("|section-include=").append(resolve(workingDir, sectionInclude).toPath().normalize());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Creates the Asciidoctor instance, loads the given Ruby libraries and
+	 * renders a small document several times. Output and issues of the
+	 * renders are discarded.
+	 *
+	 * @param libraries
+	 *            the Ruby libraries to require, e.g. the extensions passed by
+	 *            the <code>asciispec</code> script
+	 * @param renders
+	 *            the number of renders
+	 */
+	public void warmUp(Collection<String> libraries, int renders) {
+		Asciidoctor asciidoctor = getAsciidoctor(null, null);
+		requireLibraries(libraries);
+
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		});
+		JobContext outer = JobContext.current();
+		JobContext.bind(new JobContext(discard, discard));
+		try {
+			Map<String, Object> options = OptionsBuilder.options().safe(SafeMode.UNSAFE).headerFooter(true)
+					.toFile(false).asMap();
+			for (int i = 0; i < renders; i++) {
+				asciidoctor.convert(WARMUP_DOCUMENT, options);
+			}
+		} finally {
+			JobContext.unbind();
+			if (outer != null) {
+				JobContext.bind(outer);
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the Asciidoctor instance, if any.
+	 */
+	public void shutdown() {
+		if (asciidoctor != null) {
+			asciidoctor.shutdown();
+			asciidoctor = null;
+			asciidoctorKey = null;
+			requiredLibraries.clear();
+		}
+	}
+
+	/**
+	 * Returns the Asciidoctor instance. A new instance is only created if the
+	 * gem path or the load paths differ from the ones of the current instance.
+	 */
+	private Asciidoctor getAsciidoctor(AsciidoctorCliOptions cliOptions, File workingDir) {
+		String gemPath = null;
+		List<String> loadPaths = null;
+		if (cliOptions != null && cliOptions.isGemPath()) {
+			gemPath = cliOptions.getGemPath();
+		}
+		if (cliOptions != null && cliOptions.isLoadPaths()) {
+			loadPaths = cliOptions.getLoadPaths().stream().map(p -> resolve(workingDir, p).getPath())
+					.collect(Collectors.toList());
+		}
+
+		String key = gemPath + "|" + loadPaths;
+		if (asciidoctor != null && !key.equals(asciidoctorKey)) {
+			shutdown();
+		}
+		if (asciidoctor == null) {
+			long start = StartupProfile.begin("JRuby init");
+			if (gemPath != null) {
+				asciidoctor = Asciidoctor.Factory.create(gemPath);
+			} else if (loadPaths != null) {
+				asciidoctor = Asciidoctor.Factory.create(loadPaths);
+			} else {
+				asciidoctor = Asciidoctor.Factory.create();
+			}
+			StartupProfile.end("JRuby init", start);
+			asciidoctorKey = key;
+		}
+		return asciidoctor;
+	}
+
+	/**
+	 * Requires the given libraries unless they were required before. Ruby
+	 * libraries cannot be unloaded, so a library stays active for all further
+	 * invocations.
+	 */
+	private void requireLibraries(Collection<String> libraries) {
+		for (String library : libraries) {
+			if (requiredLibraries.add(library)) {
+				long start = StartupProfile.begin("Ruby extension loading");
+				asciidoctor.requireLibrary(library);
+				StartupProfile.end("Ruby extension loading", start);
+			}
+		}
+	}
+
+	/**
+	 * Resolves required Ruby files against the working directory. Names of
+	 * installed libraries like <code>asciidoctor-diagram</code> are returned
+	 * unchanged.
+	 */
+	private List<String> resolveLibraries(File workingDir, List<String> libraries) {
+		List<String> result = new ArrayList<>();
+		for (String library : libraries) {
+			File file = resolve(workingDir, library);
+			result.add(file.exists() ? file.getPath() : library);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void resolveOptions(Map<String, Object> options, File workingDir, boolean toStdout) {
+		for (String key : new String[] { Options.BASEDIR, Options.TO_DIR, Options.TO_FILE }) {
+			Object value = options.get(key);
+			if (value instanceof String && !((String) value).isEmpty()) {
+				options.put(key, resolve(workingDir, (String) value).getPath());
+			}
+		}
+		if (toStdout) {
+			options.put(Options.TO_FILE, false);
+		}
+
+		Object templateDirs = options.get(Options.TEMPLATE_DIRS);
+		if (templateDirs instanceof List) {
+			options.put(Options.TEMPLATE_DIRS, ((List<Object>) templateDirs).stream()
+					.map(dir -> resolve(workingDir, Objects.toString(dir)).getPath()).collect(Collectors.toList()));
+		}
+	}
+
+	/**
+	 * Returns the files denoted by the given input parameter. The parameter
+	 * may be a glob pattern like <code>chapters/*.adoc</code>.
+	 */
+	static List<File> findInputFiles(File workingDir, String parameter) {
+		List<File> result = new ArrayList<>();
+		if (!parameter.contains("*") && !parameter.contains("?")) {
+			File file = resolve(workingDir, parameter);
+			if (file.isFile() && file.canRead() || JobContext.getOverlay(file.toPath()) != null) {
+				result.add(file);
+			}
+			return result;
+		}
+
+		Path pattern = resolve(workingDir, parameter).toPath();
+		Path root = pattern.getRoot();
+		for (Path element : pattern) {
+			if (element.toString().contains("*") || element.toString().contains("?"))
+				break;
+			root = root == null ? element : root.resolve(element);
+		}
+		if (root == null || !Files.isDirectory(root)) {
+			return result;
+		}
+
+		String glob = pattern.toString().replace("\\", "\\\\");
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.filter(Files::isRegularFile).filter(matcher::matches).sorted().map(Path::toFile)
+					.forEach(result::add);
+		} catch (IOException e) {
+			JobContext.diagnostics().println("asciidoctor: WARNING: " + e.getMessage());
+		}
+		return result;
+	}
+
+	private static File resolve(File workingDir, String path) {
+		File file = new File(path);
+		if (workingDir == null || file.isAbsolute()) {
+			return file;
+		}
+		return new File(workingDir, path);
+	}
+}
@@ -1,108 +1,716 @@
 package eu.numberfour.asciispec.cli;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.asciidoctor.cli.AsciidoctorInvoker;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ProjectSession;
+import eu.numberfour.asciispec.hacks.HackJRuby;
 
+/**
+ * Server that runs AsciiSpec jobs sent by the <code>asciispec</code> script.
+ * <p>
+ * Clients send jobs either as framed messages (see {@link Message}), which
+ * allows to send several jobs over one connection and to receive output,
+ * diagnostics and the final status of each job separately, or, like older
+ * clients, as a single line of whitespace separated arguments.
+ * <p>
+ * Jobs are executed by a pool of worker threads, so independent jobs of
+ * different clients run in parallel. Jobs that cannot be started immediately
+ * wait in a bounded queue. When the queue is full, the client receives a
+ * <code>BUSY</code> reply and the connection is closed.
+ * <p>
+ * Each worker keeps its own {@link AsciiSpecInvoker} and thus its own warm
+ * Asciidoctor instance. With <code>--warmup</code>, every worker renders a
+ * small document at startup so that the first real job already runs on JIT
+ * compiled code. Ruby libraries given with <code>-r</code> are loaded during
+ * the warm-up.
+ * <p>
+ * A new job cancels older jobs that convert the same documents, e.g. when an
+ * editor saves a document several times in a row. Jobs may also be cancelled
+ * by the client or by a timeout (<code>--timeout</code> in seconds, or the
+ * <code>timeout</code> field of a job message). Cancellation is cooperative,
+ * see {@link JobContext#checkCancelled()}: a cancelled job stops at the next
+ * line or include directive that is processed.
+ * <p>
+ * Data loaded for a project is kept between jobs in a {@link ProjectSession}.
+ * The sessions share a memory budget (<code>--cache-budget</code> in MB), the
+ * estimated sizes of the cached values are weighted per cache
+ * (<code>--cache-weight cache=weight</code>), and sessions that are not used
+ * for a while are dropped (<code>--session-idle</code> in minutes). The usage
+ * of the caches is printed to the console whenever it has changed.
+ * <p>
+ * Framed clients may request the metrics of the server, e.g. the number of
+ * completed and failed jobs, the queue depth, job latencies, the time spent
+ * in each processor, cache hit rates and heap usage, see
+ * {@link Message#METRICS}.
+ * <p>
+ * Besides the TCP port, the server listens on a Unix domain socket if one is
+ * given with <code>--socket</code>, which saves the TCP handshake for every
+ * job and lets the script check the server by connecting to the socket. Many
+ * documents can be sent in a single {@link Message#BATCH} message; their
+ * results are streamed back as they finish.
+ * <p>
+ * Usage:
+ * <code>AsciiSpecServer [port] [--socket path] [--workers n] [--queue n] [--timeout s] [--cache-budget mb]
+ * [--cache-weight cache=weight]* [--session-idle min] [--warmup] [-r library]*</code>
+ */
 public class AsciiSpecServer {
 	static final int PORT = 45115;
 	static final String ENCODING = "UTF-8";
+	static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	static final int QUEUE_SIZE = 8;
+	static final int WARMUP_RENDERS = 5;
+	static final int TIMEOUT = 0;
+	static final int SESSION_IDLE = 30;
+	static final long HOUSEKEEPING_INTERVAL = 60;
+	static final long BATCH_RETRY_MILLIS = 100;
+
+	static final String OPTION_SOCKET = "--socket";
+	static final String OPTION_WORKERS = "--workers";
+	static final String OPTION_QUEUE = "--queue";
+	static final String OPTION_TIMEOUT = "--timeout";
+	static final String OPTION_CACHE_BUDGET = "--cache-budget";
+	static final String OPTION_CACHE_WEIGHT = "--cache-weight";
+	static final String OPTION_SESSION_IDLE = "--session-idle";
+	static final String OPTION_WARMUP = "--warmup";
+	static final String OPTION_REQUIRE = "-r";
+
+	private final int workers;
+	private final int queueSize;
+	private final long timeoutMillis;
+	private final ThreadPoolExecutor executor;
+	private final ExecutorService connections;
+	private final ScheduledExecutorService housekeeping;
+	private final ServerMetrics metrics = new ServerMetrics();
+	private final ConcurrentMap<String, JobContext> latestJobs = new ConcurrentHashMap<>();
+	private final ThreadLocal<AsciiSpecInvoker> invokers = ThreadLocal.withInitial(AsciiSpecInvoker::new);
 
 	public AsciiSpecServer() {
+		this(WORKERS, QUEUE_SIZE, TIMEOUT);
 	}
 
-	public static void main(String[] args) throws IOException {
-		int port = getPort(args);
-		ServerSocket socket = new ServerSocket(port);
-		new AsciiSpecServer().run(socket);
+	/**
+	 * Constructor
+	 *
+	 * @param workers
+	 *            the number of jobs that run in parallel
+	 * @param queueSize
+	 *            the number of jobs that may wait for a worker
+	 * @param timeoutSeconds
+	 *            the default maximum run time of a job; zero for no timeout
+	 */
+	public AsciiSpecServer(int workers, int queueSize, int timeoutSeconds) {
+		this.workers = workers;
+		this.queueSize = queueSize;
+		this.timeoutMillis = timeoutSeconds * 1000L;
+		BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize)
+				: new SynchronousQueue<>();
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue,
+				new NamedThreadFactory("asciispec-worker-"));
+		this.connections = Executors.newCachedThreadPool(new NamedThreadFactory("asciispec-connection-"));
+		this.housekeeping = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("asciispec-housekeeping-"));
 	}
 
-	private static int getPort(String[] args) {
-		if ((args != null) && (args.length > 0)) {
+	public static void main(String[] args) throws IOException {
+		HackJRuby.disableSecureRandoms();
+
+		int port = PORT;
+		String socketPath = null;
+		int workers = WORKERS;
+		int queueSize = QUEUE_SIZE;
+		int timeout = TIMEOUT;
+		int sessionIdle = SESSION_IDLE;
+		boolean warmup = false;
+		List<String> libraries = new ArrayList<>();
+		for (int i = 0; args != null && i < args.length; i++) {
+			String arg = args[i];
+			boolean hasValue = i + 1 < args.length;
+			if (arg.equals(OPTION_SOCKET) && hasValue) {
+				socketPath = args[++i];
+			} else if (arg.equals(OPTION_WORKERS) && hasValue) {
+				workers = Math.max(1, getInt(arg, args[++i], workers));
+			} else if (arg.equals(OPTION_QUEUE) && hasValue) {
+				queueSize = Math.max(0, getInt(arg, args[++i], queueSize));
+			} else if (arg.equals(OPTION_TIMEOUT) && hasValue) {
+				timeout = Math.max(0, getInt(arg, args[++i], timeout));
+			} else if (arg.equals(OPTION_CACHE_BUDGET) && hasValue) {
+				int budget = Math.max(0, getInt(arg, args[++i], -1));
+				if (budget >= 0)
+					ProjectSession.setBudget(budget * 1024L * 1024L);
+			} else if (arg.equals(OPTION_CACHE_WEIGHT) && hasValue) {
+				setCacheWeight(args[++i]);
+			} else if (arg.equals(OPTION_SESSION_IDLE) && hasValue) {
+				sessionIdle = Math.max(0, getInt(arg, args[++i], sessionIdle));
+			} else if (arg.equals(OPTION_WARMUP)) {
+				warmup = true;
+			} else if (arg.equals(OPTION_REQUIRE) && hasValue) {
+				libraries.add(args[++i]);
+			} else if (getPort(arg) > 0) {
+				port = getPort(arg);
+			} else {
+				// e.g. a misspelled option or an option whose value is missing
+				System.err.println("asciispecSv: WARN: Ignoring unknown or incomplete argument: " + arg);
+			}
+		}
+
+		ProjectSession.setIdleTimeout(TimeUnit.MINUTES.toMillis(sessionIdle));
+		List<ConnectionListener> listeners = new ArrayList<>();
+		listeners.add(ConnectionListener.tcp(port));
+		if (socketPath != null) {
 			try {
-				int portArg = Integer.parseInt(args[0]);
-				if (portArg > 0) {
-					return portArg;
-				}
-			} catch (Throwable localThrowable) {
+				listeners.add(ConnectionListener.unix(Paths.get(socketPath)));
+			} catch (IOException e) {
+				System.err.println("asciispecSv: WARN: Cannot listen on " + socketPath + ": " + e.getMessage());
+			}
+		}
+		AsciiSpecServer server = new AsciiSpecServer(workers, queueSize, timeout);
+		server.routeSystemStreams();
+		if (warmup) {
+			server.warmUp(libraries);
+		}
+		server.run(listeners);
+	}
+
+	/**
+	 * Returns the port given by a positional argument, or -1 if the argument
+	 * is not a port number.
+	 */
+	static int getPort(String arg) {
+		try {
+			int portArg = Integer.parseInt(arg);
+			if (portArg > 0 && portArg <= 0xFFFF) {
+				return portArg;
 			}
+		} catch (NumberFormatException e) {
 		}
-		return PORT;
+		return -1;
+	}
+
+	private static void setCacheWeight(String value) {
+		int index = value.indexOf('=');
+		try {
+			ProjectSession.setWeight(value.substring(0, index), Double.parseDouble(value.substring(index + 1)));
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			System.err.println("Invalid value for " + OPTION_CACHE_WEIGHT + ": " + value);
+		}
+	}
+
+	private static int getInt(String option, String value, int defaultValue) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value for " + option + ": " + value);
+		}
+		return defaultValue;
 	}
 
 	PrintStream sysOut = System.out;
+	PrintStream sysErr = System.err;
+
+	/**
+	 * Starts one warm-up per worker. Since the pool starts a new thread for
+	 * each task as long as there are fewer threads than workers, every worker
+	 * thread executes exactly one of these tasks. Jobs sent meanwhile are
+	 * queued.
+	 */
+	private void warmUp(List<String> libraries) {
+		for (int i = 0; i < workers; i++) {
+			executor.execute(() -> {
+				long start = System.currentTimeMillis();
+				try {
+					invokers.get().warmUp(libraries, WARMUP_RENDERS);
+					sysOut.println("Asciispec Server: " + Thread.currentThread().getName() + " warmed up in "
+							+ (System.currentTimeMillis() - start) + " ms");
+				} catch (Throwable t) {
+					sysOut.println("Asciispec Server: Warm-up failed: " + t);
+				}
+			});
+		}
+	}
+
+	private String lastCacheReport;
+
+	/**
+	 * Drops idle project sessions and reports the usage of the caches if it
+	 * has changed since the last report.
+	 */
+	private void houseKeeping() {
+		try {
+			int dropped = ProjectSession.dropIdleSessions();
+			if (dropped > 0) {
+				sysOut.println("Asciispec Server: Dropped " + dropped + " idle project session(s)");
+			}
+			String report = ProjectSession.getStatistics().toString();
+			if (!report.equals(lastCacheReport)) {
+				lastCacheReport = report;
+				sysOut.println("Asciispec Server: Caches: " + report);
+			}
+		} catch (Throwable t) {
+			t.printStackTrace(sysOut);
+		}
+	}
+
+	/**
+	 * Replaces {@link System#out} and {@link System#err} by streams that write
+	 * to the job of the current thread. This has to happen before the first
+	 * Asciidoctor instance is created, since JRuby captures the standard
+	 * streams when its runtime is created.
+	 */
+	private void routeSystemStreams() throws IOException {
+		System.setOut(ThreadRoutingPrintStream.forOut(sysOut, ENCODING));
+		System.setErr(ThreadRoutingPrintStream.forDiagnostics(sysErr, ENCODING));
+	}
+
+	/**
+	 * Accepts clients on all given listeners. The first listener is served by
+	 * the calling thread, the others by threads of their own.
+	 */
+	private void run(List<ConnectionListener> listeners) throws IOException {
+		StringBuilder addresses = new StringBuilder();
+		for (ConnectionListener listener : listeners) {
+			addresses.append(addresses.length() == 0 ? "" : " and ").append(listener.getAddress());
+		}
+		sysOut.println("Asciispec Server started on " + addresses + " with " + workers + " worker(s) and a queue of "
+				+ queueSize + " job(s)");
+		housekeeping.scheduleWithFixedDelay(this::houseKeeping, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL,
+				TimeUnit.SECONDS);
+		for (ConnectionListener listener : listeners.subList(1, listeners.size())) {
+			Thread acceptor = new Thread(() -> acceptClients(listener), "asciispec-acceptor-" + listener.getAddress());
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+		acceptClients(listeners.get(0));
+		for (ConnectionListener listener : listeners) {
+			listener.close();
+		}
+		executor.shutdown();
+		connections.shutdown();
+		housekeeping.shutdown();
+		sysOut.println("Asciispec Server terminated.");
+	}
 
-	private void run(ServerSocket socket) {
-		sysOut.println("Asciispec Server started on port " + socket.getLocalPort());
+	private void acceptClients(ConnectionListener listener) {
 		while (!Thread.interrupted()) {
 			try {
-				Socket client = socket.accept();
+				ClientConnection client = listener.accept();
 				sysOut.println("Asciispec Server: Client accepted");
-				BufferedReader br = setupClient(client);
-				handleClient(client, br);
+				connections.execute(() -> handleConnection(client));
 			} catch (IOException e) {
-				e.printStackTrace();
+				e.printStackTrace(sysOut);
 			}
 		}
-		sysOut.println("Asciispec Server terminated.");
 	}
 
-	private BufferedReader setupClient(Socket client) throws IOException, java.io.UnsupportedEncodingException {
-		OutputStream os = client.getOutputStream();
-		System.setOut(new PrintStream(os));
-		System.setErr(new PrintStream(os));
-		InputStream is = client.getInputStream();
-		BufferedReader br = new BufferedReader(new InputStreamReader(is, ENCODING));
-		return br;
+	/**
+	 * Tells the framed protocol from the line based protocol of older clients
+	 * by the first byte sent: framed messages always start with a digit.
+	 * Clients that close the connection without sending anything only check
+	 * whether the server is up.
+	 */
+	private void handleConnection(ClientConnection client) {
+		try {
+			InputStream is = new BufferedInputStream(client.getInputStream());
+			is.mark(1);
+			int first = is.read();
+			is.reset();
+			if (first < 0) {
+				closeQuietly(client);
+			} else if (first >= '0' && first <= '9') {
+				handleFramedClient(client, is);
+			} else {
+				handleLineClient(client, is);
+			}
+		} catch (IOException e) {
+			e.printStackTrace(sysOut);
+			closeQuietly(client);
+		}
 	}
 
-	private void handleClient(Socket client, BufferedReader br) {
+	/**
+	 * Reads messages until the client closes its output and runs the jobs in
+	 * the worker pool. Jobs of the same connection may run in parallel; their
+	 * messages carry the job id given by the client.
+	 */
+	private void handleFramedClient(ClientConnection client, InputStream is) throws IOException {
+		FramedConnection connection = new FramedConnection(client);
 		try {
-			String line = br.readLine();
-			System.out.println("asciispecSv: INFO: Job received: " + line);
-			String[] args = parseAndFilterArgs(line);
-			AsciidoctorInvoker.main(args);
-			System.out.println("asciispecSv: INFO: Job finished");
-			client.close();
+			Message message;
+			while ((message = Message.read(is)) != null) {
+				if (Message.JOB.equals(message.getType())) {
+					submitFramedJob(connection, message);
+				} else if (Message.BATCH.equals(message.getType())) {
+					submitBatch(connection, message);
+				} else if (Message.METRICS.equals(message.getType())) {
+					connection.send(metrics.createMessage(executor, queueSize));
+				} else if (Message.CANCEL.equals(message.getType())) {
+					connection.cancel(message.get("id"), "cancelled by client");
+				} else {
+					connection.send(new Message(Message.DIAG).add("id", String.valueOf(message.get("id")))
+							.add("text", "asciispecSv: ERROR: Unknown message type " + message.getType() + "\n"));
+				}
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (Throwable t) {
-			t.printStackTrace();
+			connection.send(new Message(Message.DIAG).add("id", "").add("text",
+					"asciispecSv: ERROR: " + e.getMessage() + "\n"));
+		} finally {
+			connection.close();
 		}
 		sysOut.println("Asciispec Server: Client finished.");
 	}
 
-	private String[] parseAndFilterArgs(String line) {
-		String[] args = line.split("\\s");
-		args = consumeWorkingDir(args);
-		return args;
+	private void submitFramedJob(FramedConnection connection, Message message) throws IOException {
+		String id = String.valueOf(message.get("id"));
+		File workingDir = getWorkingDir(message);
+		long timeout = getTimeout(message);
+		JobContext job = new JobContext(connection.createStream(Message.OUT, id),
+				connection.createStream(Message.DIAG, id));
+		job.setOverlays(getOverlays(message, workingDir));
+
+		connection.jobStarted(id, job);
+		try {
+			execute(job, workingDir, message.getAll("arg"), timeout, (status, queuedMillis, runMillis) -> {
+				connection.send(createStatus(id, job, status, queuedMillis, runMillis));
+				connection.jobFinished(id, job);
+			});
+		} catch (RejectedExecutionException e) {
+			connection.jobFinished(id, job);
+			metrics.jobRejected();
+			connection.send(new Message(Message.BUSY).add("id", id).add("text", getBusyMessage()));
+			sysOut.println("Asciispec Server: Job rejected, server busy.");
+		}
+	}
+
+	/**
+	 * Submits the documents of a batch as jobs of their own, see
+	 * {@link Message#BATCH}. The documents are submitted by a separate thread,
+	 * so that the connection is still able to receive a <code>CANCEL</code>
+	 * message for the batch.
+	 */
+	private void submitBatch(FramedConnection connection, Message message) throws IOException {
+		String id = String.valueOf(message.get("id"));
+		JobContext batch = new JobContext(connection.createStream(Message.OUT, id),
+				connection.createStream(Message.DIAG, id));
+		connection.jobStarted(id, batch);
+		connections.execute(() -> runBatch(connection, batch, id, message));
 	}
 
-	private String[] consumeWorkingDir(String[] args) {
-		List<String> newArgs = new LinkedList<>();
-		for (int i = 0; i < args.length; i++) {
-			if (args[i].equals("-B")) {
-				setWorkingDir(args[i + 1]);
-				i += 2;
+	/**
+	 * Runs the documents of a batch with at most one job per worker at a time,
+	 * so that a large batch neither fills the queue nor makes other clients
+	 * wait for all of its documents. The document jobs are registered with the
+	 * id of the batch, so cancelling the batch cancels all of them.
+	 */
+	private void runBatch(FramedConnection connection, JobContext batch, String id, Message message) {
+		long started = System.nanoTime();
+		File workingDir = getWorkingDir(message);
+		long timeout = getTimeout(message);
+		List<String> args = message.getAll("arg");
+		List<String> documents = message.getAll("doc");
+		Map<Path, String> overlays = getOverlays(message, workingDir);
+		Semaphore slots = new Semaphore(workers);
+		AtomicInteger worst = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		int submitted = 0;
+		try {
+			for (int i = 0; i < documents.size() && !batch.isCancelled(); i++) {
+				String docId = id + "." + (i + 1);
+				String document = documents.get(i);
+				List<String> docArgs = new ArrayList<>(args);
+				docArgs.add(document);
+				JobContext job = new JobContext(connection.createStream(Message.OUT, docId),
+						connection.createStream(Message.DIAG, docId));
+				job.setOverlays(overlays);
+				job.setRun(batch.getRun());
+
+				slots.acquire();
+				connection.jobStarted(id, job);
+				boolean accepted = false;
+				while (!accepted && !batch.isCancelled()) {
+					try {
+						execute(job, workingDir, docArgs, timeout, (status, queuedMillis, runMillis) -> {
+							if (status != 0)
+								failed.incrementAndGet();
+							worst.accumulateAndGet(status, Math::max);
+							connection.send(createStatus(docId, job, status, queuedMillis, runMillis).add("doc",
+									document));
+							connection.jobFinished(id, job);
+							slots.release();
+						});
+						accepted = true;
+						submitted++;
+					} catch (RejectedExecutionException e) {
+						// other clients keep the workers busy
+						Thread.sleep(BATCH_RETRY_MILLIS);
+					}
+				}
+				if (!accepted) {
+					connection.jobFinished(id, job);
+					slots.release();
+				}
 			}
-			if (i < args.length) {
-				newArgs.add(args[i]);
+			slots.acquire(workers);
+		} catch (IOException | InterruptedException e) {
+			batch.cancel(e.toString());
+		}
+
+		int status = worst.get();
+		if (status == 0 && batch.isCancelled())
+			status = AsciiSpecInvoker.EXIT_CANCELLED;
+		Message result = new Message(Message.STATUS).add("id", id).add("exit", status);
+		result.add("documents", documents.size());
+		result.add("submitted", submitted);
+		result.add("failed", failed.get());
+		result.add("run-ms", (System.nanoTime() - started) / 1000000);
+		if (batch.isCancelled()) {
+			result.add("cancelled", batch.getCancellation());
+		}
+		connection.send(result);
+		connection.jobFinished(id, batch);
+		sysOut.println("Asciispec Server: Batch " + id + " finished, " + submitted + " of " + documents.size()
+				+ " document(s) converted.");
+	}
+
+	private Message createStatus(String id, JobContext job, int status, long queuedMillis, long runMillis) {
+		Message result = new Message(Message.STATUS).add("id", id).add("exit", status);
+		result.add("errors", job.getErrorCount());
+		result.add("warnings", job.getWarningCount());
+		result.add("queued-ms", queuedMillis);
+		result.add("run-ms", runMillis);
+		if (job.isCancelled()) {
+			result.add("cancelled", job.getCancellation());
+		}
+		return result;
+	}
+
+	private File getWorkingDir(Message message) {
+		String cwd = message.get("cwd");
+		return cwd == null ? null : new File(cwd);
+	}
+
+	/**
+	 * Returns the overlays of a job, i.e. the unsaved contents of files sent by
+	 * an editor. Each <code>overlay</code> field with the path of a file is
+	 * followed by a <code>content</code> field with its contents.
+	 */
+	private Map<Path, String> getOverlays(Message message, File workingDir) {
+		List<String> paths = message.getAll("overlay");
+		List<String> contents = message.getAll("content");
+		Map<Path, String> overlays = new HashMap<>();
+		for (int i = 0; i < paths.size() && i < contents.size(); i++) {
+			Path path = Paths.get(paths.get(i));
+			if (workingDir != null) {
+				path = workingDir.toPath().resolve(path);
 			}
+			overlays.put(path, contents.get(i));
 		}
-		return newArgs.toArray(new String[newArgs.size()]);
+		return overlays;
 	}
 
-	private void setWorkingDir(String optionB) {
-		System.setProperty("user.dir", optionB);
+	private long getTimeout(Message message) {
+		return message.get("timeout") == null ? timeoutMillis : getInt("timeout", message.get("timeout"), 0) * 1000L;
+	}
+
+	/**
+	 * Runs a job of the line based protocol: the arguments are read from a
+	 * single line and split at whitespace, the output is sent as plain text
+	 * and the connection is closed when the job has finished.
+	 */
+	private void handleLineClient(ClientConnection client, InputStream is) throws IOException {
+		String line = new BufferedReader(new InputStreamReader(is, ENCODING)).readLine();
+		JobContext job = setupClient(client);
+		job.getOut().println("asciispecSv: INFO: Job " + job.getId() + " received: " + line);
+		List<String> args = parseArgs(line);
+		File workingDir = consumeWorkingDir(args);
+		try {
+			execute(job, workingDir, args, timeoutMillis, (status, queuedMillis, runMillis) -> {
+				job.getOut().println("asciispecSv: INFO: Job finished with status " + status + ", "
+						+ job.getErrorCount() + " error(s) and " + job.getWarningCount() + " warning(s)");
+				closeQuietly(client);
+				sysOut.println("Asciispec Server: Client finished.");
+			});
+		} catch (RejectedExecutionException e) {
+			metrics.jobRejected();
+			rejectClient(client);
+		}
+	}
+
+	/**
+	 * Submits a job to the worker pool. Older jobs that convert the same
+	 * documents (see {@link AsciiSpecInvoker#getSupersessionKey(File, List)})
+	 * are cancelled, no matter whether they are queued or already running.
+	 *
+	 * @param timeout
+	 *            the maximum run time of the job in milliseconds; zero for no
+	 *            timeout
+	 * @param callback
+	 *            is called by the worker thread after the job has finished
+	 * @throws RejectedExecutionException
+	 *             if the queue is full
+	 */
+	private void execute(JobContext job, File workingDir, List<String> args, long timeout, JobCallback callback)
+			throws RejectedExecutionException {
+		String key = AsciiSpecInvoker.getSupersessionKey(workingDir, args);
+		long submitted = System.nanoTime();
+		Runnable task = () -> {
+			long started = System.nanoTime();
+			int status;
+			try {
+				status = runJob(job, workingDir, args, timeout);
+			} finally {
+				if (key != null) {
+					latestJobs.remove(key, job);
+				}
+			}
+			long finished = System.nanoTime();
+			metrics.jobFinished(status, job.isCancelled(), (finished - submitted) / 1000000);
+			callback.finished(status, (started - submitted) / 1000000, (finished - started) / 1000000);
+		};
+
+		JobContext previous = key == null ? null : latestJobs.put(key, job);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			if (previous != null) {
+				latestJobs.replace(key, job, previous);
+			} else if (key != null) {
+				latestJobs.remove(key, job);
+			}
+			throw e;
+		}
+		if (previous != null) {
+			previous.cancel("superseded by job " + job.getId());
+			sysOut.println("Asciispec Server: Job " + previous.getId() + " superseded by job " + job.getId());
+		}
+	}
+
+	private int runJob(JobContext job, File workingDir, List<String> args, long timeout) {
+		JobContext.bind(job);
+		try {
+			if (job.isCancelled()) {
+				job.getDiagnostics().println("asciidoctor: CANCELLED: " + job.getCancellation());
+				return AsciiSpecInvoker.EXIT_CANCELLED;
+			}
+			job.startTimeout(timeout);
+			return invokers.get().invoke(workingDir, args.toArray(new String[args.size()]));
+		} catch (Throwable t) {
+			t.printStackTrace(job.getDiagnostics());
+			return 1;
+		} finally {
+			JobContext.unbind();
+		}
 	}
-}
 
+	private String getBusyMessage() {
+		return workers + " job(s) running and " + executor.getQueue().size() + " job(s) queued. Try again later.";
+	}
+
+	private void rejectClient(ClientConnection client) {
+		try {
+			PrintStream ps = new PrintStream(client.getOutputStream(), true, ENCODING);
+			ps.println("asciispecSv: BUSY: " + getBusyMessage());
+			ps.println();
+		} catch (IOException e) {
+			e.printStackTrace(sysOut);
+		} finally {
+			closeQuietly(client);
+		}
+		sysOut.println("Asciispec Server: Client rejected, server busy.");
+	}
+
+	private void closeQuietly(ClientConnection client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			e.printStackTrace(sysOut);
+		}
+	}
+
+	/**
+	 * Creates the context of the job sent by the given client. Output and
+	 * diagnostics are both sent to the client, but never to the console of the
+	 * server.
+	 */
+	private JobContext setupClient(ClientConnection client) throws IOException {
+		OutputStream os = client.getOutputStream();
+		PrintStream out = new PrintStream(os, true, ENCODING);
+		return new JobContext(out, out);
+	}
+
+	private List<String> parseArgs(String line) {
+		List<String> args = new LinkedList<>();
+		for (String arg : line.split("\\s")) {
+			if (!arg.isEmpty()) {
+				args.add(arg);
+			}
+		}
+		return args;
+	}
+
+	/**
+	 * Removes the working directory option <code>-B</code> from the given
+	 * arguments and returns its value. The process wide <code>user.dir</code>
+	 * property is not changed, since several jobs with different working
+	 * directories may run at the same time.
+	 */
+	private File consumeWorkingDir(List<String> args) {
+		File workingDir = null;
+		int index = args.indexOf("-B");
+		while (index >= 0 && index + 1 < args.size()) {
+			args.remove(index);
+			workingDir = new File(args.remove(index));
+			index = args.indexOf("-B");
+		}
+		return workingDir;
+	}
+
+	/**
+	 * Is notified by the worker thread when a job has finished.
+	 */
+	private interface JobCallback {
+		void finished(int status, long queuedMillis, long runMillis);
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
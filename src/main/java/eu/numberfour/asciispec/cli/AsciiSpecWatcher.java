@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.asciidoctor.cli.AsciidoctorCliOptions;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.StartupProfile;
+
+/**
+ * Converts documents like {@link AsciiSpecInvoker} and keeps watching their
+ * inputs afterwards. When an input changes, only the documents that depend on
+ * it are converted again, using the same warm Asciidoctor instance.
+ * <p>
+ * The inputs of a document are the files recorded while it is converted (see
+ * {@link JobContext#recordInput(Path)}): the document itself, its includes,
+ * and the project files that processors record when they read them, e.g.
+ * BibTeX files, source indexes and math includes. Changes of files read
+ * without being recorded do not trigger a conversion. New documents
+ * matching the input parameters are converted as soon as they appear, and
+ * documents that failed are converted again whenever a file is created, since
+ * the file may be a missing include. Changes made by the conversion itself,
+ * i.e. the output files, are ignored.
+ */
+public class AsciiSpecWatcher {
+
+	/** Command line option of {@link AsciiSpec} that starts the watch mode. */
+	public static final String OPTION_WATCH = "--watch";
+
+	/** Changes arriving within this time are handled together. */
+	static final long DEBOUNCE_MILLIS = 200;
+
+	private final AsciiSpecInvoker invoker = new AsciiSpecInvoker();
+	private final File workingDir;
+	private final List<String> options;
+	private final List<String> parameters;
+	private final Map<File, Set<Path>> inputs = new TreeMap<>();
+	private final Set<File> failed = new HashSet<>();
+	private final WatchService watchService;
+	private final Map<Path, WatchKey> watchedDirs = new HashMap<>();
+	private final Set<Path> pendingChanges = new HashSet<>();
+	private boolean filesCreated;
+
+	/**
+	 * Constructor
+	 *
+	 * @param workingDir
+	 *            the directory relative input files are resolved against
+	 * @param args
+	 *            the Asciidoctor command line arguments without
+	 *            {@value #OPTION_WATCH}
+	 * @throws ParameterException
+	 *             if the arguments are invalid
+	 */
+	public AsciiSpecWatcher(File workingDir, List<String> args) throws IOException {
+		this.workingDir = workingDir;
+		AsciidoctorCliOptions cliOptions = new AsciidoctorCliOptions();
+		List<String> cliArgs = AsciiSpecInvoker.removeInvokerOptions(args);
+		new JCommander(cliOptions, cliArgs.toArray(new String[cliArgs.size()]));
+		this.parameters = cliOptions.getParameters() == null ? new ArrayList<>() : cliOptions.getParameters();
+		this.options = AsciiSpecInvoker.getOptionArguments(args, parameters);
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Converts all documents and converts them again whenever their inputs
+	 * change. Returns only if no document was found or if the current thread
+	 * is interrupted.
+	 *
+	 * @return the exit status
+	 */
+	public int run() throws IOException {
+		List<File> documents = findDocuments();
+		if (documents.isEmpty()) {
+			System.err.println("asciidoctor: FAILED: input file(s) " + parameters + " missing or cannot be read");
+			return 1;
+		}
+		convert(documents);
+		StartupProfile.report(System.err);
+
+		try {
+			discardOwnChanges();
+			while (!Thread.currentThread().isInterrupted()) {
+				System.out.println("asciispec: Watching " + inputs.size() + " document(s) for changes.");
+				Set<Path> changed = awaitChanges();
+				Set<File> affected = findAffected(findDocuments(), inputs, changed, filesCreated ? failed : null);
+				inputs.keySet().removeIf(document -> !document.exists());
+				failed.removeIf(document -> !document.exists());
+				affected.removeIf(document -> !document.exists());
+				convert(affected);
+				discardOwnChanges();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			watchService.close();
+			invoker.shutdown();
+		}
+		return failed.isEmpty() ? 0 : 1;
+	}
+
+	/**
+	 * Returns the documents that have to be converted again.
+	 *
+	 * @param documents
+	 *            the documents currently matching the input parameters
+	 * @param inputs
+	 *            the inputs of the documents converted before
+	 * @param changed
+	 *            the changed files, or <code>null</code> if all documents are
+	 *            affected
+	 * @param failed
+	 *            the documents that failed and are converted again anyway, or
+	 *            <code>null</code>
+	 */
+	static Set<File> findAffected(Collection<File> documents, Map<File, Set<Path>> inputs, Set<Path> changed,
+			Collection<File> failed) {
+		Set<File> affected = new LinkedHashSet<>();
+		for (File document : documents) {
+			Set<Path> documentInputs = inputs.get(document);
+			if (documentInputs == null || changed == null || documentInputs.stream().anyMatch(changed::contains)) {
+				affected.add(document);
+			}
+		}
+		if (failed != null) {
+			affected.addAll(failed);
+		}
+		return affected;
+	}
+
+	private List<File> findDocuments() {
+		List<File> documents = new ArrayList<>();
+		for (String parameter : parameters) {
+			for (File document : AsciiSpecInvoker.findInputFiles(workingDir, parameter)) {
+				documents.add(document.getAbsoluteFile());
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * Converts each of the given documents on its own, records its inputs and
+	 * watches their directories.
+	 */
+	private void convert(Collection<File> documents) throws IOException {
+		for (File document : documents) {
+			long start = System.nanoTime();
+			JobContext job = new JobContext(System.out, System.err);
+			List<String> args = new ArrayList<>(options);
+			args.add(document.getPath());
+			int status;
+			JobContext.bind(job);
+			try {
+				status = invoker.invoke(workingDir, args.toArray(new String[args.size()]));
+			} catch (RuntimeException e) {
+				e.printStackTrace(job.getDiagnostics());
+				status = 1;
+			} finally {
+				JobContext.unbind();
+			}
+
+			Set<Path> documentInputs = job.takeInputs();
+			documentInputs.add(document.toPath().normalize());
+			inputs.put(document, documentInputs);
+			if (status != 0 || job.getErrorCount() > 0) {
+				failed.add(document);
+			} else {
+				failed.remove(document);
+			}
+			for (Path input : documentInputs) {
+				watch(input.getParent());
+			}
+			System.out.println("asciispec: Converted " + document + " in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms" + (status != 0 ? " (failed)" : ""));
+		}
+	}
+
+	private void watch(Path dir) throws IOException {
+		if (dir == null || watchedDirs.containsKey(dir) || !dir.toFile().isDirectory())
+			return;
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watchedDirs.put(dir, key);
+	}
+
+	/**
+	 * Drops the events caused by the output written by the last conversions.
+	 * Changes of inputs that happened meanwhile are kept for the next
+	 * {@link #awaitChanges()}.
+	 */
+	private void discardOwnChanges() {
+		Set<Path> known = new HashSet<>();
+		inputs.values().forEach(known::addAll);
+		WatchKey key;
+		while ((key = watchService.poll()) != null) {
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+					Path path = dir.resolve((Path) event.context()).normalize();
+					if (known.contains(path))
+						pendingChanges.add(path);
+				}
+			}
+			if (!key.reset()) {
+				watchedDirs.remove(dir);
+			}
+		}
+	}
+
+	/**
+	 * Waits for changes in the watched directories. Editors often write a file
+	 * in several steps, so further changes are collected until none arrives
+	 * for {@value #DEBOUNCE_MILLIS} ms.
+	 *
+	 * @return the changed files or <code>null</code> if events were lost and
+	 *         all documents have to be converted
+	 */
+	private Set<Path> awaitChanges() throws InterruptedException {
+		Set<Path> changed = new HashSet<>(pendingChanges);
+		pendingChanges.clear();
+		boolean overflow = false;
+		filesCreated = false;
+		WatchKey key = changed.isEmpty() ? watchService.take()
+				: watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+		while (key != null) {
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					overflow = true;
+				} else {
+					changed.add(dir.resolve((Path) event.context()).normalize());
+					filesCreated |= event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+				}
+			}
+			if (!key.reset()) {
+				watchedDirs.remove(dir);
+			}
+			key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return overflow ? null : changed;
+	}
+}
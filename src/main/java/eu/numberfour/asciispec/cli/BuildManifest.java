@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * Records the inputs of converted documents, so that later runs can skip the
+ * documents whose inputs have not changed.
+ * <p>
+ * The inputs of a document are the files recorded while it was converted (see
+ * {@link JobContext#recordInput(Path)}), e.g. the document itself, its
+ * includes, the source index, bibliographies and included LaTeX commands. For
+ * each input, the manifest keeps the modification time, the size and a hash
+ * of the contents. A document is up to date if it was converted with the same
+ * options, all of its inputs still have the same contents and all files
+ * written for it (see {@link JobContext#recordOutput(Path)}) still exist.
+ * Inputs whose modification time and size are unchanged are not hashed again.
+ * <p>
+ * The manifest is a text file with one line per document, followed by one
+ * line per input and output, each with tab separated fields:
+ *
+ * <pre>
+ * document	&lt;path&gt;	&lt;hash of the options&gt;
+ * input	&lt;path&gt;	&lt;modification time&gt;	&lt;size&gt;	&lt;hash&gt;
+ * output	&lt;path&gt;
+ * </pre>
+ *
+ * The methods of a manifest may be called by several threads at once.
+ */
+class BuildManifest {
+
+	static final String HEADER = "# AsciiSpec build manifest, version 2";
+
+	private final Path file;
+	private final Map<Path, DocumentEntry> documents = new TreeMap<>();
+
+	private BuildManifest(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the manifest from the given file. Returns an empty manifest if the
+	 * file does not exist or cannot be read, so that all documents are
+	 * converted.
+	 */
+	static BuildManifest load(Path file) {
+		BuildManifest manifest = new BuildManifest(file);
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine()))
+				throw new IOException("unknown format");
+			DocumentEntry document = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields[0].equals("document") && fields.length == 3) {
+					document = new DocumentEntry(fields[2]);
+					manifest.documents.put(Paths.get(fields[1]), document);
+				} else if (fields[0].equals("input") && fields.length == 5 && document != null) {
+					document.inputs.put(Paths.get(fields[1]),
+							new InputEntry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4]));
+				} else if (fields[0].equals("output") && fields.length == 2 && document != null) {
+					document.outputs.add(Paths.get(fields[1]));
+				} else {
+					throw new IOException("invalid line: " + line);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// first run
+		} catch (IOException | RuntimeException e) {
+			JobContext.diagnostics()
+					.println("asciidoctor: WARNING: Ignoring build manifest " + file + ": " + e.getMessage());
+			manifest.documents.clear();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Returns <code>true</code> iff the given document was converted with the
+	 * given options, none of its inputs has changed since and none of its
+	 * outputs was deleted.
+	 *
+	 * @param options
+	 *            the options of the conversion, e.g. the command line
+	 *            arguments without the input files
+	 */
+	synchronized boolean isUpToDate(File document, String options) {
+		DocumentEntry entry = documents.get(normalize(document.toPath()));
+		if (entry == null || !entry.optionsHash.equals(hash(options)))
+			return false;
+		for (Path output : entry.outputs) {
+			if (!Files.isRegularFile(output))
+				return false;
+		}
+		for (Map.Entry<Path, InputEntry> input : entry.inputs.entrySet()) {
+			if (JobContext.getOverlay(input.getKey()) != null)
+				return false;
+			try {
+				InputEntry current = stamp(input.getKey(), input.getValue());
+				if (!current.hash.equals(input.getValue().hash))
+					return false;
+				input.setValue(current);
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records the inputs and the outputs of a document that was converted
+	 * successfully.
+	 */
+	synchronized void update(File document, String options, Set<Path> inputs, Set<Path> outputs) {
+		DocumentEntry entry = new DocumentEntry(hash(options));
+		for (Path output : outputs)
+			entry.outputs.add(normalize(output));
+		DocumentEntry previous = documents.get(normalize(document.toPath()));
+		for (Path input : inputs) {
+			Path path = normalize(input);
+			try {
+				entry.inputs.put(path, stamp(path, previous == null ? null : previous.inputs.get(path)));
+			} catch (IOException e) {
+				// the document will be converted again by the next run
+				documents.remove(normalize(document.toPath()));
+				return;
+			}
+		}
+		documents.put(normalize(document.toPath()), entry);
+	}
+
+	/**
+	 * Forgets the given document, e.g. since its conversion failed.
+	 */
+	synchronized void remove(File document) {
+		documents.remove(normalize(document.toPath()));
+	}
+
+	/**
+	 * Writes the manifest. The file is replaced atomically, so an interrupted
+	 * run never leaves a corrupt manifest behind.
+	 */
+	synchronized void save() throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Map.Entry<Path, DocumentEntry> document : documents.entrySet()) {
+				writer.write("document\t" + document.getKey() + "\t" + document.getValue().optionsHash);
+				writer.newLine();
+				for (Map.Entry<Path, InputEntry> input : document.getValue().inputs.entrySet()) {
+					InputEntry entry = input.getValue();
+					writer.write("input\t" + input.getKey() + "\t" + entry.modified + "\t" + entry.size + "\t"
+							+ entry.hash);
+					writer.newLine();
+				}
+				for (Path output : document.getValue().outputs) {
+					writer.write("output\t" + output);
+					writer.newLine();
+				}
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the current state of the given input. The contents are only
+	 * hashed if the modification time or the size differ from the given
+	 * previous state.
+	 */
+	private static InputEntry stamp(Path input, InputEntry previous) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(input, BasicFileAttributes.class);
+		long modified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+		if (previous != null && previous.modified == modified && previous.size == size)
+			return previous;
+
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[8192];
+		try (InputStream is = Files.newInputStream(input)) {
+			int count;
+			while ((count = is.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+		}
+		return new InputEntry(modified, size, toHex(digest.digest()));
+	}
+
+	private static String hash(String text) {
+		return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return result.toString();
+	}
+
+	private static Path normalize(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+
+	private static class DocumentEntry {
+		final String optionsHash;
+		final Map<Path, InputEntry> inputs = new TreeMap<>();
+		final Set<Path> outputs = new TreeSet<>();
+
+		DocumentEntry(String optionsHash) {
+			this.optionsHash = optionsHash;
+		}
+	}
+
+	private static class InputEntry {
+		final long modified;
+		final long size;
+		final String hash;
+
+		InputEntry(long modified, long size, String hash) {
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+		}
+	}
+}
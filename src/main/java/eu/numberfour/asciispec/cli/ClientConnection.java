@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection to a client of the server, either over TCP or over a Unix
+ * domain socket.
+ */
+abstract class ClientConnection implements Closeable {
+
+	/**
+	 * Returns the stream of the data sent by the client.
+	 */
+	abstract InputStream getInputStream() throws IOException;
+
+	/**
+	 * Returns the stream of the data sent to the client.
+	 */
+	abstract OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Creates a connection for the given TCP socket.
+	 */
+	static ClientConnection of(Socket socket) {
+		return new ClientConnection() {
+			@Override
+			InputStream getInputStream() throws IOException {
+				return socket.getInputStream();
+			}
+
+			@Override
+			OutputStream getOutputStream() throws IOException {
+				return socket.getOutputStream();
+			}
+
+			@Override
+			public void close() throws IOException {
+				socket.close();
+			}
+		};
+	}
+
+	/**
+	 * Creates a connection for the given blocking channel. In contrast to the
+	 * streams of {@link java.nio.channels.Channels}, the returned streams may
+	 * be used by different threads at the same time, e.g. a worker may write
+	 * while the connection waits for the next message of the client.
+	 */
+	static ClientConnection of(SocketChannel channel) {
+		InputStream is = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int count = read(b, 0, 1);
+				return count < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				return channel.read(ByteBuffer.wrap(b, off, len));
+			}
+		};
+		OutputStream os = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		};
+		return new ClientConnection() {
+			@Override
+			InputStream getInputStream() {
+				return is;
+			}
+
+			@Override
+			OutputStream getOutputStream() {
+				return os;
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+}
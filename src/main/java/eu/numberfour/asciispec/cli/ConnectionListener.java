@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Accepts the connections of clients.
+ */
+interface ConnectionListener extends Closeable {
+
+	/**
+	 * Waits for the next client.
+	 */
+	ClientConnection accept() throws IOException;
+
+	/**
+	 * Returns the address this listener is bound to, for the console.
+	 */
+	String getAddress();
+
+	/**
+	 * Creates a listener on the given TCP port of all local addresses.
+	 */
+	static ConnectionListener tcp(int port) throws IOException {
+		ServerSocket socket = new ServerSocket(port);
+		return new ConnectionListener() {
+			@Override
+			public ClientConnection accept() throws IOException {
+				return ClientConnection.of(socket.accept());
+			}
+
+			@Override
+			public String getAddress() {
+				return "port " + socket.getLocalPort();
+			}
+
+			@Override
+			public void close() throws IOException {
+				socket.close();
+			}
+		};
+	}
+
+	/**
+	 * Creates a listener on a Unix domain socket at the given path. A stale
+	 * socket file left by a previous server is replaced.
+	 * <p>
+	 * Unix domain sockets are supported by Java 16 and later only. Since
+	 * AsciiSpec is compiled for Java 8, the API is accessed by reflection.
+	 *
+	 * @throws IOException
+	 *             if the socket cannot be created, e.g. if the runtime does
+	 *             not support Unix domain sockets
+	 */
+	static ConnectionListener unix(Path path) throws IOException {
+		ServerSocketChannel channel;
+		try {
+			ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+					.invoke(null, unix);
+			SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+					.getMethod("of", Path.class).invoke(null, path);
+			Files.deleteIfExists(path);
+			channel.bind(address);
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			throw new IOException("Unix domain sockets require Java 16 or later", e);
+		}
+
+		return new ConnectionListener() {
+			@Override
+			public ClientConnection accept() throws IOException {
+				return ClientConnection.of(channel.accept());
+			}
+
+			@Override
+			public String getAddress() {
+				return "socket " + path;
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+				Files.deleteIfExists(path);
+			}
+		};
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * A client connection using the framed protocol (see {@link Message}). Several
+ * jobs of one connection may run at the same time, so messages are written
+ * atomically. Once the client has sent its last job, the connection waits for
+ * all of its jobs before it is closed.
+ */
+class FramedConnection {
+
+	private final ClientConnection connection;
+	private final OutputStream os;
+	private final List<String> jobIds = new ArrayList<>();
+	private final List<JobContext> jobs = new ArrayList<>();
+	private boolean broken = false;
+
+	FramedConnection(ClientConnection connection) throws IOException {
+		this.connection = connection;
+		this.os = new BufferedOutputStream(connection.getOutputStream());
+	}
+
+	/**
+	 * Sends the given message. Errors are remembered and later messages are
+	 * dropped, since the client is gone in that case.
+	 */
+	synchronized void send(Message message) {
+		if (broken)
+			return;
+		try {
+			message.writeTo(os);
+			os.flush();
+		} catch (IOException e) {
+			broken = true;
+		}
+	}
+
+	/**
+	 * Returns a print stream that sends everything written to it as messages
+	 * of the given type for the job with the given id. Each flush results in
+	 * one message.
+	 */
+	PrintStream createStream(String type, String jobId) throws UnsupportedEncodingException {
+		return new PrintStream(new MessageOutputStream(type, jobId), true, StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * Registers a job that was sent over this connection.
+	 */
+	synchronized void jobStarted(String id, JobContext job) {
+		jobIds.add(id);
+		jobs.add(job);
+	}
+
+	/**
+	 * Removes a job registered with {@link #jobStarted(String, JobContext)}.
+	 */
+	synchronized void jobFinished(String id, JobContext job) {
+		int index = jobs.indexOf(job);
+		if (index >= 0) {
+			jobIds.remove(index);
+			jobs.remove(index);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Cancels all running jobs of this connection with the given id.
+	 */
+	synchronized void cancel(String id, String reason) {
+		for (int i = 0; i < jobIds.size(); i++) {
+			if (Objects.equals(jobIds.get(i), id))
+				jobs.get(i).cancel(reason);
+		}
+	}
+
+	/**
+	 * Waits for all jobs of this connection and closes it.
+	 */
+	synchronized void close() throws IOException {
+		while (!jobs.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		connection.close();
+	}
+
+	private class MessageOutputStream extends OutputStream {
+		private final String type;
+		private final String jobId;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		MessageOutputStream(String type, String jobId) {
+			this.type = type;
+			this.jobId = jobId;
+		}
+
+		@Override
+		public void write(int b) {
+			buffer.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			buffer.write(b, off, len);
+		}
+
+		@Override
+		public void flush() {
+			if (buffer.size() > 0) {
+				String text = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+				buffer.reset();
+				send(new Message(type).add("id", jobId).add("text", text));
+			}
+		}
+
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+}
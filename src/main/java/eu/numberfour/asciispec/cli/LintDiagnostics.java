@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.issue.Issue;
+import eu.numberfour.asciispec.issue.Issue.Severity;
+
+/**
+ * The diagnostics channel of a job in lint mode (see
+ * {@link AsciiSpecInvoker#OPTION_LINT}). Asciidoctor itself reports problems
+ * such as missing include files as plain text lines, e.g.
+ *
+ * <pre>
+ * asciidoctor: WARNING: doc.adoc: line 3: include file not found: chapter.adoc
+ * </pre>
+ *
+ * Such lines are counted as issues of the job and printed as JSON to its
+ * output channel (see {@link Issue#toJson(Severity, File, int, String)}),
+ * like the issues of the AsciiSpec processors. All other lines are written to
+ * the original diagnostics channel.
+ */
+class LintDiagnostics extends OutputStream {
+
+	private static final Pattern MESSAGE_PATTERN = Pattern
+			.compile("asciidoctor: (WARNING|ERROR|FAILED): (?:(.+?): line (\\d+): )?(.*)");
+
+	private final JobContext job;
+	private final PrintStream target;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+	private int issues = 0;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param job
+	 *            the job counting the issues
+	 * @param target
+	 *            the stream the other lines are written to
+	 */
+	LintDiagnostics(JobContext job, PrintStream target) {
+		this.job = job;
+		this.target = target;
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		if (b == '\n') {
+			endLine();
+		} else {
+			line.write(b);
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++)
+			write(b[i]);
+	}
+
+	@Override
+	public synchronized void flush() {
+		target.flush();
+	}
+
+	/**
+	 * Handles a last line that is not terminated and flushes the target.
+	 */
+	@Override
+	public synchronized void close() {
+		if (line.size() > 0)
+			endLine();
+		flush();
+	}
+
+	/**
+	 * Returns the number of lines reported as issues.
+	 */
+	synchronized int getIssueCount() {
+		return issues;
+	}
+
+	private void endLine() {
+		String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+		line.reset();
+		if (text.endsWith("\r"))
+			text = text.substring(0, text.length() - 1);
+		Matcher matcher = MESSAGE_PATTERN.matcher(text);
+		if (!matcher.matches()) {
+			target.println(text);
+			return;
+		}
+		Severity severity = "WARNING".equals(matcher.group(1)) ? Severity.WARN : Severity.ERROR;
+		File file = matcher.group(2) == null ? null : new File(matcher.group(2));
+		int lineNumber = matcher.group(3) == null ? -1 : Integer.parseInt(matcher.group(3));
+		issues++;
+		job.count(severity);
+		job.getOut().println(Issue.toJson(severity, file, lineNumber, matcher.group(4)));
+	}
+}
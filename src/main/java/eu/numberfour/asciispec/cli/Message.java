@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A message of the framed server protocol.
+ * <p>
+ * A message consists of a type and an ordered list of fields. Keys may occur
+ * several times, e.g. the <code>arg</code> field of a {@link #JOB} message.
+ * All strings are encoded as UTF-8 <a href="https://cr.yp.to/proto/netstrings.txt">netstrings</a>,
+ * i.e. <code>&lt;byte length&gt;:&lt;bytes&gt;,</code>. A message is a
+ * netstring whose content is the concatenation of the netstrings of its type
+ * and of each key and value:
+ *
+ * <pre>
+ * 45:3:JOB,2:id,1:1,3:cwd,4:/tmp,3:arg,8:doc.adoc,,
+ * </pre>
+ *
+ * Since a message starts with a digit, the server tells it apart from the
+ * line based protocol of older clients.
+ */
+public final class Message {
+
+	/**
+	 * Client to server: runs a job. Fields: id, cwd, arg (repeated), timeout
+	 * (optional, in seconds), overlay and content (optional, repeated). Each
+	 * overlay field holds the path of a file, relative to cwd, that is read
+	 * from the following content field instead of the disk, e.g. a document
+	 * or include that was modified in an editor but not saved yet.
+	 */
+	public static final String JOB = "JOB";
+	/**
+	 * Client to server: converts several documents with the same arguments.
+	 * Fields: id, cwd, arg (repeated), doc (repeated), timeout (optional, in
+	 * seconds, per document), overlay and content (like {@link #JOB}, for all
+	 * documents). Each document runs as a job with the id
+	 * <code>&lt;id&gt;.&lt;n&gt;</code>, where n counts the documents from 1,
+	 * and its {@link #STATUS} has an additional doc field. The batch ends with
+	 * a {@link #STATUS} for its own id with the fields exit (the highest exit
+	 * status of the documents), documents, submitted, failed, run-ms and
+	 * cancelled (only if the batch was cancelled).
+	 */
+	public static final String BATCH = "BATCH";
+	/** Client to server: cancels a job or batch sent over the same connection. Fields: id. */
+	public static final String CANCEL = "CANCEL";
+	/** Server to client: output of a job. Fields: id, text. */
+	public static final String OUT = "OUT";
+	/** Server to client: diagnostics of a job. Fields: id, text. */
+	public static final String DIAG = "DIAG";
+	/**
+	 * Server to client: final status of a job. Fields: id, exit, errors,
+	 * warnings, queued-ms, run-ms, cancelled (only if the job was cancelled).
+	 */
+	public static final String STATUS = "STATUS";
+	/** Server to client: a job was rejected since the queue is full. Fields: id, text. */
+	public static final String BUSY = "BUSY";
+	/**
+	 * Client to server: requests the metrics of the server. Server to client:
+	 * the metrics, e.g. status, queue-depth, latency-p95-ms, one field each.
+	 */
+	public static final String METRICS = "METRICS";
+
+	/** Upper limit for the size of a single message in bytes. */
+	static final int MAX_SIZE = 64 * 1024 * 1024;
+
+	private final String type;
+	private final List<String> keys = new ArrayList<>();
+	private final List<String> values = new ArrayList<>();
+
+	/**
+	 * Creates a message of the given type without fields.
+	 */
+	public Message(String type) {
+		this.type = Objects.requireNonNull(type);
+	}
+
+	/**
+	 * Appends a field and returns this message.
+	 */
+	public Message add(String key, Object value) {
+		keys.add(Objects.requireNonNull(key));
+		values.add(String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Returns the type of this message.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the value of the first field with the given key or
+	 * <code>null</code> if there is none.
+	 */
+	public String get(String key) {
+		int index = keys.indexOf(key);
+		return index < 0 ? null : values.get(index);
+	}
+
+	/**
+	 * Returns the values of all fields with the given key in their order.
+	 */
+	public List<String> getAll(String key) {
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < keys.size(); i++) {
+			if (keys.get(i).equals(key))
+				result.add(values.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes this message to the given stream. The stream is not flushed.
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeNetstring(content, type.getBytes(StandardCharsets.UTF_8));
+		for (int i = 0; i < keys.size(); i++) {
+			writeNetstring(content, keys.get(i).getBytes(StandardCharsets.UTF_8));
+			writeNetstring(content, values.get(i).getBytes(StandardCharsets.UTF_8));
+		}
+		writeNetstring(os, content.toByteArray());
+	}
+
+	/**
+	 * Reads the next message from the given stream.
+	 *
+	 * @return the message or <code>null</code> if the stream ended before
+	 *         the first byte of a message
+	 * @throws ProtocolException
+	 *             if the data is not a well-formed message
+	 */
+	public static Message read(InputStream is) throws IOException {
+		byte[] content = readNetstring(is);
+		if (content == null)
+			return null;
+
+		int[] offset = { 0 };
+		Message message = new Message(nextString(content, offset));
+		while (offset[0] < content.length) {
+			String key = nextString(content, offset);
+			if (offset[0] >= content.length)
+				throw new ProtocolException("Missing value of field '" + key + "'");
+			message.add(key, nextString(content, offset));
+		}
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(type);
+		for (int i = 0; i < keys.size(); i++) {
+			builder.append(' ').append(keys.get(i)).append('=').append(values.get(i));
+		}
+		return builder.toString();
+	}
+
+	private static void writeNetstring(OutputStream os, byte[] bytes) throws IOException {
+		os.write(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+		os.write(':');
+		os.write(bytes);
+		os.write(',');
+	}
+
+	private static byte[] readNetstring(InputStream is) throws IOException {
+		int b = is.read();
+		if (b < 0)
+			return null;
+
+		long length = 0;
+		while (b != ':') {
+			if (b < '0' || b > '9')
+				throw new ProtocolException("Invalid character in message length: " + b);
+			length = length * 10 + (b - '0');
+			if (length > MAX_SIZE)
+				throw new ProtocolException("Message exceeds " + MAX_SIZE + " bytes");
+			b = is.read();
+			if (b < 0)
+				throw new EOFException("Stream ended within message length");
+		}
+
+		byte[] bytes = new byte[(int) length];
+		int read = 0;
+		while (read < bytes.length) {
+			int count = is.read(bytes, read, bytes.length - read);
+			if (count < 0)
+				throw new EOFException("Stream ended within message");
+			read += count;
+		}
+		if (is.read() != ',')
+			throw new ProtocolException("Missing ',' at end of message");
+		return bytes;
+	}
+
+	private static String nextString(byte[] content, int[] offset) throws ProtocolException {
+		int pos = offset[0];
+		int length = 0;
+		while (pos < content.length && content[pos] != ':') {
+			byte b = content[pos++];
+			if (b < '0' || b > '9' || length > MAX_SIZE / 10)
+				throw new ProtocolException("Invalid field length");
+			length = length * 10 + (b - '0');
+		}
+		int start = pos + 1;
+		int end = start + length;
+		if (pos >= content.length || end >= content.length || content[end] != ',')
+			throw new ProtocolException("Malformed field");
+		offset[0] = end + 1;
+		return new String(content, start, length, StandardCharsets.UTF_8);
+	}
+}
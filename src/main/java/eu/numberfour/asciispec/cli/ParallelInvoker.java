@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.asciidoctor.cli.AsciidoctorCliOptions;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ProjectSession;
+
+/**
+ * Converts the documents given by Asciidoctor command line arguments with
+ * several threads. Each thread has its own {@link AsciiSpecInvoker} and thus
+ * its own Asciidoctor instance and extension registry. Data loaded for the
+ * project, e.g. the source index and bibliographies, is shared by all threads
+ * through the {@link ProjectSession}. All documents belong to the same run
+ * (see {@link JobContext#getRun()}).
+ * <p>
+ * Every document is converted as a job of its own. The output and diagnostics
+ * of a document are buffered and printed when the document is finished, so the
+ * output of different documents is never interleaved. A document that fails,
+ * e.g. since its conversion throws an {@link Error}, does not abort the other
+ * documents; the failed documents are listed when all documents are done.
+ */
+public class ParallelInvoker {
+
+	/** Command line option of {@link AsciiSpec} that sets the number of threads. */
+	public static final String OPTION_JOBS = "--jobs";
+
+	private final int jobs;
+	private BuildManifest manifest;
+
+	/**
+	 * Constructor
+	 *
+	 * @param jobs
+	 *            the number of documents converted at the same time
+	 */
+	public ParallelInvoker(int jobs) {
+		this.jobs = Math.max(1, jobs);
+	}
+
+	/**
+	 * Sets the manifest used to skip up-to-date documents, see
+	 * {@link AsciiSpecInvoker#setManifest(BuildManifest)}.
+	 */
+	void setManifest(BuildManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Converts the documents given by the Asciidoctor command line arguments.
+	 *
+	 * @param workingDir
+	 *            the directory relative paths are resolved against, or
+	 *            <code>null</code> for the current directory
+	 * @param args
+	 *            the Asciidoctor command line arguments
+	 * @return the exit status, i.e. 0 if all documents were converted
+	 */
+	public int invoke(File workingDir, List<String> args) {
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+
+		List<String> cliArgs = AsciiSpecInvoker.removeInvokerOptions(args);
+		boolean lint = args.contains(AsciiSpecInvoker.OPTION_LINT);
+		// lint does not write the documents, so they must not be recorded
+		BuildManifest manifest = lint ? null : this.manifest;
+
+		AsciidoctorCliOptions cliOptions = new AsciidoctorCliOptions();
+		try {
+			new JCommander(cliOptions, cliArgs.toArray(new String[cliArgs.size()]));
+		} catch (ParameterException e) {
+			err.println("asciidoctor: FAILED: " + e.getMessage());
+			return 1;
+		}
+		List<String> parameters = cliOptions.getParameters();
+		if (parameters == null || parameters.isEmpty()) {
+			err.println("asciidoctor: FAILED: input file missing");
+			return 1;
+		}
+		List<File> documents = new ArrayList<>();
+		for (String parameter : parameters) {
+			List<File> matches = AsciiSpecInvoker.findInputFiles(workingDir, parameter);
+			if (matches.isEmpty()) {
+				err.println("asciidoctor: FAILED: input file(s) '" + parameter + "' missing or cannot be read");
+				return 1;
+			}
+			documents.addAll(matches);
+		}
+		List<String> options = AsciiSpecInvoker.getOptionArguments(args, parameters);
+		String manifestOptions = String.join("\n", options);
+
+		// Asciidoctor itself writes to the standard streams, which are routed
+		// to the buffers of the document being converted by the current thread
+		try {
+			System.setOut(ThreadRoutingPrintStream.forOut(out, StandardCharsets.UTF_8.name()));
+			System.setErr(ThreadRoutingPrintStream.forDiagnostics(err, StandardCharsets.UTF_8.name()));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		List<AsciiSpecInvoker> invokers = Collections.synchronizedList(new ArrayList<>());
+		ThreadLocal<AsciiSpecInvoker> invoker = ThreadLocal.withInitial(() -> {
+			AsciiSpecInvoker result = new AsciiSpecInvoker();
+			invokers.add(result);
+			return result;
+		});
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, documents.size()), r -> {
+			Thread thread = new Thread(r, "asciispec-job-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Object run = new Object();
+		int status = 0;
+		int skipped = 0;
+		List<File> failed = new ArrayList<>();
+		try {
+			Map<File, Future<Integer>> results = new LinkedHashMap<>();
+			for (File document : documents) {
+				if (manifest != null && manifest.isUpToDate(document, manifestOptions)) {
+					skipped++;
+					continue;
+				}
+				List<String> documentArgs = new ArrayList<>(options);
+				documentArgs.add(document.getPath());
+				results.put(document, executor.submit(() -> convert(invoker.get(), run, workingDir, document,
+						documentArgs, manifest, manifestOptions, out, err)));
+			}
+			for (Map.Entry<File, Future<Integer>> result : results.entrySet()) {
+				int documentStatus;
+				try {
+					documentStatus = result.getValue().get();
+				} catch (ExecutionException e) {
+					synchronized (this) {
+						err.println("asciidoctor: FAILED: Converting " + result.getKey() + " failed:");
+						e.getCause().printStackTrace(err);
+					}
+					if (manifest != null)
+						manifest.remove(result.getKey());
+					documentStatus = 1;
+				}
+				if (documentStatus != 0)
+					failed.add(result.getKey());
+				status = Math.max(status, documentStatus);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status = Math.max(status, AsciiSpecInvoker.EXIT_CANCELLED);
+		} finally {
+			executor.shutdownNow();
+			invokers.forEach(AsciiSpecInvoker::shutdown);
+			System.setOut(out);
+			System.setErr(err);
+		}
+
+		if (manifest != null) {
+			if (skipped > 0) {
+				out.println("asciispec: " + skipped + " of " + documents.size() + " document(s) up to date");
+			}
+			try {
+				manifest.save();
+			} catch (IOException e) {
+				err.println("asciidoctor: WARNING: Cannot write build manifest: " + e.getMessage());
+			}
+		}
+		if (!failed.isEmpty()) {
+			err.println("asciidoctor: FAILED: " + failed.size() + " of " + documents.size() + " document(s) failed:");
+			for (File document : failed)
+				err.println("  " + document);
+		}
+		return status;
+	}
+
+	private int convert(AsciiSpecInvoker invoker, Object run, File workingDir, File document, List<String> args,
+			BuildManifest manifest, String manifestOptions, PrintStream out, PrintStream err) throws IOException {
+		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+		ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+		String encoding = StandardCharsets.UTF_8.name();
+		JobContext job = new JobContext(new PrintStream(outBuffer, true, encoding),
+				new PrintStream(errBuffer, true, encoding));
+		job.setRun(run);
+
+		try {
+			int status;
+			JobContext.bind(job);
+			try {
+				status = invoke(invoker, workingDir, args);
+			} catch (RuntimeException e) {
+				e.printStackTrace(job.getDiagnostics());
+				status = 1;
+			} finally {
+				JobContext.unbind();
+			}
+
+			if (manifest != null) {
+				Set<Path> inputs = job.takeInputs();
+				inputs.add(document.toPath());
+				if (status == 0 && job.getErrorCount() == 0) {
+					manifest.update(document, manifestOptions, inputs, job.takeOutputs());
+				} else {
+					manifest.remove(document);
+				}
+			}
+			return status;
+		} finally {
+			// also printed if the conversion throws an error
+			synchronized (this) {
+				out.write(outBuffer.toByteArray());
+				out.flush();
+				err.write(errBuffer.toByteArray());
+				err.flush();
+			}
+		}
+	}
+
+	/**
+	 * Converts a single document with the given invoker in the job bound to
+	 * the current thread.
+	 */
+	int invoke(AsciiSpecInvoker invoker, File workingDir, List<String> args) {
+		return invoker.invoke(workingDir, args.toArray(new String[args.size()]));
+	}
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.findresolver.FileStackHelper;
+import eu.numberfour.asciispec.findresolver.MultipleFileMatchesException;
+import eu.numberfour.asciispec.processors.DirectoriesMixin;
+
+/**
+ * Builds a document that contains a single section of a master document, e.g.
+ * to preview the section an author is editing. The section is given by its id
+ * or by the file that is included for it.
+ * <p>
+ * The sources are scanned without Asciidoctor. Only the includes on the way to
+ * the section are read, following plain and <code>{find}</code> includes. The
+ * resulting document consists of the header of the master document, the
+ * attribute entries found on the way and one include directive with a line
+ * range for the section. Hence the preprocessors and the other processors only
+ * see the lines of the section, and relative paths in the section are still
+ * resolved against the file it is written in. The section is shifted to level
+ * 1 with <code>leveloffset</code>.
+ * <p>
+ * Since the sources are not preprocessed, conditional directives are ignored
+ * and attributes set in includes that are skipped are missing.
+ */
+class PartialDocument {
+
+	private static final Pattern HEADING = Pattern.compile("^(={1,6}|#{1,6})[ \\t]+(\\S.*?)(?:[ \\t]+\\1)?$");
+	private static final Pattern INLINE_ANCHOR = Pattern.compile("^(.*?)\\s*\\[\\[([^\\],]+)(?:,[^\\]]*)?\\]\\]$");
+	private static final Pattern BLOCK_ANCHOR = Pattern.compile("^\\[\\[([^\\],]+)(?:,[^\\]]*)?\\]\\]$");
+	private static final Pattern BLOCK_ID = Pattern.compile("^\\[[^\\]#,]*#([^\\].%,]+)[^\\]]*\\]$");
+	private static final Pattern BLOCK_ATTRIBUTES = Pattern.compile("^\\[.*\\]$");
+	private static final Pattern ATTRIBUTE_ENTRY = Pattern.compile("^:(!?\\w[\\w-]*!?):(?:[ \\t]+(.*))?$");
+	private static final Pattern INCLUDE = Pattern.compile("^include::([^\\[\\s][^\\[]*)\\[(.*)\\]$");
+	private static final Pattern LEVEL_OFFSET = Pattern.compile("(?:^|,)\\s*leveloffset=\"?([+-]?\\d+)\"?");
+	private static final Pattern VERBATIM_DELIMITER = Pattern.compile("^(-{4,}|\\.{4,}|/{4,}|\\+{4,}|```)$");
+	private static final Pattern ATTRIBUTE_REFERENCE = Pattern.compile("\\{(\\w[\\w-]*)\\}");
+	private static final Pattern INVALID_ID_CHARS = Pattern
+			.compile("<[^>]+>|&(?:[a-z][a-z]+\\d{0,2}|#\\d{2,5}|#x[\\da-f]{2,4});|[^ \\w\\-.]+");
+	private static final Pattern ID_SEPARATORS = Pattern.compile("[ .-]+");
+	private static final String FIND = "{find}";
+	private static final int MAX_INCLUDE_DEPTH = 64;
+
+	private final File master;
+	private final Path baseDir;
+	private final String sectionId;
+	private final Path sectionFile;
+	private final Map<String, String> attributes = new HashMap<>();
+	private final List<String> attributeEntries = new ArrayList<>();
+	private final Set<Path> visited = new HashSet<>();
+	private String include;
+
+	/**
+	 * Creates a partial document of the given master document.
+	 *
+	 * @param master
+	 *            the master document
+	 * @param baseDir
+	 *            the base directory of the conversion
+	 * @param attributes
+	 *            the attributes passed on the command line, e.g. findroot
+	 * @param sectionId
+	 *            the id of the section, or <code>null</code>
+	 * @param sectionFile
+	 *            the file included for the section, or <code>null</code>
+	 */
+	PartialDocument(File master, File baseDir, Map<String, Object> attributes, String sectionId, File sectionFile) {
+		this.master = master.getAbsoluteFile();
+		this.baseDir = baseDir.getAbsoluteFile().toPath();
+		this.sectionId = sectionId;
+		this.sectionFile = sectionFile == null ? null : sectionFile.getAbsoluteFile().toPath().normalize();
+		attributes.forEach((name, value) -> this.attributes.put(name, String.valueOf(value)));
+	}
+
+	/**
+	 * Returns the contents of the partial document.
+	 *
+	 * @throws FileNotFoundException
+	 *             if the section cannot be found
+	 */
+	String getContent() throws IOException {
+		List<String> lines = read(master.toPath());
+		int headerEnd = getHeaderEnd(lines);
+		List<String> result = new ArrayList<>();
+		int levelOffset = 0;
+		for (String line : lines.subList(0, headerEnd)) {
+			Matcher matcher = ATTRIBUTE_ENTRY.matcher(line);
+			if (matcher.matches()) {
+				levelOffset = setAttribute(matcher.group(1), matcher.group(2), levelOffset);
+				if (isLevelOffset(matcher.group(1)))
+					continue;
+			}
+			result.add(line);
+		}
+		if (!scan(master.toPath(), lines, headerEnd, levelOffset, 0)) {
+			String target = sectionId != null ? "Section '" + sectionId + "'" : "Include of '" + sectionFile + "'";
+			throw new FileNotFoundException(target + " not found in " + master);
+		}
+		result.addAll(attributeEntries);
+		result.add("");
+		result.add(include);
+		return String.join("\n", result);
+	}
+
+	/**
+	 * Returns the index after the header of the given document, i.e. of the
+	 * first empty line after the document title. Returns 0 if the document has
+	 * no title.
+	 */
+	private static int getHeaderEnd(List<String> lines) {
+		int i = 0;
+		while (i < lines.size() && (lines.get(i).trim().isEmpty() || lines.get(i).startsWith("//")
+				|| BLOCK_ATTRIBUTES.matcher(lines.get(i)).matches()))
+			i++;
+		if (i >= lines.size() || !lines.get(i).matches("^[=#][ \\t]+\\S.*$"))
+			return 0;
+		while (i < lines.size() && !lines.get(i).trim().isEmpty())
+			i++;
+		return i;
+	}
+
+	/**
+	 * Scans the given file for the section, starting after the given line.
+	 * Creates the include directive and returns <code>true</code> when the
+	 * section was found.
+	 *
+	 * @param levelOffset
+	 *            the level offset of the file, i.e. the difference between the
+	 *            level of a section in the whole document and the number of
+	 *            markers of its title
+	 */
+	private boolean scan(Path file, List<String> lines, int start, int levelOffset, int depth) throws IOException {
+		if (depth > MAX_INCLUDE_DEPTH || !visited.add(file))
+			return false;
+		JobContext.recordInput(file);
+
+		String verbatim = null;
+		String anchor = null;
+		int blockStart = -1;
+		for (int i = start; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (verbatim != null) {
+				if (line.equals(verbatim))
+					verbatim = null;
+				continue;
+			}
+			if (VERBATIM_DELIMITER.matcher(line).matches()) {
+				verbatim = line;
+				anchor = null;
+				blockStart = -1;
+				continue;
+			}
+			if (line.startsWith("//"))
+				continue;
+
+			Matcher matcher = ATTRIBUTE_ENTRY.matcher(line);
+			if (matcher.matches()) {
+				levelOffset = setAttribute(matcher.group(1), matcher.group(2), levelOffset);
+				if (!isLevelOffset(matcher.group(1)))
+					attributeEntries.add(line);
+				continue;
+			}
+
+			matcher = BLOCK_ANCHOR.matcher(line);
+			Matcher idMatcher = BLOCK_ID.matcher(line);
+			if (matcher.matches() || idMatcher.matches() || BLOCK_ATTRIBUTES.matcher(line).matches()) {
+				if (matcher.matches())
+					anchor = matcher.group(1).trim();
+				else if (idMatcher.matches())
+					anchor = idMatcher.group(1).trim();
+				if (blockStart < 0)
+					blockStart = i;
+				continue;
+			}
+
+			matcher = HEADING.matcher(line);
+			if (matcher.matches()) {
+				int level = matcher.group(1).length() - 1 + levelOffset;
+				String title = matcher.group(2);
+				Matcher inline = INLINE_ANCHOR.matcher(title);
+				if (anchor == null && inline.matches()) {
+					anchor = inline.group(2).trim();
+					title = inline.group(1);
+				}
+				String id = anchor != null ? anchor : generateId(title);
+				if (sectionId != null && sectionId.equals(id) && level > 0) {
+					int end = findEnd(lines, i + 1, level - levelOffset);
+					include = createInclude(file, blockStart >= 0 ? blockStart : i, end, lines.size(),
+							Math.min(level, 1) - level + levelOffset);
+					return true;
+				}
+			}
+
+			matcher = INCLUDE.matcher(line);
+			if (matcher.matches()) {
+				Path included = resolveInclude(file, matcher.group(1));
+				if (included != null) {
+					int includeOffset = levelOffset + getIncludeLevelOffset(matcher.group(2), levelOffset);
+					if (included.equals(sectionFile)) {
+						List<String> includedLines = read(included);
+						int first = findFirstHeadingLevel(includedLines);
+						int offset = first < 0 ? includeOffset : Math.min(first + includeOffset, 1) - first;
+						include = createInclude(included, 0, includedLines.size(), includedLines.size(), offset);
+						return true;
+					}
+					if (JobContext.exists(included) && scan(included, read(included), 0, includeOffset, depth + 1))
+						return true;
+				}
+			}
+
+			if (!line.trim().isEmpty()) {
+				anchor = null;
+				blockStart = -1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the given attribute and returns the new level offset.
+	 */
+	private int setAttribute(String name, String value, int levelOffset) {
+		boolean unset = name.startsWith("!") || name.endsWith("!");
+		name = name.replace("!", "");
+		if (unset) {
+			attributes.remove(name);
+			return "leveloffset".equals(name) ? 0 : levelOffset;
+		}
+		String text = value == null ? "" : value.trim();
+		attributes.put(name, text);
+		if ("leveloffset".equals(name)) {
+			try {
+				int offset = Integer.parseInt(text.replace("+", ""));
+				return text.startsWith("+") || text.startsWith("-") ? levelOffset + offset : offset;
+			} catch (NumberFormatException e) {
+				return levelOffset;
+			}
+		}
+		return levelOffset;
+	}
+
+	/**
+	 * Returns <code>true</code> iff the attribute entry with the given name
+	 * sets the level offset. Such entries are not copied, since the level
+	 * offset is applied by the include directive.
+	 */
+	private static boolean isLevelOffset(String name) {
+		return "leveloffset".equals(name.replace("!", ""));
+	}
+
+	/**
+	 * Returns the relative level offset of an include directive with the given
+	 * attributes.
+	 */
+	private static int getIncludeLevelOffset(String includeAttributes, int levelOffset) {
+		Matcher matcher = LEVEL_OFFSET.matcher(includeAttributes);
+		if (!matcher.find())
+			return 0;
+		String text = matcher.group(1);
+		int offset = Integer.parseInt(text.replace("+", ""));
+		return text.startsWith("+") || text.startsWith("-") ? offset : offset - levelOffset;
+	}
+
+	/**
+	 * Returns the index after the last line of the section whose title is at
+	 * the given line, i.e. the index of the next title with the same or a
+	 * lower number of markers.
+	 */
+	private static int findEnd(List<String> lines, int start, int markers) {
+		String verbatim = null;
+		for (int i = start; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (verbatim != null) {
+				if (line.equals(verbatim))
+					verbatim = null;
+			} else if (VERBATIM_DELIMITER.matcher(line).matches()) {
+				verbatim = line;
+			} else {
+				Matcher matcher = HEADING.matcher(line);
+				if (matcher.matches() && matcher.group(1).length() - 1 <= markers)
+					return i;
+			}
+		}
+		return lines.size();
+	}
+
+	/**
+	 * Returns the number of markers minus one of the first title in the given
+	 * lines, or -1 if there is none.
+	 */
+	private static int findFirstHeadingLevel(List<String> lines) {
+		String verbatim = null;
+		for (String line : lines) {
+			if (verbatim != null) {
+				if (line.equals(verbatim))
+					verbatim = null;
+			} else if (VERBATIM_DELIMITER.matcher(line).matches()) {
+				verbatim = line;
+			} else {
+				Matcher matcher = HEADING.matcher(line);
+				if (matcher.matches())
+					return matcher.group(1).length() - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves the target of an include directive in the given file. Returns
+	 * <code>null</code> if the target cannot be resolved, e.g. since it refers
+	 * to an unknown attribute.
+	 */
+	private Path resolveInclude(Path file, String target) {
+		Path dir = file.getParent();
+		if (target.startsWith(FIND)) {
+			try {
+				return FileStackHelper.searchRelativeTo(substitute(target.substring(FIND.length())), dir, baseDir,
+						attributes.get(DirectoriesMixin.FINDROOT)).toPath().toAbsolutePath().normalize();
+			} catch (FileNotFoundException | MultipleFileMatchesException e) {
+				return null;
+			}
+		}
+		String path = substitute(target);
+		if (path == null || path.contains("://"))
+			return null;
+		return dir.resolve(path).toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Replaces the attribute references in the given text. Returns
+	 * <code>null</code> if an attribute is not set.
+	 */
+	private String substitute(String text) {
+		Matcher matcher = ATTRIBUTE_REFERENCE.matcher(text);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			String value = attributes.get(matcher.group(1));
+			if (value == null)
+				return null;
+			matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	/**
+	 * Generates the id of a section the way Asciidoctor does with the default
+	 * <code>idprefix</code> and <code>idseparator</code>.
+	 */
+	private String generateId(String title) {
+		String prefix = attributes.getOrDefault("idprefix", "_");
+		String separator = attributes.getOrDefault("idseparator", "_");
+		String id = INVALID_ID_CHARS.matcher(title.toLowerCase(Locale.ROOT)).replaceAll("");
+		id = ID_SEPARATORS.matcher(id.trim()).replaceAll(separator);
+		if (!separator.isEmpty()) {
+			while (id.endsWith(separator))
+				id = id.substring(0, id.length() - separator.length());
+		}
+		return prefix + id;
+	}
+
+	/**
+	 * Creates an include directive for the given lines of the given file. The
+	 * path is relative to the base directory, which Asciidoctor resolves the
+	 * includes of a document passed as string against.
+	 *
+	 * @param start
+	 *            the index of the first line
+	 * @param end
+	 *            the index after the last line
+	 * @param size
+	 *            the number of lines of the file
+	 */
+	private String createInclude(Path file, int start, int end, int size, int levelOffset) {
+		String path = baseDir.relativize(file).toString().replace(File.separatorChar, '/');
+		List<String> attributes = new ArrayList<>();
+		if (start > 0 || end < size)
+			attributes.add("lines=" + (start + 1) + ".." + end);
+		if (levelOffset != 0)
+			attributes.add("leveloffset=" + (levelOffset > 0 ? "+" : "") + levelOffset);
+		return "include::" + path + "[" + String.join(",", attributes) + "]";
+	}
+
+	private static List<String> read(Path file) throws IOException {
+		String overlay = JobContext.getOverlay(file);
+		if (overlay != null)
+			return Arrays.asList(overlay.split("\r?\n", -1));
+		return Files.readAllLines(file, StandardCharsets.UTF_8);
+	}
+}
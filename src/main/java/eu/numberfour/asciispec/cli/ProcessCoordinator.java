@@ -0,0 +1,427 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.asciidoctor.cli.AsciidoctorCliOptions;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import eu.numberfour.asciispec.BuildCache;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.StartupProfile;
+
+/**
+ * Converts the documents given by Asciidoctor command line arguments with
+ * several local worker processes. In contrast to the {@link ParallelInvoker},
+ * the workers do not share a heap, so a document that exhausts the memory or
+ * crashes JRuby only fails itself, and the JRuby runtimes of the workers do not
+ * compete for the same locks.
+ * <p>
+ * The workers are JVMs started with the class path and JVM options of the
+ * coordinator. They run {@link AsciiSpec} with <code>--worker</code> and
+ * share a {@link BuildCache}, so an expensive result, e.g. a math
+ * render, is computed by only one of them. The documents are handed out one at
+ * a time to the next idle worker, so large documents do not hold up a whole
+ * shard of small ones.
+ * <p>
+ * Coordinator and workers communicate with {@link Message}s over the
+ * standard streams of the workers: the coordinator sends a {@link Message#JOB}
+ * with a <code>doc</code> field per document, and the worker answers with a
+ * {@link Message#STATUS} with the fields doc, exit, errors, warnings, out,
+ * diag and input (repeated, the files read by the document). The standard
+ * error stream of the workers is inherited. The coordinator prints the output
+ * and diagnostics of each document as a whole, owns the build manifest and
+ * prints the combined issue counts when all documents are done. Documents
+ * left in the queue because all workers died are reported as failed.
+ */
+public class ProcessCoordinator {
+
+	/** Command line option of {@link AsciiSpec} that sets the number of worker processes. */
+	public static final String OPTION_PROCESSES = "--processes";
+
+	/** Command line option of {@link AsciiSpec} that runs it as a worker process. */
+	static final String OPTION_WORKER = "--worker";
+
+	private final int processes;
+	private BuildManifest manifest;
+	private String cacheLocation;
+
+	private final AtomicInteger errors = new AtomicInteger();
+	private final AtomicInteger warnings = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param processes
+	 *            the number of worker processes
+	 */
+	public ProcessCoordinator(int processes) {
+		this.processes = Math.max(1, processes);
+	}
+
+	/**
+	 * Sets the manifest used to skip up-to-date documents, see
+	 * {@link AsciiSpecInvoker#setManifest(BuildManifest)}.
+	 */
+	void setManifest(BuildManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Sets the {@link BuildCache} location shared by the workers, see
+	 * {@link BuildCache#setLocation(String)}. If not set, the cache of the
+	 * current user is used, see {@link #getDefaultCacheLocation(Path)}.
+	 */
+	public void setCacheLocation(String cacheLocation) {
+		this.cacheLocation = cacheLocation;
+	}
+
+	/**
+	 * Converts the documents given by the Asciidoctor command line arguments.
+	 *
+	 * @param workingDir
+	 *            the directory relative paths are resolved against, or
+	 *            <code>null</code> for the current directory
+	 * @param args
+	 *            the Asciidoctor command line arguments
+	 * @return the exit status, i.e. 0 if all documents were converted
+	 */
+	public int invoke(File workingDir, List<String> args) {
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+
+		List<String> cliArgs = AsciiSpecInvoker.removeInvokerOptions(args);
+		boolean lint = args.contains(AsciiSpecInvoker.OPTION_LINT);
+		// lint does not write the documents, so they must not be recorded
+		BuildManifest manifest = lint ? null : this.manifest;
+
+		AsciidoctorCliOptions cliOptions = new AsciidoctorCliOptions();
+		try {
+			new JCommander(cliOptions, cliArgs.toArray(new String[cliArgs.size()]));
+		} catch (ParameterException e) {
+			err.println("asciidoctor: FAILED: " + e.getMessage());
+			return 1;
+		}
+		List<String> parameters = cliOptions.getParameters();
+		if (parameters == null || parameters.isEmpty()) {
+			err.println("asciidoctor: FAILED: input file missing");
+			return 1;
+		}
+		List<File> documents = new ArrayList<>();
+		for (String parameter : parameters) {
+			List<File> matches = AsciiSpecInvoker.findInputFiles(workingDir, parameter);
+			if (matches.isEmpty()) {
+				err.println("asciidoctor: FAILED: input file(s) '" + parameter + "' missing or cannot be read");
+				return 1;
+			}
+			documents.addAll(matches);
+		}
+		List<String> options = AsciiSpecInvoker.getOptionArguments(args, parameters);
+		String manifestOptions = String.join("\n", options);
+
+		Queue<File> queue = new ConcurrentLinkedQueue<>();
+		int skipped = 0;
+		for (File document : documents) {
+			if (manifest != null && manifest.isUpToDate(document, manifestOptions))
+				skipped++;
+			else
+				queue.add(document.getAbsoluteFile());
+		}
+
+		String cache = cacheLocation;
+		if (cache == null) {
+			try {
+				cache = getDefaultCacheLocation(Paths.get(System.getProperty("user.home"))).toString();
+			} catch (IOException e) {
+				err.println("asciidoctor: WARNING: Cannot create build cache: " + e.getMessage());
+			}
+		}
+		List<String> command = getWorkerCommand(cache, options);
+		File directory = workingDir != null ? workingDir : new File(System.getProperty("user.dir"));
+
+		int workerCount = Math.min(processes, queue.size());
+		List<Thread> threads = new ArrayList<>();
+		AtomicInteger status = new AtomicInteger();
+		boolean interrupted = false;
+		for (int i = 1; i <= workerCount; i++) {
+			Thread thread = new Thread(() -> {
+				int result = runWorker(command, directory, queue, manifest, manifestOptions, out, err);
+				status.accumulateAndGet(result, Math::max);
+			}, "asciispec-worker-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				status.accumulateAndGet(AsciiSpecInvoker.EXIT_CANCELLED, Math::max);
+				interrupted = true;
+				break;
+			}
+		}
+
+		int notConverted = 0;
+		File document;
+		while (!interrupted && (document = queue.poll()) != null) {
+			err.println("asciidoctor: FAILED: " + document + " was not converted, since no worker process is left");
+			if (manifest != null)
+				manifest.remove(document);
+			status.accumulateAndGet(1, Math::max);
+			notConverted++;
+		}
+
+		if (manifest != null) {
+			if (skipped > 0) {
+				out.println("asciispec: " + skipped + " of " + documents.size() + " document(s) up to date");
+			}
+			try {
+				manifest.save();
+			} catch (IOException e) {
+				err.println("asciidoctor: WARNING: Cannot write build manifest: " + e.getMessage());
+			}
+		}
+		int converted = documents.size() - skipped - notConverted;
+		out.println("asciispec: " + converted + " document(s) converted by " + workerCount + " process(es), "
+				+ errors.get() + " error(s), " + warnings.get() + " warning(s)");
+		return status.get();
+	}
+
+	/**
+	 * Returns the default location of the {@link BuildCache} shared by the
+	 * workers, <code>.asciispec/build-cache</code> in the given home directory,
+	 * and creates it if necessary. Other users could plant results in a shared
+	 * directory, so the directory is created accessible by its owner only
+	 * where the file system supports POSIX permissions.
+	 */
+	static Path getDefaultCacheLocation(Path home) throws IOException {
+		Path cache = home.resolve(".asciispec").resolve("build-cache");
+		if (Files.isDirectory(cache))
+			return cache;
+		if (cache.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createDirectories(cache,
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		} else {
+			Files.createDirectories(cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the command line of a worker process.
+	 *
+	 * @param cache
+	 *            the location of the build cache, or <code>null</code> if
+	 *            there is none
+	 */
+	List<String> getWorkerCommand(String cache, List<String> options) {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// a second debugger agent could not bind to the same port
+			if (!argument.startsWith("-agentlib:jdwp") && !argument.startsWith("-Xrunjdwp"))
+				command.add(argument);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(AsciiSpec.class.getName());
+		command.add(OPTION_WORKER);
+		if (StartupProfile.isEnabled())
+			command.add(AsciiSpec.OPTION_STARTUP_PROFILE);
+		if (cache != null) {
+			command.add(AsciiSpec.OPTION_BUILD_CACHE);
+			command.add(cache);
+		}
+		command.addAll(options);
+		return command;
+	}
+
+	/**
+	 * Starts a worker process and hands documents to it until the queue is
+	 * empty.
+	 *
+	 * @return the highest exit status of the documents converted by the
+	 *         worker
+	 */
+	private int runWorker(List<String> command, File directory, Queue<File> queue, BuildManifest manifest,
+			String manifestOptions, PrintStream out, PrintStream err) {
+		Process process;
+		try {
+			process = new ProcessBuilder(command).directory(directory)
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		} catch (IOException e) {
+			err.println("asciidoctor: FAILED: Cannot start worker process: " + e.getMessage());
+			return 1;
+		}
+
+		int status = 0;
+		File document = null;
+		try (OutputStream os = new BufferedOutputStream(process.getOutputStream());
+				InputStream is = new BufferedInputStream(process.getInputStream())) {
+			while ((document = queue.poll()) != null) {
+				new Message(Message.JOB).add("doc", document.getPath()).writeTo(os);
+				os.flush();
+				Message response = Message.read(is);
+				if (response == null) {
+					err.println("asciidoctor: FAILED: Worker process exited while converting " + document);
+					if (manifest != null)
+						manifest.remove(document);
+					return 1;
+				}
+				status = Math.max(status, finished(document, response, manifest, manifestOptions, out, err));
+			}
+		} catch (IOException e) {
+			if (document != null) {
+				err.println("asciidoctor: FAILED: Lost connection to worker process while converting " + document
+						+ ": " + e.getMessage());
+				if (manifest != null)
+					manifest.remove(document);
+			} else {
+				err.println("asciidoctor: FAILED: Lost connection to worker process: " + e.getMessage());
+			}
+			status = 1;
+		} finally {
+			// the worker exits when its standard input is closed
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+		return status;
+	}
+
+	private int finished(File document, Message response, BuildManifest manifest, String manifestOptions,
+			PrintStream out, PrintStream err) {
+		int status = parseInt(response.get("exit"), 1);
+		int documentErrors = parseInt(response.get("errors"), 0);
+		errors.addAndGet(documentErrors);
+		warnings.addAndGet(parseInt(response.get("warnings"), 0));
+
+		if (manifest != null) {
+			if (status == 0 && documentErrors == 0) {
+				Set<Path> inputs = new HashSet<>();
+				for (String input : response.getAll("input"))
+					inputs.add(Paths.get(input));
+				inputs.add(document.toPath());
+				Set<Path> outputs = new HashSet<>();
+				for (String output : response.getAll("output"))
+					outputs.add(Paths.get(output));
+				manifest.update(document, manifestOptions, inputs, outputs);
+			} else {
+				manifest.remove(document);
+			}
+		}
+
+		synchronized (this) {
+			out.print(response.get("out"));
+			out.flush();
+			err.print(response.get("diag"));
+			err.flush();
+		}
+		return status;
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Runs this process as a worker: converts the documents sent by the
+	 * coordinator on the standard input with the given options until the
+	 * standard input is closed.
+	 *
+	 * @return the exit status of the worker process
+	 */
+	static int work(List<String> options) throws IOException {
+		PrintStream err = System.err;
+		OutputStream os = new BufferedOutputStream(System.out);
+		InputStream is = new BufferedInputStream(System.in);
+
+		// the standard output is the channel to the coordinator, so anything
+		// not written by a job goes to the standard error stream
+		System.setOut(ThreadRoutingPrintStream.forOut(err, StandardCharsets.UTF_8.name()));
+		System.setErr(ThreadRoutingPrintStream.forDiagnostics(err, StandardCharsets.UTF_8.name()));
+
+		AsciiSpecInvoker invoker = new AsciiSpecInvoker();
+		Object run = new Object();
+		try {
+			Message request;
+			while ((request = Message.read(is)) != null) {
+				String document = request.get("doc");
+				List<String> args = new ArrayList<>(options);
+				args.add(document);
+
+				ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+				ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+				String encoding = StandardCharsets.UTF_8.name();
+				JobContext job = new JobContext(new PrintStream(outBuffer, true, encoding),
+						new PrintStream(errBuffer, true, encoding));
+				job.setRun(run);
+
+				int status;
+				JobContext.bind(job);
+				try {
+					status = invoker.invoke(null, args.toArray(new String[args.size()]));
+				} catch (RuntimeException e) {
+					e.printStackTrace(job.getDiagnostics());
+					status = 1;
+				} finally {
+					JobContext.unbind();
+				}
+
+				Message response = new Message(Message.STATUS).add("doc", document).add("exit", status)
+						.add("errors", job.getErrorCount()).add("warnings", job.getWarningCount())
+						.add("out", new String(outBuffer.toByteArray(), StandardCharsets.UTF_8))
+						.add("diag", new String(errBuffer.toByteArray(), StandardCharsets.UTF_8));
+				for (Path input : job.takeInputs())
+					response.add("input", input);
+				for (Path output : job.takeOutputs())
+					response.add("output", output);
+				response.writeTo(os);
+				os.flush();
+			}
+		} finally {
+			invoker.shutdown();
+		}
+		StartupProfile.report(err);
+		return 0;
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.numberfour.asciispec.ProcessorMetrics;
+import eu.numberfour.asciispec.ProjectSession;
+
+/**
+ * Counts the jobs of the server and records their latencies. The percentiles
+ * are computed over the latest {@link #LATENCY_SAMPLES} jobs, so they follow
+ * the current load of the server.
+ */
+class ServerMetrics {
+
+	static final int LATENCY_SAMPLES = 1024;
+
+	private final long started = System.currentTimeMillis();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final long[] latencies = new long[LATENCY_SAMPLES];
+	private long latencyCount = 0;
+
+	/**
+	 * Records a finished job.
+	 *
+	 * @param status
+	 *            the exit status of the job
+	 * @param wasCancelled
+	 *            whether the job was cancelled or timed out
+	 * @param latencyMillis
+	 *            the time from submission to the end of the job
+	 */
+	void jobFinished(int status, boolean wasCancelled, long latencyMillis) {
+		if (wasCancelled)
+			cancelled.incrementAndGet();
+		else if (status != 0)
+			failed.incrementAndGet();
+		else
+			completed.incrementAndGet();
+
+		synchronized (latencies) {
+			latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = latencyMillis;
+		}
+	}
+
+	/**
+	 * Records a job that was rejected since the queue was full.
+	 */
+	void jobRejected() {
+		rejected.incrementAndGet();
+	}
+
+	/**
+	 * Returns the latency percentile of the latest jobs in milliseconds, or -1
+	 * if no job has finished yet.
+	 *
+	 * @param percentile
+	 *            the percentile, e.g. 95
+	 */
+	long getLatencyPercentile(int percentile) {
+		long[] samples;
+		synchronized (latencies) {
+			samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+		}
+		if (samples.length == 0)
+			return -1;
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+		return samples[Math.max(0, Math.min(index, samples.length - 1))];
+	}
+
+	/**
+	 * Creates a {@link Message#METRICS} message that reports the state of the
+	 * server, i.e. the jobs, the pool, the processors, the caches and the heap.
+	 */
+	Message createMessage(ThreadPoolExecutor executor, int queueSize) {
+		int queued = executor.getQueue().size();
+		boolean saturated = queued >= queueSize && executor.getActiveCount() >= executor.getMaximumPoolSize();
+
+		Message message = new Message(Message.METRICS);
+		message.add("status", saturated ? "saturated" : "ok");
+		message.add("uptime-ms", System.currentTimeMillis() - started);
+		message.add("workers", executor.getMaximumPoolSize());
+		message.add("jobs-running", executor.getActiveCount());
+		message.add("queue-depth", queued);
+		message.add("queue-capacity", queueSize);
+		message.add("jobs-completed", completed.get());
+		message.add("jobs-failed", failed.get());
+		message.add("jobs-cancelled", cancelled.get());
+		message.add("jobs-rejected", rejected.get());
+		message.add("latency-p50-ms", getLatencyPercentile(50));
+		message.add("latency-p95-ms", getLatencyPercentile(95));
+		message.add("latency-p99-ms", getLatencyPercentile(99));
+
+		Map<String, Long> calls = ProcessorMetrics.getCalls();
+		for (Map.Entry<String, Long> total : ProcessorMetrics.getTotalMillis().entrySet()) {
+			message.add("processor." + total.getKey() + ".ms", total.getValue());
+			message.add("processor." + total.getKey() + ".calls", calls.get(total.getKey()));
+		}
+
+		ProjectSession.Statistics statistics = ProjectSession.getStatistics();
+		message.add("sessions", statistics.getSessions());
+		message.add("cache-used-bytes", statistics.getUsedBytes());
+		message.add("cache-budget-bytes", statistics.getBudget());
+		for (Map.Entry<String, ProjectSession.CacheCounters> cache : statistics.getCaches().entrySet()) {
+			ProjectSession.CacheCounters counters = cache.getValue();
+			long requests = counters.getHits() + counters.getMisses();
+			String hitRate = requests == 0 ? "-"
+					: String.format(Locale.ROOT, "%.3f", (double) counters.getHits() / requests);
+			message.add("cache." + cache.getKey() + ".hit-rate", hitRate);
+			message.add("cache." + cache.getKey() + ".evictions", counters.getEvictions());
+		}
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		message.add("heap-used-bytes", heap.getUsed());
+		message.add("heap-committed-bytes", heap.getCommitted());
+		message.add("heap-max-bytes", heap.getMax());
+		return message;
+	}
+}
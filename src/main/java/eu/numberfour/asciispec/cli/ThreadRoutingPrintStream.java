@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.function.Function;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * A {@link PrintStream} that forwards everything written to it to a channel of
+ * the {@link JobContext} bound to the current thread. Threads that do not
+ * execute a job write to the fallback stream.
+ * <p>
+ * The server installs one instance as {@link System#out} and one as
+ * {@link System#err} so that output of code that is not aware of jobs, e.g.
+ * warnings of Asciidoctor itself, still ends up at the job that caused it.
+ */
+class ThreadRoutingPrintStream extends PrintStream {
+
+	private static class Router extends OutputStream {
+		private final OutputStream fallback;
+		private final Function<JobContext, OutputStream> channel;
+
+		Router(OutputStream fallback, Function<JobContext, OutputStream> channel) {
+			this.fallback = fallback;
+			this.channel = channel;
+		}
+
+		private OutputStream current() {
+			JobContext context = JobContext.current();
+			return context == null ? fallback : channel.apply(context);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			current().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			current().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			current().flush();
+		}
+	}
+
+	private ThreadRoutingPrintStream(Router router, String encoding) throws UnsupportedEncodingException {
+		super(router, true, encoding);
+	}
+
+	/**
+	 * Creates a stream that writes to the output channel of the current job.
+	 */
+	static ThreadRoutingPrintStream forOut(OutputStream fallback, String encoding)
+			throws UnsupportedEncodingException {
+		return new ThreadRoutingPrintStream(new Router(fallback, JobContext::getOut), encoding);
+	}
+
+	/**
+	 * Creates a stream that writes to the diagnostics channel of the current
+	 * job.
+	 */
+	static ThreadRoutingPrintStream forDiagnostics(OutputStream fallback, String encoding)
+			throws UnsupportedEncodingException {
+		return new ThreadRoutingPrintStream(new Router(fallback, JobContext::getDiagnostics), encoding);
+	}
+}
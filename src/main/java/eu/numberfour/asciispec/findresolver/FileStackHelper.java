@@ -20,6 +20,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 
+import eu.numberfour.asciispec.JobContext;
+
 /**
  * The {@link FileStackHelper} does the following:
  * <ul>
@@ -28,6 +30,9 @@ import java.util.Stack;
  * <li>Can check for circular dependencies (required: full file stack)</li>
  * <li>Also works with partial file stacks (result: can not find circular dependencies)</li>
  * </ul>
+ * Included files are recorded as inputs of the current job, see {@link JobContext#recordInput(Path)}. Files
+ * overlaid by the current job (see {@link JobContext#getOverlay(Path)}) are treated like existing files, even
+ * if they were not saved yet.
  */
 public class FileStackHelper {
 	final private Stack<File> locationFileStack = new Stack<>();
@@ -52,11 +57,12 @@ public class FileStackHelper {
 		if (!newLocation.isAbsolute())
 			throw new IllegalArgumentException("New location must be absolute");
 
-		if (!newLocation.isFile())
+		if (!isFile(newLocation))
 			throw new IllegalArgumentException("New location must be a file");
 
 		includedFiles.add(newLocation);
 		locationFileStack.push(newLocation);
+		JobContext.recordInput(newLocation.toPath());
 	}
 
 	/**
@@ -67,7 +73,7 @@ public class FileStackHelper {
 		if (!newLocation.isAbsolute())
 			throw new IllegalArgumentException("New location must be absolute");
 
-		if (!newLocation.isFile())
+		if (!isFile(newLocation))
 			throw new IllegalArgumentException("New location must be a file");
 
 		if (locationFileStack.contains(newLocation))
@@ -147,7 +153,7 @@ public class FileStackHelper {
 		List<File> matches = new LinkedList<>();
 		while (curPath != null) {
 			Path filePath = curPath.resolve(fileName).normalize();
-			if (filePath.toFile().exists())
+			if (JobContext.exists(filePath))
 				matches.add(filePath.toFile());
 
 			if (rootName != null && rootName.length() > 0 && curPath != null && curPath.endsWith(Paths.get(rootName)))
@@ -165,4 +171,8 @@ public class FileStackHelper {
 		return matches.get(0);
 	}
 
+	private static boolean isFile(File file) {
+		return file.isFile() || JobContext.getOverlay(file.toPath()) != null;
+	}
+
 }
@@ -11,6 +11,7 @@
 package eu.numberfour.asciispec.issue;
 
 import java.io.File;
+import java.util.Locale;
 import java.util.Objects;
 
 import org.asciidoctor.ast.ContentNode;
@@ -56,6 +57,15 @@ public class Issue {
 		this.message = Objects.requireNonNull(message);
 	}
 
+	/**
+	 * Returns the node that was being processed.
+	 *
+	 * @return the node
+	 */
+	public ContentNode getNode() {
+		return node;
+	}
+
 	/**
 	 * Returns the value of the <code>:docfile:</code> attribute of the document that was being processed.
 	 *
@@ -123,6 +133,81 @@ public class Issue {
 		return message;
 	}
 
+	/**
+	 * Returns this issue as a JSON object on a single line, e.g.
+	 *
+	 * <pre>
+	 * {"severity":"ERROR","file":"chapters/intro.adoc","line":12,"message":"Unknown key: foo"}
+	 * </pre>
+	 *
+	 * The file and the line are omitted if they are not available.
+	 *
+	 * @return the JSON object
+	 */
+	public String toJson() {
+		return toJson(getSeverity(), hasDocumentFile() ? getDocumentFile() : null,
+				hasLineNumber() ? getLineNumber() : -1, getMessage());
+	}
+
+	/**
+	 * Returns an issue that was not reported as an instance of this class,
+	 * e.g. a message of Asciidoctor itself, in the format of
+	 * {@link #toJson()}.
+	 *
+	 * @param severity
+	 *            the severity
+	 * @param file
+	 *            the file containing the source of the issue, or
+	 *            <code>null</code> if it is not known
+	 * @param line
+	 *            the line number, or -1 if it is not known
+	 * @param message
+	 *            the message
+	 * @return the JSON object
+	 */
+	public static String toJson(Severity severity, File file, int line, String message) {
+		StringBuilder result = new StringBuilder();
+		result.append("{\"severity\":");
+		appendJsonString(result, severity.name());
+		if (file != null) {
+			result.append(",\"file\":");
+			appendJsonString(result, file.getPath());
+		}
+		if (line != -1)
+			result.append(",\"line\":").append(line);
+		result.append(",\"message\":");
+		appendJsonString(result, message);
+		return result.append('}').toString();
+	}
+
+	private static void appendJsonString(StringBuilder result, String value) {
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				result.append('\\').append(c);
+				break;
+			case '\n':
+				result.append("\\n");
+				break;
+			case '\r':
+				result.append("\\r");
+				break;
+			case '\t':
+				result.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					result.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+				else
+					result.append(c);
+			}
+		}
+		result.append('"');
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
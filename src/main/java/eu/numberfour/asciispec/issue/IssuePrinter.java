@@ -12,14 +12,55 @@ package eu.numberfour.asciispec.issue;
 
 import java.util.Objects;
 
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.processors.HostPreprocessor;
+
 /**
- * Simply prints out all issues.
+ * Simply prints out all issues to the diagnostics channel of the current job,
+ * or as JSON to its output channel if the job asks for that (see
+ * {@link JobContext#isJsonIssues()}). Printers of preprocessors and include
+ * processors drop the issues of documents converted from already
+ * preprocessed lines, since they were reported when the lines were
+ * preprocessed (see {@link HostPreprocessor#isPreprocessed}). Issues of
+ * block and inline processors are always reported, since these processors
+ * run again for each conversion.
  */
 public class IssuePrinter implements IssueAcceptor {
 
+	private final boolean preprocessing;
+
+	/**
+	 * Creates a printer that reports all issues.
+	 */
+	public IssuePrinter() {
+		this(false);
+	}
+
+	/**
+	 * Creates a printer.
+	 *
+	 * @param preprocessing
+	 *            <code>true</code> if the printer reports the issues of a
+	 *            preprocessor or an include processor
+	 */
+	public IssuePrinter(boolean preprocessing) {
+		this.preprocessing = preprocessing;
+	}
+
 	@Override
 	public Issue accept(Issue issue) {
-		System.err.println("asciispec  : " + Objects.requireNonNull(issue).toString());
+		Objects.requireNonNull(issue);
+		if (preprocessing && HostPreprocessor.isPreprocessed(issue.getNode()))
+			return issue;
+		JobContext context = JobContext.current();
+		if (context != null) {
+			context.count(issue);
+			if (context.isJsonIssues()) {
+				context.getOut().println(issue.toJson());
+				return issue;
+			}
+		}
+		JobContext.diagnostics().println("asciispec  : " + issue.toString());
 		return issue;
 	}
 }
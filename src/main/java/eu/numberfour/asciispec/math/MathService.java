@@ -14,15 +14,21 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.WeakHashMap;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 import org.asciidoctor.ast.Document;
 
+import eu.numberfour.asciispec.BuildCache;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.ProjectSession;
 import eu.numberfour.asciispec.issue.IssueAcceptor;
 import eu.numberfour.asciispec.issue.IssueCollector;
 import uk.ac.ed.ph.snuggletex.InputError;
@@ -40,7 +46,7 @@ import uk.ac.ed.ph.snuggletex.internal.FrozenSlice;
  */
 public class MathService {
 
-	private static final Map<Document, MathService> SERVICES = new WeakHashMap<>();
+	private static final Map<Document, MathService> SERVICES = Collections.synchronizedMap(new WeakHashMap<>());
 
 	/**
 	 * Returns a math service for the given document.
@@ -52,27 +58,56 @@ public class MathService {
 	public static MathService get(Document document) {
 		Objects.requireNonNull(document);
 
-		MathService service = SERVICES.get(document);
-		if (service == null) {
-			service = new MathService(document);
-			SERVICES.put(document, service);
+		synchronized (SERVICES) {
+			MathService service = SERVICES.get(document);
+			if (service == null) {
+				service = new MathService(document);
+				SERVICES.put(document, service);
+			}
+			return service;
 		}
-		return service;
+	}
+
+	/**
+	 * Returns the files included into the math of the given document so far,
+	 * in the order they were included.
+	 *
+	 * @param document
+	 *            the document
+	 * @return the paths of the included files
+	 */
+	public static List<Path> getIncludes(Document document) {
+		MathService service = SERVICES.get(Objects.requireNonNull(document));
+		if (service == null)
+			return Collections.emptyList();
+		return service.includes.stream().map(Path.class::cast).collect(Collectors.toList());
 	}
 
 	private final Document document;
 
-	private final SnuggleEngine engine;
+	private final ProjectSession session;
+
+	private final List<Object> includes = new ArrayList<>();
+
+	private final List<Object> includeStamps = new ArrayList<>();
+
+	private final List<String> includeHashes = new ArrayList<>();
 
 	private SnuggleSnapshot snapshot;
 
 	private MathService(Document document) {
 		this.document = document;
-		this.engine = new SnuggleEngine();
+		this.session = ProjectSession.get(document);
 
-		SessionConfiguration sessionConfig = new SessionConfiguration();
-		sessionConfig.setFailingFast(true);
-		this.snapshot = engine.createSession(sessionConfig).createSnapshot();
+		try {
+			this.snapshot = cached(Arrays.asList("base"), () -> {
+				SessionConfiguration sessionConfig = new SessionConfiguration();
+				sessionConfig.setFailingFast(true);
+				return new SnuggleEngine().createSession(sessionConfig).createSnapshot();
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
@@ -83,19 +118,85 @@ public class MathService {
 	 */
 	public void include(Path path) {
 		Objects.requireNonNull(path);
-		SnuggleInput input = new SnuggleInput(path.toFile());
-		SnuggleSession session = this.snapshot.createSession();
+		Path absolutePath = path.toAbsolutePath().normalize();
+		Object stamp = ProjectSession.stamp(absolutePath);
+		JobContext.recordInput(absolutePath);
+		String overlay = JobContext.getOverlay(absolutePath);
+		long length = overlay != null ? overlay.length() : absolutePath.toFile().length();
+		SnuggleSnapshot base = this.snapshot;
 
+		includes.add(absolutePath);
+		includeStamps.add(stamp);
+		includeHashes.add(hashForBuildCache(absolutePath));
 		try {
-			if (session.parseInput(input))
-				this.snapshot = session.createSnapshot();
-			else
-				throw new IllegalArgumentException("File commands could not be parsed.");
+			List<Object> key = Arrays.asList("include", new ArrayList<>(includes));
+			this.snapshot = cached(key, () -> {
+				SnuggleInput input = overlay != null ? new SnuggleInput(overlay, absolutePath.toString())
+						: new SnuggleInput(absolutePath.toFile());
+				SnuggleSession session = base.createSession();
+				if (session.parseInput(input))
+					return session.createSnapshot();
+				else
+					throw new IllegalArgumentException("File commands could not be parsed.");
+			}, included -> ProjectSession.DEFAULT_SIZE + 4 * length);
 		} catch (IOException e) {
 			throw new IllegalArgumentException("File could not be loaded: " + e.getMessage());
+		} finally {
+			if (this.snapshot == base) {
+				includes.remove(includes.size() - 1);
+				includeStamps.remove(includeStamps.size() - 1);
+				includeHashes.remove(includeHashes.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the value cached in the project session under the given key. The
+	 * value depends on the included files, so it is reloaded when one of them
+	 * has changed.
+	 */
+	private <T> T cached(List<Object> key, ProjectSession.Loader<T> loader) throws IOException {
+		return cached(key, loader, ProjectSession::estimateSize);
+	}
+
+	private <T> T cached(List<Object> key, ProjectSession.Loader<T> loader, ToLongFunction<? super T> sizeEstimate)
+			throws IOException {
+		Object stamp = includeStamps.contains(null) ? null : new ArrayList<>(includeStamps);
+		try {
+			return session.get(ProjectSession.MATH, key, stamp, loader, sizeEstimate);
+		} catch (ParseException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the content hash of the given include for the keys of the
+	 * {@link BuildCache}, or <code>null</code> if the build cache is disabled
+	 * or the file cannot be read.
+	 */
+	private static String hashForBuildCache(Path include) {
+		if (!BuildCache.isEnabled())
+			return null;
+		try {
+			return BuildCache.hash(include);
+		} catch (IOException e) {
+			return null;
 		}
 	}
 
+	/**
+	 * Returns the rendered math of the given kind for the given expression from
+	 * the {@link BuildCache}. Its key consists of the contents of the included
+	 * files rather than their paths, so renders are shared by all documents
+	 * and processes using the same macros. Rendering errors are not cached.
+	 */
+	private String persistent(String kind, String expression, ProjectSession.Loader<String> loader)
+			throws IOException, ParseException {
+		if (!BuildCache.isEnabled() || includeHashes.contains(null))
+			return loader.load();
+		return BuildCache.get("math", BuildCache.key(kind, includeHashes, expression), loader);
+	}
+
 	/**
 	 * Converts an inline LaTeX math expression (without delimiter signs) to Math ML.
 	 *
@@ -113,22 +214,24 @@ public class MathService {
 			throw new IllegalArgumentException(message);
 		}
 
-		SnuggleSession session = snapshot.createSession();
-		SnuggleInput math = new SnuggleInput("$" + expression + "$");
-
 		try {
-			if (!session.parseInput(math)) {
-				throw new IllegalArgumentException(
-						"Unable to parse math expression '" + escapeMathDelimiters(expression) + "' ["
-								+ getMathErrors(session) + "]");
-			}
+			return cached(Arrays.asList("inline", new ArrayList<>(includes), expression), () -> persistent("inline",
+					expression, () -> {
+				SnuggleSession session = snapshot.createSession();
+				SnuggleInput math = new SnuggleInput("$" + expression + "$");
+
+				if (!session.parseInput(math)) {
+					throw new IllegalArgumentException(
+							"Unable to parse math expression '" + escapeMathDelimiters(expression) + "' ["
+									+ getMathErrors(session) + "]");
+				}
+				return "+++" + session.buildXMLString() + "+++";
+			}));
 		} catch (IOException e) {
 			throw new IllegalArgumentException(
 					"Unexpected error while parsing math expression '" + escapeMathDelimiters(expression)
 							+ "': " + e.getMessage());
 		}
-
-		return "+++" + session.buildXMLString() + "+++";
 	}
 
 	private String escapeMathDelimiters(String input) {
@@ -151,21 +254,24 @@ public class MathService {
 
 		String joined = String.join("\n", expression);
 		if (!joined.isEmpty()) {
-			SnuggleSession session = snapshot.createSession();
-			SnuggleInput math = new SnuggleInput("\\[" + joined + "\\]");
-
 			try {
-				if (!session.parseInput(math)) {
-					blockError(issueCollector, session);
-					result.add("```");
-					result.addAll(expression);
-					result.add("```");
-				} else {
-					String joinedResult = session.buildXMLString();
-					result.add("++++");
-					result.addAll(Arrays.asList(joinedResult));
-					result.add("++++");
-				}
+				String joinedResult = cached(Arrays.asList("block", new ArrayList<>(includes), joined),
+						() -> persistent("block", joined, () -> {
+					SnuggleSession session = snapshot.createSession();
+					SnuggleInput math = new SnuggleInput("\\[" + joined + "\\]");
+
+					if (!session.parseInput(math))
+						throw new MathSyntaxException("Math syntax error [" + getMathErrors(session) + "]");
+					return session.buildXMLString();
+				}));
+				result.add("++++");
+				result.addAll(Arrays.asList(joinedResult));
+				result.add("++++");
+			} catch (MathSyntaxException e) {
+				blockError(issueCollector, e.getMessage());
+				result.add("```");
+				result.addAll(expression);
+				result.add("```");
 			} catch (Throwable t) {
 				blockError(issueCollector, "Unable to process math block: " + t.getMessage());
 			}
@@ -179,10 +285,6 @@ public class MathService {
 		issueAcceptor.error(document, message);
 	}
 
-	private void blockError(IssueAcceptor issueAcceptor, SnuggleSession session) {
-		issueAcceptor.error(document, "Math syntax error [" + getMathErrors(session) + "]");
-	}
-
 	private String getMathErrors(SnuggleSession session) {
 		return session.getErrors().stream().map(error -> formatError(error))
 				.collect(Collectors.joining(", "));
@@ -205,4 +307,16 @@ public class MathService {
 
 		return builder.toString();
 	}
+
+	/**
+	 * Signals a math block that could not be parsed. Is not cached, so the
+	 * issue is reported whenever the block is converted.
+	 */
+	private static class MathSyntaxException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		MathSyntaxException(String message) {
+			super(message);
+		}
+	}
 }
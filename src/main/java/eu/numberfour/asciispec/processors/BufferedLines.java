@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.SourceProcessor;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
+
+/**
+ * The lines of a document read by the {@link HostPreprocessor} but not yet
+ * preprocessed, together with the file, directory and line number the reader
+ * reported for each of them. Usually only a bounded prefix of the document and
+ * then one line at a time is buffered; all lines are buffered if they are
+ * preprocessed in parallel or if a processor needs an attribute entry that is
+ * not known yet (see {@link DocumentConfiguration}).
+ * <p>
+ * The positions are kept compactly: each line has the index of its file and
+ * directory in a table, which gets a new row whenever the reader switches to
+ * another file, and its line number. While a line is processed, the position
+ * of that line is reported to the processors (see
+ * {@link HostPreprocessor#getCurrentFileName()}), since the reader may already
+ * be ahead of it.
+ */
+class BufferedLines {
+
+	private final List<String> lines = new ArrayList<>(ChunkedLines.DEFAULT_CHUNK_LINES);
+	private final List<String> files = new ArrayList<>();
+	private final List<String> dirs = new ArrayList<>();
+	private int[] sources = new int[ChunkedLines.DEFAULT_CHUNK_LINES];
+	private int[] lineNumbers = new int[ChunkedLines.DEFAULT_CHUNK_LINES];
+	private final ThreadLocal<int[]> current = new ThreadLocal<>();
+	private final SourceProcessor blocks = new SourceProcessor();
+	private int scanned = 0;
+	private int processed = 0;
+
+	/**
+	 * Adds a line read from the reader.
+	 *
+	 * @param line
+	 *            the line, may be <code>null</code>
+	 * @param file
+	 *            the file reported by the reader after the line was read
+	 * @param dir
+	 *            the directory reported by the reader after the line was read
+	 * @param lineNumber
+	 *            the line number reported by the reader after the line was
+	 *            read
+	 */
+	void add(String line, String file, String dir, int lineNumber) {
+		int size = lines.size();
+		int last = files.size() - 1;
+		if (last < 0 || !Objects.equals(files.get(last), file) || !Objects.equals(dirs.get(last), dir)) {
+			files.add(file);
+			dirs.add(dir);
+			last++;
+		}
+		if (size == sources.length) {
+			sources = Arrays.copyOf(sources, size * 2);
+			lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+		}
+		lines.add(line);
+		sources[size] = last;
+		lineNumbers[size] = lineNumber;
+	}
+
+	/**
+	 * Returns the number of lines.
+	 */
+	int size() {
+		return lines.size();
+	}
+
+	/**
+	 * Returns the line at the given index.
+	 */
+	String get(int index) {
+		return lines.get(index);
+	}
+
+	/**
+	 * Adds the attribute entries of the lines added since the last call to the
+	 * given configuration, except for those in blocks ignored by the
+	 * {@link SourceProcessor}.
+	 *
+	 * @param resolver
+	 *            resolves the variables in a value that contains a
+	 *            <code>{</code>, or returns <code>null</code> if it cannot;
+	 *            the position of the entry is reported meanwhile
+	 */
+	void scanConfiguration(DocumentConfiguration configuration, UnaryOperator<String> resolver) {
+		for (; scanned < lines.size(); scanned++) {
+			String line = lines.get(scanned);
+			if (line == null)
+				continue;
+			if (!blocks.isIgnoringCurrentBlock()) {
+				AttributeEntry entry = DocumentConfiguration.parse(line);
+				if (entry != null && !configuration.contains(entry.getName()))
+					add(configuration, entry, scanned, resolver);
+			}
+			blocks.updateBlockState(line);
+		}
+	}
+
+	private void add(DocumentConfiguration configuration, AttributeEntry entry, int index,
+			UnaryOperator<String> resolver) {
+		if (entry.getValue().indexOf('{') < 0) {
+			configuration.add(entry);
+			return;
+		}
+		String value;
+		// the entry may be scanned while another line is processed
+		int[] position = current.get();
+		int previous = position == null ? -1 : position[0];
+		setPosition(index);
+		try {
+			value = resolver.apply(entry.getValue());
+		} finally {
+			if (previous >= 0)
+				setPosition(previous);
+			else
+				clearPosition();
+		}
+		if (value != null)
+			configuration.add(new AttributeEntry(entry.getName(), value));
+		else
+			configuration.addUnresolved(entry.getName());
+	}
+
+	/**
+	 * Pushes the lines not processed yet through the given pipeline in
+	 * document order on the calling thread, including the lines added
+	 * meanwhile. Each line is released once it is processed, so the lines read
+	 * do not outlive the lines they are replaced by. Afterwards, the buffer is
+	 * empty.
+	 */
+	void process(PreprocessorPipeline pipeline, ChunkedLines output) {
+		try {
+			for (; processed < lines.size(); processed++) {
+				JobContext.checkCancelled();
+				setPosition(processed);
+				pipeline.push(lines.set(processed, null), output.append());
+			}
+		} finally {
+			clearPosition();
+		}
+		if (scanned == lines.size()) {
+			lines.clear();
+			scanned = 0;
+			processed = 0;
+		}
+	}
+
+	/**
+	 * Makes the position of the line at the given index the position reported
+	 * on the current thread.
+	 */
+	void setPosition(int index) {
+		int[] position = current.get();
+		if (position == null) {
+			position = new int[1];
+			current.set(position);
+		}
+		position[0] = index;
+	}
+
+	/**
+	 * Stops reporting a position on the current thread.
+	 */
+	void clearPosition() {
+		current.remove();
+	}
+
+	/**
+	 * Returns <code>true</code> iff the current thread processes a line of
+	 * this instance, i.e. the methods returning the position may be called.
+	 */
+	boolean hasPosition() {
+		return current.get() != null;
+	}
+
+	/**
+	 * Returns the file of the line processed by the current thread.
+	 */
+	String getFile() {
+		return files.get(sources[current.get()[0]]);
+	}
+
+	/**
+	 * Returns the directory of the line processed by the current thread.
+	 */
+	String getDir() {
+		return dirs.get(sources[current.get()[0]]);
+	}
+
+	/**
+	 * Returns the line number of the line processed by the current thread.
+	 */
+	int getLineNumber() {
+		return lineNumbers[current.get()[0]];
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.asciidoctor.extension.Reader;
+
+/**
+ * The preprocessed lines of a document, kept in chunks of bounded size until
+ * they are handed back to the reader.
+ * <p>
+ * Asciidoctor parses a document only after all preprocessors are done, so the
+ * preprocessed lines cannot be passed on while the document is read. But they
+ * need not be converted to a Ruby array at once: {@link #restoreTo(Reader)}
+ * restores one chunk after the other, starting with the last one since each
+ * chunk is put in front of the lines restored before. A chunk is released as
+ * soon as it is restored, so the Java copy of the document shrinks while the
+ * Ruby copy grows, and no array of the size of the document is created for
+ * the conversion. In addition, the chunks avoid the copying of a list that
+ * grows to hundreds of thousands of lines.
+ */
+class ChunkedLines {
+
+	/** Number of lines per chunk used by the {@link HostPreprocessor}. */
+	static final int DEFAULT_CHUNK_LINES = 4096;
+
+	private final int chunkLines;
+	private final Deque<List<String>> chunks = new ArrayDeque<>();
+	private List<String> current;
+	private int size = 0;
+
+	/**
+	 * Creates an empty instance.
+	 *
+	 * @param chunkLines
+	 *            the number of lines after which a new chunk is started
+	 */
+	ChunkedLines(int chunkLines) {
+		this.chunkLines = Math.max(1, chunkLines);
+		this.current = new ArrayList<>(this.chunkLines);
+	}
+
+	/**
+	 * Returns the list to append lines to. Lines appended to the returned list
+	 * follow all lines appended before. A chunk may exceed the chunk size by
+	 * the lines appended to it at once.
+	 */
+	List<String> append() {
+		if (current.size() >= chunkLines) {
+			size += current.size();
+			chunks.addLast(current);
+			current = new ArrayList<>(chunkLines);
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the number of lines.
+	 */
+	int size() {
+		return size + current.size();
+	}
+
+	/**
+	 * Returns all lines in one list.
+	 */
+	List<String> toList() {
+		List<String> result = new ArrayList<>(size());
+		for (List<String> chunk : chunks)
+			result.addAll(chunk);
+		result.addAll(current);
+		return result;
+	}
+
+	/**
+	 * Puts all lines in front of the remaining lines of the given reader and
+	 * removes them from this instance.
+	 */
+	void restoreTo(Reader reader) {
+		chunks.addLast(current);
+		current = new ArrayList<>();
+		size = 0;
+		for (Iterator<List<String>> iterator = chunks.descendingIterator(); iterator.hasNext();) {
+			List<String> chunk = iterator.next();
+			iterator.remove();
+			if (!chunk.isEmpty())
+				reader.restoreLines(chunk);
+		}
+	}
+}
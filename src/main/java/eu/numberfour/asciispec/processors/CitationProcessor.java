@@ -14,6 +14,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,7 +22,10 @@ import org.asciidoctor.ast.ContentNode;
 import org.asciidoctor.ast.Document;
 
 import eu.numberfour.asciispec.AdocUtils;
+import eu.numberfour.asciispec.BuildCache;
+import eu.numberfour.asciispec.JobContext;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.ProjectSession;
 import eu.numberfour.asciispec.citation.BibTexParser;
 import eu.numberfour.asciispec.citation.BibliographyDatabase;
 import eu.numberfour.asciispec.citation.BibliographyEntry;
@@ -29,6 +33,7 @@ import eu.numberfour.asciispec.citation.CitationParser;
 import eu.numberfour.asciispec.citation.CitationReference;
 import eu.numberfour.asciispec.citation.IdentityBibTexTagProcessor;
 import eu.numberfour.asciispec.issue.IssueCollector;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  * A preprocessor that processes citations.
@@ -79,7 +84,6 @@ import eu.numberfour.asciispec.issue.IssueCollector;
 public class CitationProcessor extends MacroPreprocessor<String> {
 
 	private static final String BIB_FILE_KEY = "bibFile";
-	private static final Pattern BIB_FILE_PATTERN = Pattern.compile(":bib-file:\\s*([^\\s]+)");
 
 	private static final String CITE_KEY = "cite";
 	private static final Pattern CITE_PATTERN = Pattern.compile("cite:\\[([^\\]]*)\\]");
@@ -115,19 +119,42 @@ public class CitationProcessor extends MacroPreprocessor<String> {
 
 	@Override
 	public void init(Document document) {
-		registerPattern(BIB_FILE_KEY, BIB_FILE_PATTERN);
-		registerPattern(CITE_KEY, CITE_PATTERN);
-		registerPattern(BIBLIOGRAPHY_KEY, BIBLIOGRAPHY_PATTERN);
+		documentBasePath = null;
+		configuredBibTexFile = null;
+		databaseState = DatabaseState.INITIAL;
+		database = null;
+		citations.clear();
+
+		registerAttributeEntry(BIB_FILE_KEY, "bib-file");
+		registerPattern(CITE_KEY, CITE_PATTERN, "cite:[");
+		registerPattern(BIBLIOGRAPHY_KEY, BIBLIOGRAPHY_PATTERN, "bibliography::[");
+	}
+
+	@Override
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		AttributeEntry bibFile = configuration.get("bib-file");
+		if (bibFile != null)
+			configureBibTexFile(document, bibFile);
+	}
+
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		configureBibTexFile(document, entry);
+		return line;
+	}
+
+	private void configureBibTexFile(Document document, AttributeEntry bibFile) {
+		String[] words = bibFile.getValue().split("\\s+", 2);
+		if (words[0].isEmpty())
+			return;
+		documentBasePath = AdocUtils.getDocumentBasePath(document);
+		configuredBibTexFile = Paths.get(words[0]);
 	}
 
 	@Override
 	protected String processMatch(Document document, String key, Matcher matcher) {
 		String fullMatch = matcher.group();
 		switch (key) {
-		case BIB_FILE_KEY:
-			documentBasePath = AdocUtils.getDocumentBasePath(document);
-			configuredBibTexFile = Paths.get(matcher.group(1));
-			return fullMatch;
 		case CITE_KEY:
 			return processCitation(document, matcher);
 		case BIBLIOGRAPHY_KEY:
@@ -284,15 +311,27 @@ public class CitationProcessor extends MacroPreprocessor<String> {
 		return findBibTexFile(document);
 	}
 
+	/**
+	 * Searches the project for a BibTeX file. The result is shared by all
+	 * documents of the current run (see {@link JobContext#currentRun()}), since
+	 * walking the project tree is expensive. Outside of a job, the project is
+	 * searched for every document, so that BibTeX files added later are found.
+	 */
 	private Path findBibTexFile(Document document) {
 		try {
 			final Path searchPath = documentBasePath;
 			if (searchPath == null)
 				return null;
 
-			BibTexFileFinder finder = new BibTexFileFinder();
-			Files.walkFileTree(searchPath, finder);
-			return finder.getBestMatch();
+			return ProjectSession.get(document).get(ProjectSession.BIBLIOGRAPHY_SEARCH, searchPath,
+					JobContext.currentRun(), () -> {
+						BibTexFileFinder finder = new BibTexFileFinder();
+						Files.walkFileTree(searchPath, finder);
+						return Optional.ofNullable(finder.getBestMatch());
+					}, match -> ProjectSession.DEFAULT_SIZE).orElse(null);
+		} catch (ParseException e) {
+			error(document, "Error while searching for BibTeX file: " + e.getMessage());
+			return null;
 		} catch (IOException e) {
 			error(document, "Error while searching for BibTeX file: " + e.getMessage());
 			return null;
@@ -351,10 +390,15 @@ public class CitationProcessor extends MacroPreprocessor<String> {
 
 	private void doLoadBibTexDatabase(Document document, Path path) {
 		final Path absPath = path.toAbsolutePath();
+		JobContext.recordInput(absPath);
 		try {
-			final List<BibliographyEntry> entries = BibTexParser.parse(absPath, StandardCharsets.UTF_8,
-					new IdentityBibTexTagProcessor());
-			database = new BibliographyDatabase(entries);
+			database = ProjectSession.get(document).get(ProjectSession.BIBLIOGRAPHY, absPath,
+					ProjectSession.stamp(absPath), () -> BuildCache.getParsed(ProjectSession.BIBLIOGRAPHY, absPath,
+							BibliographyDatabase.CODEC, () -> {
+								final List<BibliographyEntry> entries = BibTexParser.parse(absPath,
+										StandardCharsets.UTF_8, new IdentityBibTexTagProcessor());
+								return new BibliographyDatabase(entries);
+							}), database -> absPath.toFile().length());
 			databaseState = DatabaseState.LOADED;
 		} catch (NoSuchFileException e) {
 			error(document,
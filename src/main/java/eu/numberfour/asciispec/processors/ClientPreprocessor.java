@@ -1,5 +1,6 @@
 package eu.numberfour.asciispec.processors;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.asciidoctor.ast.Document;
@@ -7,11 +8,37 @@ import org.asciidoctor.ast.Document;
 public interface ClientPreprocessor {
 
 	/**
-	 * Is called before any line is processed.
+	 * Is called before any line is processed. Since the same instance is used
+	 * for all documents converted by an Asciidoctor instance, state that
+	 * belongs to a single document has to be reset here.
 	 */
 	default void init(Document document) {
 	}
 
+	/**
+	 * Is called after {@link #init(Document)} and before any line is processed
+	 * with the attribute entries of the document. Processors configured by
+	 * attribute entries take their initial configuration from here, so that
+	 * it is known before the first macro. Entries not read yet are read when
+	 * they are looked up, see {@link DocumentConfiguration}. Issues of invalid
+	 * entries are reported when the lines of the entries are processed.
+	 */
+	default void configure(Document document, DocumentConfiguration configuration) {
+	}
+
+	/**
+	 * Returns the given value of an attribute entry with the variables
+	 * resolved that this processor resolves in the lines of the document, e.g.
+	 * <code>{find}</code>, or <code>null</code> if one of them cannot be
+	 * resolved. Is called after {@link #init(Document)} for values containing
+	 * a <code>{</code>, so that {@link DocumentConfiguration} holds the values
+	 * the processors see when the lines of the entries are processed. Must not
+	 * report issues, since they are reported when the line is processed.
+	 */
+	default String resolveValue(Document document, String value) {
+		return value;
+	}
+
 	/**
 	 * Is called after every line is processed.
 	 */
@@ -25,6 +52,39 @@ public interface ClientPreprocessor {
 		return true;
 	}
 
+	/**
+	 * Returns true iff {@link #processLine(Document, String)} may be called
+	 * concurrently for the lines between two configuration lines (see
+	 * {@link #isConfiguration(String)}), i.e. this processor changes its state
+	 * only when processing configuration lines and the result for any other
+	 * line depends only on that state and the line itself.
+	 */
+	default boolean isStateless() {
+		return false;
+	}
+
+	/**
+	 * Returns true iff the given line configures this processor, e.g. an
+	 * attribute entry like <code>:bib-file: refs.bib</code>. Is called after
+	 * {@link #init(Document)}.
+	 */
+	default boolean isConfiguration(String line) {
+		return false;
+	}
+
+	/**
+	 * Returns literals of which at least one occurs in every line that
+	 * {@link #processLine(Document, String)} changes or takes note of, e.g.
+	 * <code>cite:[</code>. Lines that contain none of them are not passed to
+	 * this processor. Is called after {@link #init(Document)}.
+	 *
+	 * @return the literals, or <code>null</code> if this processor has to see
+	 *         every line
+	 */
+	default Collection<String> getTriggers() {
+		return null;
+	}
+
 	/**
 	 * Processes each line of the document. Comment regions are omitted. The
 	 * passed line gets transformed multiple times, once per pattern registered
@@ -10,6 +10,7 @@ import org.asciidoctor.ast.Document;
 import org.asciidoctor.extension.PreprocessorReader;
 
 import eu.numberfour.asciispec.AdocUtils;
+import eu.numberfour.asciispec.JobContext;
 import eu.numberfour.asciispec.findresolver.FileStackHelper;
 import eu.numberfour.asciispec.findresolver.MultipleFileMatchesException;
 
@@ -44,13 +45,24 @@ public interface DirectoriesMixin {
 
 	/**
 	 * Searches for the given file in the directory of the current file. Stops
-	 * at the given file {@code root}.
+	 * at the given file {@code root}. Files overlaid by the current job are
+	 * found even if they do not exist on disk.
 	 */
 	default File searchFile(String fileName) throws FileNotFoundException, MultipleFileMatchesException {
 		String findrootdir = AdocUtils.getAttributeAsString(getDocument(), FINDROOT, null);
 		return FileStackHelper.searchRelativeTo(fileName, getCurrentDir(), getBasedir(), findrootdir);
 	}
 
+	/**
+	 * Returns the unsaved contents of the given file sent with the current job,
+	 * or <code>null</code> if the file is read from disk.
+	 */
+	default String getOverlay(File file) {
+		if (file == DIRECT_INPUT_FILE)
+			return null;
+		return JobContext.getOverlay(file.toPath());
+	}
+
 	/**
 	 * Returns a file that is relative to the base dir.
 	 */
@@ -108,11 +120,36 @@ public interface DirectoriesMixin {
 		return curdir.resolve(path).normalize().toFile();
 	}
 
+	/**
+	 * Returns the name of the file of the current adoc line as reported by the
+	 * reader.
+	 */
+	default String getCurrentFileName() {
+		return getReader().getFile();
+	}
+
+	/**
+	 * Returns the name of the directory of the current adoc line as reported
+	 * by the reader.
+	 */
+	default String getCurrentDirName() {
+		return getReader().getDir();
+	}
+
+	/**
+	 * Returns the line number the reader reports after the current adoc line
+	 * was read, i.e. the number of the line following it (see
+	 * {@link #getCurrentLine()}).
+	 */
+	default int getCurrentLineNumber() {
+		return getReader().getLineNumber();
+	}
+
 	/**
 	 * Returns the file of the current adoc line.
 	 */
 	default File getCurrentFile() {
-		String fileName = getReader().getFile();
+		String fileName = getCurrentFileName();
 		if (fileName.equals(DIRECT_INPUT_FILE_NAME))
 			return DIRECT_INPUT_FILE;
 		return new File(fileName);
@@ -122,14 +159,14 @@ public interface DirectoriesMixin {
 	 * Returns the path of the current adoc line.
 	 */
 	default Path getCurrentDir() {
-		return Paths.get(getReader().getDir());
+		return Paths.get(getCurrentDirName());
 	}
 
 	/**
 	 * Returns the line number of the current file.
 	 */
 	default int getCurrentLine() {
-		return getReader().getLineNumber() - 1;
+		return getCurrentLineNumber() - 1;
 	}
 
 	/** Returns the base dir. Can be null in test scenarios. */
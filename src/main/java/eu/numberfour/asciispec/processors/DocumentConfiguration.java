@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.numberfour.asciispec.SourceProcessor;
+
+/**
+ * The attribute entries of a document, e.g. <code>:bib-file: refs.bib</code>,
+ * collected by the {@link HostPreprocessor} before the lines are passed to the
+ * {@link ClientPreprocessor}s (see
+ * {@link ClientPreprocessor#configure(org.asciidoctor.ast.Document, DocumentConfiguration)}).
+ * Hence a processor knows its configuration before it sees the first macro,
+ * even if the configuration is defined in an included file or after the
+ * macro.
+ * <p>
+ * To preprocess large documents in bounded memory, the host initially reads
+ * only a prefix of the document, which usually contains the configuration.
+ * Looking up an attribute that is not defined in the lines read so far makes
+ * the host read the rest of the document (see {@link #isComplete()}), so
+ * processors should look up entries only when they need them.
+ * <p>
+ * Entries in blocks ignored by the {@link SourceProcessor}, e.g. listings, do
+ * not count. If an attribute is defined more than once, the first entry is
+ * kept. Later entries are still passed to the processors with the line they
+ * are defined in, see {@link MacroPreprocessor#registerAttributeEntry}.
+ * <p>
+ * Variables in the values, like <code>{find}</code> in
+ * <code>:bib-file: {find}refs.bib</code>, are resolved as by the processors
+ * that resolve them in the lines of the document (see
+ * {@link ClientPreprocessor#resolveValue(org.asciidoctor.ast.Document, String)}).
+ * If a variable cannot be resolved, the attribute is treated as undefined
+ * here, and processors take it from the line of the entry.
+ */
+public class DocumentConfiguration {
+
+	/**
+	 * A line of the form <code>:name: value</code>.
+	 */
+	public static class AttributeEntry {
+		private final String name;
+		private final String value;
+
+		AttributeEntry(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		/**
+		 * Returns the name of the attribute, without colons.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the value of the attribute without leading and trailing
+		 * whitespace. The value is empty if none is given.
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * Returns the parts of a value that consists of parts separated by
+		 * semicolons, e.g. <code>path;page;icon;title</code>, without leading
+		 * and trailing whitespace. The last part contains the rest of the value
+		 * if the value has more than the given number of parts.
+		 *
+		 * @param limit
+		 *            the maximum number of parts
+		 */
+		public List<String> getParts(int limit) {
+			List<String> parts = new ArrayList<>(limit);
+			for (String part : value.split(";", limit))
+				parts.add(part.trim());
+			return parts;
+		}
+
+		@Override
+		public String toString() {
+			return ":" + name + ": " + value;
+		}
+	}
+
+	private static final Pattern ATTRIBUTE_ENTRY_PATTERN = Pattern.compile(":(?<NAME>[^:\\s!]+):\\s*(?<VALUE>.*?)\\s*");
+
+	/**
+	 * Returns the attribute entry defined by the given line, or
+	 * <code>null</code> if the line is not an attribute entry. Entries that
+	 * unset an attribute, like <code>:name!:</code>, are ignored.
+	 */
+	public static AttributeEntry parse(String line) {
+		if (line.isEmpty() || line.charAt(0) != ':')
+			return null;
+		Matcher matcher = ATTRIBUTE_ENTRY_PATTERN.matcher(line);
+		if (!matcher.matches())
+			return null;
+		return new AttributeEntry(matcher.group("NAME"), matcher.group("VALUE"));
+	}
+
+	/** The first entry of each attribute, <code>null</code> if its value is unresolved. */
+	private final Map<String, AttributeEntry> entries = new LinkedHashMap<>();
+	/** Adds the entries of the lines not read yet, <code>null</code> once all lines are read. */
+	private Runnable remainder;
+
+	/**
+	 * Sets the function that reads the rest of the document and adds its
+	 * entries, which is called before an attribute not defined so far is
+	 * looked up.
+	 */
+	void setRemainder(Runnable remainder) {
+		this.remainder = remainder;
+	}
+
+	/**
+	 * Returns <code>true</code> iff the entries of all lines of the document
+	 * are known, i.e. looking them up does not read any further lines.
+	 */
+	public boolean isComplete() {
+		return remainder == null;
+	}
+
+	private void complete() {
+		Runnable pending = remainder;
+		if (pending != null) {
+			remainder = null;
+			pending.run();
+		}
+	}
+
+	/**
+	 * Adds the given entry unless an entry of the same attribute was added
+	 * before.
+	 */
+	void add(AttributeEntry entry) {
+		if (!entries.containsKey(entry.getName()))
+			entries.put(entry.getName(), entry);
+	}
+
+	/**
+	 * Returns <code>true</code> iff an entry of the given attribute was added.
+	 */
+	boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Adds an entry of the given attribute whose value cannot be resolved,
+	 * unless an entry of the same attribute was added before.
+	 */
+	void addUnresolved(String name) {
+		if (!entries.containsKey(name))
+			entries.put(name, null);
+	}
+
+	/**
+	 * Returns the first entry of the given attribute, or <code>null</code> if
+	 * the document does not define the attribute or the value of the first
+	 * entry cannot be resolved.
+	 */
+	public AttributeEntry get(String name) {
+		if (!entries.containsKey(name))
+			complete();
+		return entries.get(name);
+	}
+
+	/**
+	 * Returns the first entry of each attribute whose name starts with the
+	 * given prefix, e.g. <code>repo_def_</code>, in the order of their
+	 * definition. Attributes whose first value cannot be resolved are left
+	 * out.
+	 */
+	public List<AttributeEntry> getAll(String prefix) {
+		complete();
+		List<AttributeEntry> result = new ArrayList<>();
+		for (AttributeEntry entry : entries.values()) {
+			if (entry != null && entry.getName().startsWith(prefix))
+				result.add(entry);
+		}
+		return Collections.unmodifiableList(result);
+	}
+}
@@ -56,6 +56,21 @@ abstract public class FileAwarePreprocessor extends Preprocessor implements Clie
 		return getHostPreprocessor().getReader();
 	}
 
+	@Override
+	public String getCurrentFileName() {
+		return getHostPreprocessor().getCurrentFileName();
+	}
+
+	@Override
+	public String getCurrentDirName() {
+		return getHostPreprocessor().getCurrentDirName();
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return getHostPreprocessor().getCurrentLineNumber();
+	}
+
 	/*
 	 * Redirecting mixin methods here so that subclasses don't have to do that.
 	 */
@@ -1,15 +1,24 @@
 package eu.numberfour.asciispec.processors;
 
 import java.io.File;
-import java.util.Collections;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.asciidoctor.ast.ContentNode;
 import org.asciidoctor.ast.Document;
+import org.asciidoctor.extension.IncludeProcessor;
 import org.asciidoctor.extension.Preprocessor;
 import org.asciidoctor.extension.PreprocessorReader;
 
-import eu.numberfour.asciispec.SourceProcessor;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ProcessorMetrics;
+import eu.numberfour.asciispec.math.MathService;
 
 /**
  * This preprocessor is hosts all other Preprocessors. In fact, this is the only
@@ -28,7 +37,110 @@ import eu.numberfour.asciispec.SourceProcessor;
 public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 
 	//// public static members ////
-	private static final List<String> INCLUDE_VARIABLES = new LinkedList<>();
+	private static final Set<String> INCLUDE_VARIABLES = new CopyOnWriteArraySet<>();
+	private static final AtomicLong DOCUMENT_IDS = new AtomicLong();
+
+	/**
+	 * Name of the document attribute that holds a process wide unique id of
+	 * the document being processed.
+	 */
+	public static final String DOCUMENT_ID_ATTRIBUTE = "asciispec-document-id";
+
+	/**
+	 * Name of the attribute that marks a document whose lines were already
+	 * preprocessed (see {@link PreprocessedSource}). The client preprocessors
+	 * are not applied to such a document.
+	 */
+	public static final String PREPROCESSED_ATTRIBUTE = "asciispec-preprocessed";
+
+	/**
+	 * Name of the attribute that enables the preprocessing of independent
+	 * segments of a document in parallel, see {@link ParallelPreprocessing}.
+	 * The attribute has to be passed to Asciidoctor, e.g. with
+	 * <code>-a asciispec-parallel-preprocessing</code>, since the header of the
+	 * document is not parsed before the preprocessors are applied.
+	 */
+	public static final String PARALLEL_ATTRIBUTE = "asciispec-parallel-preprocessing";
+
+	private static final ThreadLocal<PreprocessedSource> CAPTURE = new ThreadLocal<>();
+	private static final ThreadLocal<PreprocessedSource> REPLAY = new ThreadLocal<>();
+	private static final ThreadLocal<PreprocessorReader> READING = new ThreadLocal<>();
+
+	/**
+	 * Captures the lines of the next document preprocessed by the current
+	 * thread, see {@link #stopCapture()}.
+	 */
+	public static void startCapture() {
+		CAPTURE.set(new PreprocessedSource());
+	}
+
+	/**
+	 * Stops capturing and returns the lines captured since
+	 * {@link #startCapture()}, or <code>null</code> if no document was
+	 * preprocessed in the meantime.
+	 */
+	public static PreprocessedSource stopCapture() {
+		PreprocessedSource result = CAPTURE.get();
+		CAPTURE.remove();
+		return result == null || result.getLines().isEmpty() ? null : result;
+	}
+
+	/**
+	 * Makes the next document with the attribute
+	 * {@link #PREPROCESSED_ATTRIBUTE} converted by the current thread restore
+	 * the state the client preprocessors left when the given source was
+	 * captured, e.g. the files included into its math (see
+	 * {@link PreprocessedSource#getMathIncludes()}).
+	 */
+	public static void startReplay(PreprocessedSource source) {
+		REPLAY.set(source);
+	}
+
+	/**
+	 * Stops replaying the source passed to
+	 * {@link #startReplay(PreprocessedSource)}.
+	 */
+	public static void stopReplay() {
+		REPLAY.remove();
+	}
+
+	/**
+	 * Returns <code>true</code> iff the given node belongs to a document whose
+	 * lines were already preprocessed, e.g. since it is converted to another
+	 * backend. Issues reported for such documents by the preprocessors and
+	 * include processors were already reported when the lines were
+	 * preprocessed.
+	 */
+	public static boolean isPreprocessed(ContentNode node) {
+		Document document = node.getDocument();
+		return document != null && document.getAttribute(PREPROCESSED_ATTRIBUTE) != null;
+	}
+
+	/**
+	 * Returns the unique id of the document the given node belongs to, or
+	 * <code>null</code> if the document was not processed by a
+	 * {@link HostPreprocessor}.
+	 * <p>
+	 * Processors which are not {@link ClientPreprocessor}s, and thus have no
+	 * {@link ClientPreprocessor#init(Document)} method, use this id to detect
+	 * that they are applied to a new document. This is necessary since an
+	 * Asciidoctor instance and its processors may be reused for many
+	 * documents.
+	 */
+	public static Object getDocumentId(ContentNode node) {
+		return node.getDocument().getAttribute(DOCUMENT_ID_ATTRIBUTE);
+	}
+
+	/**
+	 * Returns the reader whose lines are read by a {@link HostPreprocessor} on
+	 * the current thread, or <code>null</code> if there is none. This is the
+	 * reader that resolves the include directives of the lines, so
+	 * {@link IncludeProcessor#handles(String)} may use it to resolve the
+	 * target against the directory of the including file.
+	 */
+	static PreprocessorReader getIncludingReader() {
+		return READING.get();
+	}
 
 	/**
 	 * Enables the use of e.g. <code>{find}</code> variables within include
@@ -38,6 +150,9 @@ public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 	 * <p>
 	 * Otherwise, the line that contains this (unknown) variable is dropped by
 	 * Asciidoctor!
+	 * <p>
+	 * Variables are shared by all Asciidoctor instances of the process and may
+	 * be enabled concurrently.
 	 *
 	 * @return List of variable names
 	 */
@@ -48,6 +163,10 @@ public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 	//// non-static members ////
 	private Document document;
 	private PreprocessorReader reader;
+	private BufferedLines preprocessing;
+	private String lastFile;
+	private String positionFile;
+	private String positionDir;
 	private List<ClientPreprocessor> clientPreprocessors = new LinkedList<>();
 
 	/**
@@ -66,6 +185,15 @@ public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 
 	@Override
 	final public void process(Document document, PreprocessorReader reader) {
+		long start = System.nanoTime();
+		try {
+			processDocument(document, reader);
+		} finally {
+			ProcessorMetrics.record(this, start);
+		}
+	}
+
+	private void processDocument(Document document, PreprocessorReader reader) {
 		this.document = document;
 		this.reader = reader;
 		File documentBaseFile = getBaseFile();
@@ -74,61 +202,141 @@ public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 		}
 
 		setIncludedVariables(document);
+		document.setAttr(DOCUMENT_ID_ATTRIBUTE, Long.toString(DOCUMENT_IDS.incrementAndGet()), true);
+		if (document.getAttribute(PREPROCESSED_ATTRIBUTE) != null) {
+			PreprocessedSource replayed = REPLAY.get();
+			if (replayed != null) {
+				for (Path include : replayed.getMathIncludes())
+					MathService.get(document).include(include);
+			}
+			return;
+		}
 
 		for (ClientPreprocessor cp : clientPreprocessors) {
+			long start = System.nanoTime();
 			cp.init(document);
+			ProcessorMetrics.record(cp, start);
 		}
 
-		processLines(document);
+		BufferedLines lines = new BufferedLines();
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		boolean parallel = document.getAttribute(PARALLEL_ATTRIBUTE) != null
+				&& ParallelPreprocessing.countConcurrentStages(clientPreprocessors) > 0;
+		PreprocessorReader including = READING.get();
+		READING.set(reader);
+		preprocessing = lines;
+		try {
+			// segments are preprocessed in parallel only if all lines are known
+			readLines(lines, configuration, parallel ? Integer.MAX_VALUE : ChunkedLines.DEFAULT_CHUNK_LINES);
+			if (reader.hasMoreLines())
+				configuration.setRemainder(() -> readLines(lines, configuration, Integer.MAX_VALUE));
+			for (ClientPreprocessor cp : clientPreprocessors) {
+				long start = System.nanoTime();
+				cp.configure(document, configuration);
+				ProcessorMetrics.record(cp, start);
+			}
+
+			processLines(lines, configuration, parallel);
+		} finally {
+			preprocessing = null;
+			lastFile = null;
+			positionFile = null;
+			positionDir = null;
+			if (including != null)
+				READING.set(including);
+			else
+				READING.remove();
+		}
 
 		for (ClientPreprocessor cp : clientPreprocessors) {
+			long start = System.nanoTime();
 			cp.finish(document);
+			ProcessorMetrics.record(cp, start);
 		}
 	}
 
-	private void processLines(Document document) {
-		LinkedList<String> newlines = new LinkedList<>();
-		SourceProcessor sp = new SourceProcessor();
-
-		while (reader.hasMoreLines()) {
+	/**
+	 * Reads at most the given number of lines of the document together with
+	 * their positions and adds their attribute entries to the given
+	 * configuration. Checks for cancellation of the current job before each
+	 * line, so that superseded or timed out jobs of the server stop early.
+	 * <p>
+	 * The reader resolves plain include directives while the lines are read,
+	 * so the files the lines come from are recorded as inputs of the current
+	 * job (see {@link JobContext#recordInput(Path)}).
+	 */
+	private void readLines(BufferedLines lines, DocumentConfiguration configuration, int limit) {
+		PreprocessedSource capture = CAPTURE.get();
+		for (int i = 0; i < limit && reader.hasMoreLines(); i++) {
+			JobContext.checkCancelled();
+			String file = reader.getFile();
+			if (file != null && !file.equals(lastFile) && !file.equals(DirectoriesMixin.DIRECT_INPUT_FILE_NAME)) {
+				JobContext.recordInput(Paths.get(file));
+				if (capture != null && capture.getLines().isEmpty())
+					capture.addFile(Paths.get(file));
+				lastFile = file;
+			}
+			if (positionDir == null || !Objects.equals(file, positionFile)) {
+				// the reader enters and leaves files while peeking, so the
+				// directory only changes with the file
+				positionFile = file;
+				positionDir = reader.getDir();
+			}
 			String line = reader.readLine();
-			List<String> cplines = new LinkedList<String>();
-			expand(document, sp, line, clientPreprocessors, cplines);
-			newlines.addAll(cplines);
+			lines.add(line, file, positionDir, reader.getLineNumber());
 		}
-
-		reader.restoreLines(newlines);
+		lines.scanConfiguration(configuration, value -> resolveValue(document, value));
 	}
 
-	private void expand(Document document, SourceProcessor sp, String newLine, List<ClientPreprocessor> cps,
-			List<String> result) {
-
-		if (newLine == null)
-			return;
-		if (cps.isEmpty()) {
-			result.add(newLine);
-			sp.updateBlockState(newLine);
-			return;
+	/**
+	 * Resolves the variables in the value of an attribute entry by the enabled
+	 * client preprocessors in their order, see
+	 * {@link ClientPreprocessor#resolveValue(Document, String)}.
+	 */
+	private String resolveValue(Document document, String value) {
+		for (ClientPreprocessor cp : clientPreprocessors) {
+			if (value == null)
+				break;
+			if (cp.isEnabled())
+				value = cp.resolveValue(document, value);
 		}
+		return value;
+	}
 
-		ClientPreprocessor cp = cps.get(0);
-		List<ClientPreprocessor> tail = new LinkedList<>(cps);
-		tail.remove(0);
-
-		List<String> processedLines = sp.processWithoutUpdate(newLine, (String ll) -> {
-			final List<String> replacement;
-			if (cp.isEnabled()) {
-				replacement = cp.processLine(document, ll);
-			} else {
-				replacement = Collections.emptyList();
-				replacement.add(ll);
+	/**
+	 * Passes the lines to the client preprocessors through a
+	 * {@link PreprocessorPipeline}. The preprocessed lines are handed back to
+	 * the reader in chunks, see {@link ChunkedLines}.
+	 * <p>
+	 * Unless all lines were read before, the lines read ahead are processed
+	 * first, and then each line is processed as it is read. So the read lines
+	 * take bounded memory, unless a processor looks up an attribute entry that
+	 * is not known yet.
+	 * <p>
+	 * If the document has the attribute {@link #PARALLEL_ATTRIBUTE} and its
+	 * first processor is stateless, independent segments of the lines are
+	 * preprocessed concurrently, see {@link ParallelPreprocessing}.
+	 */
+	private void processLines(BufferedLines lines, DocumentConfiguration configuration, boolean parallel) {
+		ChunkedLines newlines = new ChunkedLines(ChunkedLines.DEFAULT_CHUNK_LINES);
+		if (parallel) {
+			new ParallelPreprocessing(document, clientPreprocessors, lines, ParallelPreprocessing.DEFAULT_SEGMENT_LINES)
+					.process(newlines);
+		} else {
+			PreprocessorPipeline pipeline = new PreprocessorPipeline(document, clientPreprocessors);
+			lines.process(pipeline, newlines);
+			while (reader.hasMoreLines()) {
+				readLines(lines, configuration, 1);
+				lines.process(pipeline, newlines);
 			}
-			return replacement;
-		});
+		}
 
-		for (String processedLine : processedLines) {
-			expand(document, sp, processedLine, tail, result);
+		PreprocessedSource capture = CAPTURE.get();
+		if (capture != null && capture.getLines().isEmpty()) {
+			capture.addLines(newlines.toList());
+			capture.addMathIncludes(MathService.getIncludes(document));
 		}
+		newlines.restoreTo(reader);
 	}
 
 	@Override
@@ -136,6 +344,36 @@ public class HostPreprocessor extends Preprocessor implements DirectoriesMixin {
 		return reader;
 	}
 
+	/**
+	 * Returns the file of the line being preprocessed, which the reader may
+	 * already be ahead of.
+	 */
+	@Override
+	public String getCurrentFileName() {
+		BufferedLines lines = preprocessing;
+		return lines != null && lines.hasPosition() ? lines.getFile() : reader.getFile();
+	}
+
+	/**
+	 * Returns the directory of the line being preprocessed, which the reader
+	 * may already be ahead of.
+	 */
+	@Override
+	public String getCurrentDirName() {
+		BufferedLines lines = preprocessing;
+		return lines != null && lines.hasPosition() ? lines.getDir() : reader.getDir();
+	}
+
+	/**
+	 * Returns the line number of the line being preprocessed, which the reader
+	 * may already be ahead of.
+	 */
+	@Override
+	public int getCurrentLineNumber() {
+		BufferedLines lines = preprocessing;
+		return lines != null && lines.hasPosition() ? lines.getLineNumber() : reader.getLineNumber();
+	}
+
 	@Override
 	public Document getDocument() {
 		return document;
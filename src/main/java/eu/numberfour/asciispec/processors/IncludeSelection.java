@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The lines of an included file selected by the <code>lines</code> or
+ * <code>tags</code> attribute of the include directive, e.g.
+ * <code>include::chapter.adoc[lines=1..10;20]</code>. Asciidoctor applies these
+ * attributes only to the files it reads itself, so the processors that include
+ * files from memory (see
+ * {@link eu.numberfour.asciispec.JobContext#getOverlay(java.nio.file.Path)})
+ * select the lines with this class.
+ * <p>
+ * Like in Asciidoctor, the <code>tags</code> attribute is ignored if the
+ * <code>lines</code> attribute is given, and lines that contain a tag directive
+ * are never included. Of the tag selectors, only tag names are supported;
+ * wildcards and negated names are rejected.
+ */
+final class IncludeSelection {
+
+	private static final Pattern TAG_DIRECTIVE_PATTERN = Pattern.compile("\\b(tag|end)::(\\S+?)\\[\\](?=$|\\s)");
+
+	private final String content;
+	private final int lineNumber;
+
+	private IncludeSelection(String content, int lineNumber) {
+		this.content = content;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Returns the selected lines, separated and terminated by line feeds.
+	 */
+	String getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the line number of the first selected line in the included file.
+	 */
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Selects the lines of the given content according to the given attributes
+	 * of an include directive.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the attributes contain an unsupported tag selector
+	 */
+	static IncludeSelection select(String content, Map<String, Object> attributes) {
+		Object lines = attributes.get("lines");
+		if (lines != null)
+			return selectLines(content, String.valueOf(lines));
+		Object tags = attributes.containsKey("tags") ? attributes.get("tags") : attributes.get("tag");
+		if (tags != null)
+			return selectTags(split(content), String.valueOf(tags));
+		return new IncludeSelection(content, 1);
+	}
+
+	private static IncludeSelection selectLines(String content, String spec) {
+		List<int[]> ranges = new ArrayList<>();
+		for (String range : splitDelimited(spec)) {
+			try {
+				int separator = range.indexOf("..");
+				if (separator < 0) {
+					int line = Integer.parseInt(range);
+					ranges.add(new int[] { line, line });
+				} else {
+					int from = Integer.parseInt(range.substring(0, separator));
+					String toSpec = range.substring(separator + 2);
+					int to = toSpec.isEmpty() ? -1 : Integer.parseInt(toSpec);
+					ranges.add(new int[] { from, to < 0 ? Integer.MAX_VALUE : to });
+				}
+			} catch (NumberFormatException e) {
+				// ignored like in Asciidoctor
+			}
+		}
+		if (ranges.isEmpty())
+			return new IncludeSelection(content, 1);
+
+		List<String> lines = split(content);
+		StringBuilder builder = new StringBuilder();
+		int first = 0;
+		for (int number = 1; number <= lines.size(); number++) {
+			for (int[] range : ranges) {
+				if (range[0] <= number && number <= range[1]) {
+					if (first == 0)
+						first = number;
+					builder.append(lines.get(number - 1)).append('\n');
+					break;
+				}
+			}
+		}
+		return new IncludeSelection(builder.toString(), Math.max(1, first));
+	}
+
+	private static IncludeSelection selectTags(List<String> lines, String spec) {
+		Set<String> names = new LinkedHashSet<>();
+		for (String name : splitDelimited(spec)) {
+			if (name.startsWith("!") || name.contains("*"))
+				throw new IllegalArgumentException(
+						"Unsupported tag selector '" + name + "' in include of an overlaid file");
+			names.add(name);
+		}
+
+		StringBuilder builder = new StringBuilder();
+		Set<String> open = new HashSet<>();
+		int first = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			Matcher matcher = TAG_DIRECTIVE_PATTERN.matcher(line);
+			if (matcher.find()) {
+				String name = matcher.group(2);
+				if (names.contains(name)) {
+					if (matcher.group(1).equals("tag"))
+						open.add(name);
+					else
+						open.remove(name);
+				}
+			} else if (!open.isEmpty()) {
+				if (first == 0)
+					first = i + 1;
+				builder.append(line).append('\n');
+			}
+		}
+		return new IncludeSelection(builder.toString(), Math.max(1, first));
+	}
+
+	private static List<String> splitDelimited(String spec) {
+		List<String> result = new ArrayList<>();
+		for (String part : spec.split(spec.contains(",") ? "," : ";")) {
+			part = part.trim();
+			if (!part.isEmpty())
+				result.add(part);
+		}
+		return result;
+	}
+
+	private static List<String> split(String content) {
+		List<String> lines = new ArrayList<>();
+		for (String line : content.split("\r?\n", -1))
+			lines.add(line);
+		if (content.isEmpty() || content.endsWith("\n"))
+			lines.remove(lines.size() - 1);
+		return lines;
+	}
+}
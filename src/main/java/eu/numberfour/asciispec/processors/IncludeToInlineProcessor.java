@@ -19,6 +19,8 @@ import org.asciidoctor.extension.IncludeProcessor;
 import org.asciidoctor.extension.Preprocessor;
 import org.asciidoctor.extension.PreprocessorReader;
 
+import eu.numberfour.asciispec.JobContext;
+
 /**
  * This {@link IncludeProcessor} evaluates all include macros in the document
  * whose targets start with the given <code>variableName</code>.
@@ -50,6 +52,7 @@ abstract public class IncludeToInlineProcessor extends IncludeProcessor {
 
 	@Override
 	public void process(Document document, PreprocessorReader pReader, String target, Map<String, Object> attributes) {
+		JobContext.checkCancelled();
 		String newInlineMacro = "include:" + target + "[" + getAttributeString(attributes) + "]";
 
 		pReader.restoreLine(newInlineMacro);
@@ -40,6 +40,7 @@ import org.asciidoctor.internal.RubyObjectWrapper;
 
 import eu.numberfour.asciispec.AdocUtils;
 import eu.numberfour.asciispec.AttributeParser;
+import eu.numberfour.asciispec.ProcessorMetrics;
 import eu.numberfour.asciispec.hacks.HackProcessors;
 import eu.numberfour.asciispec.issue.IssueAcceptor;
 import eu.numberfour.asciispec.issue.IssuePrinter;
@@ -272,7 +273,12 @@ public class InlineMacroToBlockConverter extends Treeprocessor {
 		private String processMacro(ContentNode parent, String name, String target,
 				Map<String, Object> attributes) {
 			InlineMacroProcessor processor = macroProcessors.get(name);
-			return processor.process(parent, target, attributes).toString();
+			long start = System.nanoTime();
+			try {
+				return processor.process(parent, target, attributes).toString();
+			} finally {
+				ProcessorMetrics.record(processor, start);
+			}
 		}
 
 		private List<StructuralNode> createResult(StructuralNode node, StructuralNode parent,
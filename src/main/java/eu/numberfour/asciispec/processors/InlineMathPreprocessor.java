@@ -28,8 +28,13 @@ public class InlineMathPreprocessor extends MacroPreprocessor<String> {
 
 	@Override
 	public void init(Document document) {
-		registerPattern(MATH_KEY, MATH_PATTERN);
-		registerPattern(MATH_UNESCAPE_KEY, MATH_UNESCAPE_PATTERN);
+		registerPattern(MATH_KEY, MATH_PATTERN, MATH_KEY + ":", "$");
+		registerPattern(MATH_UNESCAPE_KEY, MATH_UNESCAPE_PATTERN, "\\$");
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
@@ -3,6 +3,7 @@ package eu.numberfour.asciispec.processors;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -11,6 +12,7 @@ import org.asciidoctor.ast.Document;
 
 import eu.numberfour.asciispec.AdocUtils;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  */
@@ -22,39 +24,40 @@ public class InlineRepoLinkProcessor extends MacroPreprocessor<String> {
 			+ ":(?<REPO>[^\\[\\]:]*):((?<BRANCH>[^\\[\\]:]*):)?(?<FILE>[^\\[\\]]*)(\\[(?<ATTRS>([^\\[\\]]*|\\[([^\\[\\]]*|\\[[^\\[\\]]*\\])*\\])*)\\])");
 
 	private static final String CONFIG_KEY = REPO_KEY + "_def_";
-	private static final Pattern CONFIG_PATTERN = Pattern
-			.compile(":" + CONFIG_KEY + "(?<NAME>[^:]*):\\s*(?<URL>[^;]*)\\s*;\\s*(?<ICON>.*)");
-
-	private static final String VERIFY_CONFIG_KEY = CONFIG_KEY + "loose";
-	private static final Pattern VERIFY_CONFIG_PATTERN = Pattern.compile(":" + CONFIG_KEY + "(?<NAME>[^:]*):\\s*.*");
 
 	final private Map<String, RepolnkConfig> repoConfigs = new HashMap<>();
 
 
 	@Override
 	public void init(Document document) {
-		registerPattern(CONFIG_KEY, CONFIG_PATTERN);
-		registerPattern(VERIFY_CONFIG_KEY, VERIFY_CONFIG_PATTERN);
-		registerPattern(REPO_KEY, REPO_PATTERN);
+		repoConfigs.clear();
+
+		registerAttributeEntries(CONFIG_KEY, CONFIG_KEY);
+		registerPattern(REPO_KEY, REPO_PATTERN, REPO_KEY + ":");
 	}
 
 	@Override
-	protected String processMatch(Document document, String key, Matcher matcher) {
-		String fullMatch = matcher.group();
-		switch (key) {
-		case CONFIG_KEY:
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		for (AttributeEntry entry : configuration.getAll(CONFIG_KEY)) {
+			List<String> parts = entry.getParts(2);
 			try {
-				addConfig(matcher);
+				if (parts.size() == 2)
+					addConfig(entry.getName().substring(CONFIG_KEY.length()), parts.get(0), parts.get(1));
 			} catch (IllegalArgumentException e) {
-				return error(document, e.getMessage());
+				// reported when the entry is processed
 			}
-			return fullMatch;
-		case VERIFY_CONFIG_KEY:
-			boolean isConfigured = verifyConfiguration(matcher);
-			if (!isConfigured) {
-				return error(document, "Invalid repo configuration: " + fullMatch);
-			}
-			return fullMatch;
+		}
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+
+	@Override
+	protected String processMatch(Document document, String key, Matcher matcher) {
+		String fullMatch = matcher.group();
+		switch (key) {
 		case REPO_KEY:
 
 			try {
@@ -116,10 +119,26 @@ public class InlineRepoLinkProcessor extends MacroPreprocessor<String> {
 		return imgLink + txtLink;
 	}
 
-	private void addConfig(Matcher matcher) {
-		String name = matcher.group("NAME").trim();
-		String urlTemplate = matcher.group("URL").trim();
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		String name = entry.getName().substring(CONFIG_KEY.length());
+		List<String> parts = entry.getParts(2);
+		if (parts.size() < 2) {
+			boolean isConfigured = repoConfigs.containsKey(name);
+			if (!isConfigured) {
+				return error(document, "Invalid repo configuration: " + line);
+			}
+			return line;
+		}
+		try {
+			addConfig(name, parts.get(0), parts.get(1));
+		} catch (IllegalArgumentException e) {
+			return error(document, e.getMessage());
+		}
+		return line;
+	}
 
+	private void addConfig(String name, String urlTemplate, String iconFile) {
 		if (isNullOrEmpty(name))
 			throw new IllegalArgumentException("Invalid repo_def configuration: 'NAME' missing");
 		if (urlTemplate == null || urlTemplate.isEmpty())
@@ -129,21 +148,12 @@ public class InlineRepoLinkProcessor extends MacroPreprocessor<String> {
 		if (!urlTemplate.contains("{FILE}"))
 			throw new IllegalArgumentException("Invalid repo_def configuration in URL: FILE placeholder missing");
 
-		String iconFile = matcher.group("ICON");
-		if (iconFile != null)
-			iconFile = iconFile.trim();
 		if (iconFile.isEmpty())
 			iconFile = null;
 		RepolnkConfig config = new RepolnkConfig(name, urlTemplate, iconFile);
 		repoConfigs.put(config.name, config);
 	}
 
-	private boolean verifyConfiguration(Matcher matcher) {
-		String name = matcher.group("NAME");
-		boolean alreadyConfigured = repoConfigs.containsKey(name);
-		return alreadyConfigured;
-	}
-
 	static class RepolnkConfig {
 		final String name;
 		final String urlTemplate;
@@ -22,7 +22,12 @@ public class InlineRequirementLinkProcessor extends MacroPreprocessor<String> {
 
 	@Override
 	public void init(Document document) {
-		registerPattern(REQ_KEY, REQ_PATTERN);
+		registerPattern(REQ_KEY, REQ_PATTERN, REQ_KEY + ":");
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
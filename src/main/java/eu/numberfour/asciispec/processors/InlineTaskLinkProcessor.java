@@ -16,16 +16,26 @@ import static eu.numberfour.asciispec.AdocUtils.transformVariable;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Scanner;
 
 import org.asciidoctor.ast.ContentNode;
 import org.asciidoctor.extension.InlineMacroProcessor;
 
 import eu.numberfour.asciispec.AdocUtils;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.ProcessorMetrics;
+import eu.numberfour.asciispec.ProjectSession;
 import eu.numberfour.asciispec.issue.IssueAcceptor;
 import eu.numberfour.asciispec.issue.IssuePrinter;
 
@@ -36,8 +46,12 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 
 	// TODO: make this configurable
 	private final IssueAcceptor issueAcceptor = new IssuePrinter();
+
+	/** Time in ms after which task status files that are not local files are fetched again. */
+	static final long REMOTE_TASK_INFO_TTL = 5 * 60 * 1000;
 	
 	private Map<String, RepositoryConfig> repositoryConfigs;
+	private Object documentId;
 
 	private class RepositoryConfig {
 		public final String prefix;
@@ -80,29 +94,55 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 			taskInfoCache = loadTaskInfoCache(node);
 		}
 
+		/**
+		 * Loads the task status file. The file is kept in the project session,
+		 * local files are reloaded when they change, remote files after
+		 * {@link InlineTaskLinkProcessor#REMOTE_TASK_INFO_TTL} ms.
+		 */
 		private Map<String, TaskInfo> loadTaskInfoCache(ContentNode node) {
-			Map<String, TaskInfo> result = new HashMap<>();
-
 			if (!taskInfoFileUrl.isEmpty()) {
 				try {
 					URL url = new URL(taskInfoFileUrl);
-					try (@SuppressWarnings("resource")
-					Scanner scanner = new Scanner(url.openStream()).useDelimiter("\\n")) {
-
-						readStatusFileContent(node, result, scanner);
-
-					}
+					TaskInfoFile file = ProjectSession.get(node).get(ProjectSession.TASK_INFO, taskInfoFileUrl,
+							getStamp(url), () -> readTaskInfoFile(url), infos -> 128L * infos.taskInfos.size());
+					for (String warning : file.warnings)
+						issueAcceptor.warn(node, warning);
+					return file.taskInfos;
 				} catch (MalformedURLException e) {
 					issueAcceptor.error(node, "Malformed task status file URL: " + taskInfoFileUrl);
-				} catch (IOException e) {
+				} catch (IOException | ParseException e) {
 					issueAcceptor.error(node, "Error while fetching task status file from URL " + taskInfoFileUrl
 							+ ": " + e.getMessage());
 				}
 			}
-			return result;
+			return new HashMap<>();
+		}
+
+		private Object getStamp(URL url) {
+			if ("file".equals(url.getProtocol())) {
+				try {
+					Path path = Paths.get(url.toURI());
+					JobContext.recordInput(path);
+					return ProjectSession.stamp(path);
+				} catch (URISyntaxException | IllegalArgumentException e) {
+					return null;
+				}
+			}
+			return System.currentTimeMillis() / REMOTE_TASK_INFO_TTL;
 		}
 
-		private void readStatusFileContent(ContentNode node, Map<String, TaskInfo> result, Scanner scanner) {
+		private TaskInfoFile readTaskInfoFile(URL url) throws IOException {
+			TaskInfoFile file = new TaskInfoFile();
+			try (@SuppressWarnings("resource")
+			Scanner scanner = new Scanner(url.openStream()).useDelimiter("\\n")) {
+
+				readStatusFileContent(file, scanner);
+
+			}
+			return file;
+		}
+
+		private void readStatusFileContent(TaskInfoFile file, Scanner scanner) {
 			int lineNumber = 0;
 			while (scanner.hasNext()) {
 				String line = scanner.next();
@@ -114,7 +154,7 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 				if (parts.length < 2) {
 					String msg = String.format("Malformed task status entry in line %d of task status file %s",
 							lineNumber, taskInfoFileUrl);
-					issueAcceptor.warn(node, msg);
+					file.warnings.add(msg);
 					continue;
 				}
 
@@ -127,7 +167,7 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 				if (taskStatus == null) {
 					String msg = String.format("Unknown task status '%s' in line %d of task status file %s", parts[1],
 							lineNumber, taskInfoFileUrl);
-					issueAcceptor.warn(node, msg);
+					file.warnings.add(msg);
 					continue;
 				}
 
@@ -137,11 +177,21 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 				}
 
 				TaskInfo info = new TaskInfo(taskId, taskStatus, title);
-				result.put(taskId, info);
+				file.taskInfos.put(taskId, info);
 			}
 		}
 	}
 
+	/**
+	 * The content of a task status file and the warnings reported while
+	 * reading it. Is shared by all documents of a project and thus must not
+	 * be modified once it is read.
+	 */
+	static class TaskInfoFile {
+		final Map<String, TaskInfo> taskInfos = new HashMap<>();
+		final List<String> warnings = new ArrayList<>();
+	}
+
 	static class TaskInfo {
 		final String id;
 		final TaskStatus status;
@@ -171,6 +221,7 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 
 	@Override
 	public Object process(ContentNode parent, String target, Map<String, Object> attributes) {
+		long start = System.nanoTime();
 		try {
 			RepositoryConfig repositoryConfig = getRepositoryConfig(parent.getDocument(), target);
 			if (repositoryConfig == null) {
@@ -184,6 +235,8 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 			String message = e.getMessage();
 			issueAcceptor.error(parent, message);
 			return message;
+		} finally {
+			ProcessorMetrics.record(this, start);
 		}
 	}
 
@@ -203,6 +256,11 @@ public class InlineTaskLinkProcessor extends InlineMacroProcessor {
 	}
 
 	private Map<String, RepositoryConfig> getRepositoryConfigs(ContentNode document) {
+		Object currentDocumentId = HostPreprocessor.getDocumentId(document);
+		if (!Objects.equals(documentId, currentDocumentId)) {
+			documentId = currentDocumentId;
+			repositoryConfigs = null;
+		}
 		if (repositoryConfigs == null) {
 			Map<String, String> values = getMultiValuedAttribute(document, CONFIG_NAME_PREFIX);
 			if (values.isEmpty())
@@ -1,6 +1,7 @@
 package eu.numberfour.asciispec.processors;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -9,6 +10,7 @@ import org.asciidoctor.ast.Document;
 
 import eu.numberfour.asciispec.AdocUtils;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  * An inline macro processor that creates links to articles on a wiki. Processing requires configuration. Configuration
@@ -24,35 +26,37 @@ public class InlineWikiLinkProcessor extends MacroPreprocessor<String> {
 			.compile("cwiki:(?<TARGET>[^\\[\\]]*)(\\[(?<ATTRS>([^\\[\\]]*|\\[([^\\[\\]]*|\\[[^\\[\\]]*\\])*\\])*)\\])");
 
 	private static final String CONFIG_KEY = "cwiki_def";
-	private static final Pattern CONFIG_PATTERN = Pattern
-			.compile(":cwiki_def:\\s*(.*?)\\s*;\\s*(.*?)\\s*;\\s*(.*?)\\s*;\\s*(.*)");
-
-	private static final String VERIFY_CONFIG_KEY = "cwiki_def_loose";
-	private static final Pattern RELAXED_CONFIG_PATTERN = Pattern.compile(":cwiki_def:.*");
 
 	private String pathTemplate, pageTemplate, iconTemplate, titleTemplate;
 	private boolean isConfigured = false;
 
 	@Override
 	public void init(Document document) {
-		registerPattern(CONFIG_KEY, CONFIG_PATTERN);
-		registerPattern(VERIFY_CONFIG_KEY, RELAXED_CONFIG_PATTERN);
-		registerPattern(CWIKI_KEY, CWIKI_PATTERN);
+		pathTemplate = pageTemplate = iconTemplate = titleTemplate = null;
+		isConfigured = false;
+
+		registerAttributeEntry(CONFIG_KEY, CONFIG_KEY);
+		registerPattern(CWIKI_KEY, CWIKI_PATTERN, CWIKI_KEY + ":");
+	}
+
+	@Override
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		AttributeEntry config = configuration.get(CONFIG_KEY);
+		if (config != null) {
+			configure(config);
+			isConfigured = verifyConfiguration();
+		}
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
 	protected String processMatch(Document document, String key, Matcher matcher) {
 		String fullMatch = matcher.group();
 		switch (key) {
-		case CONFIG_KEY:
-			configure(matcher);
-			return fullMatch;
-		case VERIFY_CONFIG_KEY:
-			isConfigured = verifyConfiguration();
-			if (!isConfigured) {
-				return error(document, "Invalid wiki configuration: " + fullMatch);
-			}
-			return fullMatch;
 		case CWIKI_KEY:
 			if (!isConfigured) {
 				return error(document, "Missing wiki configuration, skipping macro: " + fullMatch);
@@ -89,11 +93,24 @@ public class InlineWikiLinkProcessor extends MacroPreprocessor<String> {
 		return imgLink + txtLink;
 	}
 
-	private void configure(Matcher matcher) {
-		pathTemplate = matcher.group(1);
-		pageTemplate = matcher.group(2);
-		iconTemplate = matcher.group(3);
-		titleTemplate = matcher.group(4);
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		configure(entry);
+		isConfigured = verifyConfiguration();
+		if (!isConfigured) {
+			return error(document, "Invalid wiki configuration: " + line);
+		}
+		return line;
+	}
+
+	private void configure(AttributeEntry entry) {
+		List<String> templates = entry.getParts(4);
+		if (templates.size() < 4)
+			return;
+		pathTemplate = templates.get(0);
+		pageTemplate = templates.get(1);
+		iconTemplate = templates.get(2);
+		titleTemplate = templates.get(3);
 		isConfigured = true;
 	}
 
@@ -1,10 +1,14 @@
 package eu.numberfour.asciispec.processors;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +17,7 @@ import org.asciidoctor.extension.InlineMacroProcessor;
 
 import eu.numberfour.asciispec.issue.IssueAcceptor;
 import eu.numberfour.asciispec.issue.IssuePrinter;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  * This preprocessor provides a register method to listen for specific patterns. Pattern matching happens in the order
@@ -25,6 +30,10 @@ import eu.numberfour.asciispec.issue.IssuePrinter;
 abstract public class MacroPreprocessor<T> extends FileAwarePreprocessor implements ErrorAndWarningsMixin {
 
 	private final LinkedHashMap<T, Pattern> patterns = new LinkedHashMap<>();
+	private final Map<T, String[]> triggers = new LinkedHashMap<>();
+	private final Set<T> configurationKeys = new LinkedHashSet<>();
+	private final Map<T, Predicate<String>> attributeEntries = new LinkedHashMap<>();
+	private DocumentConfiguration configuration;
 
 	/**
 	 * Default line delimiter. This is used in case {@link #processMatch(Document, Object, Matcher)} returns multiple
@@ -36,7 +45,7 @@ abstract public class MacroPreprocessor<T> extends FileAwarePreprocessor impleme
 	 * Default issue handler. Can be called directly as an alternative to the {@link #error(Document, String)} and
 	 * {@link #warn(Document, String)}.
 	 */
-	protected final IssueAcceptor issueAcceptor = new IssuePrinter();
+	protected final IssueAcceptor issueAcceptor = new IssuePrinter(true);
 
 	/**
 	 * Processes each macro match in a given line of the document. Comment regions are omitted.
@@ -57,12 +66,169 @@ abstract public class MacroPreprocessor<T> extends FileAwarePreprocessor impleme
 	 */
 	protected void registerPattern(T key, Pattern pattern) {
 		patterns.put(key, pattern);
+		triggers.remove(key);
+		configurationKeys.remove(key);
+		attributeEntries.remove(key);
+	}
+
+	/**
+	 * Registers a pattern and its key like {@link #registerPattern(Object, Pattern)}, together with literals of which
+	 * at least one occurs in every match of the pattern. The pattern is only applied to lines containing one of them,
+	 * and the processor is skipped for lines that contain none of the literals of its patterns (see
+	 * {@link #getTriggers()}).
+	 */
+	protected void registerPattern(T key, Pattern pattern, String... literals) {
+		patterns.put(key, pattern);
+		triggers.put(key, literals);
+		configurationKeys.remove(key);
+		attributeEntries.remove(key);
+	}
+
+	/**
+	 * Registers a pattern like {@link #registerPattern(Object, Pattern, String...)} whose matches configure this
+	 * processor, e.g. an attribute entry. Lines that contain a match are configuration lines (see
+	 * {@link #isConfiguration(String)}).
+	 */
+	protected void registerConfigurationPattern(T key, Pattern pattern, String... literals) {
+		registerPattern(key, pattern, literals);
+		configurationKeys.add(key);
+	}
+
+	/**
+	 * Registers a key for the attribute entries of the attribute with the given name, e.g. <code>bib-file</code>.
+	 * Lines defining the attribute are passed to
+	 * {@link #processAttributeEntry(Document, Object, AttributeEntry, String)} before the patterns are applied to them.
+	 * The first entry of the document is usually taken from the configuration passed to
+	 * {@link #applyConfiguration(Document, DocumentConfiguration)}.
+	 */
+	protected void registerAttributeEntry(T key, String name) {
+		patterns.remove(key);
+		configurationKeys.remove(key);
+		attributeEntries.put(key, name::equals);
+		triggers.put(key, new String[] { ":" + name + ":" });
+	}
+
+	/**
+	 * Registers a key for the attribute entries of all attributes whose name starts with the given prefix, e.g.
+	 * <code>repo_def_</code>, like {@link #registerAttributeEntry(Object, String)}.
+	 */
+	protected void registerAttributeEntries(T key, String prefix) {
+		patterns.remove(key);
+		configurationKeys.remove(key);
+		attributeEntries.put(key, name -> name.startsWith(prefix));
+		triggers.put(key, new String[] { ":" + prefix });
+	}
+
+	/**
+	 * Processes a line that defines an attribute registered with {@link #registerAttributeEntry(Object, String)} or
+	 * {@link #registerAttributeEntries(Object, String)}. Comment regions are omitted.
+	 *
+	 * @param document
+	 *            the document object the processor is currently working on
+	 * @param key
+	 *            the key the attribute was registered with
+	 * @param entry
+	 *            the parsed attribute entry
+	 * @param line
+	 *            the line defining the attribute
+	 * @return the processed line
+	 */
+	protected String processAttributeEntry(Document document, T key, AttributeEntry entry, String line) {
+		return line;
+	}
+
+	/**
+	 * Applies the configuration of the document once, if the whole document is known already or before the first
+	 * attribute entry or match is processed. Hence entries are looked up only if the processor has something to do,
+	 * and looking up entries not read yet does not make the whole document be read otherwise (see
+	 * {@link DocumentConfiguration}).
+	 */
+	@Override
+	public final void configure(Document document, DocumentConfiguration configuration) {
+		this.configuration = configuration;
+		if (configuration.isComplete())
+			applyPendingConfiguration(document);
+	}
+
+	/**
+	 * Takes the initial configuration of this processor from the attribute entries of the document, see
+	 * {@link ClientPreprocessor#configure(Document, DocumentConfiguration)}. Is called at most once per document and
+	 * may be called in the middle of the document.
+	 */
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+	}
+
+	private void applyPendingConfiguration(Document document) {
+		DocumentConfiguration pending = configuration;
+		if (pending != null) {
+			configuration = null;
+			applyConfiguration(document, pending);
+		}
+	}
+
+	@Override
+	public boolean isConfiguration(String line) {
+		for (T key : configurationKeys) {
+			if (containsTrigger(key, line) && patterns.get(key).matcher(line).find())
+				return true;
+		}
+		return !attributeEntries.isEmpty() && getAttributeEntryKey(DocumentConfiguration.parse(line)) != null;
+	}
+
+	private T getAttributeEntryKey(AttributeEntry entry) {
+		if (entry == null)
+			return null;
+		for (Map.Entry<T, Predicate<String>> attributeEntry : attributeEntries.entrySet()) {
+			if (attributeEntry.getValue().test(entry.getName()))
+				return attributeEntry.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the literals of all registered patterns, or <code>null</code> if a pattern was registered without
+	 * literals.
+	 */
+	@Override
+	public Collection<String> getTriggers() {
+		if (!triggers.keySet().containsAll(patterns.keySet()))
+			return null;
+		Collection<String> result = new LinkedHashSet<>();
+		for (String[] literals : triggers.values())
+			result.addAll(Arrays.asList(literals));
+		return result;
+	}
+
+	private boolean containsTrigger(T key, String line) {
+		String[] literals = triggers.get(key);
+		if (literals == null)
+			return true;
+		for (String literal : literals) {
+			if (line.contains(literal))
+				return true;
+		}
+		return false;
 	}
 
 	@Override
 	final public List<String> processLine(Document document, String line) {
 		String workingLine = line;
+		if (!attributeEntries.isEmpty()) {
+			AttributeEntry entry = DocumentConfiguration.parse(line);
+			T key = getAttributeEntryKey(entry);
+			if (key != null) {
+				try {
+					applyPendingConfiguration(document);
+					workingLine = processAttributeEntry(document, key, entry, line);
+				} catch (Exception e) {
+					workingLine = error(document, e);
+				}
+			}
+		}
 		for (Map.Entry<T, Pattern> entry : patterns.entrySet()) {
+			if (!containsTrigger(entry.getKey(), workingLine))
+				continue;
+
 			StringBuilder builder = new StringBuilder();
 			int lastEnd = 0;
 			Matcher matcher = entry.getValue().matcher(workingLine);
@@ -72,13 +238,10 @@ abstract public class MacroPreprocessor<T> extends FileAwarePreprocessor impleme
 
 				String replacement = null;
 				try {
+					applyPendingConfiguration(document);
 					replacement = processMatch(document, entry.getKey(), matcher);
 				} catch (Exception e) {
-					String msg = e.getMessage();
-					if (msg != null)
-						msg = ": " + msg;
-					msg = e.getClass().getSimpleName() + msg;
-					replacement = error(document, msg);
+					replacement = error(document, e);
 				}
 
 				builder.append(workingLine.substring(lastEnd, startIdx));
@@ -93,6 +256,14 @@ abstract public class MacroPreprocessor<T> extends FileAwarePreprocessor impleme
 		return new LinkedList<>(Arrays.asList(workingLine.split(LINE_DELIMITER)));
 	}
 
+	private String error(Document document, Exception e) {
+		String msg = e.getMessage();
+		if (msg != null)
+			msg = ": " + msg;
+		msg = e.getClass().getSimpleName() + msg;
+		return error(document, msg);
+	}
+
 	@Override
 	public IssueAcceptor getIssueAcceptor() {
 		return issueAcceptor;
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds which of a set of literals, e.g. <code>cite:[</code> or
+ * <code>srclnk:</code>, occur in a line with a single pass over the line. The
+ * literals are compiled into an Aho-Corasick automaton, so the time of a scan
+ * only depends on the length of the line and not on the number of literals.
+ * <p>
+ * The result of a scan is a bit mask with one bit per literal, see
+ * {@link #mask(Collection)}. Since a mask has 64 bits, all literals beyond the
+ * 63rd share the last bit, i.e. a scan may report such a literal although
+ * only another one of them occurs. This is sufficient to decide whether a
+ * line needs to be looked at more closely.
+ */
+class MacroScanner {
+
+	private static final int MAX_BIT = 63;
+	private static final int ASCII = 128;
+
+	private final Map<String, Integer> ids = new LinkedHashMap<>();
+	/** Maps ASCII characters to columns of the transition table, 0 for other characters. */
+	private final int[] columns = new int[ASCII];
+	private final int[][] transitions;
+	private final long[] outputs;
+
+	/**
+	 * Creates a scanner for the given literals. Literals must not be empty and
+	 * may only contain ASCII characters.
+	 */
+	MacroScanner(Collection<String> literals) {
+		int columnCount = 1;
+		for (String literal : literals) {
+			if (literal.isEmpty())
+				throw new IllegalArgumentException("Empty literal");
+			if (!ids.containsKey(literal))
+				ids.put(literal, Math.min(ids.size(), MAX_BIT));
+			for (int i = 0; i < literal.length(); i++) {
+				char c = literal.charAt(i);
+				if (c >= ASCII)
+					throw new IllegalArgumentException("Non-ASCII literal: " + literal);
+				if (columns[c] == 0)
+					columns[c] = columnCount++;
+			}
+		}
+
+		// trie
+		List<int[]> trie = new ArrayList<>();
+		List<Long> output = new ArrayList<>();
+		trie.add(new int[columnCount]);
+		output.add(0L);
+		for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+			int state = 0;
+			for (char c : entry.getKey().toCharArray()) {
+				int column = columns[c];
+				if (trie.get(state)[column] == 0) {
+					trie.get(state)[column] = trie.size();
+					trie.add(new int[columnCount]);
+					output.add(0L);
+				}
+				state = trie.get(state)[column];
+			}
+			output.set(state, output.get(state) | (1L << entry.getValue()));
+		}
+
+		// failure links, folded into the transitions so that a scan never
+		// follows them
+		transitions = trie.toArray(new int[trie.size()][]);
+		outputs = new long[transitions.length];
+		int[] failure = new int[transitions.length];
+		Queue<Integer> queue = new ArrayDeque<>();
+		for (int column = 1; column < columnCount; column++) {
+			if (transitions[0][column] != 0)
+				queue.add(transitions[0][column]);
+		}
+		outputs[0] = output.get(0);
+		while (!queue.isEmpty()) {
+			int state = queue.remove();
+			outputs[state] = output.get(state) | outputs[failure[state]];
+			for (int column = 1; column < columnCount; column++) {
+				int next = transitions[state][column];
+				if (next != 0) {
+					failure[next] = transitions[failure[state]][column];
+					queue.add(next);
+				} else {
+					transitions[state][column] = transitions[failure[state]][column];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the mask of the given literals, which must have been passed to
+	 * the constructor.
+	 */
+	long mask(Collection<String> literals) {
+		long mask = 0;
+		for (String literal : literals) {
+			Integer id = ids.get(literal);
+			if (id == null)
+				throw new IllegalArgumentException("Unknown literal: " + literal);
+			mask |= 1L << id;
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the mask of the literals that occur in the given line.
+	 */
+	long scan(String line) {
+		long found = 0;
+		int state = 0;
+		for (int i = 0, length = line.length(); i < length; i++) {
+			char c = line.charAt(i);
+			state = transitions[state][c < ASCII ? columns[c] : 0];
+			found |= outputs[state];
+		}
+		return found;
+	}
+}
@@ -12,6 +12,7 @@ import org.asciidoctor.extension.Name;
 import org.asciidoctor.extension.Reader;
 
 import eu.numberfour.asciispec.AdocUtils;
+import eu.numberfour.asciispec.ProcessorMetrics;
 import eu.numberfour.asciispec.issue.IssueAcceptor;
 import eu.numberfour.asciispec.issue.IssuePrinter;
 import eu.numberfour.asciispec.math.MathService;
@@ -29,6 +30,15 @@ public class MathBlockProcessor extends BlockProcessor {
 
 	@Override
 	public Object process(StructuralNode parent, Reader reader, Map<String, Object> attributes) {
+		long start = System.nanoTime();
+		try {
+			return processBlock(parent, reader, attributes);
+		} finally {
+			ProcessorMetrics.record(this, start);
+		}
+	}
+
+	private Object processBlock(StructuralNode parent, Reader reader, Map<String, Object> attributes) {
 		List<String> result = new LinkedList<>();
 
 		String title = AdocUtils.getAttributeAsString(attributes, "title", "");
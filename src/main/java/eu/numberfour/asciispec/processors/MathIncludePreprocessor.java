@@ -31,7 +31,12 @@ public class MathIncludePreprocessor extends MacroPreprocessor<String> {
 
 	@Override
 	public void init(Document document) {
-		registerPattern(MATH_INCLUDE_KEY, MATH_INCLUDE_PATTERN);
+		registerConfigurationPattern(MATH_INCLUDE_KEY, MATH_INCLUDE_PATTERN, "mathinclude::");
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
@@ -0,0 +1,14 @@
+package eu.numberfour.asciispec.processors;
+
+/**
+ * Registration class for the {@link OverlayIncludeProcessor} processor.
+ *
+ * If you rename or move this class, do not forget to update the
+ * META-INF/services/org.asciidoctor.extension.spi.ExtensionRegistry file!
+ */
+public class OverlayIncludeExtension extends ProcessorExtension {
+	@Override
+	protected void register(JavaExtensionRegistry registry) {
+		registry.includeProcessor(OverlayIncludeProcessor.class);
+	}
+}
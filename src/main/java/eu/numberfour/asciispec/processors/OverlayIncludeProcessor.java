@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.io.File;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.asciidoctor.ast.Document;
+import org.asciidoctor.extension.IncludeProcessor;
+import org.asciidoctor.extension.PreprocessorReader;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.issue.IssueAcceptor;
+import eu.numberfour.asciispec.issue.IssuePrinter;
+
+/**
+ * This {@link IncludeProcessor} evaluates plain include macros like
+ * <code>include::chapter.adoc[]</code> whose target is overlaid by the current
+ * job, see {@link JobContext#getOverlay(Path)}. Includes with variables like
+ * <code>{find}</code> are left to the respective processors, and includes of
+ * files that are not overlaid are left to Asciidoctor.
+ * <p>
+ * A relative target is resolved against the directory of the including file,
+ * which is known while the lines of a document are read by the
+ * {@link HostPreprocessor} (see {@link HostPreprocessor#getIncludingReader()}).
+ * Otherwise, only absolute targets are handled. The <code>lines</code> and
+ * <code>tags</code> attributes are applied to the overlay, see
+ * {@link IncludeSelection}.
+ */
+public class OverlayIncludeProcessor extends IncludeProcessor implements DirectoriesMixin, ErrorAndWarningsMixin {
+
+	private final IssueAcceptor issueAcceptor = new IssuePrinter(true);
+	private PreprocessorReader reader;
+	private Document document;
+
+	@Override
+	public boolean handles(String target) {
+		JobContext job = JobContext.current();
+		if (job == null || job.getOverlays().isEmpty() || target.startsWith("{"))
+			return false;
+		Path file = resolve(HostPreprocessor.getIncludingReader(), target);
+		return file != null && job.getOverlays().containsKey(file);
+	}
+
+	/**
+	 * Returns the absolute path of the given target, or <code>null</code> if
+	 * it cannot be resolved.
+	 */
+	private static Path resolve(PreprocessorReader reader, String target) {
+		try {
+			Path path = Paths.get(target);
+			if (!path.isAbsolute()) {
+				if (reader == null || reader.getDir() == null)
+					return null;
+				path = Paths.get(reader.getDir()).resolve(path);
+			}
+			return path.toAbsolutePath().normalize();
+		} catch (InvalidPathException e) {
+			// e.g. a URL
+			return null;
+		}
+	}
+
+	@Override
+	public void process(Document document, PreprocessorReader reader, String target, Map<String, Object> attributes) {
+		JobContext.checkCancelled();
+		this.document = document;
+		this.reader = reader;
+		Path file = resolve(reader, target);
+		String content = file == null ? null : JobContext.getOverlay(file);
+		if (content == null) {
+			// the overlays of the job were changed after handles() was called
+			reader.restoreLine(error(document, "Overlay of included file not found: " + target));
+			return;
+		}
+		try {
+			IncludeSelection selection = IncludeSelection.select(content, attributes);
+			reader.push_include(selection.getContent(), file.toString(), String.valueOf(file.getParent()),
+					selection.getLineNumber(), attributes);
+		} catch (IllegalArgumentException e) {
+			reader.restoreLine(error(document, e.getMessage()));
+		}
+	}
+
+	@Override
+	public IssueAcceptor getIssueAcceptor() {
+		return issueAcceptor;
+	}
+
+	@Override
+	public PreprocessorReader getReader() {
+		return reader;
+	}
+
+	@Override
+	public Document getDocument() {
+		return document;
+	}
+
+	@Override
+	public File getCurrentFileBaseRelative() {
+		return DirectoriesMixin.super.getCurrentFileBaseRelative();
+	}
+
+	@Override
+	public int getCurrentLine() {
+		return DirectoriesMixin.super.getCurrentLine();
+	}
+}
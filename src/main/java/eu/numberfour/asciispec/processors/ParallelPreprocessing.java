@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.asciidoctor.ast.Document;
+
+import eu.numberfour.asciispec.JobCancelledException;
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.SourceProcessor;
+
+/**
+ * Preprocesses the lines of a document in segments that are processed
+ * concurrently. The lines are passed to the processors in two phases:
+ * <ol>
+ * <li>The leading processors that are stateless (see
+ * {@link ClientPreprocessor#isStateless()}) are applied to segments of the
+ * lines in a {@link ForkJoinPool}. A segment starts where the
+ * {@link SourceProcessor} is not within an ignored block, so that each
+ * segment can be processed by a pipeline of its own. Configuration lines (see
+ * {@link ClientPreprocessor#isConfiguration(String)}) are barriers: they are
+ * processed after all lines before them and before all lines after them.</li>
+ * <li>The remaining processors are applied to the results in document order on
+ * the calling thread, so processors like the {@link CitationProcessor} see the
+ * lines in the same order as when the document is processed sequentially.</li>
+ * </ol>
+ * While a line is processed, the {@link HostPreprocessor} reports the position
+ * of that line (see {@link BufferedLines#setPosition(int)}), and lines produced by a processor inherit the
+ * position of the line they replace. Issues reported by the processors of the
+ * first phase may appear in a different order than when the document is
+ * processed sequentially.
+ */
+class ParallelPreprocessing {
+
+	/** Number of lines after which a segment is ended at the next safe line. */
+	static final int DEFAULT_SEGMENT_LINES = 512;
+
+	/** Lines and the indices of the input lines they were produced from. */
+	private static class Lines {
+		final List<String> lines;
+		int[] origins;
+
+		Lines(int capacity) {
+			lines = new ArrayList<>(capacity);
+			origins = new int[Math.max(1, capacity)];
+		}
+
+		/** Assigns the given origin to the lines from the given index on. */
+		void setOrigin(int from, int origin) {
+			if (lines.size() > origins.length)
+				origins = Arrays.copyOf(origins, Math.max(lines.size(), origins.length * 2));
+			Arrays.fill(origins, from, lines.size(), origin);
+		}
+	}
+
+	private final Document document;
+	private final List<ClientPreprocessor> concurrentStages;
+	private final List<ClientPreprocessor> orderedStages;
+	private final BufferedLines input;
+	private final int segmentLines;
+	private volatile boolean aborted;
+
+	/**
+	 * Creates an instance for the given lines of a document.
+	 *
+	 * @param document
+	 *            the document being preprocessed
+	 * @param processors
+	 *            the processors in the order they are applied
+	 * @param input
+	 *            the lines of the document
+	 * @param segmentLines
+	 *            the number of lines after which a segment is ended
+	 */
+	ParallelPreprocessing(Document document, List<ClientPreprocessor> processors, BufferedLines input,
+			int segmentLines) {
+		this.document = document;
+		this.input = input;
+		this.segmentLines = Math.max(1, segmentLines);
+		int count = countConcurrentStages(processors);
+		this.concurrentStages = new ArrayList<>(processors.subList(0, count));
+		this.orderedStages = new ArrayList<>(processors.subList(count, processors.size()));
+	}
+
+	/**
+	 * Returns the number of leading stateless processors, which are applied
+	 * concurrently.
+	 */
+	static int countConcurrentStages(List<ClientPreprocessor> processors) {
+		int count = 0;
+		while (count < processors.size() && processors.get(count).isStateless())
+			count++;
+		return count;
+	}
+
+	/**
+	 * Processes the lines and appends the results to the given lines.
+	 */
+	void process(ChunkedLines output) {
+		PreprocessorPipeline pipeline = new PreprocessorPipeline(document, orderedStages);
+		if (concurrentStages.isEmpty()) {
+			input.process(pipeline, output);
+			return;
+		}
+
+		JobContext context = JobContext.current();
+		List<ForkJoinTask<Lines>> segments = new ArrayList<>();
+		SourceProcessor blocks = new SourceProcessor();
+		boolean completed = false;
+		try {
+			int start = 0;
+			int joined = 0;
+			for (int i = 0; i < input.size(); i++) {
+				String line = input.get(i);
+				boolean safe = !blocks.isIgnoringCurrentBlock();
+				if (safe && line != null && isConfiguration(line)) {
+					addSegment(segments, start, i, context);
+					for (; joined < segments.size(); joined++)
+						join(segments.get(joined));
+					ForkJoinTask<Lines> configuration = segment(i, i + 1, context);
+					configuration.invoke();
+					segments.add(configuration);
+					start = i + 1;
+				} else if (safe && i - start >= segmentLines) {
+					addSegment(segments, start, i, context);
+					start = i;
+				}
+				if (line != null)
+					blocks.updateBlockState(line);
+			}
+			addSegment(segments, start, input.size(), context);
+
+			for (ForkJoinTask<Lines> segment : segments)
+				processOrdered(pipeline, join(segment), output);
+			completed = true;
+		} finally {
+			if (!completed) {
+				// do not leave segments of a failed document running in the pool
+				aborted = true;
+				for (ForkJoinTask<Lines> segment : segments)
+					segment.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the given lines through the pipeline of the ordered stages on the
+	 * calling thread.
+	 */
+	private void processOrdered(PreprocessorPipeline pipeline, Lines lines, ChunkedLines output) {
+		try {
+			for (int i = 0; i < lines.lines.size(); i++) {
+				JobContext.checkCancelled();
+				input.setPosition(lines.origins[i]);
+				pipeline.push(lines.lines.get(i), output.append());
+			}
+		} finally {
+			input.clearPosition();
+		}
+	}
+
+	private boolean isConfiguration(String line) {
+		for (ClientPreprocessor cp : concurrentStages) {
+			if (cp.isEnabled() && cp.isConfiguration(line))
+				return true;
+		}
+		return false;
+	}
+
+	private void addSegment(List<ForkJoinTask<Lines>> segments, int start, int end, JobContext context) {
+		if (start < end)
+			segments.add(ForkJoinPool.commonPool().submit(segment(start, end, context)));
+	}
+
+	/**
+	 * Returns a task that applies the concurrent stages to the given range of
+	 * the lines in the given job.
+	 */
+	private ForkJoinTask<Lines> segment(int start, int end, JobContext context) {
+		return new RecursiveTask<Lines>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Lines compute() {
+				// pool threads may have inherited the context of another job,
+				// while the calling thread runs segments it invokes or joins
+				boolean pooled = ForkJoinTask.inForkJoinPool();
+				JobContext previous = JobContext.current();
+				bind(context);
+				try {
+					return process(start, end);
+				} finally {
+					input.clearPosition();
+					if (pooled)
+						JobContext.unbind();
+					else
+						bind(previous);
+				}
+			}
+		};
+	}
+
+	private Lines process(int start, int end) {
+		PreprocessorPipeline pipeline = new PreprocessorPipeline(document, concurrentStages);
+		Lines result = new Lines(end - start);
+		for (int i = start; i < end && !aborted; i++) {
+			JobContext.checkCancelled();
+			input.setPosition(i);
+			int from = result.lines.size();
+			pipeline.push(input.get(i), result.lines);
+			result.setOrigin(from, i);
+		}
+		return result;
+	}
+
+	private static void bind(JobContext context) {
+		if (context != null)
+			JobContext.bind(context);
+		else
+			JobContext.unbind();
+	}
+
+	/**
+	 * Waits for the given segment and rethrows what it has thrown, e.g. a
+	 * {@link JobCancelledException}.
+	 */
+	private static Lines join(ForkJoinTask<Lines> segment) {
+		try {
+			return segment.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JobCancelledException("interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
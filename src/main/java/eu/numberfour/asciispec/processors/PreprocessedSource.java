@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.math.MathService;
+
+/**
+ * The lines of a document after the {@link HostPreprocessor} has expanded its
+ * includes and passed them through the client preprocessors, captured with
+ * {@link HostPreprocessor#startCapture()}.
+ * <p>
+ * The source can be converted again, e.g. to another backend, without
+ * preprocessing the document a second time: Asciidoctor is passed
+ * {@link #getContent()} with the attribute
+ * {@link HostPreprocessor#PREPROCESSED_ATTRIBUTE}, which makes the
+ * {@link HostPreprocessor} leave the lines alone. The state the client
+ * preprocessors leave to the block processors, i.e. the files included with
+ * <code>mathinclude::</code>, is restored if the conversion is wrapped in
+ * {@link HostPreprocessor#startReplay(PreprocessedSource)} and
+ * {@link HostPreprocessor#stopReplay()}.
+ * <p>
+ * Asciidoctor evaluates conditional directives while the includes are
+ * expanded, so the captured lines are only valid for other backends if no
+ * directive depends on the backend (see {@link #isBackendIndependent()}).
+ */
+public class PreprocessedSource {
+
+	/**
+	 * Matches conditional and include directives which refer to attributes
+	 * that differ between backends.
+	 */
+	private static final Pattern BACKEND_DIRECTIVE = Pattern.compile(
+			"^\\s*(ifdef|ifndef|ifeval|include)::.*(backend|filetype|outfilesuffix|htmlsyntax).*");
+
+	private final List<String> lines = new ArrayList<>();
+	private final Set<Path> files = new LinkedHashSet<>();
+	private final List<Path> mathIncludes = new ArrayList<>();
+
+	/**
+	 * Adds the given preprocessed lines.
+	 */
+	void addLines(List<String> preprocessedLines) {
+		lines.addAll(preprocessedLines);
+	}
+
+	/**
+	 * Adds a file the lines were read from.
+	 */
+	void addFile(Path file) {
+		files.add(file);
+	}
+
+	/**
+	 * Adds files included into the math of the document, see
+	 * {@link MathService#getIncludes(org.asciidoctor.ast.Document)}.
+	 */
+	void addMathIncludes(List<Path> includes) {
+		mathIncludes.addAll(includes);
+	}
+
+	/**
+	 * Returns the preprocessed lines.
+	 */
+	public List<String> getLines() {
+		return Collections.unmodifiableList(lines);
+	}
+
+	/**
+	 * Returns the preprocessed lines as a single string.
+	 */
+	public String getContent() {
+		return String.join("\n", lines);
+	}
+
+	/**
+	 * Returns the files the lines were read from, i.e. the document and the
+	 * files included by it.
+	 */
+	public Set<Path> getFiles() {
+		return Collections.unmodifiableSet(files);
+	}
+
+	/**
+	 * Returns the files included into the math of the document, in the order
+	 * they were included.
+	 */
+	public List<Path> getMathIncludes() {
+		return Collections.unmodifiableList(mathIncludes);
+	}
+
+	/**
+	 * Returns <code>true</code> iff none of the files the lines were read from
+	 * contains a conditional or include directive referring to the backend.
+	 * Files that cannot be read count as backend dependent.
+	 */
+	public boolean isBackendIndependent() {
+		for (Path file : files) {
+			String overlay = JobContext.getOverlay(file);
+			try {
+				List<String> content = overlay != null ? Arrays.asList(overlay.split("\n"))
+						: Files.readAllLines(file, StandardCharsets.UTF_8);
+				for (String line : content) {
+					if (BACKEND_DIRECTIVE.matcher(line).matches())
+						return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
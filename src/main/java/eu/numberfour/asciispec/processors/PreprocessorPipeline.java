@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.asciidoctor.ast.Document;
+
+import eu.numberfour.asciispec.ProcessorMetrics;
+import eu.numberfour.asciispec.SourceProcessor;
+
+/**
+ * Pushes the lines of a document through the {@link ClientPreprocessor}s of a
+ * {@link HostPreprocessor}. The pipeline is built once per document: the
+ * processors and the transform functions passed to the
+ * {@link SourceProcessor} are kept in arrays, so a line that stays a single
+ * line passes all processors in a loop without any list being created for it.
+ * <p>
+ * A processor may replace a line by several lines. Each of them passes the
+ * remaining processors before the next one, and the block state of the
+ * {@link SourceProcessor} is updated with every line that leaves the last
+ * processor. Hence the lines returned by a processor are subject to the
+ * blocks opened by the lines before them, e.g. the content of a pass block
+ * produced by a processor is not processed by the following ones.
+ * <p>
+ * Processors that declare triggers (see {@link ClientPreprocessor#getTriggers()})
+ * are skipped for lines that contain none of them. Whether a line contains
+ * the triggers of the processors is decided by a single {@link MacroScanner}
+ * pass over the line, which is repeated only if a processor changed the line.
+ * Hence most lines of prose cost one linear scan instead of one regular
+ * expression search per pattern of each processor.
+ */
+class PreprocessorPipeline {
+
+	private final SourceProcessor sourceProcessor = new SourceProcessor();
+	private final ClientPreprocessor[] stages;
+	private final List<Function<String, List<String>>> transforms;
+	/** The triggers of each stage, or {@link #ALWAYS} for stages without triggers. */
+	private final long[] triggers;
+	private final MacroScanner scanner;
+
+	private static final long ALWAYS = -1L;
+
+	private String scannedLine;
+	private long scannedTriggers;
+
+	/**
+	 * Creates a pipeline for the given document.
+	 *
+	 * @param document
+	 *            the document being preprocessed
+	 * @param processors
+	 *            the processors in the order they are applied
+	 */
+	PreprocessorPipeline(Document document, List<ClientPreprocessor> processors) {
+		this.stages = processors.toArray(new ClientPreprocessor[processors.size()]);
+		this.transforms = new ArrayList<>(stages.length);
+		for (ClientPreprocessor cp : stages) {
+			transforms.add(line -> {
+				long start = System.nanoTime();
+				List<String> replacement = cp.processLine(document, line);
+				ProcessorMetrics.record(cp, start);
+				return replacement;
+			});
+		}
+
+		Set<String> literals = new LinkedHashSet<>();
+		List<Collection<String>> stageLiterals = new ArrayList<>(stages.length);
+		for (ClientPreprocessor cp : stages) {
+			Collection<String> cpTriggers = cp.getTriggers();
+			stageLiterals.add(cpTriggers);
+			if (cpTriggers != null)
+				literals.addAll(cpTriggers);
+		}
+		this.scanner = new MacroScanner(literals);
+		this.triggers = new long[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			Collection<String> cpTriggers = stageLiterals.get(i);
+			triggers[i] = cpTriggers == null ? ALWAYS : scanner.mask(cpTriggers);
+		}
+	}
+
+	/**
+	 * Processes the given line of the document and appends the resulting lines
+	 * to the given list.
+	 */
+	void push(String line, List<String> result) {
+		if (line != null)
+			push(line, 0, result);
+	}
+
+	private void push(String line, int stage, List<String> result) {
+		List<String> replacement = null;
+		for (; stage < stages.length; stage++) {
+			if (!stages[stage].isEnabled() || !containsTriggers(line, stage))
+				continue;
+
+			if (replacement == null)
+				replacement = new ArrayList<>(1);
+			else
+				replacement.clear();
+			sourceProcessor.processWithoutUpdate(line, transforms.get(stage), replacement);
+
+			if (replacement.size() != 1) {
+				// each line passes the remaining stages before the next one
+				for (String replacementLine : replacement) {
+					if (replacementLine != null)
+						push(replacementLine, stage + 1, result);
+				}
+				return;
+			}
+			line = replacement.get(0);
+			if (line == null)
+				return;
+		}
+		result.add(line);
+		sourceProcessor.updateBlockState(line);
+	}
+
+	private boolean containsTriggers(String line, int stage) {
+		if (triggers[stage] == ALWAYS)
+			return true;
+		// processors return the same string if they did not change the line
+		if (line != scannedLine) {
+			scannedTriggers = scanner.scan(line);
+			scannedLine = line;
+		}
+		return (scannedTriggers & triggers[stage]) != 0;
+	}
+}
@@ -16,6 +16,8 @@ import java.util.WeakHashMap;
 import org.asciidoctor.Asciidoctor;
 import org.asciidoctor.extension.spi.ExtensionRegistry;
 
+import eu.numberfour.asciispec.StartupProfile;
+
 /**
  *
  */
@@ -25,7 +27,10 @@ public abstract class ProcessorExtension implements ExtensionRegistry {
 
 	@Override
 	public void register(Asciidoctor asciidoctor) {
+		String phase = "register " + getClass().getSimpleName();
+		long start = StartupProfile.begin(phase);
 		register(getSharedRegistry(asciidoctor));
+		StartupProfile.end(phase, start);
 	}
 
 	public static void unregisterAllExtensions(Asciidoctor asciidoctor) {
@@ -23,7 +23,9 @@ import java.util.regex.Pattern;
 import org.asciidoctor.ast.Document;
 
 import eu.numberfour.asciispec.AttributeParser;
+import eu.numberfour.asciispec.JobContext;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  * This processor evaluates all inline {api} macros, which were previously
@@ -39,7 +41,6 @@ public class ResolveApiInlinePreprocessor extends MacroPreprocessor<String> impl
 	/** source link pattern. */
 	public static final Pattern API_INCLUDE_PATTERN = Pattern
 			.compile("include:\\s*\\{\\s*api\\s*\\}\\s*\\+*(?<PQN>.*?)\\+*\\s*\\[(?<ATTRS>.*)\\]");
-	private static final Pattern GEN_ADOC_VAR_PATTERN = Pattern.compile(":" + GEN_ADOC_DIR_VAR + ":\\s*(?<GENADOC>.*)");
 
 	private final SourceIndexMixinState state = new SourceIndexMixinState();
 
@@ -50,8 +51,27 @@ public class ResolveApiInlinePreprocessor extends MacroPreprocessor<String> impl
 
 	@Override
 	public void init(Document document) {
-		super.registerPattern(GEN_ADOC_DIR_VAR, GEN_ADOC_VAR_PATTERN);
-		super.registerPattern(API_INCLUDE, API_INCLUDE_PATTERN);
+		reset();
+
+		super.registerAttributeEntry(GEN_ADOC_DIR_VAR, GEN_ADOC_DIR_VAR);
+		super.registerPattern(API_INCLUDE, API_INCLUDE_PATTERN, "include:");
+	}
+
+	@Override
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		AttributeEntry genDir = configuration.get(GEN_ADOC_DIR_VAR);
+		if (genDir != null) {
+			try {
+				setIndexFile(getAbsoluteFileFromBaseDirectory(Paths.get(genDir.getValue())));
+			} catch (Exception e) {
+				// reported when the entry is processed
+			}
+		}
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
@@ -60,9 +80,6 @@ public class ResolveApiInlinePreprocessor extends MacroPreprocessor<String> impl
 		String newline = fullMatch;
 
 		switch (key) {
-		case GEN_ADOC_DIR_VAR:
-			newline = setGenDir(document, matcher, newline);
-			break;
 		case API_INCLUDE:
 			newline = processApiIncl(document, matcher, newline);
 			break;
@@ -70,9 +87,11 @@ public class ResolveApiInlinePreprocessor extends MacroPreprocessor<String> impl
 		return newline;
 	}
 
-	private String setGenDir(Document document, Matcher matcher, String newline) {
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		String newline = line;
 		try {
-			String genadocDirname = matcher.group("GENADOC");
+			String genadocDirname = entry.getValue();
 			Path genadocPath = Paths.get(genadocDirname);
 			File genadocFile = getAbsoluteFileFromBaseDirectory(genadocPath);
 			setIndexFile(genadocFile);
@@ -119,6 +138,7 @@ public class ResolveApiInlinePreprocessor extends MacroPreprocessor<String> impl
 				int leveloffset = getLeveloffset(attributes);
 				appendLeveloffset(strb, leveloffset, false);
 
+				JobContext.recordInput(modulePath);
 				List<String> lines = Files.readAllLines(modulePath);
 				for (int i = startLine; i < endLine && i < lines.size(); i++) {
 					int relLineNumber = i - startLine + 1;
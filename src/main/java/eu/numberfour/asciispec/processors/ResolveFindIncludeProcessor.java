@@ -48,6 +48,13 @@ public class ResolveFindIncludeProcessor extends ResolveIncludeProcessor {
 		super(INCLUDE_FIND);
 	}
 
+	@Override
+	protected void resetDocumentState() {
+		super.resetDocumentState();
+		allIncludedTargets.clear();
+		targets.clear();
+	}
+
 	@Override
 	protected File findFile(Document document, Map<String, Object> attributes, File containerFile, String target,
 			String line) throws FileNotFoundException, IgnoreFileException {
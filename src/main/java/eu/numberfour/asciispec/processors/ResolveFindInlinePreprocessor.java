@@ -19,13 +19,38 @@ public class ResolveFindInlinePreprocessor extends MacroPreprocessor<String> {
 	static final String FIND_VARIABLE_MATCHER = "\\{(?<VAR>find)\\}[\\s]*(?<FILE>[^\\[\\s]*)";
 	static final String FINDROOT_VARIABLE_KEY = "findroot";
 	static final String FINDROOT_VARIABLE_MATCHER = ":findroot:";
+	private static final Pattern FIND_VARIABLE_PATTERN = Pattern.compile(FIND_VARIABLE_MATCHER);
 
 	@Override
 	public void init(Document document) {
 		Pattern findvarPattern = Pattern.compile(FIND_VARIABLE_MATCHER);
-		registerPattern(FIND_VARIABLE_KEY, findvarPattern);
+		registerPattern(FIND_VARIABLE_KEY, findvarPattern, "{find}");
 		Pattern findrootPattern = Pattern.compile(FINDROOT_VARIABLE_MATCHER);
-		registerPattern(FINDROOT_VARIABLE_KEY, findrootPattern);
+		registerPattern(FINDROOT_VARIABLE_KEY, findrootPattern, FINDROOT_VARIABLE_MATCHER);
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
+	}
+
+	@Override
+	public String resolveValue(Document document, String value) {
+		Matcher matcher = FIND_VARIABLE_PATTERN.matcher(value);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			File findFile;
+			try {
+				findFile = super.searchFile(matcher.group("FILE"));
+			} catch (MultipleFileMatchesException e) {
+				findFile = e.matches.get(0);
+			} catch (Exception e) {
+				return null;
+			}
+			matcher.appendReplacement(result, Matcher.quoteReplacement(super.getBaseRelative(findFile).toString()));
+		}
+		matcher.appendTail(result);
+		return result.toString();
 	}
 
 	@Override
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -24,6 +25,8 @@ import org.asciidoctor.ast.Document;
 import org.asciidoctor.extension.IncludeProcessor;
 import org.asciidoctor.extension.PreprocessorReader;
 
+import eu.numberfour.asciispec.JobContext;
+import eu.numberfour.asciispec.ProcessorMetrics;
 import eu.numberfour.asciispec.findresolver.CannotFindCircularDependenciesException;
 import eu.numberfour.asciispec.findresolver.CircularDependencyException;
 import eu.numberfour.asciispec.findresolver.FileStackHelper;
@@ -41,6 +44,10 @@ import eu.numberfour.asciispec.issue.IssuePrinter;
  * <br/>
  * FILE_ONCE - Only the first match of the given file is included. A warning is
  * issued in case there are more than one matches.
+ * <p>
+ * Files overlaid by the current job (see {@link #getOverlay(File)}) are
+ * included from memory. The <code>lines</code> and <code>tags</code>
+ * attributes are applied to them, see {@link IncludeSelection}.
  */
 abstract public class ResolveIncludeProcessor extends IncludeProcessor
 		implements DirectoriesMixin, ErrorAndWarningsMixin {
@@ -50,13 +57,14 @@ abstract public class ResolveIncludeProcessor extends IncludeProcessor
 
 	private final String adocVarName;
 	private final String adocVarNameInBrackets;
-	private final FileStackHelper fileSearcher = new FileStackHelper();
+	private FileStackHelper fileSearcher = new FileStackHelper();
 	private final Set<File> includedOnceOnlyFiles = new HashSet<>();
-	private final IssueAcceptor issueAcceptor = new IssuePrinter();
+	private final IssueAcceptor issueAcceptor = new IssuePrinter(true);
 	private final Set<File> noCircularExceptionsCausingFiles = new HashSet<>();
 	private PreprocessorReader reader;
 	private Document document;
 	private File baseFile;
+	private Object documentId;
 
 	/**
 	 * Finds the file.
@@ -105,8 +113,24 @@ abstract public class ResolveIncludeProcessor extends IncludeProcessor
 
 	@Override
 	public void process(Document document, PreprocessorReader pReader, String target, Map<String, Object> attributes) {
+		JobContext.checkCancelled();
+		long start = System.nanoTime();
+		try {
+			processInclude(document, pReader, target, attributes);
+		} finally {
+			ProcessorMetrics.record(this, start);
+		}
+	}
+
+	private void processInclude(Document document, PreprocessorReader pReader, String target,
+			Map<String, Object> attributes) {
 		this.document = document;
 		reader = pReader;
+		Object currentDocumentId = HostPreprocessor.getDocumentId(document);
+		if (!Objects.equals(documentId, currentDocumentId)) {
+			documentId = currentDocumentId;
+			resetDocumentState();
+		}
 		baseFile = getBaseFile();
 		File containerFile = getCurrentFile();
 
@@ -123,6 +147,17 @@ abstract public class ResolveIncludeProcessor extends IncludeProcessor
 		searchAndInlineFile(document, attributes, containerFile, target);
 	}
 
+	/**
+	 * Resets all state that belongs to a single document. Is called when this
+	 * processor is applied to a new document. Subclasses that hold state of
+	 * their own have to call the super implementation.
+	 */
+	protected void resetDocumentState() {
+		fileSearcher = new FileStackHelper();
+		includedOnceOnlyFiles.clear();
+		noCircularExceptionsCausingFiles.clear();
+	}
+
 	/**
 	 * Returns the issuAcceptor
 	 */
@@ -157,6 +192,14 @@ abstract public class ResolveIncludeProcessor extends IncludeProcessor
 
 			fileSearcher.moveToNewLocation(file);
 
+			String overlay = getOverlay(file);
+			if (overlay != null) {
+				IncludeSelection selection = IncludeSelection.select(overlay, clearedAttrs);
+				reader.push_include(selection.getContent(), fileName, file.getParent(), selection.getLineNumber(),
+						clearedAttrs);
+				return;
+			}
+
 			String newFileName = containerFile.toString();
 			String newPathName = containerFile.getParentFile().toString();
 			reader.push_include(newLine, newFileName, newPathName, 1, attributes);
@@ -170,6 +213,8 @@ abstract public class ResolveIncludeProcessor extends IncludeProcessor
 			newLine = e.replacementString;
 		} catch (IgnoreFileException e) {
 			return;
+		} catch (IllegalArgumentException e) {
+			newLine += " " + error(document, e.getMessage()) + " ";
 		}
 
 		reader.restoreLine(newLine);
@@ -16,6 +16,7 @@ import static eu.numberfour.asciispec.processors.AttributeUtils.isInSelectedLine
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -26,7 +27,9 @@ import java.util.regex.Pattern;
 import org.asciidoctor.ast.Document;
 
 import eu.numberfour.asciispec.AttributeParser;
+import eu.numberfour.asciispec.JobContext;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 
 /**
  * This processor evaluates all inline {req} macros, which were previously
@@ -42,14 +45,32 @@ public class ResolveReqInlinePreprocessor extends MacroPreprocessor<String> {
 	/** source link pattern. */
 	public static final Pattern REQ_INCLUDE_PATTERN = Pattern
 			.compile("include:\\s*\\{\\s*req\\s*\\}\\s*\\+*(?<REQID>.*?)\\+*\\s*\\[(?<ATTRS>.*)\\]");
-	private static final Pattern GEN_ADOC_VAR_PATTERN = Pattern.compile(":" + GEN_ADOC_DIR_VAR + ":\\s*(?<GENADOC>.*)");
 
 	private Path genReqsDir;
 
 	@Override
 	public void init(Document document) {
-		super.registerPattern(GEN_ADOC_DIR_VAR, GEN_ADOC_VAR_PATTERN);
-		super.registerPattern(REQ_INCLUDE, REQ_INCLUDE_PATTERN);
+		genReqsDir = null;
+
+		super.registerAttributeEntry(GEN_ADOC_DIR_VAR, GEN_ADOC_DIR_VAR);
+		super.registerPattern(REQ_INCLUDE, REQ_INCLUDE_PATTERN, "include:");
+	}
+
+	@Override
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		AttributeEntry genDir = configuration.get(GEN_ADOC_DIR_VAR);
+		if (genDir != null) {
+			try {
+				genReqsDir = Paths.get(genDir.getValue()).resolve("requirements");
+			} catch (InvalidPathException e) {
+				// reported when the entry is processed
+			}
+		}
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
@@ -58,9 +79,6 @@ public class ResolveReqInlinePreprocessor extends MacroPreprocessor<String> {
 		String newline = fullMatch;
 
 		switch (key) {
-		case GEN_ADOC_DIR_VAR:
-			newline = setGenDir(document, matcher, newline);
-			break;
 		case REQ_INCLUDE:
 			newline = processReqIncl(document, matcher, newline);
 			break;
@@ -68,9 +86,11 @@ public class ResolveReqInlinePreprocessor extends MacroPreprocessor<String> {
 		return newline;
 	}
 
-	private String setGenDir(Document document, Matcher matcher, String newline) {
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		String newline = line;
 		try {
-			String genadocDirname = matcher.group("GENADOC");
+			String genadocDirname = entry.getValue();
 			Path genadocPath = Paths.get(genadocDirname);
 			genReqsDir = genadocPath.resolve("requirements");
 		} catch (Exception e) {
@@ -119,6 +139,7 @@ public class ResolveReqInlinePreprocessor extends MacroPreprocessor<String> {
 				int leveloffset = getLeveloffset(attributes);
 				appendLeveloffset(strb, leveloffset, false);
 
+				JobContext.recordInput(modulePath);
 				List<String> lines = Files.readAllLines(modulePath);
 				for (int i = startLine; i < lines.size(); i++) {
 					int relLineNumber = i - startLine + 1;
@@ -9,7 +9,10 @@ import java.util.List;
 
 import org.asciidoctor.ast.Document;
 
+import eu.numberfour.asciispec.BuildCache;
+import eu.numberfour.asciispec.JobContext;
 import eu.numberfour.asciispec.ParseException;
+import eu.numberfour.asciispec.ProjectSession;
 import eu.numberfour.asciispec.findresolver.MultipleFileMatchesException;
 import eu.numberfour.asciispec.sourceindex.AmbiguousPQNExcpetion;
 import eu.numberfour.asciispec.sourceindex.IndexEntryInfo;
@@ -65,6 +68,11 @@ public interface SourceIndexMixin {
 	 */
 	File searchFile(String fileName) throws FileNotFoundException, MultipleFileMatchesException;
 
+	/**
+	 * Returns the document being processed.
+	 */
+	Document getDocument();
+
 	/**
 	 * Prints an error that occurred during a default method call.
 	 */
@@ -86,18 +94,30 @@ public interface SourceIndexMixin {
 	 * <li>...
 	 * </ul>
 	 * </ul>
+	 * The parsed index file is kept in the {@link ProjectSession} of the
+	 * document, so it is only parsed again when it has changed, and in the
+	 * {@link BuildCache}, so it is parsed only once for the same content.
 	 */
 	default void ensureDatabase() throws IOException, ParseException {
-		if (getState().database != null)
-			return;
-
-		try {
-			getState().database = new SourceIndexDatabase();
-			getState().database = IndexFileParser.parse(getState().indexFile.toPath(), StandardCharsets.UTF_8);
-			getState().configuring = false;
-		} catch (IOException e) {
-			String msg = "IOException: " + e.getMessage();
-			throw new IOException(msg);
+		// lines may be processed concurrently, see ClientPreprocessor#isStateless()
+		synchronized (getState()) {
+			if (getState().database != null)
+				return;
+
+			try {
+				Path indexPath = getState().indexFile.toPath();
+				JobContext.recordInput(indexPath);
+				getState().database = new SourceIndexDatabase();
+				getState().database = ProjectSession.get(getDocument()).get(ProjectSession.SOURCE_INDEX, indexPath,
+						ProjectSession.stamp(indexPath), () -> BuildCache.getParsed(ProjectSession.SOURCE_INDEX,
+								indexPath, SourceIndexDatabase.CODEC,
+								() -> IndexFileParser.parse(indexPath, StandardCharsets.UTF_8)),
+						database -> indexPath.toFile().length());
+				getState().configuring = false;
+			} catch (IOException e) {
+				String msg = "IOException: " + e.getMessage();
+				throw new IOException(msg);
+			}
 		}
 	}
 
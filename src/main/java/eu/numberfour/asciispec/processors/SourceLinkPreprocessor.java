@@ -12,6 +12,7 @@ import java.util.regex.Pattern;
 
 import org.asciidoctor.ast.Document;
 
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
 import eu.numberfour.asciispec.sourceindex.IndexEntryInfo;
 
 /**
@@ -59,9 +60,8 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 	/** source link pattern. */
 	public static final Pattern SRC_LINK_PATTERN = Pattern.compile(SRCLNK
 			+ ":(?<A>\\+*)(?<PQN>.*?)(\\k<A>)\\[(?<MARKUP1>[`_]*)(?<B>\\+*)(?<LABEL>.*?)(\\k<B>)(?<MARKUP2>[`_]*)\\]");
-	private static final Pattern REPO_CONFIG_VAR_PATTERN = Pattern.compile(
-			":" + REPOS_CONFIG_VAR + ":\\s*(?<NAME>.*?)\\s*;\\s*(?<DESCR>.*?)\\s*;\\s*(?<HTML>https?:\\/\\/[\\S]+)");
-	private static final Pattern GEN_ADOC_VAR_PATTERN = Pattern.compile(":" + GEN_ADOC_DIR_VAR + ":\\s*(?<GENADOC>.*)");
+	private static final Pattern REPO_CONFIG_VAR_PATTERN = Pattern
+			.compile("(?<NAME>.*?)\\s*;\\s*(?<DESCR>.*?)\\s*;\\s*(?<HTML>https?:\\/\\/[\\S]+)");
 
 	private final Map<String, RepositoryConfig> repoConfigs = new HashMap<>();
 	private final SourceIndexMixinState state = new SourceIndexMixinState();
@@ -73,9 +73,35 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 
 	@Override
 	public void init(Document document) {
-		super.registerPattern(GEN_ADOC_DIR_VAR, GEN_ADOC_VAR_PATTERN);
-		super.registerPattern(REPOS_CONFIG_VAR, REPO_CONFIG_VAR_PATTERN);
-		super.registerPattern(SRCLNK, SRC_LINK_PATTERN);
+		repoConfigs.clear();
+		reset();
+
+		super.registerAttributeEntry(GEN_ADOC_DIR_VAR, GEN_ADOC_DIR_VAR);
+		super.registerAttributeEntry(REPOS_CONFIG_VAR, REPOS_CONFIG_VAR);
+		super.registerPattern(SRCLNK, SRC_LINK_PATTERN, SRCLNK + ":");
+	}
+
+	@Override
+	protected void applyConfiguration(Document document, DocumentConfiguration configuration) {
+		AttributeEntry genDir = configuration.get(GEN_ADOC_DIR_VAR);
+		if (genDir != null) {
+			try {
+				setIndexFile(getAbsoluteFileFromBaseDirectory(Paths.get(genDir.getValue())));
+			} catch (Exception e) {
+				// reported when the entry is processed
+			}
+		}
+		AttributeEntry repos = configuration.get(REPOS_CONFIG_VAR);
+		if (repos != null) {
+			Matcher matcher = REPO_CONFIG_VAR_PATTERN.matcher(repos.getValue());
+			if (matcher.lookingAt())
+				addRepoConfig(matcher);
+		}
+	}
+
+	@Override
+	public boolean isStateless() {
+		return true;
 	}
 
 	@Override
@@ -84,12 +110,6 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 		String newline = fullMatch;
 
 		switch (key) {
-		case GEN_ADOC_DIR_VAR:
-			newline = setGenDir(document, matcher, newline);
-			break;
-		case REPOS_CONFIG_VAR:
-			newline = addRepoConfig(document, fullMatch, matcher);
-			break;
 		case SRCLNK:
 			newline = processSrclnk(document, matcher, newline);
 			break;
@@ -97,9 +117,20 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 		return newline;
 	}
 
-	private String setGenDir(Document document, Matcher matcher, String newline) {
+	@Override
+	protected String processAttributeEntry(Document document, String key, AttributeEntry entry, String line) {
+		switch (key) {
+		case GEN_ADOC_DIR_VAR:
+			return setGenDir(document, entry, line);
+		case REPOS_CONFIG_VAR:
+			return addRepoConfig(document, entry, line);
+		}
+		return line;
+	}
+
+	private String setGenDir(Document document, AttributeEntry entry, String newline) {
 		try {
-			String genadocDirname = matcher.group("GENADOC");
+			String genadocDirname = entry.getValue();
 			Path genadocPath = Paths.get(genadocDirname);
 			File genadocFile = getAbsoluteFileFromBaseDirectory(genadocPath);
 			setIndexFile(genadocFile);
@@ -110,14 +141,12 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 		return newline;
 	}
 
-	private String addRepoConfig(Document document, String line, Matcher cgfReposVar) {
+	private String addRepoConfig(Document document, AttributeEntry entry, String line) {
 		String newLine = line;
 		try {
-			String name = cgfReposVar.group("NAME");
-			String descr = cgfReposVar.group("DESCR");
-			String html = cgfReposVar.group("HTML");
-			RepositoryConfig repoCfg = new RepositoryConfig(name, descr, html);
-			repoConfigs.put(repoCfg.name, repoCfg);
+			Matcher cgfReposVar = REPO_CONFIG_VAR_PATTERN.matcher(entry.getValue());
+			if (cgfReposVar.lookingAt())
+				addRepoConfig(cgfReposVar);
 		} catch (Exception e) {
 			newLine += "\n\n"
 					+ error(document, "Error when parsing repository config. Check variable: " + REPOS_CONFIG_VAR);
@@ -125,6 +154,14 @@ public class SourceLinkPreprocessor extends MacroPreprocessor<String> implements
 		return newLine;
 	}
 
+	private void addRepoConfig(Matcher cgfReposVar) {
+		String name = cgfReposVar.group("NAME");
+		String descr = cgfReposVar.group("DESCR");
+		String html = cgfReposVar.group("HTML");
+		RepositoryConfig repoCfg = new RepositoryConfig(name, descr, html);
+		repoConfigs.put(repoCfg.name, repoCfg);
+	}
+
 	private String processSrclnk(Document document, Matcher matcher, String newline) {
 		try {
 			checkConfig();
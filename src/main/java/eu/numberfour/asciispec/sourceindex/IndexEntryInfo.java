@@ -10,12 +10,18 @@
  */
 package eu.numberfour.asciispec.sourceindex;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Objects;
 
+import eu.numberfour.asciispec.BuildCache;
+
 /**
  *
  */
 public class IndexEntryInfo implements Comparable<IndexEntryInfo> {
+
 	/** The property name. May be empty, but not null. */
 	final public String property;
 	/**
@@ -112,6 +118,61 @@ public class IndexEntryInfo implements Comparable<IndexEntryInfo> {
 		this.hierarchy = hiercharchy;
 	}
 
+	/**
+	 * Writes this entry for {@link SourceIndexDatabase#CODEC}.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		for (String value : new String[] { repository, path, project, folder, trueFolder, module, extension, element,
+				delimiter, property, packageName, moduleName })
+			BuildCache.writeString(out, value);
+		out.writeInt(sourceLine);
+		out.writeInt(modulePackageCount);
+		writeArray(out, adocPathElems);
+		BuildCache.writeString(out, adocPath);
+		out.writeInt(offsetStart);
+		out.writeInt(offsetEnd);
+		writeArray(out, hierarchy);
+	}
+
+	/**
+	 * Reads an entry written by {@link #writeTo(DataOutputStream)}.
+	 */
+	static IndexEntryInfo readFrom(DataInputStream in) throws IOException {
+		String[] strings = new String[12];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = BuildCache.readString(in);
+		int sourceLine = in.readInt();
+		int modulePackageCount = in.readInt();
+		String[] adocPathElems = readArray(in);
+		String adocPath = BuildCache.readString(in);
+		int offsetStart = in.readInt();
+		int offsetEnd = in.readInt();
+		String[] hierarchy = readArray(in);
+		if (hierarchy == null)
+			throw new IOException("missing hierarchy");
+		return new IndexEntryInfo(strings[0], strings[1], strings[2], strings[3], strings[4], strings[5], strings[6],
+				strings[7], strings[8], strings[9], strings[10], strings[11], sourceLine, modulePackageCount,
+				adocPathElems, adocPath, offsetStart, offsetEnd, hierarchy);
+	}
+
+	private static void writeArray(DataOutputStream out, String[] values) throws IOException {
+		out.writeBoolean(values != null);
+		if (values == null)
+			return;
+		out.writeInt(values.length);
+		for (String value : values)
+			BuildCache.writeString(out, value);
+	}
+
+	private static String[] readArray(DataInputStream in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		String[] values = new String[BuildCache.readCount(in)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = BuildCache.readString(in);
+		return values;
+	}
+
 	/** Returns the length of {@link #hierarchy} */
 	public int getHierarchyDepth() {
 		return hierarchy.length;
@@ -10,16 +10,49 @@
  */
 package eu.numberfour.asciispec.sourceindex;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import eu.numberfour.asciispec.BuildCache;
+
 /**
  * Database of all {@link IndexEntryInfo}s
  */
 public class SourceIndexDatabase {
+
+	/**
+	 * Stores a database in the {@link BuildCache} as the list of its entries.
+	 */
+	public static final BuildCache.Codec<SourceIndexDatabase> CODEC = new BuildCache.Codec<SourceIndexDatabase>() {
+		@Override
+		public void write(DataOutputStream out, SourceIndexDatabase database) throws IOException {
+			List<IndexEntryInfo> entries = database.getAllEntries();
+			out.writeInt(entries.size());
+			for (IndexEntryInfo entry : entries)
+				entry.writeTo(out);
+		}
+
+		@Override
+		public SourceIndexDatabase read(DataInputStream in) throws IOException {
+			SourceIndexDatabase database = new SourceIndexDatabase();
+			int count = BuildCache.readCount(in);
+			for (int i = 0; i < count; i++) {
+				try {
+					database.put(IndexEntryInfo.readFrom(in));
+				} catch (AlreadyInsertedException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+			}
+			return database;
+		}
+	};
+
 	private final Map<String, Object> pathMap = new HashMap<>();
 	private int size;
 
@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import eu.numberfour.asciispec.citation.BibTexParser;
+import eu.numberfour.asciispec.citation.BibliographyDatabase;
+import eu.numberfour.asciispec.citation.IdentityBibTexTagProcessor;
+
+/**
+ * Test cases for {@link BuildCache}.
+ */
+@SuppressWarnings("javadoc")
+public class BuildCacheTest {
+
+	private static final BuildCache.Codec<List<String>> LINES = new BuildCache.Codec<List<String>>() {
+		@Override
+		public void write(DataOutputStream out, List<String> value) throws IOException {
+			out.writeInt(value.size());
+			for (String line : value)
+				BuildCache.writeString(out, line);
+		}
+
+		@Override
+		public List<String> read(DataInputStream in) throws IOException {
+			List<String> result = new ArrayList<>();
+			for (int i = BuildCache.readCount(in); i > 0; i--)
+				result.add(BuildCache.readString(in));
+			return result;
+		}
+	};
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("buildcache");
+		BuildCache.setLocation(dir.toString());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		BuildCache.setBackend(null);
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void valueIsLoadedOnce() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		String key = BuildCache.key("test", "x^2");
+		Assert.assertEquals("value1", BuildCache.get("test", key, () -> "value" + loads.incrementAndGet()));
+		Assert.assertEquals("value1", BuildCache.get("test", key, () -> "value" + loads.incrementAndGet()));
+		Assert.assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void disabledCacheLoadsEveryTime() throws Exception {
+		BuildCache.setBackend(null);
+		AtomicInteger loads = new AtomicInteger();
+		String key = BuildCache.key("test");
+		BuildCache.get("test", key, () -> "value" + loads.incrementAndGet());
+		Assert.assertEquals("value2", BuildCache.get("test", key, () -> "value" + loads.incrementAndGet()));
+	}
+
+	@Test
+	public void failuresAreNotCached() throws Exception {
+		String key = BuildCache.key("test", "fails");
+		try {
+			BuildCache.get("test", key, () -> {
+				throw new IOException("broken");
+			});
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+		Assert.assertEquals("fixed", BuildCache.get("test", key, () -> "fixed"));
+	}
+
+	@Test
+	public void keysSeparateParts() {
+		Assert.assertNotEquals(BuildCache.key("ab", "c"), BuildCache.key("a", "bc"));
+		Assert.assertEquals(BuildCache.key("a", Collections.singletonList("b")), BuildCache.key("a", "[b]"));
+	}
+
+	@Test
+	public void hashDependsOnContentOnly() throws IOException {
+		Path a = Files.write(dir.resolve("a.tex"), "\\def\\x{1}".getBytes(StandardCharsets.UTF_8));
+		Path b = Files.write(dir.resolve("b.tex"), "\\def\\x{1}".getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals(BuildCache.hash(a), BuildCache.hash(b));
+		Files.write(b, "\\def\\x{2}".getBytes(StandardCharsets.UTF_8));
+		Assert.assertNotEquals(BuildCache.hash(a), BuildCache.hash(b));
+	}
+
+	@Test
+	public void parsedValuesAreSerialized() throws Exception {
+		Path file = Files.write(dir.resolve("index.txt"), "a\nb".getBytes(StandardCharsets.UTF_8));
+		AtomicInteger loads = new AtomicInteger();
+		ProjectSession.Loader<List<String>> parser = () -> {
+			loads.incrementAndGet();
+			return new ArrayList<>(Files.readAllLines(file));
+		};
+		Assert.assertEquals(Arrays.asList("a", "b"), BuildCache.getParsed("test-index", file, LINES, parser));
+		Assert.assertEquals(Arrays.asList("a", "b"), BuildCache.getParsed("test-index", file, LINES, parser));
+		Assert.assertEquals(1, loads.get());
+
+		Files.write(file, "c".getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals(Arrays.asList("c"), BuildCache.getParsed("test-index", file, LINES, parser));
+		Assert.assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void tamperedEntryIsParsedAgain() throws Exception {
+		Path file = Files.write(dir.resolve("index.txt"), "a".getBytes(StandardCharsets.UTF_8));
+		AtomicInteger loads = new AtomicInteger();
+		ProjectSession.Loader<List<String>> parser = () -> {
+			loads.incrementAndGet();
+			return new ArrayList<>(Files.readAllLines(file));
+		};
+		String key = BuildCache.key(BuildCache.hash(file));
+		// a count that would allocate 2 GB
+		BuildCache.getBackend().write("test-index", key, new byte[] { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff });
+		Assert.assertEquals(Arrays.asList("a"), BuildCache.getParsed("test-index", file, LINES, parser));
+		Assert.assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void bibliographyIsRestored() throws Exception {
+		Path file = Files.write(dir.resolve("refs.bib"),
+				"@book{knuth84, author = {Donald Knuth}, title = {The TeXbook}}".getBytes(StandardCharsets.UTF_8));
+		AtomicInteger loads = new AtomicInteger();
+		ProjectSession.Loader<BibliographyDatabase> parser = () -> {
+			loads.incrementAndGet();
+			return new BibliographyDatabase(
+					BibTexParser.parse(file, StandardCharsets.UTF_8, new IdentityBibTexTagProcessor()));
+		};
+		BuildCache.getParsed("test-bibliography", file, BibliographyDatabase.CODEC, parser);
+		BibliographyDatabase database = BuildCache.getParsed("test-bibliography", file, BibliographyDatabase.CODEC,
+				parser);
+
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals("book", database.findByCiteKey("knuth84").getType());
+		Assert.assertEquals("The TeXbook", database.findByCiteKey("knuth84").getTag("title", null));
+	}
+
+	@Test
+	public void httpBackend() throws Exception {
+		Map<String, byte[]> stored = new ConcurrentHashMap<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/cache/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			int code;
+			byte[] body;
+			if ("PUT".equals(exchange.getRequestMethod())) {
+				try (InputStream is = exchange.getRequestBody()) {
+					stored.put(path, readAll(is));
+				}
+				code = 201;
+				body = "created".getBytes(StandardCharsets.UTF_8);
+			} else if (stored.containsKey(path)) {
+				code = 200;
+				body = stored.get(path);
+			} else {
+				code = 404;
+				body = "not found".getBytes(StandardCharsets.UTF_8);
+			}
+			exchange.sendResponseHeaders(code, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+		try {
+			BuildCache.setLocation("http://127.0.0.1:" + server.getAddress().getPort() + "/cache/");
+			String key = BuildCache.key("test", "http");
+			Assert.assertEquals("remote", BuildCache.get("math", key, () -> "remote"));
+			Assert.assertTrue(stored.containsKey("/cache/math/" + key));
+			Assert.assertEquals("remote", BuildCache.get("math", key, () -> "other"));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void refusedRequestsDoNotDisableHttpBackend() throws Exception {
+		AtomicInteger gets = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/cache/", exchange -> {
+			int code;
+			byte[] body;
+			if ("PUT".equals(exchange.getRequestMethod())) {
+				code = 403;
+				body = "forbidden".getBytes(StandardCharsets.UTF_8);
+			} else if (gets.incrementAndGet() == 1) {
+				code = 500;
+				body = "busy".getBytes(StandardCharsets.UTF_8);
+			} else {
+				code = 200;
+				body = "cached".getBytes(StandardCharsets.UTF_8);
+			}
+			exchange.sendResponseHeaders(code, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+		try {
+			BuildCache.HttpBackend backend = new BuildCache.HttpBackend(
+					"http://127.0.0.1:" + server.getAddress().getPort() + "/cache");
+			for (int i = 0; i < 2; i++) {
+				try {
+					backend.write("math", "key", "value".getBytes(StandardCharsets.UTF_8));
+					Assert.fail("IOException expected");
+				} catch (IOException e) {
+					Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("returned 403"));
+				}
+			}
+			try {
+				backend.read("math", "key");
+				Assert.fail("IOException expected");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("returned 500"));
+			}
+			Assert.assertArrayEquals("cached".getBytes(StandardCharsets.UTF_8), backend.read("math", "key"));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void unreachableServerDisablesHttpBackend() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		BuildCache.HttpBackend backend = new BuildCache.HttpBackend("http://127.0.0.1:" + port + "/cache");
+		try {
+			backend.read("math", "key");
+			Assert.fail("IOException expected");
+		} catch (IOException e) {
+			// connection refused
+		}
+		Assert.assertNull(backend.read("math", "key"));
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) >= 0)
+			result.write(buffer, 0, read);
+		return result.toByteArray();
+	}
+}
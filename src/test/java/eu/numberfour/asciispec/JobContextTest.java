@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.findresolver.FileStackHelper;
+
+/**
+ * Test cases for the cancellation and the overlays of a {@link JobContext}.
+ */
+@SuppressWarnings("javadoc")
+public class JobContextTest {
+
+	@After
+	public void unbind() {
+		JobContext.unbind();
+	}
+
+	@Test
+	public void unboundThreadIsNeverCancelled() {
+		JobContext.checkCancelled();
+	}
+
+	@Test
+	public void cancelledJobIsAborted() {
+		JobContext job = createJob();
+		JobContext.bind(job);
+		JobContext.checkCancelled();
+
+		job.cancel("superseded");
+		job.cancel("cancelled by client");
+
+		try {
+			JobContext.checkCancelled();
+			Assert.fail("JobCancelledException expected");
+		} catch (JobCancelledException e) {
+			Assert.assertEquals("superseded", e.getMessage());
+		}
+	}
+
+	@Test
+	public void exceededTimeoutCancelsJob() throws Exception {
+		JobContext job = createJob();
+		job.startTimeout(1);
+		Thread.sleep(20);
+
+		Assert.assertTrue(job.isCancelled());
+		Assert.assertEquals("timed out after 1 ms", job.getCancellation());
+	}
+
+	@Test
+	public void noTimeout() throws Exception {
+		JobContext job = createJob();
+		job.startTimeout(0);
+		Thread.sleep(20);
+
+		Assert.assertFalse(job.isCancelled());
+		Assert.assertNull(job.getCancellation());
+	}
+
+	@Test
+	public void overlaysAreVisibleToBoundThread() {
+		Path file = Paths.get("unsaved", "..", "chapter.adoc").toAbsolutePath();
+		JobContext job = createJob();
+		job.setOverlays(Collections.singletonMap(file, "= Chapter"));
+		Assert.assertNull(JobContext.getOverlay(file));
+		Assert.assertFalse(JobContext.exists(file));
+
+		JobContext.bind(job);
+		Assert.assertEquals("= Chapter", JobContext.getOverlay(file.normalize()));
+		Assert.assertTrue(JobContext.exists(file));
+	}
+
+	@Test
+	public void searchFindsOverlaidFile() throws Exception {
+		Path dir = Paths.get("target", "overlay", "sub").toAbsolutePath();
+		Path file = dir.getParent().resolve("unsaved.adoc");
+		JobContext job = createJob();
+		job.setOverlays(Collections.singletonMap(file, "= Unsaved"));
+		JobContext.bind(job);
+
+		File found = FileStackHelper.searchRelativeTo("unsaved.adoc", dir, dir.getParent());
+		Assert.assertEquals(file.toFile(), found);
+	}
+
+	@Test
+	public void inputsAreRecordedPerDocument() {
+		JobContext job = createJob();
+		JobContext.recordInput(Paths.get("unbound.adoc"));
+		JobContext.bind(job);
+
+		Path dir = Paths.get("target", "inputs").toAbsolutePath();
+		JobContext.recordInput(dir.resolve("b.adoc"));
+		JobContext.recordInput(dir.resolve("sub/../a.adoc"));
+		JobContext.recordInput(dir.resolve("b.adoc"));
+
+		Assert.assertEquals(Arrays.asList(dir.resolve("a.adoc"), dir.resolve("b.adoc")),
+				new ArrayList<>(job.takeInputs()));
+		Assert.assertTrue(job.takeInputs().isEmpty());
+	}
+
+	private static JobContext createJob() {
+		PrintStream ps = new PrintStream(new ByteArrayOutputStream());
+		return new JobContext(ps, ps);
+	}
+}
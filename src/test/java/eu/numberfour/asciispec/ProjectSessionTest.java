@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ProjectSession}.
+ */
+@SuppressWarnings("javadoc")
+public class ProjectSessionTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private String load() {
+		return "value " + loads.incrementAndGet();
+	}
+
+	@Test
+	public void sessionsAreKeyedByBaseDirectory() {
+		Path baseDir = Paths.get("target", "project-a");
+
+		Assert.assertSame(ProjectSession.get(baseDir), ProjectSession.get(baseDir.toAbsolutePath()));
+		Assert.assertNotSame(ProjectSession.get(baseDir), ProjectSession.get(Paths.get("target", "project-b")));
+	}
+
+	@Test
+	public void valueIsReusedWhileStampIsUnchanged() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "reuse"));
+
+		Assert.assertEquals("value 1", session.get("test", "key", "stamp", this::load));
+		Assert.assertEquals("value 1", session.get("test", "key", "stamp", this::load));
+		Assert.assertEquals("value 2", session.get("other", "key", "stamp", this::load));
+		Assert.assertEquals("value 3", session.get("test", "key", "new stamp", this::load));
+		Assert.assertEquals("value 4", session.get("test", "key", null, this::load));
+	}
+
+	@Test
+	public void runStampedValueIsNotCachedOutsideOfJob() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "no-job"));
+
+		Assert.assertNull(JobContext.currentRun());
+		Assert.assertEquals("value 1", session.get("test", "key", JobContext.currentRun(), this::load));
+		Assert.assertEquals("value 2", session.get("test", "key", JobContext.currentRun(), this::load));
+	}
+
+	@Test
+	public void failedLoadIsNotCached() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "failure"));
+
+		try {
+			session.get("test", "key", "stamp", () -> {
+				throw new IOException("not found");
+			});
+			Assert.fail("IOException expected");
+		} catch (IOException e) {
+			Assert.assertEquals("not found", e.getMessage());
+		}
+		Assert.assertEquals("value 1", session.get("test", "key", "stamp", this::load));
+	}
+
+	@Test
+	public void concurrentMissesLoadOnce() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "single-flight"));
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Thread first = new Thread(() -> {
+			try {
+				session.get("test", "key", "stamp", () -> {
+					loading.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					return load();
+				});
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		first.start();
+		loading.await();
+
+		String[] second = new String[1];
+		Thread waiting = new Thread(() -> {
+			try {
+				second[0] = session.get("test", "key", "stamp", this::load);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		waiting.start();
+		while (waiting.getState() != Thread.State.WAITING) {
+			Assert.assertTrue("second caller finished without waiting", waiting.isAlive());
+			Thread.yield();
+		}
+		release.countDown();
+		first.join(5000);
+		waiting.join(5000);
+
+		Assert.assertEquals("value 1", second[0]);
+		Assert.assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void leastRecentlyUsedValuesAreEvicted() throws Exception {
+		ProjectSession first = ProjectSession.get(Paths.get("target", "evict-1"));
+		ProjectSession second = ProjectSession.get(Paths.get("target", "evict-2"));
+		ProjectSession.getSessions().forEach(ProjectSession::clear);
+		long evictions = ProjectSession.getStatistics().getEvictions();
+		try {
+			ProjectSession.setBudget(300);
+			first.get("evict", "a", "stamp", this::load, v -> 100);
+			second.get("evict", "b", "stamp", this::load, v -> 100);
+			first.get("evict", "c", "stamp", this::load, v -> 100);
+			first.get("evict", "a", "stamp", this::load, v -> 100);
+			second.get("evict", "d", "stamp", this::load, v -> 100);
+
+			Assert.assertEquals(evictions + 1, ProjectSession.getStatistics().getEvictions());
+			Assert.assertEquals("value 1", first.get("evict", "a", "stamp", this::load));
+			Assert.assertEquals("value 5", second.get("evict", "b", "stamp", this::load, v -> 1000));
+			Assert.assertEquals("value 6", second.get("evict", "b", "stamp", this::load, v -> 1000));
+		} finally {
+			first.clear();
+			second.clear();
+			ProjectSession.setBudget(Runtime.getRuntime().maxMemory() / 4);
+		}
+	}
+
+	@Test
+	public void weightScalesEstimatedSize() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "weight"));
+		try {
+			long used = ProjectSession.getStatistics().getUsedBytes();
+			ProjectSession.setWeight("weighted", 2.5);
+			session.get("weighted", "key", "stamp", this::load, v -> 100);
+
+			Assert.assertEquals(used + 250, ProjectSession.getStatistics().getUsedBytes());
+			Assert.assertEquals(250, ProjectSession.getStatistics().getCaches().get("weighted").getBytes());
+		} finally {
+			session.clear();
+		}
+	}
+
+	@Test
+	public void idleSessionsAreDropped() throws Exception {
+		ProjectSession session = ProjectSession.get(Paths.get("target", "idle"));
+		session.get("idle", "key", "stamp", this::load);
+		try {
+			ProjectSession.setIdleTimeout(1);
+			Thread.sleep(20);
+			Assert.assertTrue(ProjectSession.dropIdleSessions() > 0);
+		} finally {
+			ProjectSession.setIdleTimeout(30 * 60 * 1000);
+		}
+
+		Assert.assertFalse(ProjectSession.getSessions().contains(session));
+		Assert.assertEquals("value 2",
+				ProjectSession.get(Paths.get("target", "idle")).get("idle", "key", "stamp", this::load));
+	}
+
+	@Test
+	public void stampChangesWithFile() throws Exception {
+		Path file = Files.createTempFile("asciispec", ".idx");
+		try {
+			Object stamp = ProjectSession.stamp(file);
+			Assert.assertNotNull(stamp);
+			Assert.assertEquals(stamp, ProjectSession.stamp(file));
+
+			Files.write(file, "changed".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+			Assert.assertNotEquals(stamp, ProjectSession.stamp(file));
+		} finally {
+			Files.delete(file);
+		}
+		Assert.assertNull(ProjectSession.stamp(file));
+	}
+}
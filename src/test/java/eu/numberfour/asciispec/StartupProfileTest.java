@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link StartupProfile}.
+ */
+@SuppressWarnings("javadoc")
+public class StartupProfileTest {
+
+	@After
+	public void reset() {
+		StartupProfile.reset();
+	}
+
+	@Test
+	public void nestedAndRepeatedPhases() throws UnsupportedEncodingException {
+		StartupProfile.enable();
+		long init = StartupProfile.begin("test init");
+		for (int i = 0; i < 2; i++) {
+			long register = StartupProfile.begin("test register");
+			StartupProfile.end("test register", register);
+		}
+		StartupProfile.end("test init", init);
+		long document = StartupProfile.begin("test document");
+		StartupProfile.end("test document", document);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StartupProfile.report(new PrintStream(bytes, true, "UTF-8"));
+		String report = new String(bytes.toByteArray(), "UTF-8");
+
+		Assert.assertTrue(report, report.contains("\n  JVM boot "));
+		Assert.assertTrue(report, report.contains("\n  test init "));
+		Assert.assertTrue(report, report.contains("\n    test register (2x) "));
+		Assert.assertTrue(report, report.contains("\n  test document "));
+		Assert.assertTrue(report, report.indexOf("test init") < report.indexOf("test register"));
+		Assert.assertTrue(report, report.indexOf("test register") < report.indexOf("test document"));
+	}
+
+	@Test
+	public void phasesOfOtherThreadsAreNotNested() throws Exception {
+		StartupProfile.enable();
+		long init = StartupProfile.begin("test init");
+		Thread worker = new Thread(() -> {
+			long document = StartupProfile.begin("test document");
+			StartupProfile.end("test document", document);
+		});
+		worker.start();
+		worker.join();
+		StartupProfile.end("test init", init);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StartupProfile.report(new PrintStream(bytes, true, "UTF-8"));
+		String report = new String(bytes.toByteArray(), "UTF-8");
+
+		Assert.assertTrue(report, report.contains("\n  test init "));
+		Assert.assertTrue(report, report.contains("\n  test document "));
+	}
+
+	@Test
+	public void resetProfileRecordsNothing() {
+		StartupProfile.enable();
+		StartupProfile.end("test init", StartupProfile.begin("test init"));
+		StartupProfile.reset();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StartupProfile.report(new PrintStream(bytes, true));
+
+		Assert.assertFalse(StartupProfile.isEnabled());
+		Assert.assertEquals(0, bytes.size());
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link AsciiSpecInvoker}.
+ */
+@SuppressWarnings("javadoc")
+public class AsciiSpecInvokerTest {
+
+	private static final File DIR = new File("/work");
+
+	private static String key(String... args) {
+		return AsciiSpecInvoker.getSupersessionKey(DIR, Arrays.asList(args));
+	}
+
+	@Test
+	public void sameConversionHasSameKey() {
+		Assert.assertNotNull(key("spec.adoc"));
+		Assert.assertEquals(key("spec.adoc"), key("./spec.adoc"));
+		Assert.assertEquals(key("spec.adoc"), key("/work/spec.adoc"));
+	}
+
+	@Test
+	public void differentConversionsHaveDifferentKeys() {
+		Assert.assertNotEquals(key("spec.adoc"), key("other.adoc"));
+		Assert.assertNotEquals(key("spec.adoc"), key("-b", "docbook", "spec.adoc"));
+		Assert.assertNotEquals(key("spec.adoc"), key("-D", "out", "spec.adoc"));
+	}
+
+	@Test
+	public void sectionPreviewsOfTheSameSectionSupersedeEachOther() {
+		String key = key("--section", "sec:types", "spec.adoc");
+		Assert.assertNotNull(key);
+		Assert.assertEquals(key, key("spec.adoc", "--section", "sec:types"));
+		Assert.assertEquals(key("--section-include", "chapters/types.adoc", "spec.adoc"),
+				key("--section-include", "/work/chapters/types.adoc", "spec.adoc"));
+	}
+
+	@Test
+	public void invokerOptionsArePartOfTheKey() {
+		Assert.assertNotEquals(key("--section", "sec:types", "spec.adoc"), key("--section", "sec:any", "spec.adoc"));
+		Assert.assertNotEquals(key("--section", "sec:types", "spec.adoc"), key("spec.adoc"));
+		Assert.assertNotEquals(key("--section-include", "a.adoc", "spec.adoc"),
+				key("--section-include", "b.adoc", "spec.adoc"));
+		Assert.assertNotNull(key("--lint", "spec.adoc"));
+		Assert.assertNotEquals(key("--lint", "spec.adoc"), key("spec.adoc"));
+		Assert.assertNotNull(key("--backends", "html5,docbook", "spec.adoc"));
+		Assert.assertNotEquals(key("--backends", "html5,docbook", "spec.adoc"), key("spec.adoc"));
+	}
+
+	@Test
+	public void invalidArgumentsHaveNoKey() {
+		Assert.assertNull(key());
+		Assert.assertNull(key("--unknown", "spec.adoc"));
+		Assert.assertNull(key("spec.adoc", "--section"));
+	}
+}
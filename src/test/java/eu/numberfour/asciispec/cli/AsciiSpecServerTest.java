@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for the command line arguments of the {@link AsciiSpecServer}.
+ */
+@SuppressWarnings("javadoc")
+public class AsciiSpecServerTest {
+
+	@Test
+	public void numericArgumentIsThePort() {
+		Assert.assertEquals(45116, AsciiSpecServer.getPort("45116"));
+	}
+
+	@Test
+	public void otherArgumentsAreNoPorts() {
+		Assert.assertEquals(-1, AsciiSpecServer.getPort("--foo"));
+		Assert.assertEquals(-1, AsciiSpecServer.getPort("0"));
+		Assert.assertEquals(-1, AsciiSpecServer.getPort("70000"));
+		Assert.assertEquals(-1, AsciiSpecServer.getPort(""));
+	}
+}
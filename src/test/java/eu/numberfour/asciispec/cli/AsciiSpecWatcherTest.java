@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for the documents converted again by the {@link AsciiSpecWatcher}.
+ */
+@SuppressWarnings("javadoc")
+public class AsciiSpecWatcherTest {
+
+	private final File main = new File("/project/main.adoc");
+	private final File other = new File("/project/other.adoc");
+	private final Path chapter = Paths.get("/project/chapter.adoc");
+	private final Path bibFile = Paths.get("/project/refs.bib");
+
+	private Map<File, Set<Path>> inputs() {
+		Map<File, Set<Path>> inputs = new HashMap<>();
+		inputs.put(main, new HashSet<>(Arrays.asList(main.toPath(), chapter)));
+		inputs.put(other, new HashSet<>(Arrays.asList(other.toPath(), bibFile)));
+		return inputs;
+	}
+
+	@Test
+	public void onlyDependentDocumentsAreAffected() {
+		List<File> documents = Arrays.asList(main, other);
+		Assert.assertEquals(Collections.singleton(main),
+				AsciiSpecWatcher.findAffected(documents, inputs(), Collections.singleton(chapter), null));
+		Assert.assertEquals(Collections.singleton(other),
+				AsciiSpecWatcher.findAffected(documents, inputs(), Collections.singleton(bibFile), null));
+		Assert.assertEquals(Collections.emptySet(), AsciiSpecWatcher.findAffected(documents, inputs(),
+				Collections.singleton(Paths.get("/project/unrelated.txt")), null));
+	}
+
+	@Test
+	public void lostEventsAffectAllDocuments() {
+		Assert.assertEquals(new HashSet<>(Arrays.asList(main, other)),
+				AsciiSpecWatcher.findAffected(Arrays.asList(main, other), inputs(), null, null));
+	}
+
+	@Test
+	public void newDocumentsAreAffected() {
+		File added = new File("/project/added.adoc");
+		Assert.assertEquals(Collections.singleton(added), AsciiSpecWatcher.findAffected(
+				Arrays.asList(main, other, added), inputs(), Collections.emptySet(), null));
+	}
+
+	@Test
+	public void failedDocumentsAreAffectedWhenFilesAreCreated() {
+		Set<File> affected = AsciiSpecWatcher.findAffected(Arrays.asList(main, other), inputs(),
+				Collections.singleton(chapter), Collections.singleton(other));
+		Assert.assertEquals(new HashSet<>(Arrays.asList(main, other)), affected);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link BuildManifest}.
+ */
+@SuppressWarnings("javadoc")
+public class BuildManifestTest {
+
+	private Path dir;
+	private Path document;
+	private Path include;
+	private Path manifestFile;
+
+	@Before
+	public void createFiles() throws Exception {
+		dir = Files.createTempDirectory("asciispec-manifest");
+		document = write("doc.adoc", "= Document\ninclude::chapter.adoc[]\n");
+		include = write("chapter.adoc", "== Chapter\n");
+		manifestFile = dir.resolve("build.manifest");
+	}
+
+	@After
+	public void deleteFiles() throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator)
+				Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void unchangedDocumentIsUpToDateAfterReload() throws Exception {
+		BuildManifest manifest = BuildManifest.load(manifestFile);
+		File doc = document.toFile();
+		Assert.assertFalse(manifest.isUpToDate(doc, "-b html5"));
+
+		manifest.update(doc, "-b html5", new HashSet<>(Arrays.asList(document, include)), Collections.emptySet());
+		manifest.save();
+
+		BuildManifest reloaded = BuildManifest.load(manifestFile);
+		Assert.assertTrue(reloaded.isUpToDate(doc, "-b html5"));
+		Assert.assertFalse(reloaded.isUpToDate(doc, "-b docbook"));
+	}
+
+	@Test
+	public void changedIncludeIsDetected() throws Exception {
+		BuildManifest manifest = BuildManifest.load(manifestFile);
+		File doc = document.toFile();
+		manifest.update(doc, "", new HashSet<>(Arrays.asList(document, include)), Collections.emptySet());
+
+		// touching a file without changing it does not matter
+		Files.setLastModifiedTime(include, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+		Assert.assertTrue(manifest.isUpToDate(doc, ""));
+
+		write("chapter.adoc", "== Changed\n");
+		Assert.assertFalse(manifest.isUpToDate(doc, ""));
+
+		manifest.update(doc, "", new HashSet<>(Arrays.asList(document, include)), Collections.emptySet());
+		Files.delete(include);
+		Assert.assertFalse(manifest.isUpToDate(doc, ""));
+	}
+
+	@Test
+	public void deletedOutputIsDetectedAfterReload() throws Exception {
+		BuildManifest manifest = BuildManifest.load(manifestFile);
+		File doc = document.toFile();
+		Path output = write("doc.html", "<html/>");
+		manifest.update(doc, "", new HashSet<>(Arrays.asList(document, include)), Collections.singleton(output));
+		manifest.save();
+		Assert.assertTrue(BuildManifest.load(manifestFile).isUpToDate(doc, ""));
+
+		Files.delete(output);
+		Assert.assertFalse(BuildManifest.load(manifestFile).isUpToDate(doc, ""));
+	}
+
+	@Test
+	public void corruptManifestIsIgnored() throws Exception {
+		Files.write(manifestFile, "garbage".getBytes(StandardCharsets.UTF_8));
+		Assert.assertFalse(BuildManifest.load(manifestFile).isUpToDate(document.toFile(), ""));
+	}
+
+	private Path write(String name, String content) throws Exception {
+		return Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
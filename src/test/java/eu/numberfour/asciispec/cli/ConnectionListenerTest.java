@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ConnectionListener} and {@link ClientConnection}.
+ */
+@SuppressWarnings("javadoc")
+public class ConnectionListenerTest {
+
+	@Test
+	public void tcpRoundTrip() throws Exception {
+		try (ConnectionListener listener = ConnectionListener.tcp(0)) {
+			int port = Integer.parseInt(listener.getAddress().substring("port ".length()));
+			try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port);
+					ClientConnection connection = listener.accept()) {
+				new Message(Message.JOB).add("id", "1").writeTo(client.getOutputStream());
+				Message received = Message.read(connection.getInputStream());
+				Assert.assertEquals("1", received.get("id"));
+
+				new Message(Message.STATUS).add("id", "1").writeTo(connection.getOutputStream());
+				Assert.assertEquals(Message.STATUS, Message.read(client.getInputStream()).getType());
+			}
+		}
+	}
+
+	@Test
+	public void unixSocketRoundTrip() throws Exception {
+		Path dir = Files.createTempDirectory("asciispec");
+		Path path = dir.resolve("server.sock");
+		ConnectionListener listener;
+		try {
+			listener = ConnectionListener.unix(path);
+		} catch (IOException e) {
+			// runtime older than Java 16
+			Files.delete(dir);
+			return;
+		}
+
+		try (SocketChannel client = openUnixChannel(path); ClientConnection connection = listener.accept()) {
+			Assert.assertEquals("socket " + path, listener.getAddress());
+
+			// the server writes while another thread waits for the client
+			Thread reader = new Thread(() -> {
+				try {
+					Message.read(connection.getInputStream());
+				} catch (IOException e) {
+					// closed at the end of the test
+				}
+			});
+			reader.start();
+			new Message(Message.STATUS).add("id", "1").writeTo(connection.getOutputStream());
+			Assert.assertEquals("1", readMessage(client).get("id"));
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			new Message(Message.CANCEL).add("id", "1").writeTo(bytes);
+			client.write(ByteBuffer.wrap(bytes.toByteArray()));
+			reader.join(5000);
+			Assert.assertFalse(reader.isAlive());
+		} finally {
+			listener.close();
+			Files.delete(dir);
+		}
+		Assert.assertFalse(Files.exists(path));
+	}
+
+	private static SocketChannel openUnixChannel(Path path) throws Exception {
+		ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+		SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class)
+				.invoke(null, unix);
+		SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+				.getMethod("of", Path.class).invoke(null, path);
+		channel.connect(address);
+		return channel;
+	}
+
+	private static Message readMessage(SocketChannel channel) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		while (true) {
+			buffer.clear();
+			if (channel.read(buffer) < 0)
+				break;
+			bytes.write(buffer.array(), 0, buffer.position());
+			byte[] data = bytes.toByteArray();
+			if (data.length > 0 && data[data.length - 1] == ',') {
+				try {
+					return Message.read(new ByteArrayInputStream(data));
+				} catch (IOException e) {
+					// incomplete, read more
+				}
+			}
+		}
+		return Message.read(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * Test cases for {@link LintDiagnostics}.
+ */
+@SuppressWarnings("javadoc")
+public class LintDiagnosticsTest {
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+	private final JobContext job = new JobContext(new PrintStream(out, true), new PrintStream(diagnostics, true));
+
+	@Test
+	public void asciidoctorWarningIsReportedAsIssue() throws Exception {
+		LintDiagnostics lint = new LintDiagnostics(job, job.getDiagnostics());
+		PrintStream stream = new PrintStream(lint, true);
+
+		stream.println("asciidoctor: WARNING: doc.adoc: line 3: include file not found: chapter.adoc");
+
+		String file = new File("doc.adoc").getPath();
+		Assert.assertEquals("{\"severity\":\"WARN\",\"file\":\"" + file
+				+ "\",\"line\":3,\"message\":\"include file not found: chapter.adoc\"}" + System.lineSeparator(),
+				out.toString("UTF-8"));
+		Assert.assertEquals("", diagnostics.toString("UTF-8"));
+		Assert.assertEquals(1, lint.getIssueCount());
+		Assert.assertEquals(1, job.getWarningCount());
+		Assert.assertEquals(0, job.getErrorCount());
+	}
+
+	@Test
+	public void asciidoctorErrorWithoutPositionIsReportedAsError() throws Exception {
+		LintDiagnostics lint = new LintDiagnostics(job, job.getDiagnostics());
+		PrintStream stream = new PrintStream(lint, true);
+
+		stream.print("asciidoctor: ERROR: invalid document\r\n");
+
+		Assert.assertEquals("{\"severity\":\"ERROR\",\"message\":\"invalid document\"}" + System.lineSeparator(),
+				out.toString("UTF-8"));
+		Assert.assertEquals(1, job.getErrorCount());
+	}
+
+	@Test
+	public void otherLinesArePassedOn() throws Exception {
+		LintDiagnostics lint = new LintDiagnostics(job, job.getDiagnostics());
+		PrintStream stream = new PrintStream(lint, true);
+
+		stream.println("some output");
+		stream.print("unterminated");
+		Assert.assertEquals("some output" + System.lineSeparator(), diagnostics.toString("UTF-8"));
+		lint.close();
+
+		Assert.assertEquals("some output" + System.lineSeparator() + "unterminated" + System.lineSeparator(),
+				diagnostics.toString("UTF-8"));
+		Assert.assertEquals("", out.toString("UTF-8"));
+		Assert.assertEquals(0, lint.getIssueCount());
+	}
+
+	@Test
+	public void redirectedDiagnosticsReceiveRoutedOutput() throws Exception {
+		LintDiagnostics lint = new LintDiagnostics(job, job.getDiagnostics());
+		ThreadRoutingPrintStream err = ThreadRoutingPrintStream.forDiagnostics(new ByteArrayOutputStream(), "UTF-8");
+		job.redirectDiagnostics(new PrintStream(lint, true));
+		JobContext.bind(job);
+		try {
+			err.println("asciidoctor: WARNING: missing attribute");
+		} finally {
+			JobContext.unbind();
+			job.redirectDiagnostics(null);
+		}
+
+		Assert.assertEquals(1, lint.getIssueCount());
+		Assert.assertEquals("{\"severity\":\"WARN\",\"message\":\"missing attribute\"}" + System.lineSeparator(),
+				out.toString("UTF-8"));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link Message}.
+ */
+@SuppressWarnings("javadoc")
+public class MessageTest {
+
+	@Test
+	public void writesNetstrings() throws Exception {
+		Message message = new Message(Message.JOB).add("id", 1).add("cwd", "/tmp").add("arg", "doc.adoc");
+
+		Assert.assertEquals("45:3:JOB,2:id,1:1,3:cwd,4:/tmp,3:arg,8:doc.adoc,,", write(message));
+	}
+
+	@Test
+	public void readsWrittenMessage() throws Exception {
+		Message message = new Message(Message.JOB).add("id", "7").add("arg", "-a").add("arg", "my doc, übersicht.adoc");
+
+		Message read = Message.read(input(write(message)));
+
+		Assert.assertEquals(Message.JOB, read.getType());
+		Assert.assertEquals("7", read.get("id"));
+		Assert.assertEquals(Arrays.asList("-a", "my doc, übersicht.adoc"), read.getAll("arg"));
+		Assert.assertNull(read.get("cwd"));
+	}
+
+	@Test
+	public void readsSeveralMessagesOfOneStream() throws Exception {
+		InputStream is = input(write(new Message(Message.OUT).add("text", "")) + write(new Message(Message.STATUS)));
+
+		Assert.assertEquals("", Message.read(is).get("text"));
+		Assert.assertEquals(Message.STATUS, Message.read(is).getType());
+		Assert.assertNull(Message.read(is));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedMessage() throws Exception {
+		Message.read(input("45:3:JOB,2:id"));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void invalidLength() throws Exception {
+		Message.read(input("asciidoctor doc.adoc\n"));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void missingValue() throws Exception {
+		Message.read(input("11:3:JOB,2:id,,"));
+	}
+
+	private static String write(Message message) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		message.writeTo(os);
+		return os.toString("UTF-8");
+	}
+
+	private static InputStream input(String data) {
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ParallelInvoker}.
+ */
+@SuppressWarnings("javadoc")
+public class ParallelInvokerTest {
+
+	/** Fails the conversion of <code>broken.adoc</code> like a stack overflow in a processor would. */
+	private static class BreakingInvoker extends ParallelInvoker {
+		BreakingInvoker(int jobs) {
+			super(jobs);
+		}
+
+		@Override
+		int invoke(AsciiSpecInvoker invoker, File workingDir, List<String> args) {
+			if (args.get(args.size() - 1).endsWith("broken.adoc"))
+				throw new StackOverflowError("too deep");
+			return super.invoke(invoker, workingDir, args);
+		}
+	}
+
+	private Path dir;
+	private Path outDir;
+	private PrintStream originalOut;
+	private PrintStream originalErr;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Before
+	public void createFiles() throws Exception {
+		dir = Files.createTempDirectory("asciispec-jobs");
+		outDir = Files.createDirectory(dir.resolve("out"));
+		for (String name : new String[] { "first", "second", "third", "broken" })
+			write(name + ".adoc", "= " + name + "\n\nHello from " + name + ".\n");
+		originalOut = System.out;
+		originalErr = System.err;
+		System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8.name()));
+		System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8.name()));
+	}
+
+	@After
+	public void deleteFiles() throws Exception {
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator)
+				Files.delete(file);
+		}
+	}
+
+	@Test
+	public void failedDocumentDoesNotAbortTheOthers() throws Exception {
+		int status = new BreakingInvoker(2).invoke(dir.toFile(),
+				Arrays.asList("-D", outDir.toString(), "broken.adoc", "first.adoc", "second.adoc", "third.adoc"));
+
+		Assert.assertEquals(1, status);
+		for (String name : new String[] { "first", "second", "third" }) {
+			Path output = outDir.resolve(name + ".html");
+			Assert.assertTrue(output + " missing", Files.isRegularFile(output));
+			String html = new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+			Assert.assertTrue(html.contains("Hello from " + name + "."));
+		}
+		Assert.assertFalse(Files.exists(outDir.resolve("broken.html")));
+
+		String diagnostics = new String(err.toByteArray(), StandardCharsets.UTF_8);
+		Assert.assertTrue(diagnostics, diagnostics.contains("FAILED: Converting " + dir.resolve("broken.adoc")));
+		Assert.assertTrue(diagnostics, diagnostics.contains("StackOverflowError: too deep"));
+		Assert.assertTrue(diagnostics, diagnostics.contains("FAILED: 1 of 4 document(s) failed"));
+	}
+
+	private Path write(String name, String content) throws Exception {
+		return Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli
+
+import eu.numberfour.asciispec.AsciidoctorTest
+import eu.numberfour.asciispec.JobContext
+import eu.numberfour.asciispec.processors.OverlayIncludeExtension
+import eu.numberfour.asciispec.processors.ResolveFindExtension
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Comparator
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Test cases for converting a {@link PartialDocument} whose section comes from
+ * an overlaid file.
+ */
+class PartialDocumentOverlayTest extends AsciidoctorTest {
+
+	var Path dir;
+
+	@Before
+	def void createFiles() {
+		new ResolveFindExtension().register(doc);
+		new OverlayIncludeExtension().register(doc);
+		dir = Files.createTempDirectory("asciispec-partial-overlay");
+		write("spec.adoc", '''
+			= Specification
+
+			include::chapters/types.adoc[leveloffset=+1]
+		''');
+		write("chapters/types.adoc", '''
+			= Types
+
+			[[sec:any]]
+			== Any Type
+
+			Saved text of any.
+
+			== Void Type
+		''');
+		write("chapters/any-details.adoc", "Details of any.");
+	}
+
+	@After
+	def void deleteFiles() {
+		JobContext.unbind();
+		val files = Files.walk(dir);
+		try {
+			for (file : files.sorted(Comparator.reverseOrder).iterator.toIterable)
+				Files.delete(file);
+		} finally {
+			files.close();
+		}
+	}
+
+	@Test
+	def void sectionOfOverlaidFile() {
+		val job = new JobContext(new PrintStream(new ByteArrayOutputStream),
+			new PrintStream(new ByteArrayOutputStream));
+		job.overlays = #{dir.resolve("chapters/types.adoc").toAbsolutePath.normalize -> '''
+			= Types
+
+			Unsaved introduction.
+
+			Types are...
+
+			[[sec:any]]
+			== Any Type
+
+			Unsaved text of any.
+
+			include::any-details.adoc[]
+
+			== Void Type
+
+			Nothing.
+		'''.toString};
+		JobContext.bind(job);
+
+		val content = new PartialDocument(dir.resolve("spec.adoc").toFile, dir.toFile, emptyMap, "sec:any", null)
+			.content;
+		assertTrue(content, content.endsWith("\ninclude::chapters/types.adoc[lines=7..13]"));
+
+		val output = doc.convert(content, getOptions(null, dir.toFile, null, Backend.HTML5));
+		assertTrue(output, output.contains("Unsaved text of any."));
+		assertTrue(output, output.contains("Details of any."));
+		assertFalse(output, output.contains("Saved text of any."));
+		assertFalse(output, output.contains("Unsaved introduction."));
+		assertFalse(output, output.contains("Nothing."));
+	}
+
+	private def void write(String name, CharSequence content) {
+		val file = dir.resolve(name);
+		Files.createDirectories(file.parent);
+		Files.write(file, content.toString.getBytes(StandardCharsets.UTF_8));
+	}
+}
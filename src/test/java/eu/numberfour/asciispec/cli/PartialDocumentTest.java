@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link PartialDocument}.
+ */
+@SuppressWarnings("javadoc")
+public class PartialDocumentTest {
+
+	private Path dir;
+	private File master;
+
+	@Before
+	public void createFiles() throws Exception {
+		dir = Files.createTempDirectory("asciispec-partial");
+		master = write("spec.adoc", //
+				"= Specification", //
+				":toc:", //
+				"", //
+				"== Introduction", //
+				"", //
+				":chapters: chapters", //
+				"include::{chapters}/types.adoc[leveloffset=+1]", //
+				"", //
+				"== Last Words", //
+				"", //
+				"----", //
+				"== Not a Section", //
+				"----", //
+				"", //
+				"Bye.").toFile();
+		write("chapters/types.adoc", //
+				"= Types", //
+				"", //
+				"Types are...", //
+				"", //
+				"[[sec:any]]", //
+				"== Any Type", //
+				"", //
+				"include::any-details.adoc[]", //
+				"", //
+				"=== Details", //
+				"", //
+				"== Void Type", //
+				"", //
+				"Nothing.");
+		write("chapters/any-details.adoc", "Details of any.");
+	}
+
+	@After
+	public void deleteFiles() throws Exception {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(file);
+		}
+	}
+
+	@Test
+	public void sectionByIdInIncludedFile() throws IOException {
+		String content = new PartialDocument(master, dir.toFile(), Collections.emptyMap(), "sec:any", null)
+				.getContent();
+		Assert.assertEquals(String.join("\n", //
+				"= Specification", //
+				":toc:", //
+				":chapters: chapters", //
+				"", //
+				"include::chapters/types.adoc[lines=5..11]"), content);
+	}
+
+	@Test
+	public void subsectionIsShiftedToFirstLevel() throws IOException {
+		String content = new PartialDocument(master, dir.toFile(), Collections.emptyMap(), "_details", null)
+				.getContent();
+		Assert.assertTrue(content, content.endsWith("\ninclude::chapters/types.adoc[lines=10..11,leveloffset=-1]"));
+	}
+
+	@Test
+	public void sectionByGeneratedId() throws IOException {
+		String content = new PartialDocument(master, dir.toFile(), Collections.emptyMap(), "_last_words", null)
+				.getContent();
+		Assert.assertTrue(content, content.endsWith("\ninclude::spec.adoc[lines=9..15]"));
+	}
+
+	@Test
+	public void sectionByIncludedFile() throws IOException {
+		String content = new PartialDocument(master, dir.toFile(), Collections.emptyMap(), null,
+				dir.resolve("chapters/types.adoc").toFile()).getContent();
+		Assert.assertTrue(content, content.endsWith("\ninclude::chapters/types.adoc[leveloffset=+1]"));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void sectionInVerbatimBlockIsNotFound() throws IOException {
+		new PartialDocument(master, dir.toFile(), Collections.emptyMap(), "_not_a_section", null).getContent();
+	}
+
+	private Path write(String name, String... lines) throws IOException {
+		Path file = dir.resolve(name);
+		Files.createDirectories(file.getParent());
+		return Files.write(file, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ProcessCoordinator}. The worker processes run the
+ * fake workers below instead of AsciiSpec.
+ */
+@SuppressWarnings("javadoc")
+public class ProcessCoordinatorTest {
+
+	/** Answers each job by writing <code>&lt;doc&gt;.html</code>. */
+	public static class ConvertingWorker {
+		public static void main(String[] args) throws Exception {
+			InputStream is = new BufferedInputStream(System.in);
+			OutputStream os = new BufferedOutputStream(System.out);
+			Message request;
+			while ((request = Message.read(is)) != null) {
+				String document = request.get("doc");
+				Path output = Paths.get(document + ".html");
+				Files.write(output, "converted".getBytes(StandardCharsets.UTF_8));
+				new Message(Message.STATUS).add("doc", document).add("exit", 0).add("errors", 0)
+						.add("warnings", 1).add("out", "converted " + document + "\n").add("diag", "")
+						.add("input", document).add("output", output).writeTo(os);
+				os.flush();
+			}
+		}
+	}
+
+	/** Exits without answering, like a worker that crashes. */
+	public static class DyingWorker {
+		public static void main(String[] args) {
+			System.exit(3);
+		}
+	}
+
+	private static class FakeCoordinator extends ProcessCoordinator {
+		private final Class<?> worker;
+
+		FakeCoordinator(int processes, Class<?> worker) {
+			super(processes);
+			this.worker = worker;
+		}
+
+		@Override
+		List<String> getWorkerCommand(String cache, List<String> options) {
+			return new ArrayList<>(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", System.getProperty("java.class.path"), worker.getName()));
+		}
+	}
+
+	private Path dir;
+	private PrintStream originalOut;
+	private PrintStream originalErr;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Before
+	public void createFiles() throws Exception {
+		dir = Files.createTempDirectory("asciispec-processes");
+		for (String name : new String[] { "first", "second", "third" })
+			Files.write(dir.resolve(name + ".adoc"), ("= " + name + "\n").getBytes(StandardCharsets.UTF_8));
+		originalOut = System.out;
+		originalErr = System.err;
+		System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8.name()));
+		System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8.name()));
+	}
+
+	@After
+	public void deleteFiles() throws Exception {
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator)
+				Files.delete(file);
+		}
+	}
+
+	@Test
+	public void documentsAreConvertedByWorkers() throws Exception {
+		BuildManifest manifest = BuildManifest.load(dir.resolve("manifest"));
+		ProcessCoordinator coordinator = new FakeCoordinator(2, ConvertingWorker.class);
+		coordinator.setManifest(manifest);
+		coordinator.setCacheLocation(dir.resolve("cache").toString());
+
+		int status = coordinator.invoke(dir.toFile(), Arrays.asList("first.adoc", "second.adoc", "third.adoc"));
+
+		Assert.assertEquals(0, status);
+		String output = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		for (String name : new String[] { "first", "second", "third" }) {
+			Assert.assertTrue(output, output.contains("converted " + dir.resolve(name + ".adoc")));
+			Assert.assertTrue(manifest.isUpToDate(dir.resolve(name + ".adoc").toFile(), ""));
+		}
+		Assert.assertTrue(output,
+				output.contains("3 document(s) converted by 2 process(es), 0 error(s), 3 warning(s)"));
+	}
+
+	@Test
+	public void queuedDocumentsFailWhenAllWorkersDie() throws Exception {
+		BuildManifest manifest = BuildManifest.load(dir.resolve("manifest"));
+		ProcessCoordinator coordinator = new FakeCoordinator(1, DyingWorker.class);
+		coordinator.setManifest(manifest);
+		coordinator.setCacheLocation(dir.resolve("cache").toString());
+
+		int status = coordinator.invoke(dir.toFile(), Arrays.asList("first.adoc", "second.adoc", "third.adoc"));
+
+		Assert.assertEquals(1, status);
+		String diagnostics = new String(err.toByteArray(), StandardCharsets.UTF_8);
+		for (String name : new String[] { "first", "second", "third" }) {
+			Path document = dir.resolve(name + ".adoc");
+			Assert.assertTrue(diagnostics, diagnostics.contains("FAILED") && diagnostics.contains(document.toString()));
+			Assert.assertFalse(manifest.isUpToDate(document.toFile(), ""));
+		}
+		Assert.assertTrue(diagnostics, diagnostics.contains("was not converted, since no worker process is left"));
+	}
+
+	@Test
+	public void defaultCacheIsPrivate() throws Exception {
+		Path cache = ProcessCoordinator.getDefaultCacheLocation(dir);
+
+		Assert.assertEquals(dir.resolve(".asciispec").resolve("build-cache"), cache);
+		Assert.assertTrue(Files.isDirectory(cache));
+		if (cache.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Assert.assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cache)));
+			Assert.assertEquals("rwx------",
+					PosixFilePermissions.toString(Files.getPosixFilePermissions(cache.getParent())));
+		}
+		Assert.assertEquals(cache, ProcessCoordinator.getDefaultCacheLocation(dir));
+	}
+}
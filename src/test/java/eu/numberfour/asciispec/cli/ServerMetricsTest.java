@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.ProcessorMetrics;
+
+/**
+ * Test cases for {@link ServerMetrics}.
+ */
+@SuppressWarnings("javadoc")
+public class ServerMetricsTest {
+
+	@Test
+	public void percentilesOfLatestJobs() {
+		ServerMetrics metrics = new ServerMetrics();
+		Assert.assertEquals(-1, metrics.getLatencyPercentile(50));
+
+		for (int i = 1; i <= 100; i++)
+			metrics.jobFinished(0, false, i);
+
+		Assert.assertEquals(50, metrics.getLatencyPercentile(50));
+		Assert.assertEquals(95, metrics.getLatencyPercentile(95));
+		Assert.assertEquals(99, metrics.getLatencyPercentile(99));
+
+		for (int i = 0; i < ServerMetrics.LATENCY_SAMPLES; i++)
+			metrics.jobFinished(0, false, 7);
+
+		Assert.assertEquals(7, metrics.getLatencyPercentile(99));
+	}
+
+	@Test
+	public void messageReportsJobsAndProcessors() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.jobFinished(0, false, 10);
+		metrics.jobFinished(1, false, 10);
+		metrics.jobFinished(3, true, 10);
+		metrics.jobRejected();
+		ProcessorMetrics.record(this, System.nanoTime());
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(4));
+		try {
+			Message message = metrics.createMessage(executor, 4);
+
+			Assert.assertEquals(Message.METRICS, message.getType());
+			Assert.assertEquals("ok", message.get("status"));
+			Assert.assertEquals("1", message.get("jobs-completed"));
+			Assert.assertEquals("1", message.get("jobs-failed"));
+			Assert.assertEquals("1", message.get("jobs-cancelled"));
+			Assert.assertEquals("1", message.get("jobs-rejected"));
+			Assert.assertEquals("0", message.get("queue-depth"));
+			Assert.assertNotNull(message.get("processor.ServerMetricsTest.ms"));
+			Assert.assertNotNull(message.get("heap-used-bytes"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * Test cases for {@link ThreadRoutingPrintStream}.
+ */
+@SuppressWarnings("javadoc")
+public class ThreadRoutingPrintStreamTest {
+
+	@Test
+	public void unboundThreadWritesToFallback() throws Exception {
+		ByteArrayOutputStream fallback = new ByteArrayOutputStream();
+		ThreadRoutingPrintStream ps = ThreadRoutingPrintStream.forOut(fallback, "UTF-8");
+
+		ps.print("hello");
+		ps.flush();
+
+		Assert.assertEquals("hello", fallback.toString("UTF-8"));
+	}
+
+	@Test
+	public void jobsWriteToTheirOwnChannels() throws Exception {
+		ByteArrayOutputStream fallback = new ByteArrayOutputStream();
+		ThreadRoutingPrintStream ps = ThreadRoutingPrintStream.forOut(fallback, "UTF-8");
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+		Thread t1 = new Thread(() -> {
+			JobContext.bind(new JobContext(new PrintStream(first), new PrintStream(first)));
+			for (int i = 0; i < 100; i++)
+				ps.print("a");
+			JobContext.unbind();
+		});
+		Thread t2 = new Thread(() -> {
+			JobContext.bind(new JobContext(new PrintStream(second), new PrintStream(second)));
+			for (int i = 0; i < 100; i++)
+				ps.print("b");
+			JobContext.unbind();
+		});
+		t1.start();
+		t2.start();
+		t1.join();
+		t2.join();
+		ps.print("c");
+		ps.flush();
+
+		Assert.assertEquals(new String(new char[100]).replace('\0', 'a'), first.toString("UTF-8"));
+		Assert.assertEquals(new String(new char[100]).replace('\0', 'b'), second.toString("UTF-8"));
+		Assert.assertEquals("c", fallback.toString("UTF-8"));
+	}
+
+	@Test
+	public void diagnosticsAreSeparatedFromOutput() throws Exception {
+		ByteArrayOutputStream fallback = new ByteArrayOutputStream();
+		ThreadRoutingPrintStream out = ThreadRoutingPrintStream.forOut(fallback, "UTF-8");
+		ThreadRoutingPrintStream err = ThreadRoutingPrintStream.forDiagnostics(fallback, "UTF-8");
+		ByteArrayOutputStream jobOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream jobDiagnostics = new ByteArrayOutputStream();
+
+		JobContext.bind(new JobContext(new PrintStream(jobOut), new PrintStream(jobDiagnostics)));
+		try {
+			out.print("output");
+			err.print("warning");
+		} finally {
+			JobContext.unbind();
+		}
+
+		Assert.assertEquals("output", jobOut.toString("UTF-8"));
+		Assert.assertEquals("warning", jobDiagnostics.toString("UTF-8"));
+		Assert.assertEquals("", fallback.toString("UTF-8"));
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.issue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+
+import org.asciidoctor.ast.ContentNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.issue.Issue.Severity;
+
+/**
+ * Test cases for {@link Issue}.
+ */
+@SuppressWarnings("javadoc")
+public class IssueTest {
+
+	private static final ContentNode NODE = (ContentNode) Proxy.newProxyInstance(IssueTest.class.getClassLoader(),
+			new Class<?>[] { ContentNode.class }, (proxy, method, args) -> null);
+
+	@Test
+	public void json() {
+		Issue issue = new IssueInFile(NODE, Severity.ERROR, "Unknown key: foo", new File("intro.adoc"), 12);
+		Assert.assertEquals("{\"severity\":\"ERROR\",\"file\":\"intro.adoc\",\"line\":12,\"message\":\"Unknown key: foo\"}",
+				issue.toJson());
+	}
+
+	@Test
+	public void jsonEscapesAndOmitsMissingLine() {
+		Issue issue = new IssueInFile(NODE, Severity.WARN, "\"a\"\\b\n\u0001", new File("intro.adoc"), -1);
+		Assert.assertEquals(
+				"{\"severity\":\"WARN\",\"file\":\"intro.adoc\",\"message\":\"\\\"a\\\"\\\\b\\n\\u0001\"}",
+				issue.toJson());
+	}
+}
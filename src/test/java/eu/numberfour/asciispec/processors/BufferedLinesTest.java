@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link BufferedLines}.
+ */
+@SuppressWarnings("javadoc")
+public class BufferedLinesTest {
+
+	/** Returns the given lines as lines 2, 3, ... of <code>doc.adoc</code>. */
+	static BufferedLines buffer(List<String> lines) {
+		BufferedLines input = new BufferedLines();
+		int lineNumber = 1;
+		for (String line : lines)
+			input.add(line, "doc.adoc", "/dir", ++lineNumber);
+		return input;
+	}
+
+	@Test
+	public void positionOfTheCurrentLine() {
+		BufferedLines input = new BufferedLines();
+		input.add("a", "doc.adoc", "/dir", 1);
+		input.add("b", "inc.adoc", "/dir/sub", 1);
+		input.add("c", "inc.adoc", "/dir/sub", 2);
+		input.add("d", "doc.adoc", "/dir", 3);
+		Assert.assertFalse(input.hasPosition());
+
+		String[] expected = { "doc.adoc /dir 1", "inc.adoc /dir/sub 1", "inc.adoc /dir/sub 2", "doc.adoc /dir 3" };
+		for (int i = 0; i < expected.length; i++) {
+			input.setPosition(i);
+			Assert.assertEquals(expected[i], input.getFile() + " " + input.getDir() + " " + input.getLineNumber());
+		}
+		input.clearPosition();
+		Assert.assertFalse(input.hasPosition());
+	}
+
+	@Test
+	public void positionsOfManyLines() {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 3 * ChunkedLines.DEFAULT_CHUNK_LINES; i++)
+			lines.add("line " + i);
+		BufferedLines input = buffer(lines);
+		Assert.assertEquals(lines.size(), input.size());
+		input.setPosition(lines.size() - 1);
+		Assert.assertEquals(lines.size() + 1, input.getLineNumber());
+		Assert.assertEquals("line " + (lines.size() - 1), input.get(lines.size() - 1));
+		input.clearPosition();
+	}
+
+	@Test
+	public void valuesAreResolvedAtThePositionOfTheirEntry() {
+		BufferedLines input = buffer(Arrays.asList("text", ":a: {find}x", ":b: y"));
+		List<String> resolved = new ArrayList<>();
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		input.setPosition(0);
+		input.scanConfiguration(configuration, value -> {
+			resolved.add(value + "@" + input.getLineNumber());
+			return "resolved";
+		});
+		Assert.assertEquals(Arrays.asList("{find}x@3"), resolved);
+		Assert.assertEquals("resolved", configuration.get("a").getValue());
+		Assert.assertEquals("y", configuration.get("b").getValue());
+		Assert.assertEquals(2, input.getLineNumber());
+		input.clearPosition();
+	}
+
+	@Test
+	public void onlyNewLinesAreScanned() {
+		BufferedLines input = buffer(Arrays.asList(":a: 1"));
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		input.scanConfiguration(configuration, value -> value);
+		input.add(":b: 2", "doc.adoc", "/dir", 3);
+		List<String> resolved = new ArrayList<>();
+		input.scanConfiguration(configuration, value -> value);
+		input.scanConfiguration(configuration, value -> {
+			resolved.add(value);
+			return value;
+		});
+		Assert.assertEquals("2", configuration.get("b").getValue());
+		Assert.assertEquals(Collections.emptyList(), resolved);
+	}
+
+	@Test
+	public void linesAreProcessedInOrderAndReleased() {
+		BufferedLines[] input = new BufferedLines[1];
+		TestPreprocessor position = new TestPreprocessor(
+				line -> Collections.singletonList(line + "@" + input[0].getLineNumber()));
+		input[0] = buffer(Arrays.asList("a", "b", "c"));
+		input[0].scanConfiguration(new DocumentConfiguration(), value -> value);
+		ChunkedLines output = new ChunkedLines(2);
+		input[0].process(new PreprocessorPipeline(null, Arrays.asList(position)), output);
+		Assert.assertEquals(Arrays.asList("a@2", "b@3", "c@4"), output.toList());
+		Assert.assertEquals(0, input[0].size());
+		Assert.assertFalse(input[0].hasPosition());
+	}
+
+	@Test
+	public void linesAddedWhileProcessingAreProcessed() {
+		BufferedLines input = buffer(Arrays.asList("a", "b"));
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		input.scanConfiguration(configuration, value -> value);
+		configuration.setRemainder(() -> {
+			input.add(":x: 1", "doc.adoc", "/dir", 4);
+			input.add("c", "doc.adoc", "/dir", 5);
+			input.scanConfiguration(configuration, value -> value);
+		});
+		TestPreprocessor lookup = new TestPreprocessor(line -> Collections
+				.singletonList(line + "@" + input.getLineNumber() + (line.equals("a") ? configuration.get("x") : "")));
+		ChunkedLines output = new ChunkedLines(2);
+		input.process(new PreprocessorPipeline(null, Arrays.asList(lookup)), output);
+		Assert.assertEquals(Arrays.asList("a@2:x: 1", "b@3", ":x: 1@4", "c@5"), output.toList());
+		Assert.assertEquals(0, input.size());
+	}
+}
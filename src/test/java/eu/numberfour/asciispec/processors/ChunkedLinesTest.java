@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.asciidoctor.extension.Reader;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ChunkedLines}.
+ */
+@SuppressWarnings("javadoc")
+public class ChunkedLinesTest {
+
+	/**
+	 * Returns a reader whose lines are the given list. Restored lines are put
+	 * in front of the list, like Asciidoctor does.
+	 */
+	private static Reader reader(LinkedList<String> lines, List<Integer> restoredSizes) {
+		return (Reader) Proxy.newProxyInstance(Reader.class.getClassLoader(), new Class<?>[] { Reader.class },
+				(proxy, method, args) -> {
+					if (!method.getName().equals("restoreLines"))
+						throw new UnsupportedOperationException(method.getName());
+					@SuppressWarnings("unchecked")
+					List<String> restored = (List<String>) args[0];
+					restoredSizes.add(restored.size());
+					lines.addAll(0, restored);
+					return null;
+				});
+	}
+
+	@Test
+	public void linesAreRestoredInOrderChunkByChunk() {
+		ChunkedLines lines = new ChunkedLines(3);
+		for (int i = 1; i <= 8; i++)
+			lines.append().add("line " + i);
+		Assert.assertEquals(8, lines.size());
+
+		LinkedList<String> remaining = new LinkedList<>(Arrays.asList("rest"));
+		List<Integer> restoredSizes = new ArrayList<>();
+		lines.restoreTo(reader(remaining, restoredSizes));
+
+		Assert.assertEquals(Arrays.asList("line 1", "line 2", "line 3", "line 4", "line 5", "line 6", "line 7",
+				"line 8", "rest"), remaining);
+		Assert.assertEquals(Arrays.asList(2, 3, 3), restoredSizes);
+		Assert.assertEquals(0, lines.size());
+	}
+
+	@Test
+	public void linesAppendedAtOnceStayInOneChunk() {
+		ChunkedLines lines = new ChunkedLines(2);
+		lines.append().add("a");
+		lines.append().addAll(Arrays.asList("b", "c", "d"));
+		lines.append().add("e");
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), lines.toList());
+
+		LinkedList<String> remaining = new LinkedList<>();
+		List<Integer> restoredSizes = new ArrayList<>();
+		lines.restoreTo(reader(remaining, restoredSizes));
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), remaining);
+		Assert.assertEquals(Arrays.asList(1, 4), restoredSizes);
+	}
+
+	@Test
+	public void nothingToRestore() {
+		List<Integer> restoredSizes = new ArrayList<>();
+		new ChunkedLines(2).restoreTo(reader(new LinkedList<>(), restoredSizes));
+		Assert.assertTrue(restoredSizes.isEmpty());
+	}
+}
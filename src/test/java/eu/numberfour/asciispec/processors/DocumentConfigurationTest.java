@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.processors.DocumentConfiguration.AttributeEntry;
+
+/**
+ * Test cases for {@link DocumentConfiguration}.
+ */
+@SuppressWarnings("javadoc")
+public class DocumentConfigurationTest {
+
+	private static DocumentConfiguration scan(String... lines) {
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		BufferedLinesTest.buffer(Arrays.asList(lines)).scanConfiguration(configuration,
+				value -> value.contains("{find}missing") ? null : value.replace("{find}", "dir/"));
+		return configuration;
+	}
+
+	private static List<String> names(List<AttributeEntry> entries) {
+		List<String> names = new ArrayList<>();
+		for (AttributeEntry entry : entries)
+			names.add(entry.getName());
+		return names;
+	}
+
+	@Test
+	public void parseAttributeEntries() {
+		AttributeEntry entry = DocumentConfiguration.parse(":bib-file:  refs.bib  ");
+		Assert.assertEquals("bib-file", entry.getName());
+		Assert.assertEquals("refs.bib", entry.getValue());
+		Assert.assertEquals("", DocumentConfiguration.parse(":toc:").getValue());
+	}
+
+	@Test
+	public void parseOtherLines() {
+		Assert.assertNull(DocumentConfiguration.parse(""));
+		Assert.assertNull(DocumentConfiguration.parse(" :bib-file: refs.bib"));
+		Assert.assertNull(DocumentConfiguration.parse(":bib-file!:"));
+		Assert.assertNull(DocumentConfiguration.parse(":no entry"));
+		Assert.assertNull(DocumentConfiguration.parse("cite:[key]"));
+	}
+
+	@Test
+	public void valueParts() {
+		AttributeEntry entry = DocumentConfiguration.parse(":wiki_def: a ; b;c ;d;e");
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d;e"), entry.getParts(4));
+		Assert.assertEquals(Arrays.asList("a", "b;c ;d;e"), entry.getParts(2));
+		Assert.assertEquals(Arrays.asList("a"), DocumentConfiguration.parse(":x: a").getParts(2));
+	}
+
+	@Test
+	public void firstEntryIsKept() {
+		DocumentConfiguration configuration = scan(":a: 1", "text", ":a: 2", ":b: 3");
+		Assert.assertEquals("1", configuration.get("a").getValue());
+		Assert.assertEquals("3", configuration.get("b").getValue());
+		Assert.assertNull(configuration.get("c"));
+	}
+
+	@Test
+	public void entriesWithPrefix() {
+		DocumentConfiguration configuration = scan(":repo_def_b: 1", ":other: 2", ":repo_def_a: 3");
+		Assert.assertEquals(Arrays.asList("repo_def_b", "repo_def_a"), names(configuration.getAll("repo_def_")));
+	}
+
+	@Test
+	public void entriesInIgnoredBlocksAreSkipped() {
+		DocumentConfiguration configuration = scan("----", ":a: 1", "----", ":b: 2", "////", ":a: 3", "////",
+				":a: 4");
+		Assert.assertNull(configuration.get("c"));
+		Assert.assertEquals("2", configuration.get("b").getValue());
+		Assert.assertEquals("4", configuration.get("a").getValue());
+	}
+
+	@Test
+	public void variablesAreResolved() {
+		DocumentConfiguration configuration = scan(":bib-file: {find}refs.bib", ":bib-file: other.bib",
+				":wiki_def: {PATH};{PAGE_ID}");
+		Assert.assertEquals("dir/refs.bib", configuration.get("bib-file").getValue());
+		Assert.assertEquals("{PATH};{PAGE_ID}", configuration.get("wiki_def").getValue());
+	}
+
+	@Test
+	public void entriesWithUnresolvedVariablesAreLeftOut() {
+		DocumentConfiguration configuration = scan(":bib-file: {find}missing.bib", ":bib-file: refs.bib",
+				":repo_def_a: {find}missing", ":repo_def_b: b");
+		Assert.assertNull(configuration.get("bib-file"));
+		Assert.assertEquals(Arrays.asList("repo_def_b"), names(configuration.getAll("repo_def_")));
+	}
+
+	@Test
+	public void unknownEntriesReadTheRemainder() {
+		BufferedLines input = BufferedLinesTest.buffer(Arrays.asList(":a: 1"));
+		DocumentConfiguration configuration = new DocumentConfiguration();
+		input.scanConfiguration(configuration, value -> value);
+		int[] calls = new int[1];
+		configuration.setRemainder(() -> {
+			calls[0]++;
+			input.add(":b: 2", "doc.adoc", "/dir", 3);
+			input.scanConfiguration(configuration, value -> value);
+		});
+		Assert.assertFalse(configuration.isComplete());
+
+		Assert.assertEquals("1", configuration.get("a").getValue());
+		Assert.assertEquals(0, calls[0]);
+		Assert.assertEquals("2", configuration.get("b").getValue());
+		Assert.assertNull(configuration.get("c"));
+		Assert.assertEquals(1, calls[0]);
+		Assert.assertTrue(configuration.isComplete());
+	}
+
+	@Test
+	public void entriesWithPrefixReadTheRemainder() {
+		DocumentConfiguration configuration = scan(":repo_def_a: 1");
+		configuration.setRemainder(() -> configuration.add(new AttributeEntry("repo_def_b", "2")));
+		Assert.assertEquals(Arrays.asList("repo_def_a", "repo_def_b"), names(configuration.getAll("repo_def_")));
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.numberfour.asciispec.JobContext;
+
+/**
+ * Test cases for {@link IncludeSelection} and the targets handled by the
+ * {@link OverlayIncludeProcessor}.
+ */
+@SuppressWarnings("javadoc")
+public class IncludeSelectionTest {
+
+	private static final String CONTENT = "= Title\n// tag::a[]\nA1\n// end::a[]\nmiddle\n// tag::b[]\nB1\n"
+			+ "// tag::a[]\nA2\n// end::a[]\n// end::b[]\nlast\n";
+
+	@After
+	public void unbind() {
+		JobContext.unbind();
+	}
+
+	private static IncludeSelection select(String name, String value) {
+		Map<String, Object> attributes = new HashMap<>();
+		attributes.put(name, value);
+		return IncludeSelection.select(CONTENT, attributes);
+	}
+
+	@Test
+	public void withoutSelectionEverythingIsIncluded() {
+		IncludeSelection selection = IncludeSelection.select(CONTENT, Collections.singletonMap("leveloffset", "+1"));
+		Assert.assertEquals(CONTENT, selection.getContent());
+		Assert.assertEquals(1, selection.getLineNumber());
+	}
+
+	@Test
+	public void lineRanges() {
+		IncludeSelection selection = select("lines", "3;5..6;12..");
+		Assert.assertEquals("A1\nmiddle\n// tag::b[]\nlast\n", selection.getContent());
+		Assert.assertEquals(3, selection.getLineNumber());
+		Assert.assertEquals("B1\nA2\n", select("lines", "9,7").getContent());
+		Assert.assertEquals("last\n", select("lines", "12..-1").getContent());
+		Assert.assertEquals(CONTENT, select("lines", "x").getContent());
+	}
+
+	@Test
+	public void tags() {
+		IncludeSelection selection = select("tag", "a");
+		Assert.assertEquals("A1\nA2\n", selection.getContent());
+		Assert.assertEquals(3, selection.getLineNumber());
+		Assert.assertEquals("B1\nA2\n", select("tags", "b").getContent());
+		Assert.assertEquals("A1\nB1\nA2\n", select("tags", "a;b").getContent());
+	}
+
+	@Test
+	public void linesTakePrecedenceOverTags() {
+		Map<String, Object> attributes = new HashMap<>();
+		attributes.put("lines", "1");
+		attributes.put("tags", "a");
+		Assert.assertEquals("= Title\n", IncludeSelection.select(CONTENT, attributes).getContent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wildcardsAreRejected() {
+		select("tags", "**;!b");
+	}
+
+	@Test
+	public void onlyOverlaidTargetsAreHandled() {
+		Path overlaid = Paths.get("overlaid", "chapter.adoc").toAbsolutePath();
+		JobContext job = new JobContext(new PrintStream(new ByteArrayOutputStream()),
+				new PrintStream(new ByteArrayOutputStream()));
+		job.setOverlays(Collections.singletonMap(overlaid, "= Chapter\n"));
+		JobContext.bind(job);
+
+		OverlayIncludeProcessor processor = new OverlayIncludeProcessor();
+		Assert.assertTrue(processor.handles(overlaid.toString()));
+		Assert.assertFalse(processor.handles(Paths.get("other", "chapter.adoc").toAbsolutePath().toString()));
+		// relative targets cannot be resolved without the including reader
+		Assert.assertFalse(processor.handles("chapter.adoc"));
+		Assert.assertFalse(processor.handles("{find}chapter.adoc"));
+	}
+}
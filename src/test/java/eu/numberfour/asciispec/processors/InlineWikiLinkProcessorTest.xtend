@@ -47,6 +47,23 @@ class InlineWikiLinkProcessorTest extends AsciidoctorTest {
 		);
 	}
 
+	@Test
+	public def void testConfigurationIsResetForNextDocument() {
+		convert('''
+			«config»
+			This is some inline text cwiki:BR/Home[] and so on.''');
+
+		convertStringAndAssertErrorContains(
+			'''
+			<div class="paragraph">
+			<p>This is some inline text <mark>[Error: Missing wiki configuration, skipping macro: cwiki:BR/Home[]]</mark> and so on.</p>
+			</div>''',
+			'''
+			This is some inline text cwiki:BR/Home[] and so on.''',
+			"asciispec  : ERROR: line 1: Missing wiki configuration, skipping macro: cwiki:BR/Home[]"
+		);
+	}
+
 	@Test
 	public def void testInvalidConfiguration() {
 		convertStringAndAssertErrorContains(
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link MacroScanner}.
+ */
+@SuppressWarnings("javadoc")
+public class MacroScannerTest {
+
+	private static final List<String> LITERALS = Arrays.asList("cite:[", "srclnk:", "math:", "$", "repo:",
+			":repo_def_", "req:", "include:", "{find}");
+
+	private final MacroScanner scanner = new MacroScanner(LITERALS);
+
+	private void assertFound(String line, String... expected) {
+		Assert.assertEquals(line, scanner.mask(Arrays.asList(expected)), scanner.scan(line));
+	}
+
+	@Test
+	public void plainProse() {
+		assertFound("Nothing to see here, only words: and [brackets].");
+		assertFound("");
+	}
+
+	@Test
+	public void singleMacros() {
+		assertFound("See cite:[Knuth84].", "cite:[");
+		assertFound("x srclnk:++a.b++[label]", "srclnk:");
+		assertFound("Costs $2.", "$");
+		assertFound("include::{find}x.adoc[]", "include:", "{find}");
+	}
+
+	@Test
+	public void overlappingLiterals() {
+		// "repo_def_" must not hide "repo:" and vice versa
+		assertFound(":repo_def_gh: url", ":repo_def_");
+		assertFound("repo:gh:file[]", "repo:");
+		// a failed partial match must not skip the start of the next literal
+		assertFound("mathmath:x[]", "math:");
+		assertFound("cite:cite:[a]", "cite:[");
+		assertFound("prereq:R1[]", "req:");
+	}
+
+	@Test
+	public void nonAsciiCharacters() {
+		assertFound("Grüße: cite:[ä]", "cite:[");
+		assertFound("maäth: x");
+	}
+
+	@Test
+	public void manyLiteralsShareLastBit() {
+		List<String> literals = new ArrayList<>();
+		for (int i = 0; i < 70; i++)
+			literals.add("m" + i + ":");
+		MacroScanner many = new MacroScanner(literals);
+		Assert.assertEquals(many.mask(Collections.singletonList("m3:")), many.scan("a m3: b"));
+		Assert.assertEquals(many.mask(Collections.singletonList("m69:")), many.scan("m65:"));
+	}
+}
@@ -11,9 +11,14 @@
 package eu.numberfour.asciispec.processors
 
 import eu.numberfour.asciispec.AsciidoctorTest
+import java.io.File
+import java.io.IOException
+import java.nio.file.Paths
+import java.util.HashMap
 import org.junit.Before
 import org.junit.Test
-import java.io.IOException
+
+import static org.junit.Assert.*
 
 /**
  * Test cases for {@link MathIncludePreprocessor}.
@@ -103,6 +108,33 @@ class MathIncludePreprocessorTest extends AsciidoctorTest {
 		);
 	}
 
+	@Test
+	def void testMathBlockOfReplayedSource() {
+		val input = '''
+			mathinclude::src/test/resources/data/latex_commands/commands.tex[]
+
+			[math]
+			++++
+			\tee(x)
+			++++
+			''';
+		HostPreprocessor.startCapture();
+		convert(input, Backend.DOCBOOK);
+		val source = HostPreprocessor.stopCapture();
+		assertEquals(#[Paths.get("src/test/resources/data/latex_commands/commands.tex").toAbsolutePath.normalize],
+			source.mathIncludes);
+
+		val attributes = new HashMap<String, Object>();
+		attributes.put(HostPreprocessor.PREPROCESSED_ATTRIBUTE, "");
+		HostPreprocessor.startReplay(source);
+		val output = try {
+			doc.convert(source.content, getOptions(attributes, new File("."), null, Backend.HTML5))
+		} finally {
+			HostPreprocessor.stopReplay();
+		};
+		assertTrue(output, output.contains("<mi>Γ</mi><mo>⊢</mo>"));
+	}
+
 	@Test
 	def void testValidFileWithInlineMath() {
 		convertAndAssert(
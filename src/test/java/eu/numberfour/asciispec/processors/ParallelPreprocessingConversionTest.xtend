@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors
+
+import eu.numberfour.asciispec.AsciidoctorTest
+import java.util.HashMap
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Test cases for converting documents with
+ * <code>-a asciispec-parallel-preprocessing</code>, which must give the same
+ * output as the sequential preprocessing.
+ */
+class ParallelPreprocessingConversionTest extends AsciidoctorTest {
+
+	@Before
+	def public void registerExtensions() {
+		new ResolveFindExtension().register(doc);
+		new ResolveApiExtension().register(doc);
+		new InlineWikiLinkExtension().register(doc);
+		new SourceLinkExtension().register(doc);
+	}
+
+	@Test
+	def void findResolver() {
+		assertSameOutput("src/test/resources/data/find_resolver", "top.adoc");
+	}
+
+	@Test
+	def void apiResolver() {
+		assertSameOutput("src/test/resources/data/api_resolver", "include1.adoc");
+	}
+
+	private def void assertSameOutput(String baseDir, String fileName) {
+		val sequential = convertFile(baseDir, fileName, null);
+		val options = new HashMap<String, Object>();
+		options.put(HostPreprocessor.PARALLEL_ATTRIBUTE, "");
+		val parallel = convertFile(baseDir, fileName, options);
+		assertTrue(sequential, sequential.contains("<div"));
+		assertEquals(sequential, parallel);
+	}
+}
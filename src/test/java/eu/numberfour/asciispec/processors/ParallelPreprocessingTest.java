@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.asciidoctor.ast.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ParallelPreprocessing}.
+ */
+@SuppressWarnings("javadoc")
+public class ParallelPreprocessingTest {
+
+	/** Prefixes lines with the value of the last <code>:prefix:</code> entry. */
+	private static class PrefixPreprocessor extends TestPreprocessor {
+		private static final String ENTRY = ":prefix: ";
+		private String prefix = "";
+
+		PrefixPreprocessor() {
+			super(true, null);
+		}
+
+		@Override
+		public boolean isConfiguration(String line) {
+			return line.startsWith(ENTRY);
+		}
+
+		@Override
+		public List<String> processLine(Document document, String line) {
+			if (isConfiguration(line)) {
+				prefix = line.substring(ENTRY.length());
+				return Collections.singletonList(line);
+			}
+			return Collections.singletonList(prefix + line);
+		}
+	}
+
+	private static List<String> run(List<? extends ClientPreprocessor> processors, int segmentLines,
+			BufferedLines input) {
+		ChunkedLines result = new ChunkedLines(3);
+		new ParallelPreprocessing(null, new ArrayList<>(processors), input, segmentLines).process(result);
+		return result.toList();
+	}
+
+	private static List<String> run(List<? extends ClientPreprocessor> processors, int segmentLines,
+			List<String> lines) {
+		return run(processors, segmentLines, BufferedLinesTest.buffer(lines));
+	}
+
+	private static List<String> numbered(int count) {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			lines.add("line " + i);
+		return lines;
+	}
+
+	@Test
+	public void leadingStatelessProcessorsAreConcurrent() {
+		TestPreprocessor a = new TestPreprocessor(true, line -> Collections.singletonList(line));
+		TestPreprocessor b = new TestPreprocessor(false, line -> Collections.singletonList(line));
+		TestPreprocessor c = new TestPreprocessor(true, line -> Collections.singletonList(line));
+		Assert.assertEquals(1, ParallelPreprocessing.countConcurrentStages(Arrays.asList(a, b, c)));
+		Assert.assertEquals(0, ParallelPreprocessing.countConcurrentStages(Arrays.asList(b, a, c)));
+	}
+
+	@Test
+	public void linesKeepTheirOrder() {
+		TestPreprocessor upper = new TestPreprocessor(true, line -> Collections.singletonList(line.toUpperCase()));
+		TestPreprocessor ordered = new TestPreprocessor(false, line -> Collections.singletonList(line + "!"));
+		List<String> lines = numbered(2000);
+		List<String> expected = new ArrayList<>();
+		List<String> seen = new ArrayList<>();
+		for (String line : lines) {
+			expected.add(line.toUpperCase() + "!");
+			seen.add(line.toUpperCase());
+		}
+		Assert.assertEquals(expected, run(Arrays.asList(upper, ordered), 7, lines));
+		Assert.assertEquals(seen, ordered.seen);
+		Assert.assertEquals(lines.size(), upper.seen.size());
+	}
+
+	@Test
+	public void configurationLinesAreBarriers() {
+		PrefixPreprocessor prefix = new PrefixPreprocessor();
+		List<String> lines = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			if (i % 50 == 10) {
+				lines.add(":prefix: " + i + ":");
+				expected.add(":prefix: " + i + ":");
+			} else {
+				lines.add("line");
+				expected.add(i < 10 ? "line" : (i - (i - 10) % 50) + ":line");
+			}
+		}
+		Assert.assertEquals(expected, run(Arrays.asList(prefix), 4, lines));
+	}
+
+	@Test
+	public void withoutConcurrentStagesLinesAreProcessedOnTheCallingThread() {
+		Thread caller = Thread.currentThread();
+		TestPreprocessor upper = new TestPreprocessor(false, line -> {
+			Assert.assertSame(caller, Thread.currentThread());
+			return Collections.singletonList(line.toUpperCase());
+		});
+		List<String> lines = numbered(100);
+		List<String> expected = new ArrayList<>();
+		for (String line : lines)
+			expected.add(line.toUpperCase());
+		Assert.assertEquals(expected, run(Arrays.asList(upper), 7, lines));
+		Assert.assertEquals(lines, upper.seen);
+	}
+
+	@Test
+	public void failingSegmentStopsTheOthers() {
+		TestPreprocessor slow = new TestPreprocessor(true, line -> {
+			if (line.equals("line 0"))
+				throw new IllegalStateException("failed");
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Collections.singletonList(line);
+		});
+		List<String> lines = numbered(2000);
+		try {
+			run(Arrays.asList(slow), 7, lines);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("failed"));
+		}
+		Assert.assertTrue(slow.seen.size() < lines.size());
+	}
+
+	@Test
+	public void segmentsStartOutsideOfIgnoredBlocks() {
+		TestPreprocessor upper = new TestPreprocessor(true, line -> Collections.singletonList(line.toUpperCase()));
+		List<String> lines = Arrays.asList("a", "----", "b", "c", "d", "e", "----", "f", "g");
+		Assert.assertEquals(Arrays.asList("A", "----", "b", "c", "d", "e", "----", "F", "G"),
+				run(Arrays.asList(upper), 2, lines));
+	}
+
+	@Test
+	public void processorsSeeThePositionOfTheirLine() {
+		BufferedLines input = BufferedLinesTest.buffer(Arrays.asList("a", "b"));
+		TestPreprocessor split = new TestPreprocessor(true, line -> Arrays.asList(line + "1",
+				line + "2@" + input.getLineNumber()));
+		TestPreprocessor ordered = new TestPreprocessor(false, line -> Collections.singletonList(
+				line + "@" + input.getLineNumber() + " in " + input.getFile()));
+		Assert.assertEquals(
+				Arrays.asList("a1@2 in doc.adoc", "a2@2@2 in doc.adoc", "b1@3 in doc.adoc", "b2@3@3 in doc.adoc"),
+				run(Arrays.asList(split, ordered), 1, input));
+		Assert.assertFalse(input.hasPosition());
+	}
+}
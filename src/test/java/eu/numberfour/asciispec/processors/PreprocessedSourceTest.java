@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link PreprocessedSource}.
+ */
+@SuppressWarnings("javadoc")
+public class PreprocessedSourceTest {
+
+	private Path dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("asciispec-preprocessed");
+	}
+
+	@After
+	public void deleteDir() throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator)
+				Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void backendIndependent() throws IOException {
+		PreprocessedSource source = new PreprocessedSource();
+		source.addFile(write("doc.adoc", "= Title", "", "ifdef::draft[]", "Draft", "endif::[]", "include::a.adoc[]"));
+		source.addLines(Arrays.asList("= Title", "", "Text"));
+
+		Assert.assertTrue(source.isBackendIndependent());
+		Assert.assertEquals("= Title\n\nText", source.getContent());
+	}
+
+	@Test
+	public void backendDependentIncludedFile() throws IOException {
+		PreprocessedSource source = new PreprocessedSource();
+		source.addFile(write("doc.adoc", "= Title", "include::a.adoc[]"));
+		source.addFile(write("a.adoc", "ifdef::backend-docbook5[]", "<?asciidoc-pagebreak?>", "endif::[]"));
+
+		Assert.assertFalse(source.isBackendIndependent());
+	}
+
+	@Test
+	public void backendInIncludeTarget() throws IOException {
+		PreprocessedSource source = new PreprocessedSource();
+		source.addFile(write("doc.adoc", "include::title-{basebackend}.adoc[]"));
+
+		Assert.assertFalse(source.isBackendIndependent());
+	}
+
+	@Test
+	public void unreadableFileIsBackendDependent() {
+		PreprocessedSource source = new PreprocessedSource();
+		source.addFile(dir.resolve("missing.adoc"));
+
+		Assert.assertFalse(source.isBackendIndependent());
+	}
+
+	private Path write(String name, String... lines) throws IOException {
+		return Files.write(dir.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+	}
+}
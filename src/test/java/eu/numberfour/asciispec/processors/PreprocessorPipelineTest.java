@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link PreprocessorPipeline}.
+ */
+@SuppressWarnings("javadoc")
+public class PreprocessorPipelineTest {
+
+	private static List<String> run(List<TestPreprocessor> processors, String... lines) {
+		PreprocessorPipeline pipeline = new PreprocessorPipeline(null, new ArrayList<>(processors));
+		List<String> result = new ArrayList<>();
+		for (String line : lines)
+			pipeline.push(line, result);
+		return result;
+	}
+
+	@Test
+	public void linesPassAllProcessorsInOrder() {
+		TestPreprocessor a = new TestPreprocessor(line -> Collections.singletonList(line + "a"));
+		TestPreprocessor b = new TestPreprocessor(line -> Collections.singletonList(line + "b"));
+		Assert.assertEquals(Arrays.asList("1ab", "2ab"), run(Arrays.asList(a, b), "1", "2"));
+		Assert.assertEquals(Arrays.asList("1a", "2a"), b.seen);
+	}
+
+	@Test
+	public void disabledProcessorsAreSkipped() {
+		TestPreprocessor a = new TestPreprocessor(line -> Collections.singletonList(line + "a"));
+		TestPreprocessor b = new TestPreprocessor(line -> Collections.singletonList(line + "b"));
+		a.enabled = false;
+		Assert.assertEquals(Arrays.asList("1b"), run(Arrays.asList(a, b), "1"));
+		Assert.assertTrue(a.seen.isEmpty());
+	}
+
+	@Test
+	public void generatedPassBlockIsNotProcessedFurther() {
+		List<String> passBlock = Arrays.asList("++++", "<math/>", "++++");
+		TestPreprocessor block = new TestPreprocessor(
+				line -> line.equals("math") ? passBlock : Collections.singletonList(line));
+		TestPreprocessor upper = new TestPreprocessor(line -> Collections.singletonList(line.toUpperCase()));
+		Assert.assertEquals(Arrays.asList("++++", "<math/>", "++++", "TEXT"),
+				run(Arrays.asList(block, upper), "math", "text"));
+		Assert.assertEquals(Arrays.asList("++++", "text"), upper.seen);
+	}
+
+	@Test
+	public void listingsAndInlinePassesAreNotProcessed() {
+		TestPreprocessor upper = new TestPreprocessor(line -> Collections.singletonList(line.toUpperCase()));
+		Assert.assertEquals(Arrays.asList("----", "code", "----", "A +++b+++ C", "// d"),
+				run(Arrays.asList(upper), "----", "code", "----", "a +++b+++ c", "// d"));
+	}
+
+	@Test
+	public void removedLines() {
+		TestPreprocessor remove = new TestPreprocessor(
+				line -> line.equals("x") ? Collections.emptyList() : Collections.singletonList(line));
+		TestPreprocessor b = new TestPreprocessor(line -> Collections.singletonList(line + "b"));
+		Assert.assertEquals(Arrays.asList("1b"), run(Arrays.asList(remove, b), "x", "1"));
+	}
+
+	@Test
+	public void processorsOnlySeeLinesWithTheirTriggers() {
+		TestPreprocessor cite = new TestPreprocessor(line -> Collections.singletonList(line.replace("cite:[", "<<")));
+		cite.triggers = Arrays.asList("cite:[");
+		TestPreprocessor math = new TestPreprocessor(line -> Collections.singletonList(line.replace("$", "%")));
+		math.triggers = Arrays.asList("math:", "$");
+		TestPreprocessor all = new TestPreprocessor(line -> Collections.singletonList(line));
+		Assert.assertEquals(Arrays.asList("prose", "<<a] %x%", "%y%"),
+				run(Arrays.asList(cite, math, all), "prose", "cite:[a] $x$", "$y$"));
+		Assert.assertEquals(Arrays.asList("cite:[a] $x$"), cite.seen);
+		Assert.assertEquals(Arrays.asList("<<a] $x$", "$y$"), math.seen);
+		Assert.assertEquals(3, all.seen.size());
+	}
+
+	@Test
+	public void triggersProducedByEarlierProcessorsAreSeen() {
+		TestPreprocessor find = new TestPreprocessor(
+				line -> Collections.singletonList(line.replace("{find}", "include::")));
+		find.triggers = Arrays.asList("{find}");
+		TestPreprocessor include = new TestPreprocessor(line -> Collections.singletonList(line + "!"));
+		include.triggers = Arrays.asList("include::");
+		Assert.assertEquals(Arrays.asList("include::a[]!"), run(Arrays.asList(find, include), "{find}a[]"));
+	}
+}
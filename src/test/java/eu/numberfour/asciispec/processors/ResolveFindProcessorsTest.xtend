@@ -727,4 +727,13 @@ class ResolveFindProcessorsTest extends AsciidoctorTest {
 			'''
 			asciispec  : ERROR: sub21/textWithSrclnk.adoc: line 8: PQN not found: 'getStartWithQuantityFormatX123'.''');
 	}
+
+	@Test
+	def void testConfigurationWithFindAfterMacro() throws IOException {
+		'''
+			<div class="paragraph">
+			<p>This is a source link: <a href="https://github.numberfour.eu/NumberFour/stdlib_api/blob/master/packages/eu.numberfour.stdlib.format.api/src/n4js/n4/format/DurationFormats.n4jsd#L92" title="stdlib_api:packages:eu.numberfour.stdlib.format.api:src/n4js/n4/format/DurationFormats:TimeSpanPatternFormat@getStartWithQuantityFormat" target="_blank">My SRC link</a></p>
+			</div>'''
+		.convertFileAndAssert("src/test/resources/data/find_resolver/sub2", "configAfterMacro.adoc");
+	}
 }
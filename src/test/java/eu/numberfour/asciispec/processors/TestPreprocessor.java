@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2016 NumberFour AG.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   NumberFour AG - Initial API and implementation
+ */
+package eu.numberfour.asciispec.processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.asciidoctor.ast.Document;
+
+/**
+ * Client preprocessor for the pipeline tests. It applies a function to each
+ * line and records the lines it has seen.
+ */
+class TestPreprocessor implements ClientPreprocessor {
+	private final boolean stateless;
+	private final Function<String, List<String>> function;
+	boolean enabled = true;
+	Collection<String> triggers = null;
+	final List<String> seen = Collections.synchronizedList(new ArrayList<>());
+
+	TestPreprocessor(Function<String, List<String>> function) {
+		this(false, function);
+	}
+
+	TestPreprocessor(boolean stateless, Function<String, List<String>> function) {
+		this.stateless = stateless;
+		this.function = function;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public boolean isStateless() {
+		return stateless;
+	}
+
+	@Override
+	public Collection<String> getTriggers() {
+		return triggers;
+	}
+
+	@Override
+	public List<String> processLine(Document document, String line) {
+		seen.add(line);
+		return function.apply(line);
+	}
+
+	@Override
+	public void setHostProcessor(HostPreprocessor hostPreprocessor) {
+	}
+
+	@Override
+	public HostPreprocessor getHostPreprocessor() {
+		return null;
+	}
+}
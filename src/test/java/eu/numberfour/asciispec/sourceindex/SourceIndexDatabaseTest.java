@@ -10,13 +10,19 @@
  */
 package eu.numberfour.asciispec.sourceindex;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
 import java.util.regex.Matcher;
 
@@ -171,6 +177,28 @@ public class SourceIndexDatabaseTest {
 		parseAndAssert(expectedCompleteTQN, scrLink);
 	}
 
+	@Test
+	public void codecRestoresAllEntries() throws Exception {
+		SourceIndexDatabase db = getDB();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			SourceIndexDatabase.CODEC.write(out, db);
+		}
+		SourceIndexDatabase read = SourceIndexDatabase.CODEC
+				.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(db.size(), read.size());
+		assertEquals(new HashSet<>(db.getAllEntries()), new HashSet<>(read.getAllEntries()));
+		List<String> pqn = PQNParser.parse("@withStyle");
+		IndexEntryInfo expected = db.getEntry(pqn);
+		IndexEntryInfo actual = read.getEntry(pqn);
+		assertEquals(expected.adocPath, actual.adocPath);
+		assertArrayEquals(expected.adocPathElems, actual.adocPathElems);
+		assertArrayEquals(expected.hierarchy, actual.hierarchy);
+		assertEquals(expected.offsetStart, actual.offsetStart);
+		assertEquals(expected.offsetEnd, actual.offsetEnd);
+	}
+
 	private SourceIndexDatabase getDB() throws ParseException, IOException {
 		Path pathToFile = Paths.get("src","test","resources", "data", "docu", "gen_adoc", "index.idx");
 		List<String> lines = Files.readAllLines(pathToFile);